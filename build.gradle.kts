@@ -48,6 +48,7 @@ val jacocoRuntime: Configuration by configurations.creating
 dependencies {
     implementation(enforcedPlatform("org.keycloak.bom:keycloak-bom-parent:$keycloakVersion"))
     compileOnly("org.keycloak:keycloak-services:$keycloakVersion")
+    compileOnly("org.keycloak:keycloak-model-jpa:$keycloakVersion")
 
     testImplementation("org.keycloak:keycloak-services:$keycloakVersion")
     testImplementation("org.junit.jupiter:junit-jupiter")
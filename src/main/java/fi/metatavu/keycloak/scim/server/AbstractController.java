@@ -1,5 +1,12 @@
 package fi.metatavu.keycloak.scim.server;
 
+import fi.metatavu.keycloak.scim.server.config.ScimConfig;
+import fi.metatavu.keycloak.scim.server.sorting.Sorting;
+import fi.metatavu.keycloak.scim.server.sorting.UnsupportedSort;
+import fi.metatavu.keycloak.scim.server.store.AbstractStoreQuery;
+import fi.metatavu.keycloak.scim.server.tracking.ModificationTracker;
+import org.keycloak.models.KeycloakSession;
+
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.Date;
@@ -9,6 +16,7 @@ import java.util.Date;
  */
 public class AbstractController {
 
+    // Server metadata documents do not change at runtime and use fixed dates
     private final Date createdAt = getDate(2025, 3, 26);
     private final Date lastModifiedAt = getDate(2025, 3, 27);
 
@@ -33,6 +41,82 @@ public class AbstractController {
         return result;
     }
 
+    /**
+     * Returns meta object of a user or a group
+     *
+     * @param scimContext SCIM context
+     * @param resourceType resource type
+     * @param resourcePath resource path
+     * @param created creation time in epoch milliseconds or null if unknown
+     * @param lastModified last modification time in epoch milliseconds or null if unknown
+     * @param version modification counter
+     * @return meta object
+     */
+    protected fi.metatavu.keycloak.scim.server.model.Meta getMeta(
+        ScimContext scimContext,
+        String resourceType,
+        String resourcePath,
+        Long created,
+        Long lastModified,
+        long version
+    ) {
+        fi.metatavu.keycloak.scim.server.model.Meta result = new fi.metatavu.keycloak.scim.server.model.Meta();
+        result.setCreated(created != null ? new Date(created) : null);
+        result.setLastModified(lastModified != null ? new Date(lastModified) : result.getCreated());
+        result.setVersion(ModificationTracker.formatVersion(version));
+        result.setResourceType(resourceType);
+        result.setLocation(scimContext.getServerBaseUri().resolve(resourcePath));
+        return result;
+    }
+
+    /**
+     * Returns the maximum number of matches to count for a list response.
+     * <p>
+     * In APPROXIMATE total results mode counting stops at the configured cap, but always
+     * at least one match past the requested page so that clients can still tell whether
+     * another page exists.
+     *
+     * @param scimContext SCIM context
+     * @param firstResult index of the first result on the page
+     * @param maxResults maximum number of results on the page
+     * @return count limit
+     */
+    protected int getCountLimit(
+        ScimContext scimContext,
+        int firstResult,
+        int maxResults
+    ) {
+        ScimConfig config = scimContext.getConfig();
+        if (config.getTotalResultsMode() != ScimConfig.TotalResultsMode.APPROXIMATE) {
+            return Integer.MAX_VALUE;
+        }
+
+        long pageEnd = (long) firstResult + maxResults + 1;
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(config.getTotalResultsCap(), pageEnd));
+    }
+
+    /**
+     * Checks that requested sorting can be executed in the store
+     *
+     * @param session Keycloak session
+     * @param sorting sorting
+     * @param cursor pagination cursor or null
+     * @throws UnsupportedSort when sorting is combined with cursor pagination or the JPA store is not available
+     */
+    protected void checkSorting(KeycloakSession session, Sorting sorting, String cursor) {
+        if (sorting.isNone()) {
+            return;
+        }
+
+        if (cursor != null) {
+            throw new UnsupportedSort("Sorting is not supported with cursor pagination");
+        }
+
+        if (!AbstractStoreQuery.isAvailable(session)) {
+            throw new UnsupportedSort("Sorting requires the JPA store");
+        }
+    }
+
     /**
      * Returns date based on year, month and date
      *
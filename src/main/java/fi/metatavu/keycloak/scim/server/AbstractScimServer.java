@@ -1,11 +1,23 @@
 package fi.metatavu.keycloak.scim.server;
 
+import fi.metatavu.keycloak.scim.server.authentication.KeycloakAuthorizationCache;
 import fi.metatavu.keycloak.scim.server.authentication.Verifier;
 import fi.metatavu.keycloak.scim.server.authentication.VerifierFactory;
+import fi.metatavu.keycloak.scim.server.bulk.BulkController;
 import fi.metatavu.keycloak.scim.server.config.ScimConfig;
 import fi.metatavu.keycloak.scim.server.consts.ScimRoles;
+import fi.metatavu.keycloak.scim.server.export.ExportCursor;
+import fi.metatavu.keycloak.scim.server.export.ExportSection;
+import fi.metatavu.keycloak.scim.server.export.NdjsonExport;
 import fi.metatavu.keycloak.scim.server.groups.GroupsController;
 import fi.metatavu.keycloak.scim.server.metadata.MetadataController;
+import fi.metatavu.keycloak.scim.server.model.BulkRequest;
+import fi.metatavu.keycloak.scim.server.paging.InvalidCursor;
+import fi.metatavu.keycloak.scim.server.paging.StreamingListResponse;
+import fi.metatavu.keycloak.scim.server.reconcile.ReconcileDiff;
+import fi.metatavu.keycloak.scim.server.store.AbstractStoreQuery;
+import fi.metatavu.keycloak.scim.server.store.VersionLock;
+import fi.metatavu.keycloak.scim.server.tracking.EntityTags;
 import fi.metatavu.keycloak.scim.server.users.UsersController;
 import jakarta.mail.internet.AddressException;
 import jakarta.mail.internet.InternetAddress;
@@ -13,11 +25,13 @@ import jakarta.ws.rs.ForbiddenException;
 import jakarta.ws.rs.InternalServerErrorException;
 import jakarta.ws.rs.NotAuthorizedException;
 import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
 import org.jboss.logging.Logger;
 import org.keycloak.common.ClientConnection;
 import org.keycloak.models.ClientModel;
+import org.keycloak.models.GroupModel;
 import org.keycloak.models.KeycloakContext;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
@@ -25,6 +39,11 @@ import org.keycloak.models.RoleModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.services.managers.AppAuthManager;
 import org.keycloak.services.managers.AuthenticationManager;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 
 /**
  * Abstract SCIM server implementation
@@ -38,6 +57,7 @@ public abstract class AbstractScimServer <T extends ScimContext> implements Scim
     protected final MetadataController metadataController;
     protected final UsersController usersController;
     protected final GroupsController groupsController;
+    protected final BulkController bulkController;
 
     /**
      * Constructor
@@ -46,6 +66,7 @@ public abstract class AbstractScimServer <T extends ScimContext> implements Scim
         metadataController = new MetadataController();
         usersController = new UsersController();
         groupsController = new GroupsController();
+        bulkController = new BulkController();
     }
 
     @Override
@@ -73,6 +94,110 @@ public abstract class AbstractScimServer <T extends ScimContext> implements Scim
         return Response.ok(metadataController.getServiceProviderConfig(scimContext)).build();
     }
 
+    @Override
+    public Response bulk(T scimContext, InputStream payload) {
+        HttpHeaders headers = scimContext.getSession().getContext().getRequestHeaders();
+        if (headers != null && headers.getLength() > BulkController.MAX_PAYLOAD_SIZE) {
+            logger.warn(String.format("Cannot run bulk request: payload of %d bytes", headers.getLength()));
+            return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).entity("Payload too large").build();
+        }
+
+        // Content-Length is missing from chunked requests, so the limit is enforced while reading
+        byte[] body;
+        try {
+            body = payload.readNBytes(BulkController.MAX_PAYLOAD_SIZE + 1);
+        } catch (IOException e) {
+            logger.warn("Cannot run bulk request: Failed to read payload", e);
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid payload").build();
+        }
+
+        if (body.length > BulkController.MAX_PAYLOAD_SIZE) {
+            logger.warn(String.format("Cannot run bulk request: payload exceeds %d bytes", BulkController.MAX_PAYLOAD_SIZE));
+            return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).entity("Payload too large").build();
+        }
+
+        BulkRequest bulkRequest;
+        try {
+            bulkRequest = JsonSerialization.mapper.readValue(body, BulkRequest.class);
+        } catch (IOException e) {
+            logger.warn("Cannot run bulk request: Invalid payload");
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid payload").build();
+        }
+
+        if (bulkRequest == null || bulkRequest.getOperations() == null) {
+            logger.warn("Cannot run bulk request: Missing Operations");
+            return Response.status(Response.Status.BAD_REQUEST).entity("Missing Operations").build();
+        }
+
+        if (bulkRequest.getOperations().size() > BulkController.MAX_OPERATIONS) {
+            logger.warn(String.format("Cannot run bulk request: %d operations", bulkRequest.getOperations().size()));
+            return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).entity("Too many operations").build();
+        }
+
+        return Response.ok(bulkController.processBulk(scimContext, this, this::createBatchContext, bulkRequest)).build();
+    }
+
+    @Override
+    public Response export(T scimContext, String cursor) {
+        ExportCursor exportCursor;
+        try {
+            exportCursor = ExportCursor.parse(cursor);
+        } catch (InvalidCursor e) {
+            logger.warn(String.format("Invalid export cursor: %s", cursor));
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid cursor").build();
+        }
+
+        if (!AbstractStoreQuery.isAvailable(scimContext.getSession())) {
+            logger.warn("Cannot export: JPA store is not available");
+            return Response.status(Response.Status.NOT_IMPLEMENTED).entity("Export requires the JPA store").build();
+        }
+
+        List<ExportSection<T>> sections = getExportSections(scimContext);
+        if (exportCursor != null && sections.stream().noneMatch(section -> section.resourceType().equals(exportCursor.resourceType()))) {
+            logger.warn(String.format("Invalid export cursor resource type: %s", exportCursor.resourceType()));
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid cursor").build();
+        }
+
+        return Response.ok(new NdjsonExport<>(scimContext, this::createBatchContext, sections, exportCursor)).build();
+    }
+
+    @Override
+    public Response reconcile(T scimContext, InputStream payload) {
+        if (!AbstractStoreQuery.isAvailable(scimContext.getSession())) {
+            logger.warn("Cannot reconcile: JPA store is not available");
+            return Response.status(Response.Status.NOT_IMPLEMENTED).entity("Reconciliation requires the JPA store").build();
+        }
+
+        return Response.ok(new ReconcileDiff<>(scimContext, this::createBatchContext, getUserVersions(scimContext), payload)).build();
+    }
+
+    /**
+     * Returns sections of an export in export order
+     *
+     * @param scimContext SCIM context of the export request
+     * @return export sections
+     */
+    protected abstract List<ExportSection<T>> getExportSections(T scimContext);
+
+    /**
+     * Returns section of the versions of the users compared in reconciliation
+     *
+     * @param scimContext SCIM context of the reconciliation request
+     * @return section translating the users into their versions
+     */
+    protected abstract ExportSection<T> getUserVersions(T scimContext);
+
+    /**
+     * Creates a SCIM context for a batch of bulk operations.
+     * <p>
+     * The configuration and user attributes of the request are reused, so they are not resolved again for each batch.
+     *
+     * @param scimContext SCIM context of the bulk request
+     * @param session session of the batch
+     * @return SCIM context bound to the session of the batch
+     */
+    protected abstract T createBatchContext(T scimContext, KeycloakSession session);
+
     /**
      * Verifies that the request has the required permission to access the resource
      *
@@ -104,7 +229,7 @@ public abstract class AbstractScimServer <T extends ScimContext> implements Scim
         }
 
         if (config.getAuthenticationMode() == ScimConfig.AuthenticationMode.KEYCLOAK) {
-            keycloakAuthentication(context, session, realm, headers);
+            keycloakAuthentication(context, session, realm, headers, authorization);
         } else {
             externalAuthentication(config, extractToken(authorization), session);
         }
@@ -119,7 +244,35 @@ public abstract class AbstractScimServer <T extends ScimContext> implements Scim
         }
     }
 
-    private void keycloakAuthentication(KeycloakContext context, KeycloakSession session, RealmModel realm, HttpHeaders headers) {
+    /**
+     * Authenticates a request with a Keycloak access token of a service account.
+     * <p>
+     * Validated tokens and authorization decisions are cached in {@link KeycloakAuthorizationCache}, so
+     * a repeated token is authorized without validating it again until the cached decision expires.
+     *
+     * @param context Keycloak context
+     * @param session Keycloak session
+     * @param realm realm
+     * @param headers request headers
+     * @param authorization Authorization header
+     */
+    private void keycloakAuthentication(KeycloakContext context, KeycloakSession session, RealmModel realm, HttpHeaders headers, String authorization) {
+        long generation = KeycloakAuthorizationCache.getGeneration(realm.getId());
+        String tokenKey = authorization.startsWith("Bearer ") ? KeycloakAuthorizationCache.getTokenKey(realm.getId(), extractToken(authorization)) : null;
+
+        String cachedClientId = tokenKey != null ? KeycloakAuthorizationCache.findClientId(realm.getId(), tokenKey) : null;
+        if (cachedClientId != null) {
+            if (KeycloakAuthorizationCache.isAuthorized(realm.getId(), cachedClientId)) {
+                return;
+            }
+
+            ClientModel cachedClient = realm.getClientById(cachedClientId);
+            if (cachedClient != null) {
+                authorizeClient(session, realm, cachedClient, generation);
+                return;
+            }
+        }
+
         ClientConnection clientConnection = context.getConnection();
 
         AuthenticationManager.AuthResult auth = new AppAuthManager.BearerTokenAuthenticator(session)
@@ -139,6 +292,23 @@ public abstract class AbstractScimServer <T extends ScimContext> implements Scim
             throw new NotAuthorizedException("Client not found");
         }
 
+        authorizeClient(session, realm, client, generation);
+
+        Long expires = auth.getToken().getExp();
+        if (tokenKey != null && expires != null) {
+            KeycloakAuthorizationCache.putToken(realm.getId(), tokenKey, client.getId(), expires * 1000, generation);
+        }
+    }
+
+    /**
+     * Checks that the service account of a client has the SCIM access role
+     *
+     * @param session Keycloak session
+     * @param realm realm
+     * @param client client
+     * @param generation authorization cache generation read before the check
+     */
+    private void authorizeClient(KeycloakSession session, RealmModel realm, ClientModel client, long generation) {
         UserModel serviceAccount = session.users().getServiceAccount(client);
 
         RoleModel roleModel = realm.getRole(ScimRoles.SERVICE_ACCOUNT_ROLE);
@@ -151,6 +321,8 @@ public abstract class AbstractScimServer <T extends ScimContext> implements Scim
             logger.warn("Service account does not have required role");
             throw new ForbiddenException("Service account does not have required role");
         }
+
+        KeycloakAuthorizationCache.putAuthorized(realm.getId(), client.getId(), generation);
     }
 
     private String extractToken(String authorization) {
@@ -162,6 +334,75 @@ public abstract class AbstractScimServer <T extends ScimContext> implements Scim
         }
     }
 
+    /**
+     * Returns whether an If-Match precondition fails for a user.
+     * <p>
+     * When the JPA store is available, the user is locked for the rest of the transaction so that
+     * the version cannot change between the check and the write.
+     *
+     * @param session Keycloak session
+     * @param user user to be written
+     * @param ifMatch If-Match header or null
+     * @return true if the header is present and does not match the current version
+     */
+    protected boolean isPreconditionFailed(KeycloakSession session, UserModel user, String ifMatch) {
+        if (ifMatch == null) {
+            return false;
+        }
+
+        Long version = AbstractStoreQuery.isAvailable(session) ? new VersionLock(session).lockUser(user.getId()) : null;
+        EntityTag entityTag = version != null ? EntityTags.getEntityTag(version) : EntityTags.getEntityTag(user);
+
+        return !EntityTags.matches(ifMatch, entityTag);
+    }
+
+    /**
+     * Returns whether an If-Match precondition fails for a group.
+     * <p>
+     * When the JPA store is available, the group is locked for the rest of the transaction so that
+     * the version cannot change between the check and the write.
+     *
+     * @param session Keycloak session
+     * @param group group to be written
+     * @param ifMatch If-Match header or null
+     * @return true if the header is present and does not match the current version
+     */
+    protected boolean isPreconditionFailed(KeycloakSession session, GroupModel group, String ifMatch) {
+        if (ifMatch == null) {
+            return false;
+        }
+
+        Long version = AbstractStoreQuery.isAvailable(session) ? new VersionLock(session).lockGroup(group.getId()) : null;
+        EntityTag entityTag = version != null ? EntityTags.getEntityTag(version) : EntityTags.getEntityTag(group);
+
+        return !EntityTags.matches(ifMatch, entityTag);
+    }
+
+    /**
+     * Returns response for a users or groups list.
+     * <p>
+     * The list is tagged when it is listed with resource versions, and an unchanged list is answered
+     * with 304 Not Modified before any resource is translated. Otherwise the resources are translated
+     * and serialized one at a time while the response is written.
+     *
+     * @param list list response
+     * @param ifNoneMatch If-None-Match header or null
+     * @return response
+     */
+    protected Response listResponse(StreamingListResponse<?> list, String ifNoneMatch) {
+        List<String> resourceVersions = list.getResourceVersions();
+        if (resourceVersions == null) {
+            return Response.ok(list).build();
+        }
+
+        EntityTag entityTag = EntityTags.getCollectionEntityTag(resourceVersions, list.getTotalResults(), list.getStartIndex(), list.getNextCursor());
+        if (EntityTags.matches(ifNoneMatch, entityTag)) {
+            return Response.notModified(entityTag).build();
+        }
+
+        return Response.ok(list).tag(entityTag).build();
+    }
+
     /**
      * Checks if the given email is valid
      *
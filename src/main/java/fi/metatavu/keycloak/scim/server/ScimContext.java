@@ -1,6 +1,7 @@
 package fi.metatavu.keycloak.scim.server;
 
 import fi.metatavu.keycloak.scim.server.config.ScimConfig;
+import fi.metatavu.keycloak.scim.server.metadata.UserAttributes;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 
@@ -15,6 +16,7 @@ public abstract class ScimContext {
     private final KeycloakSession session;
     private final RealmModel realm;
     private final ScimConfig config;
+    private UserAttributes userAttributes;
 
     /**
      * Constructor
@@ -65,4 +67,23 @@ public abstract class ScimContext {
     public ScimConfig getConfig() {
         return config;
     }
+
+    /**
+     * Gets the user attributes resolved for this context
+     *
+     * @return user attributes or null if not resolved yet
+     */
+    public UserAttributes getUserAttributes() {
+        return userAttributes;
+    }
+
+    /**
+     * Sets the user attributes resolved for this context
+     *
+     * @param userAttributes user attributes
+     */
+    public void setUserAttributes(UserAttributes userAttributes) {
+        this.userAttributes = userAttributes;
+    }
+
 }
@@ -1,10 +1,16 @@
 package fi.metatavu.keycloak.scim.server;
 
+import fi.metatavu.keycloak.scim.server.realm.RealmScimServer;
 import org.keycloak.Config;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
 import org.keycloak.services.resource.RealmResourceProvider;
 import org.keycloak.services.resource.RealmResourceProviderFactory;
+import org.keycloak.timer.TimerProvider;
+
+import java.time.Duration;
 
 /**
  * SCIM realm resource provider factory
@@ -13,6 +19,8 @@ import org.keycloak.services.resource.RealmResourceProviderFactory;
  */
 public class ScimRealmResourceProviderFactory implements RealmResourceProviderFactory {
 
+    private static final long IMPORT_RESUME_INTERVAL = Duration.ofMinutes(1).toMillis();
+
     @Override
     public RealmResourceProvider create(KeycloakSession session) {
         return new ScimRealmResourceProvider();
@@ -22,7 +30,24 @@ public class ScimRealmResourceProviderFactory implements RealmResourceProviderFa
     public void init(Config.Scope config) {}
 
     @Override
-    public void postInit(KeycloakSessionFactory factory) {}
+    public void postInit(KeycloakSessionFactory factory) {
+        // Import jobs interrupted by a restart continue once the database is ready. Jobs of stopped nodes
+        // and jobs interrupted by a failure are picked up by the periodic resume.
+        factory.register(event -> {
+            if (event instanceof PostMigrationEvent) {
+                RealmScimServer realmScimServer = new RealmScimServer();
+                realmScimServer.resumeImports(factory);
+
+                KeycloakModelUtils.runJobInTransaction(factory, session ->
+                    session.getProvider(TimerProvider.class).schedule(
+                        () -> realmScimServer.resumeImports(factory),
+                        IMPORT_RESUME_INTERVAL,
+                        "scim-import-resume"
+                    )
+                );
+            }
+        });
+    }
 
     @Override
     public void close() {}
@@ -1,30 +1,33 @@
 package fi.metatavu.keycloak.scim.server;
 
+import fi.metatavu.keycloak.scim.server.config.ScimConfig;
 import fi.metatavu.keycloak.scim.server.consts.ContentTypes;
 import fi.metatavu.keycloak.scim.server.filter.ScimFilter;
 import fi.metatavu.keycloak.scim.server.filter.ScimFilterParser;
 import fi.metatavu.keycloak.scim.server.model.Group;
 import fi.metatavu.keycloak.scim.server.organization.OrganizationScimContext;
 import fi.metatavu.keycloak.scim.server.organization.OrganizationScimServer;
+import fi.metatavu.keycloak.scim.server.projection.AttributeProjection;
 import fi.metatavu.keycloak.scim.server.realm.RealmScimContext;
 import fi.metatavu.keycloak.scim.server.realm.RealmScimServer;
+import fi.metatavu.keycloak.scim.server.sorting.Sorting;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.*;
 import org.jboss.logging.Logger;
 import org.keycloak.models.*;
 
+import java.io.InputStream;
+
 /**
  * SCIM REST resources
  */
 public class ScimResources {
 
     private static final Logger logger = Logger.getLogger(ScimResources.class.getName());
-    private final ScimFilterParser scimFilterParser;
     private final RealmScimServer realmScimServer;
     private final OrganizationScimServer organizationScimServer;
 
     ScimResources() {
-        scimFilterParser = new ScimFilterParser();
         realmScimServer = new RealmScimServer();
         organizationScimServer = new OrganizationScimServer();
     }
@@ -57,24 +60,38 @@ public class ScimResources {
         @Context KeycloakSession session,
         @QueryParam("filter") String filter,
         @QueryParam("startIndex") @DefaultValue("0") Integer startIndex,
-        @QueryParam("count") @DefaultValue("100") Integer count
+        @QueryParam("count") @DefaultValue("100") Integer count,
+        @QueryParam("cursor") String cursor,
+        @QueryParam("attributes") String attributes,
+        @QueryParam("excludedAttributes") String excludedAttributes,
+        @QueryParam("sortBy") String sortBy,
+        @QueryParam("sortOrder") String sortOrder,
+        @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch
     ) {
         RealmScimContext scimContext = realmScimServer.getScimContext(session);
         realmScimServer.verifyPermissions(scimContext);
 
         ScimFilter scimFilter;
         try {
-            scimFilter = parseFilter(filter);
+            scimFilter = parseFilter(scimContext, filter);
         } catch (Exception e) {
             logger.warn(String.format("Failed to parse filter: '%s'", filter), e);
             return Response.status(Response.Status.BAD_REQUEST).entity("Invalid filter").build();
         }
 
+        AttributeProjection projection = parseProjection(attributes, excludedAttributes);
+
+        Sorting sorting = parseSorting(sortBy, sortOrder);
+
         return realmScimServer.listUsers(
             scimContext,
             scimFilter,
             startIndex,
-            count
+            count,
+            cursor,
+            projection,
+            sorting,
+            ifNoneMatch
         );
     }
 
@@ -84,14 +101,21 @@ public class ScimResources {
     @SuppressWarnings("unused")
     public Response findRealmUser(
             @Context KeycloakSession session,
-            @PathParam("id") String userId
+            @PathParam("id") String userId,
+            @QueryParam("attributes") String attributes,
+            @QueryParam("excludedAttributes") String excludedAttributes,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch
     ) {
         RealmScimContext scimContext = realmScimServer.getScimContext(session);
         realmScimServer.verifyPermissions(scimContext);
 
+        AttributeProjection projection = parseProjection(attributes, excludedAttributes);
+
         return realmScimServer.findUser(
             scimContext,
-            userId
+            userId,
+            projection,
+            ifNoneMatch
         );
     }
 
@@ -103,6 +127,7 @@ public class ScimResources {
     public Response updateRealmUser(
         @Context KeycloakSession session,
         @PathParam("id") String userId,
+        @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
         fi.metatavu.keycloak.scim.server.model.User updateRequest
     ) {
         RealmScimContext scimContext = realmScimServer.getScimContext(session);
@@ -111,7 +136,8 @@ public class ScimResources {
         return realmScimServer.updateUser(
             scimContext,
             userId,
-            updateRequest
+            updateRequest,
+            ifMatch
         );
     }
 
@@ -123,6 +149,7 @@ public class ScimResources {
     public Response patchRealmUser(
         @Context KeycloakSession session,
         @PathParam("id") String userId,
+        @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
         fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest
     ) {
         RealmScimContext scimContext = realmScimServer.getScimContext(session);
@@ -131,7 +158,8 @@ public class ScimResources {
         return realmScimServer.patchUser(
             scimContext,
             userId,
-            patchRequest
+            patchRequest,
+            ifMatch
         );
     }
 
@@ -141,12 +169,13 @@ public class ScimResources {
     @SuppressWarnings("unused")
     public Response deleteRealmUser(
         @Context KeycloakSession session,
-        @PathParam("id") String userId
+        @PathParam("id") String userId,
+        @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch
     ) {
         RealmScimContext scimContext = realmScimServer.getScimContext(session);
         realmScimServer.verifyPermissions(scimContext);
 
-        return realmScimServer.deleteUser(scimContext, userId);
+        return realmScimServer.deleteUser(scimContext, userId, ifMatch);
     }
 
     @POST
@@ -175,24 +204,38 @@ public class ScimResources {
             @Context KeycloakSession session,
             @QueryParam("filter") String filter,
             @QueryParam("startIndex") @DefaultValue("0") int startIndex,
-            @QueryParam("count") @DefaultValue("100") int count
+            @QueryParam("count") @DefaultValue("100") int count,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("attributes") String attributes,
+            @QueryParam("excludedAttributes") String excludedAttributes,
+            @QueryParam("sortBy") String sortBy,
+            @QueryParam("sortOrder") String sortOrder,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch
     ) {
         RealmScimContext scimContext = realmScimServer.getScimContext(session);
         realmScimServer.verifyPermissions(scimContext);
 
         ScimFilter scimFilter;
         try {
-            scimFilter = parseFilter(filter);
+            scimFilter = parseFilter(scimContext, filter);
         } catch (Exception e) {
             logger.warn(String.format("Failed to parse filter: '%s'", filter), e);
             return Response.status(Response.Status.BAD_REQUEST).entity("Invalid filter").build();
         }
 
+        AttributeProjection projection = parseProjection(attributes, excludedAttributes);
+
+        Sorting sorting = parseSorting(sortBy, sortOrder);
+
         return realmScimServer.listGroups(
                 scimContext,
                 scimFilter,
                 startIndex,
-                count
+                count,
+                cursor,
+                projection,
+                sorting,
+                ifNoneMatch
         );
     }
 
@@ -202,14 +245,25 @@ public class ScimResources {
     @SuppressWarnings("unused")
     public Response findRealmGroup(
             @Context KeycloakSession session,
-            @PathParam("id") String id
+            @PathParam("id") String id,
+            @QueryParam("attributes") String attributes,
+            @QueryParam("excludedAttributes") String excludedAttributes,
+            @QueryParam("membersStartIndex") Integer membersStartIndex,
+            @QueryParam("membersCount") Integer membersCount,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch
     ) {
         RealmScimContext scimContext = realmScimServer.getScimContext(session);
         realmScimServer.verifyPermissions(scimContext);
 
+        AttributeProjection projection = parseProjection(attributes, excludedAttributes);
+
         return realmScimServer.findGroup(
                 scimContext,
-                id
+                id,
+                projection,
+                membersStartIndex,
+                membersCount,
+                ifNoneMatch
         );
     }
 
@@ -221,15 +275,22 @@ public class ScimResources {
     public Response updateRealmGroup(
             @PathParam("id") String id,
             @Context KeycloakSession session,
+            @QueryParam("attributes") String attributes,
+            @QueryParam("excludedAttributes") String excludedAttributes,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
             Group updateRequest
     ) {
         RealmScimContext scimContext = realmScimServer.getScimContext(session);
         realmScimServer.verifyPermissions(scimContext);
 
+        AttributeProjection projection = parseProjection(attributes, excludedAttributes);
+
         return realmScimServer.updateGroup(
                 scimContext,
                 id,
-                updateRequest
+                updateRequest,
+                projection,
+                ifMatch
         );
     }
 
@@ -241,15 +302,22 @@ public class ScimResources {
     public Response patchRealmGroup(
             @Context KeycloakSession session,
             @PathParam("id") String groupId,
+            @QueryParam("attributes") String attributes,
+            @QueryParam("excludedAttributes") String excludedAttributes,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
             fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest
     ) {
         RealmScimContext scimContext = realmScimServer.getScimContext(session);
         realmScimServer.verifyPermissions(scimContext);
 
+        AttributeProjection projection = parseProjection(attributes, excludedAttributes);
+
         return realmScimServer.patchGroup(
                 scimContext,
                 groupId,
-                patchRequest
+                patchRequest,
+                projection,
+                ifMatch
         );
     }
 
@@ -258,14 +326,104 @@ public class ScimResources {
     @SuppressWarnings("unused")
     public Response deleteRealmGroup(
             @Context KeycloakSession session,
-            @PathParam("id") String id
+            @PathParam("id") String id,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch
     ) {
         RealmScimContext scimContext = realmScimServer.getScimContext(session);
         realmScimServer.verifyPermissions(scimContext);
 
         return realmScimServer.deleteGroup(
                 scimContext,
-                id
+                id,
+                ifMatch
+        );
+    }
+
+    @POST
+    @Path("v2/Bulk")
+    @Consumes(ContentTypes.APPLICATION_SCIM_JSON)
+    @Produces(ContentTypes.APPLICATION_SCIM_JSON)
+    @SuppressWarnings("unused")
+    public Response realmBulk(
+        @Context KeycloakSession session,
+        InputStream payload
+    ) {
+        RealmScimContext scimContext = realmScimServer.getScimContext(session);
+        realmScimServer.verifyPermissions(scimContext);
+
+        return realmScimServer.bulk(
+            scimContext,
+            payload
+        );
+    }
+
+    @POST
+    @Path("v2/Import")
+    @Consumes(ContentTypes.APPLICATION_NDJSON)
+    @Produces(ContentTypes.APPLICATION_SCIM_JSON)
+    @SuppressWarnings("unused")
+    public Response startRealmImport(
+        @Context KeycloakSession session,
+        InputStream payload
+    ) {
+        RealmScimContext scimContext = realmScimServer.getScimContext(session);
+        realmScimServer.verifyPermissions(scimContext);
+
+        return realmScimServer.startImport(
+            scimContext,
+            payload
+        );
+    }
+
+    @GET
+    @Path("v2/Import/{id}")
+    @Produces(ContentTypes.APPLICATION_SCIM_JSON)
+    @SuppressWarnings("unused")
+    public Response findRealmImportJob(
+        @Context KeycloakSession session,
+        @PathParam("id") String jobId
+    ) {
+        RealmScimContext scimContext = realmScimServer.getScimContext(session);
+        realmScimServer.verifyPermissions(scimContext);
+
+        return realmScimServer.findImportJob(
+            scimContext,
+            jobId
+        );
+    }
+
+    @GET
+    @Path("v2/Export")
+    @Produces(ContentTypes.APPLICATION_NDJSON)
+    @SuppressWarnings("unused")
+    public Response exportRealm(
+        @Context KeycloakSession session,
+        @QueryParam("cursor") String cursor
+    ) {
+        RealmScimContext scimContext = realmScimServer.getScimContext(session);
+        realmScimServer.verifyPermissions(scimContext);
+
+        return realmScimServer.export(
+            scimContext,
+            cursor
+        );
+    }
+
+    @POST
+    @Path("v2/Reconcile")
+    @Consumes(ContentTypes.APPLICATION_NDJSON)
+    @Produces(ContentTypes.APPLICATION_NDJSON)
+    @SuppressWarnings("unused")
+    public Response reconcileRealm(
+        @Context KeycloakSession session,
+        InputStream payload
+    ) {
+        RealmScimContext scimContext = realmScimServer.getScimContext(session);
+        realmScimServer.verifyPermissions(scimContext);
+
+        return realmScimServer.reconcile(
+            scimContext,
+            payload
         );
     }
 
@@ -375,24 +533,38 @@ public class ScimResources {
             @PathParam("organizationId") String organizationId,
             @QueryParam("filter") String filter,
             @QueryParam("startIndex") @DefaultValue("0") Integer startIndex,
-            @QueryParam("count") @DefaultValue("100") Integer count
+            @QueryParam("count") @DefaultValue("100") Integer count,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("attributes") String attributes,
+            @QueryParam("excludedAttributes") String excludedAttributes,
+            @QueryParam("sortBy") String sortBy,
+            @QueryParam("sortOrder") String sortOrder,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch
     ) {
         OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
         organizationScimServer.verifyPermissions(scimContext);
 
         ScimFilter scimFilter;
         try {
-            scimFilter = parseFilter(filter);
+            scimFilter = parseFilter(scimContext, filter);
         } catch (Exception e) {
             logger.warn(String.format("Failed to parse filter: '%s'", filter), e);
             return Response.status(Response.Status.BAD_REQUEST).entity("Invalid filter").build();
         }
 
+        AttributeProjection projection = parseProjection(attributes, excludedAttributes);
+
+        Sorting sorting = parseSorting(sortBy, sortOrder);
+
         return organizationScimServer.listUsers(
             scimContext,
             scimFilter,
             startIndex,
-            count
+            count,
+            cursor,
+            projection,
+            sorting,
+            ifNoneMatch
         );
     }
 
@@ -403,14 +575,21 @@ public class ScimResources {
     public Response findOrganizationUser(
             @Context KeycloakSession session,
             @PathParam("id") String userId,
-            @PathParam("organizationId") String organizationId
+            @PathParam("organizationId") String organizationId,
+            @QueryParam("attributes") String attributes,
+            @QueryParam("excludedAttributes") String excludedAttributes,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch
     ) {
         OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
         organizationScimServer.verifyPermissions(scimContext);
 
+        AttributeProjection projection = parseProjection(attributes, excludedAttributes);
+
         return organizationScimServer.findUser(
             scimContext,
-            userId
+            userId,
+            projection,
+            ifNoneMatch
         );
     }
 
@@ -423,6 +602,7 @@ public class ScimResources {
             @Context KeycloakSession session,
             @PathParam("id") String userId,
             @PathParam("organizationId") String organizationId,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
             fi.metatavu.keycloak.scim.server.model.User updateRequest
     ) {
         OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
@@ -431,7 +611,8 @@ public class ScimResources {
         return organizationScimServer.updateUser(
             scimContext,
             userId,
-            updateRequest
+            updateRequest,
+            ifMatch
         );
     }
 
@@ -444,6 +625,7 @@ public class ScimResources {
             @Context KeycloakSession session,
             @PathParam("id") String userId,
             @PathParam("organizationId") String organizationId,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
             fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest
     ) {
         OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
@@ -452,7 +634,8 @@ public class ScimResources {
         return organizationScimServer.patchUser(
                 scimContext,
                 userId,
-                patchRequest
+                patchRequest,
+                ifMatch
         );
     }
 
@@ -463,12 +646,13 @@ public class ScimResources {
     public Response deleteOrganizationUser(
         @Context KeycloakSession session,
         @PathParam("organizationId") String organizationId,
-        @PathParam("id") String userId
+        @PathParam("id") String userId,
+        @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch
     ) {
         OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
         organizationScimServer.verifyPermissions(scimContext);
 
-        return organizationScimServer.deleteUser(scimContext, userId);
+        return organizationScimServer.deleteUser(scimContext, userId, ifMatch);
     }
 
     @POST
@@ -499,24 +683,38 @@ public class ScimResources {
             @PathParam("organizationId") String organizationId,
             @QueryParam("filter") String filter,
             @QueryParam("startIndex") @DefaultValue("0") int startIndex,
-            @QueryParam("count") @DefaultValue("100") int count
+            @QueryParam("count") @DefaultValue("100") int count,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("attributes") String attributes,
+            @QueryParam("excludedAttributes") String excludedAttributes,
+            @QueryParam("sortBy") String sortBy,
+            @QueryParam("sortOrder") String sortOrder,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch
     ) {
         OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
         organizationScimServer.verifyPermissions(scimContext);
 
         ScimFilter scimFilter;
         try {
-            scimFilter = parseFilter(filter);
+            scimFilter = parseFilter(scimContext, filter);
         } catch (Exception e) {
             logger.warn(String.format("Failed to parse filter: '%s'", filter), e);
             return Response.status(Response.Status.BAD_REQUEST).entity("Invalid filter").build();
         }
 
+        AttributeProjection projection = parseProjection(attributes, excludedAttributes);
+
+        Sorting sorting = parseSorting(sortBy, sortOrder);
+
         return organizationScimServer.listGroups(
             scimContext,
             scimFilter,
             startIndex,
-            count
+            count,
+            cursor,
+            projection,
+            sorting,
+            ifNoneMatch
         );
     }
 
@@ -527,14 +725,25 @@ public class ScimResources {
     public Response findOrganizationGroup(
             @Context KeycloakSession session,
             @PathParam("organizationId") String organizationId,
-            @PathParam("id") String id
+            @PathParam("id") String id,
+            @QueryParam("attributes") String attributes,
+            @QueryParam("excludedAttributes") String excludedAttributes,
+            @QueryParam("membersStartIndex") Integer membersStartIndex,
+            @QueryParam("membersCount") Integer membersCount,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch
     ) {
         OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
         organizationScimServer.verifyPermissions(scimContext);
 
+        AttributeProjection projection = parseProjection(attributes, excludedAttributes);
+
         return organizationScimServer.findGroup(
             scimContext,
-            id
+            id,
+            projection,
+            membersStartIndex,
+            membersCount,
+            ifNoneMatch
         );
     }
 
@@ -547,15 +756,22 @@ public class ScimResources {
             @Context KeycloakSession session,
             @PathParam("id") String id,
             @PathParam("organizationId") String organizationId,
+            @QueryParam("attributes") String attributes,
+            @QueryParam("excludedAttributes") String excludedAttributes,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
             Group updateRequest
     ) {
         OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
         organizationScimServer.verifyPermissions(scimContext);
 
+        AttributeProjection projection = parseProjection(attributes, excludedAttributes);
+
         return organizationScimServer.updateGroup(
             scimContext,
             id,
-            updateRequest
+            updateRequest,
+            projection,
+            ifMatch
         );
     }
 
@@ -568,15 +784,22 @@ public class ScimResources {
             @Context KeycloakSession session,
             @PathParam("id") String groupId,
             @PathParam("organizationId") String organizationId,
+            @QueryParam("attributes") String attributes,
+            @QueryParam("excludedAttributes") String excludedAttributes,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
             fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest
     ) {
         OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
         organizationScimServer.verifyPermissions(scimContext);
 
+        AttributeProjection projection = parseProjection(attributes, excludedAttributes);
+
         return organizationScimServer.patchGroup(
                 scimContext,
                 groupId,
-                patchRequest
+                patchRequest,
+                projection,
+                ifMatch
         );
     }
 
@@ -586,14 +809,72 @@ public class ScimResources {
     public Response deleteOrganizationGroup(
             @Context KeycloakSession session,
             @PathParam("organizationId") String organizationId,
-            @PathParam("id") String id
+            @PathParam("id") String id,
+            @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch
     ) {
         OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
         organizationScimServer.verifyPermissions(scimContext);
 
         return organizationScimServer.deleteGroup(
             scimContext,
-            id
+            id,
+            ifMatch
+        );
+    }
+
+    @POST
+    @Path("v2/organizations/{organizationId}/Bulk")
+    @Consumes(ContentTypes.APPLICATION_SCIM_JSON)
+    @Produces(ContentTypes.APPLICATION_SCIM_JSON)
+    @SuppressWarnings("unused")
+    public Response organizationBulk(
+        @Context KeycloakSession session,
+        @PathParam("organizationId") String organizationId,
+        InputStream payload
+    ) {
+        OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
+        organizationScimServer.verifyPermissions(scimContext);
+
+        return organizationScimServer.bulk(
+            scimContext,
+            payload
+        );
+    }
+
+    @GET
+    @Path("v2/organizations/{organizationId}/Export")
+    @Produces(ContentTypes.APPLICATION_NDJSON)
+    @SuppressWarnings("unused")
+    public Response exportOrganization(
+        @Context KeycloakSession session,
+        @PathParam("organizationId") String organizationId,
+        @QueryParam("cursor") String cursor
+    ) {
+        OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
+        organizationScimServer.verifyPermissions(scimContext);
+
+        return organizationScimServer.export(
+            scimContext,
+            cursor
+        );
+    }
+
+    @POST
+    @Path("v2/organizations/{organizationId}/Reconcile")
+    @Consumes(ContentTypes.APPLICATION_NDJSON)
+    @Produces(ContentTypes.APPLICATION_NDJSON)
+    @SuppressWarnings("unused")
+    public Response reconcileOrganization(
+        @Context KeycloakSession session,
+        @PathParam("organizationId") String organizationId,
+        InputStream payload
+    ) {
+        OrganizationScimContext scimContext = organizationScimServer.getScimContext(session, organizationId);
+        organizationScimServer.verifyPermissions(scimContext);
+
+        return organizationScimServer.reconcile(
+            scimContext,
+            payload
         );
     }
 
@@ -681,15 +962,51 @@ public class ScimResources {
         return organizationScimServer.getServiceProviderConfig(scimContext);
     }
 
+    /**
+     * Parses attribute projection from the attributes and excludedAttributes query parameters
+     *
+     * @param attributes attributes query parameter
+     * @param excludedAttributes excludedAttributes query parameter
+     * @return projection
+     * @throws BadRequestException when the parameters are invalid
+     */
+    private AttributeProjection parseProjection(String attributes, String excludedAttributes) {
+        try {
+            return AttributeProjection.parse(attributes, excludedAttributes);
+        } catch (IllegalArgumentException e) {
+            logger.warn(String.format("Invalid attribute projection: attributes '%s', excludedAttributes '%s'", attributes, excludedAttributes), e);
+            throw new BadRequestException(Response.status(Response.Status.BAD_REQUEST).entity("Invalid attributes").build());
+        }
+    }
+
+    /**
+     * Parses sorting from the sortBy and sortOrder query parameters
+     *
+     * @param sortBy sortBy query parameter
+     * @param sortOrder sortOrder query parameter
+     * @return sorting
+     * @throws BadRequestException when sortOrder is invalid
+     */
+    private Sorting parseSorting(String sortBy, String sortOrder) {
+        try {
+            return Sorting.parse(sortBy, sortOrder);
+        } catch (IllegalArgumentException e) {
+            logger.warn(String.format("Invalid sort order: '%s'", sortOrder), e);
+            throw new BadRequestException(Response.status(Response.Status.BAD_REQUEST).entity("Invalid sortOrder").build());
+        }
+    }
+
     /**
      * Parses SCIM filter
      *
+     * @param scimContext SCIM context
      * @param filter filter
      * @return parsed filter or null if filter is not defined
      */
-    private ScimFilter parseFilter(String filter) {
+    private ScimFilter parseFilter(ScimContext scimContext, String filter) {
         if (filter != null && !filter.isBlank()) {
-            return scimFilterParser.parse(filter);
+            ScimConfig config = scimContext.getConfig();
+            return new ScimFilterParser(config.getFilterMaxTerms(), config.getFilterMaxDepth()).parse(filter);
         }
 
         return null;
@@ -1,8 +1,12 @@
 package fi.metatavu.keycloak.scim.server;
 
 import fi.metatavu.keycloak.scim.server.filter.ScimFilter;
+import fi.metatavu.keycloak.scim.server.projection.AttributeProjection;
+import fi.metatavu.keycloak.scim.server.sorting.Sorting;
 import jakarta.ws.rs.core.Response;
 
+import java.io.InputStream;
+
 /**
  * * SCIM server interface
  *
@@ -29,13 +33,21 @@ public interface ScimServer <T extends ScimContext> {
      * @param scimFilter  SCIM filter
      * @param startIndex  start index
      * @param count       count
+     * @param cursor      pagination cursor or null when using index based pagination
+     * @param projection  attribute projection
+     * @param sorting     sorting
+     * @param ifNoneMatch If-None-Match header or null
      * @return response
      */
     Response listUsers(
         T scimContext,
         ScimFilter scimFilter,
         Integer startIndex,
-        Integer count
+        Integer count,
+        String cursor,
+        AttributeProjection projection,
+        Sorting sorting,
+        String ifNoneMatch
     );
 
     /**
@@ -43,9 +55,11 @@ public interface ScimServer <T extends ScimContext> {
      *
      * @param scimContext SCIM context
      * @param userId      user ID
+     * @param projection  attribute projection
+     * @param ifNoneMatch If-None-Match header or null
      * @return response
      */
-    Response findUser(T scimContext, String userId);
+    Response findUser(T scimContext, String userId, AttributeProjection projection, String ifNoneMatch);
 
     /**
      * Updates a user
@@ -53,9 +67,10 @@ public interface ScimServer <T extends ScimContext> {
      * @param scimContext SCIM context
      * @param userId      user ID
      * @param body        user data
+     * @param ifMatch     If-Match header or null
      * @return response
      */
-    Response updateUser(T scimContext, String userId, fi.metatavu.keycloak.scim.server.model.User body);
+    Response updateUser(T scimContext, String userId, fi.metatavu.keycloak.scim.server.model.User body, String ifMatch);
 
     /**
      * Patches a user
@@ -63,18 +78,20 @@ public interface ScimServer <T extends ScimContext> {
      * @param scimContext SCIM context
      * @param userId      user ID
      * @param patchRequest patch request
+     * @param ifMatch     If-Match header or null
      * @return response
      */
-    Response patchUser(T scimContext, String userId, fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest);
+    Response patchUser(T scimContext, String userId, fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest, String ifMatch);
 
     /**
      * Deletes a user
      *
      * @param scimContext SCIM context
      * @param userId      user ID
+     * @param ifMatch     If-Match header or null
      * @return response
      */
-    Response deleteUser(T scimContext, String userId);
+    Response deleteUser(T scimContext, String userId, String ifMatch);
 
     /**
      * Creates a new group
@@ -92,18 +109,26 @@ public interface ScimServer <T extends ScimContext> {
      * @param scimFilter  SCIM filter
      * @param startIndex  start index
      * @param count       count
+     * @param cursor      pagination cursor or null when using index based pagination
+     * @param projection  attribute projection
+     * @param sorting     sorting
+     * @param ifNoneMatch If-None-Match header or null
      * @return response
      */
-    Response listGroups(T scimContext, ScimFilter scimFilter, int startIndex, int count);
+    Response listGroups(T scimContext, ScimFilter scimFilter, int startIndex, int count, String cursor, AttributeProjection projection, Sorting sorting, String ifNoneMatch);
 
     /**
      * Finds a group by ID
      *
      * @param scimContext SCIM context
      * @param id          group ID
+     * @param projection  attribute projection
+     * @param membersStartIndex index of the first member to return or null
+     * @param membersCount number of members to return or null
+     * @param ifNoneMatch If-None-Match header or null
      * @return response
      */
-    Response findGroup(T scimContext, String id);
+    Response findGroup(T scimContext, String id, AttributeProjection projection, Integer membersStartIndex, Integer membersCount, String ifNoneMatch);
 
     /**
      * Updates a group
@@ -111,9 +136,11 @@ public interface ScimServer <T extends ScimContext> {
      * @param scimContext SCIM context
      * @param id          group ID
      * @param updateRequest group data
+     * @param projection  attribute projection of the response
+     * @param ifMatch     If-Match header or null
      * @return response
      */
-    Response updateGroup(T scimContext, String id, fi.metatavu.keycloak.scim.server.model.Group updateRequest);
+    Response updateGroup(T scimContext, String id, fi.metatavu.keycloak.scim.server.model.Group updateRequest, AttributeProjection projection, String ifMatch);
 
     /**
      * Patches a group
@@ -121,18 +148,51 @@ public interface ScimServer <T extends ScimContext> {
      * @param scimContext SCIM context
      * @param groupId     group ID
      * @param patchRequest patch request
+     * @param projection  attribute projection of the response
+     * @param ifMatch     If-Match header or null
      * @return response
      */
-    Response patchGroup(T scimContext, String groupId, fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest);
+    Response patchGroup(T scimContext, String groupId, fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest, AttributeProjection projection, String ifMatch);
 
     /**
      * Deletes a group
      *
      * @param scimContext SCIM context
      * @param id          group ID
+     * @param ifMatch     If-Match header or null
+     * @return response
+     */
+    Response deleteGroup(T scimContext, String id, String ifMatch);
+
+    /**
+     * Runs bulk operations.
+     * <p>
+     * The payload is read and parsed by the server, so the payload limit is enforced before the
+     * request is deserialized.
+     *
+     * @param scimContext SCIM context
+     * @param payload bulk request JSON
+     * @return response
+     */
+    Response bulk(T scimContext, InputStream payload);
+
+    /**
+     * Exports users and groups as newline delimited JSON
+     *
+     * @param scimContext SCIM context
+     * @param cursor cursor of the last received resource or null to start from the beginning
+     * @return response
+     */
+    Response export(T scimContext, String cursor);
+
+    /**
+     * Compares versions of the users known by the client with the users of the server
+     *
+     * @param scimContext SCIM context
+     * @param payload NDJSON records of the client ordered by id
      * @return response
      */
-    Response deleteGroup(T scimContext, String id);
+    Response reconcile(T scimContext, InputStream payload);
 
     /**
      * Lists resource types
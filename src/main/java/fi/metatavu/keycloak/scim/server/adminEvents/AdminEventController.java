@@ -19,6 +19,12 @@ import java.util.Map;
 import java.util.UUID;
 
 public class AdminEventController extends AbstractController {
+
+    /**
+     * User id recorded as the author of admin events sent by the SCIM server
+     */
+    public static final String SCIM_CLIENT_USER_ID = "SCIM_CLIENT";
+
     /**
      * Sends an admin event
      *
@@ -75,7 +81,7 @@ public class AdminEventController extends AbstractController {
         AuthDetails authDetails = new AuthDetails();
         authDetails.setRealmId(scimContext.getRealm().getId());
         authDetails.setRealmName(scimContext.getRealm().getName());
-        authDetails.setUserId("SCIM_CLIENT");
+        authDetails.setUserId(SCIM_CLIENT_USER_ID);
         event.setAuthDetails(authDetails);
 
         if (representation != null) {
@@ -0,0 +1,78 @@
+package fi.metatavu.keycloak.scim.server.authentication;
+
+import fi.metatavu.keycloak.scim.server.adminEvents.AdminEventController;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerTransaction;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.KeycloakSession;
+
+import java.util.Set;
+
+/**
+ * Event listener that invalidates the {@link KeycloakAuthorizationCache} of a realm when clients,
+ * roles, role mappings, groups, group memberships or user sessions of the realm are changed through
+ * the admin API. Groups are included because service accounts can receive the SCIM access role
+ * through group membership.
+ * <p>
+ * The cache is invalidated after the transaction that produced the event has been completed, so
+ * a request running concurrently with the change cannot cache the state from before it. Events sent
+ * by the SCIM server itself are ignored, since SCIM operations do not change clients or roles, except
+ * for group and group membership removals, which may take the role away from a service account that
+ * is a member of a SCIM group. Logouts are not tracked, since cached tokens are validated again after
+ * the decision TTL.
+ */
+public class AuthorizationCacheEventListenerProvider implements EventListenerProvider {
+
+    private static final Set<ResourceType> RESOURCE_TYPES = Set.of(
+        ResourceType.REALM,
+        ResourceType.CLIENT,
+        ResourceType.USER_SESSION,
+        ResourceType.GROUP,
+        ResourceType.GROUP_MEMBERSHIP,
+        ResourceType.REALM_ROLE,
+        ResourceType.CLIENT_ROLE,
+        ResourceType.REALM_ROLE_MAPPING,
+        ResourceType.CLIENT_ROLE_MAPPING
+    );
+
+    private static final Set<ResourceType> GROUP_RESOURCE_TYPES = Set.of(
+        ResourceType.GROUP,
+        ResourceType.GROUP_MEMBERSHIP
+    );
+
+    private final EventListenerTransaction transaction;
+
+    /**
+     * Constructor
+     *
+     * @param session Keycloak session
+     */
+    public AuthorizationCacheEventListenerProvider(KeycloakSession session) {
+        this.transaction = new EventListenerTransaction((event, includeRepresentation) -> KeycloakAuthorizationCache.invalidate(event.getRealmId()), event -> {});
+        session.getTransactionManager().enlistAfterCompletion(transaction);
+    }
+
+    @Override
+    public void onEvent(Event event) {
+    }
+
+    @Override
+    public void onEvent(AdminEvent event, boolean includeRepresentation) {
+        boolean scimEvent = event.getAuthDetails() != null && AdminEventController.SCIM_CLIENT_USER_ID.equals(event.getAuthDetails().getUserId());
+        if (scimEvent && !(event.getOperationType() == OperationType.DELETE && GROUP_RESOURCE_TYPES.contains(event.getResourceType()))) {
+            return;
+        }
+
+        if (RESOURCE_TYPES.contains(event.getResourceType())) {
+            transaction.addAdminEvent(event, includeRepresentation);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,78 @@
+package fi.metatavu.keycloak.scim.server.authentication;
+
+import org.keycloak.Config;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleContainerModel;
+
+/**
+ * Factory for the authorization cache event listener
+ * <p>
+ * The listener is global, so the cache of each realm is invalidated by changes in that realm. Changes
+ * that are not made through the admin API, such as client updates and role removals by other providers,
+ * are caught from the provider events.
+ */
+public class AuthorizationCacheEventListenerProviderFactory implements EventListenerProviderFactory {
+
+    @Override
+    public EventListenerProvider create(KeycloakSession session) {
+        return new AuthorizationCacheEventListenerProvider(session);
+    }
+
+    @Override
+    public void init(Config.Scope config) {}
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        factory.register(event -> {
+            if (event instanceof ClientModel.ClientUpdatedEvent clientUpdatedEvent) {
+                KeycloakAuthorizationCache.invalidate(clientUpdatedEvent.getUpdatedClient().getRealm().getId());
+            } else if (event instanceof ClientModel.ClientRemovedEvent clientRemovedEvent) {
+                KeycloakAuthorizationCache.invalidate(clientRemovedEvent.getClient().getRealm().getId());
+            } else if (event instanceof RoleContainerModel.RoleRemovedEvent roleRemovedEvent) {
+                String realmId = getRealmId(roleRemovedEvent.getRole().getContainer());
+                if (realmId != null) {
+                    KeycloakAuthorizationCache.invalidate(realmId);
+                }
+            } else if (event instanceof RealmModel.RealmRemovedEvent realmRemovedEvent) {
+                KeycloakAuthorizationCache.invalidate(realmRemovedEvent.getRealm().getId());
+            }
+        });
+    }
+
+    /**
+     * Returns realm of a role container
+     *
+     * @param container role container
+     * @return realm id or null if the container is not a realm or a client
+     */
+    private String getRealmId(RoleContainerModel container) {
+        if (container instanceof RealmModel realm) {
+            return realm.getId();
+        }
+
+        if (container instanceof ClientModel client) {
+            return client.getRealm().getId();
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public String getId() {
+        return "scim-authorization-cache";
+    }
+
+    @Override
+    public boolean isGlobal() {
+        return true;
+    }
+
+}
@@ -31,6 +31,9 @@ public class ExternalSharedSecretVerifier implements Verifier {
 
     /**
      * Verifies the given token.
+     * <p>
+     * A token that has recently been verified against the configured secret is accepted without
+     * hashing it again (see {@link SharedSecretCache}).
      *
      * @param tokenString shared token string
      * @return true if the token is valid, false otherwise
@@ -41,7 +44,12 @@ public class ExternalSharedSecretVerifier implements Verifier {
             logger.warn("Shared secret is null or blank.");
             return false;
         }
-        PasswordCredentialModel model = PhcStringUtils.fromPHCString(sharedSecret);
+
+        if (SharedSecretCache.isVerified(sharedSecret, tokenString)) {
+            return true;
+        }
+
+        PasswordCredentialModel model = SharedSecretCache.getCredential(sharedSecret);
         String algorithm = model.getPasswordCredentialData().getAlgorithm();
         MultivaluedHashMap<String, String> additionalParameters = model.getPasswordCredentialData()
             .getAdditionalParameters();
@@ -61,7 +69,12 @@ public class ExternalSharedSecretVerifier implements Verifier {
             );
         }
 
-        return hashProvider.verify(tokenString, model);
+        if (!hashProvider.verify(tokenString, model)) {
+            return false;
+        }
+
+        SharedSecretCache.putVerified(sharedSecret, tokenString);
+        return true;
     }
 
 }
@@ -2,7 +2,6 @@ package fi.metatavu.keycloak.scim.server.authentication;
 
 import jakarta.ws.rs.NotAuthorizedException;
 import java.io.IOException;
-import java.net.URISyntaxException;
 import java.security.PublicKey;
 import org.jboss.logging.Logger;
 import org.keycloak.jose.jws.JWSInput;
@@ -37,55 +36,80 @@ public class ExternalTokenVerifier implements Verifier {
 
     /**
      * Verifies the given token.
+     * <p>
+     * The token is verified with the key identified by the kid of its header. Tokens without a kid
+     * are verified with each key of the JWKS. Verified tokens are cached until they expire or the
+     * keys of the JWKS change, so a token reused across requests is verified only once.
      *
      * @param tokenString JWT token string
      * @return true if the token is valid, false otherwise
      */
     @Override
     public boolean verify(String tokenString) {
+        String cacheKey = VerifiedTokenCache.getKey(expectedIssuer, expectedAudience, jwksUrl, tokenString);
+        if (VerifiedTokenCache.isVerified(cacheKey, JwksKeyStore.getGeneration(jwksUrl))) {
+            return true;
+        }
+
         try {
-            for (JwkKey jwkKey : JwksUtils.getPublicKeysFromJwks(jwksUrl)) {
-                if (verify(tokenString, jwkKey.getPublicKey())) {
-                    logger.info("Token verification succeeded with key: " + jwkKey.getKid());
-                    return true;
+            JWSInput jwsInput = new JWSInput(tokenString);
+            String kid = jwsInput.getHeader().getKeyId();
+            AccessToken token = null;
+
+            if (kid != null) {
+                JwkKey jwkKey = JwksKeyStore.getKey(jwksUrl, kid);
+                if (jwkKey == null) {
+                    logger.warn("Token verification failed: unknown key: " + kid);
+                    return false;
+                }
+
+                token = verify(jwsInput, jwkKey.getPublicKey());
+            } else {
+                for (JwkKey jwkKey : JwksKeyStore.getKeys(jwksUrl)) {
+                    token = verify(jwsInput, jwkKey.getPublicKey());
+                    if (token != null) {
+                        break;
+                    }
+
+                    logger.warn("Token verification failed with key: " + jwkKey.getKid());
                 }
+            }
 
-                logger.warn("Token verification failed with key: " + jwkKey.getKid());
+            if (token == null) {
+                return false;
             }
-        } catch (URISyntaxException | IOException | JWSInputException e) {
-            logger.warn("Failed to verify permissions", e);
-            throw new NotAuthorizedException(e);
-        } catch(InterruptedException e) {
-            // InterruptedException should not be ignored
-            Thread.currentThread().interrupt();
+
+            if (token.getExp() != null) {
+                VerifiedTokenCache.put(cacheKey, token.getExp() * 1000, JwksKeyStore.getGeneration(jwksUrl));
+            }
+
+            return true;
+        } catch (IOException | JWSInputException e) {
             logger.warn("Failed to verify permissions", e);
             throw new NotAuthorizedException(e);
         }
-
-        return false;
     }
 
     /**
      * Verifies the given token.
      *
-     * @param tokenString JWT token string
-     * @return true if the token is valid, false otherwise
+     * @param jwsInput parsed JWT token
+     * @param publicKey public key
+     * @return verified token or null if the token is not valid
      */
-    private boolean verify(String tokenString, PublicKey publicKey) throws JWSInputException, IOException {
-        JWSInput jwsInput = new JWSInput(tokenString);
-
+    private AccessToken verify(JWSInput jwsInput, PublicKey publicKey) throws IOException {
         boolean validSignature = RSAProvider.verify(jwsInput, publicKey);
 
         if (!validSignature) {
             logger.warn("Token signature verification failed");
-            return false;
+            return null;
         }
 
         AccessToken token = JsonSerialization.readValue(jwsInput.getContent(), AccessToken.class);
 
         if (token == null) {
             logger.warn("Token could not be parsed");
-            return false;
+            return null;
         }
 
         if (!token.getIssuer().equals(expectedIssuer)) {
@@ -93,7 +117,7 @@ public class ExternalTokenVerifier implements Verifier {
                 logger.warn("Token issuer is wildcard, skipping issuer check. This is insecure and should not be used in production. Found issuer is: " + token.getIssuer());
             } else {
                 logger.warnf("Token issuer mismatch. Expected: %s, Found: %s", expectedIssuer, token.getIssuer());
-                return false;
+                return null;
             }
         }
 
@@ -102,11 +126,11 @@ public class ExternalTokenVerifier implements Verifier {
                 logger.warn("Token audience is wildcard, skipping audience check. This is insecure and should not be used in production. Found audience is: " + String.join(",", token.getAudience()));
             } else {
                 logger.warnf("Token audience mismatch. Expected to contain: %s, Found: %s", expectedAudience, String.join(",", token.getAudience()));
-                return false;
+                return null;
             }
         }
 
-        return true;
+        return token;
     }
 
     /**
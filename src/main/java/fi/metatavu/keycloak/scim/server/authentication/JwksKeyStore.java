@@ -0,0 +1,349 @@
+package fi.metatavu.keycloak.scim.server.authentication;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of the keys of JWKS endpoints.
+ * <p>
+ * Keys are fetched with a shared HTTP client and cached per JWKS URI, indexed by key id, for the time
+ * allowed by the Cache-Control max-age of the response. Expired keys are served while a refresh runs
+ * in the background, and only one refresh per URI runs at a time. An unknown key id forces a refresh,
+ * at most once per {@link #MIN_REFRESH_INTERVAL} since the last attempt, so that rotated keys are picked
+ * up immediately and an unavailable endpoint is not called for every request.
+ * When a refresh fails, the previous keys are used until they are {@link #MAX_STALE} past their expiry.
+ * <p>
+ * Each key set has a generation that changes when a refresh returns different keys, so that results
+ * derived from the keys can be discarded when the keys rotate.
+ */
+public class JwksKeyStore {
+
+    /**
+     * Time to live of keys when the response has no Cache-Control max-age
+     */
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+
+    /**
+     * Lower bound of the time to live of keys
+     */
+    public static final Duration MIN_TTL = Duration.ofMinutes(1);
+
+    /**
+     * Upper bound of the time to live of keys
+     */
+    public static final Duration MAX_TTL = Duration.ofHours(24);
+
+    /**
+     * Time expired keys are used when they cannot be refreshed
+     */
+    public static final Duration MAX_STALE = Duration.ofHours(24);
+
+    /**
+     * Minimum interval of refreshes forced by unknown key ids
+     */
+    public static final Duration MIN_REFRESH_INTERVAL = Duration.ofSeconds(30);
+
+    private static final Logger logger = Logger.getLogger(JwksKeyStore.class);
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    private static final Pattern MAX_AGE = Pattern.compile("(?:^|[,\\s])max-age\\s*=\\s*(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    private static final HttpClient httpClient = HttpClient.newBuilder()
+        .connectTimeout(CONNECT_TIMEOUT)
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .build();
+
+    private static final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private static volatile Clock clock = Clock.systemUTC();
+
+    /**
+     * Keys of a JWKS response
+     *
+     * @param keys keys by key id
+     * @param expires expiry time in epoch milliseconds
+     * @param generation generation of the key set
+     */
+    private record CachedKeys(Map<String, JwkKey> keys, long expires, long generation) {
+
+        /**
+         * Returns whether the keys are the same as the keys of another key set
+         *
+         * @param other other key set
+         * @return whether the key ids and public keys are the same
+         */
+        boolean hasSameKeys(CachedKeys other) {
+            if (!keys.keySet().equals(other.keys().keySet())) {
+                return false;
+            }
+
+            for (Map.Entry<String, JwkKey> entry : keys.entrySet()) {
+                if (!entry.getValue().getPublicKey().equals(other.keys().get(entry.getKey()).getPublicKey())) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+    }
+
+    /**
+     * Cached keys, the running refresh and the start time of the last refresh of a JWKS URI
+     */
+    private static class Endpoint {
+
+        private volatile CachedKeys keys;
+        private volatile long lastAttempt;
+        private CompletableFuture<CachedKeys> refresh;
+
+    }
+
+    private JwksKeyStore() {
+    }
+
+    /**
+     * Sets the clock used for the expiry of keys and the refresh interval.
+     * <p>
+     * Allows tests to move time forward without waiting.
+     *
+     * @param clock clock
+     */
+    public static void setClock(Clock clock) {
+        JwksKeyStore.clock = clock;
+    }
+
+    /**
+     * Returns key of a JWKS endpoint by key id
+     *
+     * @param jwksUrl JWKS endpoint URL
+     * @param kid key id
+     * @return key or null if the endpoint has no key with the id
+     * @throws IOException when the keys cannot be fetched and there are no usable cached keys
+     */
+    public static JwkKey getKey(String jwksUrl, String kid) throws IOException {
+        Endpoint endpoint = endpoints.computeIfAbsent(jwksUrl, url -> new Endpoint());
+        CachedKeys cached = endpoint.keys;
+        long now = clock.millis();
+
+        if (cached != null) {
+            JwkKey key = cached.keys().get(kid);
+
+            if (key != null && now < cached.expires()) {
+                return key;
+            }
+
+            if (key != null && now < cached.expires() + MAX_STALE.toMillis()) {
+                refresh(jwksUrl, endpoint);
+                return key;
+            }
+
+            if (key == null && now < endpoint.lastAttempt + MIN_REFRESH_INTERVAL.toMillis()) {
+                return null;
+            }
+        }
+
+        return awaitRefresh(jwksUrl, endpoint).keys().get(kid);
+    }
+
+    /**
+     * Returns all keys of a JWKS endpoint
+     *
+     * @param jwksUrl JWKS endpoint URL
+     * @return keys
+     * @throws IOException when the keys cannot be fetched and there are no usable cached keys
+     */
+    public static Collection<JwkKey> getKeys(String jwksUrl) throws IOException {
+        Endpoint endpoint = endpoints.computeIfAbsent(jwksUrl, url -> new Endpoint());
+        CachedKeys cached = endpoint.keys;
+        long now = clock.millis();
+
+        if (cached != null && now < cached.expires()) {
+            return cached.keys().values();
+        }
+
+        if (cached != null && now < cached.expires() + MAX_STALE.toMillis()) {
+            refresh(jwksUrl, endpoint);
+            return cached.keys().values();
+        }
+
+        return awaitRefresh(jwksUrl, endpoint).keys().values();
+    }
+
+    /**
+     * Returns generation of the cached keys of a JWKS endpoint.
+     * <p>
+     * Expired keys are refreshed in the background, so that a rotation is noticed even when the keys
+     * are not otherwise read.
+     *
+     * @param jwksUrl JWKS endpoint URL
+     * @return generation or -1 when there are no usable cached keys
+     */
+    public static long getGeneration(String jwksUrl) {
+        Endpoint endpoint = endpoints.get(jwksUrl);
+        CachedKeys cached = endpoint != null ? endpoint.keys : null;
+        if (cached == null) {
+            return -1;
+        }
+
+        long now = clock.millis();
+        if (now >= cached.expires() + MAX_STALE.toMillis()) {
+            return -1;
+        }
+
+        if (now >= cached.expires()) {
+            refresh(jwksUrl, endpoint);
+        }
+
+        return cached.generation();
+    }
+
+    /**
+     * Waits for a refresh of the keys of an endpoint
+     *
+     * @param jwksUrl JWKS endpoint URL
+     * @param endpoint endpoint
+     * @return refreshed keys, or the previous keys when the refresh fails and they are not past the stale limit
+     * @throws IOException when the keys cannot be fetched and there are no usable cached keys
+     */
+    private static CachedKeys awaitRefresh(String jwksUrl, Endpoint endpoint) throws IOException {
+        try {
+            return refresh(jwksUrl, endpoint).get(REQUEST_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching JWKS", e);
+        } catch (ExecutionException | TimeoutException e) {
+            CachedKeys cached = endpoint.keys;
+            if (cached != null && clock.millis() < cached.expires() + MAX_STALE.toMillis()) {
+                logger.warnf("Failed to refresh JWKS from %s, using cached keys", jwksUrl);
+                return cached;
+            }
+
+            throw new IOException("Failed to fetch JWKS from " + jwksUrl, e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    /**
+     * Starts a refresh of the keys of an endpoint unless one is already running
+     *
+     * @param jwksUrl JWKS endpoint URL
+     * @param endpoint endpoint
+     * @return running refresh
+     */
+    private static CompletableFuture<CachedKeys> refresh(String jwksUrl, Endpoint endpoint) {
+        synchronized (endpoint) {
+            if (endpoint.refresh != null && !endpoint.refresh.isDone()) {
+                return endpoint.refresh;
+            }
+
+            endpoint.lastAttempt = clock.millis();
+
+            // The keys are stored before the returned refresh completes, so waiters always see the refreshed keys
+            CompletableFuture<CachedKeys> result = fetch(jwksUrl).whenComplete((keys, error) -> {
+                synchronized (endpoint) {
+                    if (keys != null) {
+                        CachedKeys previous = endpoint.keys;
+                        if (previous == null) {
+                            endpoint.keys = keys;
+                        } else {
+                            long generation = keys.hasSameKeys(previous) ? previous.generation() : previous.generation() + 1;
+                            endpoint.keys = new CachedKeys(keys.keys(), keys.expires(), generation);
+                        }
+                    } else {
+                        logger.warnf(error, "Failed to fetch JWKS from %s", jwksUrl);
+                    }
+                }
+            });
+
+            endpoint.refresh = result;
+            return result;
+        }
+    }
+
+    /**
+     * Fetches keys of an endpoint
+     *
+     * @param jwksUrl JWKS endpoint URL
+     * @return fetched keys
+     */
+    private static CompletableFuture<CachedKeys> fetch(String jwksUrl) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder()
+                .uri(URI.create(jwksUrl))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Failed to fetch JWKS: HTTP " + response.statusCode());
+            }
+
+            Map<String, JwkKey> keys = new HashMap<>();
+            try {
+                for (JwkKey key : JwksUtils.parseJwks(response.body())) {
+                    keys.put(key.getKid(), key);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            long now = clock.millis();
+            Duration ttl = getTimeToLive(response.headers().firstValue("Cache-Control").orElse(null));
+            return new CachedKeys(keys, now + ttl.toMillis(), 0);
+        });
+    }
+
+    /**
+     * Returns time to live of keys from the Cache-Control header of a JWKS response
+     *
+     * @param cacheControl Cache-Control header or null
+     * @return time to live within the allowed bounds
+     */
+    public static Duration getTimeToLive(String cacheControl) {
+        if (cacheControl == null) {
+            return DEFAULT_TTL;
+        }
+
+        Matcher matcher = MAX_AGE.matcher(cacheControl);
+        if (!matcher.find()) {
+            return DEFAULT_TTL;
+        }
+
+        Duration ttl;
+        try {
+            ttl = Duration.ofSeconds(Long.parseLong(matcher.group(1)));
+        } catch (NumberFormatException e) {
+            return MAX_TTL;
+        }
+
+        if (ttl.compareTo(MIN_TTL) < 0) {
+            return MIN_TTL;
+        }
+
+        return ttl.compareTo(MAX_TTL) > 0 ? MAX_TTL : ttl;
+    }
+
+}
@@ -5,11 +5,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.keycloak.jose.jwk.JWKParser;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.security.PublicKey;
 import java.util.ArrayList;
 import java.util.List;
@@ -21,56 +16,45 @@ import java.util.Map;
 public class JwksUtils {
 
     /**
-     * Loads all public keys from JWKS URL
+     * Parses public keys of a JWKS document.
+     * <p>
+     * Keys without a key id are skipped.
      *
-     * @param jwksUrl JWKS endpoint URL
+     * @param jwksJson JWKS document
      * @return list of public keys
+     * @throws IOException when the document cannot be parsed
      */
-    public static List<JwkKey> getPublicKeysFromJwks(String jwksUrl) throws URISyntaxException, IOException, InterruptedException {
+    public static List<JwkKey> parseJwks(byte[] jwksJson) throws IOException {
         List<JwkKey> result = new ArrayList<>();
+        ObjectMapper objectMapper = new ObjectMapper();
 
-        try (HttpClient httpClient = HttpClient.newHttpClient()) {
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(new URI(jwksUrl))
-                .GET()
-                .build();
+        Map<String, Object> jwks = objectMapper.readValue(jwksJson, new TypeReference<>() { });
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> keys = (List<Map<String, Object>>) jwks.get("keys");
 
-            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
-
-            if (response.statusCode() != 200) {
-                throw new RuntimeException("Failed to fetch JWKS: HTTP " + response.statusCode());
-            }
+        if (keys == null || keys.isEmpty()) {
+            throw new IOException("No keys found in JWKS");
+        }
 
-            ObjectMapper objectMapper = new ObjectMapper();
+        for (Map<String, Object> jwk : keys) {
+            String kid = (String) jwk.get("kid");
+            String use = (String) jwk.get("use");
 
-            Map<String, Object> jwks = objectMapper.readValue(response.body(), new TypeReference<>() { });
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> keys = (List<Map<String, Object>>) jwks.get("keys");
+            if (kid == null) continue;
 
-            if (keys == null || keys.isEmpty()) {
-                throw new RuntimeException("No keys found in JWKS");
+            if (use == null) {
+                use = "sig";
             }
 
-            for (Map<String, Object> jwk : keys) {
-                String kid = (String) jwk.get("kid");
-                String use = (String) jwk.get("use");
-
-                if (kid == null) continue;
-
-                if (use == null) {
-                    use = "sig";
-                }
+            String jwkJson = objectMapper.writeValueAsString(jwk);
+            PublicKey publicKey = JWKParser.create()
+                .parse(jwkJson)
+                .toPublicKey();
 
-                String jwkJson = objectMapper.writeValueAsString(jwk);
-                PublicKey publicKey = JWKParser.create()
-                    .parse(jwkJson)
-                    .toPublicKey();
-
-                result.add(new JwkKey(publicKey, kid, use));
-            }
-
-            return result;
+            result.add(new JwkKey(publicKey, kid, use));
         }
+
+        return result;
     }
 
 }
@@ -0,0 +1,206 @@
+package fi.metatavu.keycloak.scim.server.authentication;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of authorization decisions in KEYCLOAK authentication mode.
+ * <p>
+ * Validated access tokens are cached by a SHA-256 hash of the realm and the token, and the decision that
+ * the service account of a client has the SCIM access role is cached per realm and client. Both are cached
+ * for at most {@link #DECISION_TTL}, and tokens never past their expiry. A request with a cached token and
+ * decision is authorized without reading the token, session, client or role mappings.
+ * <p>
+ * A change to clients, roles or role mappings of a realm invalidates the entries of that realm. Entries are
+ * stored with the generation of their realm at the time the decision was read, so a decision read before an
+ * invalidation is never used after it. Invalidation is local to the node, so the TTL bounds how long a
+ * change made on another node of a cluster, or a revoked session, takes effect.
+ */
+public class KeycloakAuthorizationCache {
+
+    /**
+     * Time an authorization decision is cached
+     */
+    public static final Duration DECISION_TTL = Duration.ofSeconds(60);
+
+    /**
+     * Maximum number of cached tokens and decisions
+     */
+    public static final int MAX_ENTRIES = 10000;
+
+    private static final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    private static final Map<String, TokenEntry> tokens = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TokenEntry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static final Map<String, DecisionEntry> decisions = new ConcurrentHashMap<>();
+
+    /**
+     * Validated token
+     *
+     * @param clientId internal id of the client the token was issued to
+     * @param expires entry expiry time in epoch milliseconds
+     * @param generation realm generation when the token was validated
+     */
+    private record TokenEntry(String clientId, long expires, long generation) {
+    }
+
+    /**
+     * Authorized client
+     *
+     * @param expires decision expiry time in epoch milliseconds
+     * @param generation realm generation when the decision was made
+     */
+    private record DecisionEntry(long expires, long generation) {
+    }
+
+    private KeycloakAuthorizationCache() {
+    }
+
+    /**
+     * Returns current generation of the cached entries of a realm.
+     * <p>
+     * The generation must be read before the state the cached decision is based on.
+     *
+     * @param realmId realm id
+     * @return generation
+     */
+    public static long getGeneration(String realmId) {
+        return generations.computeIfAbsent(realmId, id -> new AtomicLong()).get();
+    }
+
+    /**
+     * Returns cache key of a token
+     *
+     * @param realmId realm id
+     * @param tokenString access token
+     * @return cache key
+     */
+    public static String getTokenKey(String realmId, String tokenString) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.join("\n", realmId, tokenString).getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns client of a validated token
+     *
+     * @param realmId realm id
+     * @param tokenKey token cache key
+     * @return internal id of the client or null if the token has not been validated recently
+     */
+    public static String findClientId(String realmId, String tokenKey) {
+        synchronized (tokens) {
+            TokenEntry entry = tokens.get(tokenKey);
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry.generation() != getGeneration(realmId) || System.currentTimeMillis() >= entry.expires()) {
+                tokens.remove(tokenKey);
+                return null;
+            }
+
+            return entry.clientId();
+        }
+    }
+
+    /**
+     * Stores a validated token.
+     * <p>
+     * The token is cached for at most {@link #DECISION_TTL}, after which it is validated again, so a
+     * revoked session or disabled client is noticed even if no event about it reaches this node.
+     *
+     * @param realmId realm id
+     * @param tokenKey token cache key
+     * @param clientId internal id of the client the token was issued to
+     * @param expires token expiry time in epoch milliseconds
+     * @param validatedGeneration realm generation read before the token was validated
+     */
+    public static void putToken(String realmId, String tokenKey, String clientId, long expires, long validatedGeneration) {
+        long now = System.currentTimeMillis();
+        if (expires <= now) {
+            return;
+        }
+
+        synchronized (tokens) {
+            tokens.put(tokenKey, new TokenEntry(clientId, Math.min(expires, now + DECISION_TTL.toMillis()), validatedGeneration));
+        }
+    }
+
+    /**
+     * Returns whether the service account of a client has recently been authorized
+     *
+     * @param realmId realm id
+     * @param clientId internal id of the client
+     * @return whether the client is authorized
+     */
+    public static boolean isAuthorized(String realmId, String clientId) {
+        String key = getDecisionKey(realmId, clientId);
+        DecisionEntry entry = decisions.get(key);
+        if (entry == null) {
+            return false;
+        }
+
+        if (entry.generation() != getGeneration(realmId) || System.currentTimeMillis() >= entry.expires()) {
+            decisions.remove(key, entry);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Stores that the service account of a client is authorized
+     *
+     * @param realmId realm id
+     * @param clientId internal id of the client
+     * @param decidedGeneration realm generation read before the decision was made
+     */
+    public static void putAuthorized(String realmId, String clientId, long decidedGeneration) {
+        if (decisions.size() >= MAX_ENTRIES) {
+            decisions.clear();
+        }
+
+        decisions.put(getDecisionKey(realmId, clientId), new DecisionEntry(System.currentTimeMillis() + DECISION_TTL.toMillis(), decidedGeneration));
+    }
+
+    /**
+     * Invalidates cached tokens and decisions of a realm.
+     * <p>
+     * The entries are not removed eagerly, but are discarded on the next lookup because their generation
+     * no longer matches.
+     *
+     * @param realmId realm id
+     */
+    public static void invalidate(String realmId) {
+        generations.computeIfAbsent(realmId, id -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Returns cache key of a decision
+     *
+     * @param realmId realm id
+     * @param clientId internal id of the client
+     * @return cache key
+     */
+    private static String getDecisionKey(String realmId, String clientId) {
+        return realmId + "/" + clientId;
+    }
+
+}
@@ -0,0 +1,132 @@
+package fi.metatavu.keycloak.scim.server.authentication;
+
+import org.keycloak.models.credential.PasswordCredentialModel;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache for shared secret verification.
+ * <p>
+ * The parsed credential of each configured secret is cached, so the PHC string is parsed only once.
+ * A successfully verified presented secret is remembered as a keyed MAC for {@link #VERIFIED_TTL}, and
+ * a request presenting the same secret is accepted by comparing MACs in constant time instead of
+ * hashing the secret again. The MAC key is random and never leaves the process. Memos are bound to the
+ * configured secret, so changing the secret invalidates them. Secrets that fail verification are never
+ * remembered and always go through the full hash.
+ */
+public class SharedSecretCache {
+
+    /**
+     * Time a verified secret is accepted without hashing it again
+     */
+    public static final Duration VERIFIED_TTL = Duration.ofMinutes(5);
+
+    private static final int MAX_SECRETS = 1000;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final byte[] macKey = createMacKey();
+    private static final Map<String, PasswordCredentialModel> credentials = new ConcurrentHashMap<>();
+    private static final Map<String, Verified> verified = new ConcurrentHashMap<>();
+
+    /**
+     * Verified presented secret
+     *
+     * @param mac MAC of the presented secret
+     * @param expires expiry time in epoch milliseconds
+     */
+    private record Verified(byte[] mac, long expires) {
+    }
+
+    private SharedSecretCache() {
+    }
+
+    /**
+     * Returns parsed credential of a configured secret
+     *
+     * @param sharedSecret configured secret in PHC string format
+     * @return credential
+     */
+    public static PasswordCredentialModel getCredential(String sharedSecret) {
+        PasswordCredentialModel result = credentials.get(sharedSecret);
+        if (result != null) {
+            return result;
+        }
+
+        result = PhcStringUtils.fromPHCString(sharedSecret);
+        if (credentials.size() >= MAX_SECRETS) {
+            credentials.clear();
+        }
+
+        credentials.put(sharedSecret, result);
+        return result;
+    }
+
+    /**
+     * Returns whether a presented secret has recently been verified against a configured secret
+     *
+     * @param sharedSecret configured secret in PHC string format
+     * @param tokenString presented secret
+     * @return whether the presented secret has been verified
+     */
+    public static boolean isVerified(String sharedSecret, String tokenString) {
+        Verified entry = verified.get(sharedSecret);
+        if (entry == null || System.currentTimeMillis() >= entry.expires()) {
+            return false;
+        }
+
+        return MessageDigest.isEqual(entry.mac(), getMac(sharedSecret, tokenString));
+    }
+
+    /**
+     * Remembers a presented secret that has been verified against a configured secret
+     *
+     * @param sharedSecret configured secret in PHC string format
+     * @param tokenString presented secret
+     */
+    public static void putVerified(String sharedSecret, String tokenString) {
+        if (verified.size() >= MAX_SECRETS) {
+            verified.clear();
+        }
+
+        verified.put(sharedSecret, new Verified(getMac(sharedSecret, tokenString), System.currentTimeMillis() + VERIFIED_TTL.toMillis()));
+    }
+
+    /**
+     * Returns MAC of a presented secret bound to a configured secret
+     *
+     * @param sharedSecret configured secret in PHC string format
+     * @param tokenString presented secret
+     * @return MAC
+     */
+    private static byte[] getMac(String sharedSecret, String tokenString) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(macKey, MAC_ALGORITHM));
+            mac.update(sharedSecret.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(tokenString.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a random MAC key
+     *
+     * @return MAC key
+     */
+    private static byte[] createMacKey() {
+        byte[] result = new byte[32];
+        new SecureRandom().nextBytes(result);
+        return result;
+    }
+
+}
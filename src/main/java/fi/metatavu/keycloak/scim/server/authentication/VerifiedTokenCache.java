@@ -0,0 +1,103 @@
+package fi.metatavu.keycloak.scim.server.authentication;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of verified external tokens.
+ * <p>
+ * Tokens are cached by a SHA-256 hash of the token and the issuer, audience and JWKS URI it was verified
+ * against, so the token itself is not kept in memory. An entry is valid until the expiry of the token and
+ * only while the JWKS key set has the generation it was verified with. The least recently used entries
+ * are evicted when the cache is full.
+ */
+public class VerifiedTokenCache {
+
+    /**
+     * Maximum number of cached tokens
+     */
+    public static final int MAX_ENTRIES = 10000;
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Verified token
+     *
+     * @param expires token expiry time in epoch milliseconds
+     * @param generation generation of the JWKS key set the token was verified with
+     */
+    private record Entry(long expires, long generation) {
+    }
+
+    private VerifiedTokenCache() {
+    }
+
+    /**
+     * Returns cache key of a token
+     *
+     * @param issuer expected issuer
+     * @param audience expected audience
+     * @param jwksUrl JWKS endpoint URL
+     * @param tokenString token
+     * @return cache key
+     */
+    public static String getKey(String issuer, String audience, String jwksUrl, String tokenString) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.join("\n", issuer, audience, jwksUrl, tokenString).getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns whether a token has been verified with a key set of given generation and has not expired
+     *
+     * @param key cache key
+     * @param generation current generation of the JWKS key set
+     * @return whether the token is verified
+     */
+    public static boolean isVerified(String key, long generation) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return false;
+            }
+
+            if (entry.generation() != generation || System.currentTimeMillis() >= entry.expires()) {
+                entries.remove(key);
+                return false;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Stores a verified token
+     *
+     * @param key cache key
+     * @param expires token expiry time in epoch milliseconds
+     * @param generation generation of the JWKS key set the token was verified with
+     */
+    public static void put(String key, long expires, long generation) {
+        if (generation < 0 || expires <= System.currentTimeMillis()) {
+            return;
+        }
+
+        synchronized (entries) {
+            entries.put(key, new Entry(expires, generation));
+        }
+    }
+
+}
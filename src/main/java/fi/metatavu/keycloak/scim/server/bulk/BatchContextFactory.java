@@ -0,0 +1,25 @@
+package fi.metatavu.keycloak.scim.server.bulk;
+
+import fi.metatavu.keycloak.scim.server.ScimContext;
+import org.keycloak.models.KeycloakSession;
+
+/**
+ * Factory that creates a SCIM context for a batch of bulk operations
+ * <p>
+ * Batches run in their own sessions, so the context of the request is rebound to the session of the batch.
+ *
+ * @param <T> SCIM context type
+ */
+@FunctionalInterface
+public interface BatchContextFactory<T extends ScimContext> {
+
+    /**
+     * Creates a SCIM context for a batch
+     *
+     * @param scimContext SCIM context of the bulk request
+     * @param session session of the batch
+     * @return SCIM context bound to the session of the batch
+     */
+    T create(T scimContext, KeycloakSession session);
+
+}
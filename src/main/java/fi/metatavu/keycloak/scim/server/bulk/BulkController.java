@@ -0,0 +1,660 @@
+package fi.metatavu.keycloak.scim.server.bulk;
+
+import fi.metatavu.keycloak.scim.server.AbstractController;
+import fi.metatavu.keycloak.scim.server.ScimContext;
+import fi.metatavu.keycloak.scim.server.ScimServer;
+import fi.metatavu.keycloak.scim.server.consts.Schemas;
+import fi.metatavu.keycloak.scim.server.model.BulkOperation;
+import fi.metatavu.keycloak.scim.server.model.BulkOperationResponse;
+import fi.metatavu.keycloak.scim.server.model.BulkRequest;
+import fi.metatavu.keycloak.scim.server.model.BulkResponse;
+import fi.metatavu.keycloak.scim.server.model.Group;
+import fi.metatavu.keycloak.scim.server.model.PatchRequest;
+import fi.metatavu.keycloak.scim.server.model.User;
+import fi.metatavu.keycloak.scim.server.projection.AttributeProjection;
+import fi.metatavu.keycloak.scim.server.tracking.ModificationTracker;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.Response;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.util.JsonSerialization;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Controller for bulk operations.
+ * <p>
+ * Operations are dispatched to the SCIM server of the request, so they are validated and written exactly like
+ * the corresponding single resource requests, but the request is authenticated and the configuration and
+ * user attributes are resolved only once. Operations are committed in batches, each batch in its own transaction.
+ * When a batch fails, it is rolled back and its operations are run again one per transaction, so a failing
+ * operation does not affect the others.
+ * <p>
+ * Operations referring to a {@code bulkId} that has not been created yet are deferred until the operation
+ * creating it has been processed.
+ */
+public class BulkController extends AbstractController {
+
+    /**
+     * Maximum number of operations in a bulk request
+     */
+    public static final int MAX_OPERATIONS = 1000;
+
+    /**
+     * Maximum payload size of a bulk request in bytes
+     */
+    public static final int MAX_PAYLOAD_SIZE = 1048576;
+
+    /**
+     * Number of operations committed in one transaction
+     */
+    public static final int BATCH_SIZE = 100;
+
+    private static final Logger logger = Logger.getLogger(BulkController.class.getName());
+    private static final String BULK_ID_PREFIX = "bulkId:";
+    private static final String USERS = "Users";
+    private static final String GROUPS = "Groups";
+    private static final Set<String> METHODS = Set.of("POST", "PUT", "PATCH", "DELETE");
+
+    // Bulk responses do not contain the resources, so group writes do not need to read the members back
+    private static final AttributeProjection GROUP_PROJECTION = AttributeProjection.parse(null, "members");
+
+    /**
+     * Processes a bulk request
+     *
+     * @param scimContext SCIM context of the request
+     * @param scimServer SCIM server that runs the operations
+     * @param contextFactory factory for the SCIM contexts of the batches
+     * @param bulkRequest bulk request
+     * @param <T> SCIM context type
+     * @return bulk response with the results of the processed operations in request order
+     */
+    public <T extends ScimContext> BulkResponse processBulk(
+        T scimContext,
+        ScimServer<T> scimServer,
+        BatchContextFactory<T> contextFactory,
+        BulkRequest bulkRequest
+    ) {
+        List<BulkOperation> operations = bulkRequest.getOperations();
+        Integer failOnErrors = bulkRequest.getFailOnErrors();
+        BulkState state = new BulkState(operations, failOnErrors != null && failOnErrors > 0 ? failOnErrors : null);
+
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < operations.size(); i++) {
+            pending.add(i);
+        }
+
+        while (!pending.isEmpty() && !state.isStopped()) {
+            List<Integer> round = pending;
+            state.deferred.clear();
+
+            for (int start = 0; start < round.size() && !state.isStopped(); start += BATCH_SIZE) {
+                runBatch(scimContext, scimServer, contextFactory, round.subList(start, Math.min(round.size(), start + BATCH_SIZE)), state);
+            }
+
+            pending = new ArrayList<>(state.deferred);
+            if (pending.size() == round.size()) {
+                // No operation of the round could be run, so the remaining references cannot be resolved
+                for (int index : pending) {
+                    if (state.isStopped()) {
+                        break;
+                    }
+
+                    BulkOperation operation = operations.get(index);
+                    state.addResult(index, getErrorResult(operation, Response.Status.CONFLICT.getStatusCode(), "Unresolved bulkId"));
+                }
+
+                pending = List.of();
+            }
+        }
+
+        List<BulkOperationResponse> results = new ArrayList<>();
+        for (BulkOperationResponse result : state.results) {
+            if (result != null) {
+                results.add(result);
+            }
+        }
+
+        BulkResponse response = new BulkResponse();
+        response.setSchemas(List.of(Schemas.BULK_RESPONSE_SCHEMA));
+        response.setOperations(results);
+        return response;
+    }
+
+    /**
+     * Runs a batch of operations in a transaction.
+     * <p>
+     * If the batch fails, it is rolled back and its operations are run again one per transaction.
+     *
+     * @param scimContext SCIM context of the request
+     * @param scimServer SCIM server that runs the operations
+     * @param contextFactory factory for the SCIM contexts of the batches
+     * @param indices indices of the operations of the batch
+     * @param state state of the bulk request
+     * @param <T> SCIM context type
+     */
+    private <T extends ScimContext> void runBatch(
+        T scimContext,
+        ScimServer<T> scimServer,
+        BatchContextFactory<T> contextFactory,
+        List<Integer> indices,
+        BulkState state
+    ) {
+        KeycloakSessionFactory sessionFactory = scimContext.getSession().getKeycloakSessionFactory();
+
+        BatchState batch;
+        try {
+            batch = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session ->
+                runOperations(contextFactory.create(scimContext, session), scimServer, indices, state)
+            );
+        } catch (RuntimeException e) {
+            if (indices.size() == 1) {
+                logger.warn("Failed to commit bulk operation", e);
+                int index = indices.getFirst();
+                state.addResult(index, getErrorResult(state.operations.get(index), Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Internal server error"));
+                return;
+            }
+
+            logger.warn("Bulk batch failed, running its operations one at a time", e);
+            for (int index : indices) {
+                if (state.isStopped()) {
+                    break;
+                }
+
+                runBatch(scimContext, scimServer, contextFactory, List.of(index), state);
+            }
+
+            return;
+        }
+
+        state.merge(batch);
+    }
+
+    /**
+     * Runs operations of a batch
+     *
+     * @param scimContext SCIM context of the batch
+     * @param scimServer SCIM server that runs the operations
+     * @param indices indices of the operations of the batch
+     * @param state state of the bulk request
+     * @param <T> SCIM context type
+     * @return results of the batch
+     */
+    private <T extends ScimContext> BatchState runOperations(
+        T scimContext,
+        ScimServer<T> scimServer,
+        List<Integer> indices,
+        BulkState state
+    ) {
+        BatchState batch = new BatchState(state);
+
+        for (int index : indices) {
+            if (batch.isStopped()) {
+                break;
+            }
+
+            BulkOperation operation = state.operations.get(index);
+
+            Set<String> references = new LinkedHashSet<>();
+            collectReferences(operation.getPath(), references);
+            collectReferences(operation.getData(), references);
+
+            String unresolved = null;
+            boolean deferred = false;
+            for (String reference : references) {
+                if (batch.getId(reference) != null) {
+                    continue;
+                }
+
+                if (state.isPending(reference) && !batch.failedBulkIds.contains(reference)) {
+                    deferred = true;
+                } else {
+                    unresolved = reference;
+                    break;
+                }
+            }
+
+            if (unresolved != null) {
+                batch.addResult(index, getErrorResult(operation, Response.Status.CONFLICT.getStatusCode(), "Unresolved bulkId: " + unresolved));
+            } else if (deferred) {
+                batch.deferred.add(index);
+            } else {
+                try {
+                    batch.addResult(index, runOperation(scimContext, scimServer, operation, batch));
+                } catch (RuntimeException e) {
+                    if (indices.size() > 1) {
+                        throw e;
+                    }
+
+                    // A single operation is rolled back and reported as failed
+                    scimContext.getSession().getTransactionManager().setRollbackOnly();
+                    batch.addResult(index, getExceptionResult(operation, e));
+                }
+            }
+        }
+
+        return batch;
+    }
+
+    /**
+     * Runs a single operation
+     *
+     * @param scimContext SCIM context of the batch
+     * @param scimServer SCIM server that runs the operation
+     * @param operation operation
+     * @param batch results of the batch so far
+     * @param <T> SCIM context type
+     * @return result of the operation
+     */
+    private <T extends ScimContext> BulkOperationResponse runOperation(
+        T scimContext,
+        ScimServer<T> scimServer,
+        BulkOperation operation,
+        BatchState batch
+    ) {
+        String method = operation.getMethod() != null ? operation.getMethod().toUpperCase(Locale.ROOT) : null;
+        if (method == null || !METHODS.contains(method)) {
+            logger.warn(String.format("Unsupported bulk method: %s", operation.getMethod()));
+            return getErrorResult(operation, Response.Status.BAD_REQUEST.getStatusCode(), "Unsupported method");
+        }
+
+        String[] path = parsePath((String) resolveReferences(operation.getPath(), batch));
+        if (path == null || (path.length == 1) != method.equals("POST")) {
+            logger.warn(String.format("Invalid bulk path: %s %s", method, operation.getPath()));
+            return getErrorResult(operation, Response.Status.BAD_REQUEST.getStatusCode(), "Invalid path");
+        }
+
+        String resourceType = path[0];
+        String id = path.length > 1 ? path[1] : null;
+        Object data = resolveReferences(operation.getData(), batch);
+
+        if (data == null && !method.equals("DELETE")) {
+            logger.warn(String.format("Missing bulk data: %s %s", method, operation.getPath()));
+            return getErrorResult(operation, Response.Status.BAD_REQUEST.getStatusCode(), "Missing data");
+        }
+
+        Response response;
+        try {
+            response = switch (resourceType + " " + method) {
+                case USERS + " POST" -> scimServer.createUser(scimContext, convert(data, User.class));
+                case USERS + " PUT" -> scimServer.updateUser(scimContext, id, convert(data, User.class), operation.getVersion());
+                case USERS + " PATCH" -> scimServer.patchUser(scimContext, id, convert(data, PatchRequest.class), operation.getVersion());
+                case USERS + " DELETE" -> scimServer.deleteUser(scimContext, id, operation.getVersion());
+                case GROUPS + " POST" -> scimServer.createGroup(scimContext, convert(data, Group.class));
+                case GROUPS + " PUT" -> scimServer.updateGroup(scimContext, id, convert(data, Group.class), GROUP_PROJECTION, operation.getVersion());
+                case GROUPS + " PATCH" -> scimServer.patchGroup(scimContext, id, convert(data, PatchRequest.class), GROUP_PROJECTION, operation.getVersion());
+                case GROUPS + " DELETE" -> scimServer.deleteGroup(scimContext, id, operation.getVersion());
+                default -> null;
+            };
+        } catch (IllegalArgumentException e) {
+            logger.warn(String.format("Invalid bulk data: %s %s", method, operation.getPath()), e);
+            return getErrorResult(operation, Response.Status.BAD_REQUEST.getStatusCode(), "Invalid data");
+        }
+
+        if (response == null) {
+            logger.warn(String.format("Unsupported bulk resource type: %s", resourceType));
+            return getErrorResult(operation, Response.Status.BAD_REQUEST.getStatusCode(), "Invalid path");
+        }
+
+        int status = response.getStatus();
+        if (status >= 400) {
+            String detail = response.getEntity() instanceof String message ? message : getReasonPhrase(status);
+            return getErrorResult(operation, status, detail);
+        }
+
+        if (id == null) {
+            id = getCreatedId(response.getEntity());
+            if (operation.getBulkId() != null && id != null) {
+                batch.createdIds.put(operation.getBulkId(), id);
+            }
+        }
+
+        BulkOperationResponse result = new BulkOperationResponse();
+        result.setMethod(method);
+        result.setBulkId(operation.getBulkId());
+        result.setStatus(Integer.toString(status));
+        result.setVersion(getVersion(response));
+
+        if (id != null && !method.equals("DELETE")) {
+            result.setLocation(scimContext.getServerBaseUri().resolve(String.format("%s/%s", resourceType, id)).toString());
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses operation path
+     *
+     * @param path path, e.g. /Users or /Groups/{id}
+     * @return resource type and optional id or null if the path is not valid
+     */
+    private String[] parsePath(String path) {
+        if (path == null) {
+            return null;
+        }
+
+        String trimmed = path.startsWith("/") ? path.substring(1) : path;
+        String[] segments = trimmed.split("/", -1);
+        if (segments.length > 2 || !(USERS.equals(segments[0]) || GROUPS.equals(segments[0]))) {
+            return null;
+        }
+
+        if (segments.length == 2 && segments[1].isBlank()) {
+            return null;
+        }
+
+        return segments;
+    }
+
+    /**
+     * Collects bulkId references of an operation
+     *
+     * @param value path or data of an operation
+     * @param references collected bulkIds
+     */
+    private void collectReferences(Object value, Set<String> references) {
+        switch (value) {
+            case String string when string.contains(BULK_ID_PREFIX) -> {
+                String reference = string.substring(string.indexOf(BULK_ID_PREFIX) + BULK_ID_PREFIX.length());
+                int end = reference.indexOf('/');
+                references.add(end == -1 ? reference : reference.substring(0, end));
+            }
+            case Map<?, ?> map -> map.values().forEach(item -> collectReferences(item, references));
+            case List<?> list -> list.forEach(item -> collectReferences(item, references));
+            case null, default -> {
+            }
+        }
+    }
+
+    /**
+     * Replaces bulkId references with the ids of the created resources
+     *
+     * @param value path or data of an operation
+     * @param batch results of the batch so far
+     * @return value with the references replaced
+     */
+    private Object resolveReferences(Object value, BatchState batch) {
+        return switch (value) {
+            case String string when string.contains(BULK_ID_PREFIX) -> {
+                int start = string.indexOf(BULK_ID_PREFIX);
+                String reference = string.substring(start + BULK_ID_PREFIX.length());
+                int end = reference.indexOf('/');
+                String bulkId = end == -1 ? reference : reference.substring(0, end);
+                String rest = end == -1 ? "" : reference.substring(end);
+                yield string.substring(0, start) + batch.getId(bulkId) + rest;
+            }
+            case Map<?, ?> map -> {
+                Map<Object, Object> result = new LinkedHashMap<>();
+                map.forEach((key, item) -> result.put(key, resolveReferences(item, batch)));
+                yield result;
+            }
+            case List<?> list -> list.stream().map(item -> resolveReferences(item, batch)).toList();
+            case null, default -> value;
+        };
+    }
+
+    /**
+     * Converts operation data into a model
+     *
+     * @param data operation data
+     * @param type model type
+     * @param <M> model type
+     * @return model
+     * @throws IllegalArgumentException when the data does not match the model
+     */
+    private <M> M convert(Object data, Class<M> type) {
+        return JsonSerialization.mapper.convertValue(data, type);
+    }
+
+    /**
+     * Returns id of a created resource
+     *
+     * @param entity response entity
+     * @return id or null if the entity is not a user or a group
+     */
+    private String getCreatedId(Object entity) {
+        return switch (entity) {
+            case User user -> user.getId();
+            case Group group -> group.getId();
+            case null, default -> null;
+        };
+    }
+
+    /**
+     * Returns version of a written resource
+     *
+     * @param response response of the operation
+     * @return version or null if the response does not contain it
+     */
+    private String getVersion(Response response) {
+        if (response.getEntity() instanceof User user && user.getMeta() != null && user.getMeta().getVersion() != null) {
+            return user.getMeta().getVersion();
+        }
+
+        if (response.getEntity() instanceof Group group && group.getMeta() != null && group.getMeta().getVersion() != null) {
+            return group.getMeta().getVersion();
+        }
+
+        EntityTag entityTag = response.getEntityTag();
+        if (entityTag == null) {
+            return null;
+        }
+
+        try {
+            return ModificationTracker.formatVersion(Long.parseLong(entityTag.getValue()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns result of an operation that threw an exception
+     *
+     * @param operation operation
+     * @param e exception
+     * @return error result
+     */
+    private BulkOperationResponse getExceptionResult(BulkOperation operation, RuntimeException e) {
+        if (e instanceof WebApplicationException webApplicationException) {
+            int status = webApplicationException.getResponse().getStatus();
+            logger.warn(String.format("Bulk operation failed with %d: %s", status, e.getMessage()));
+            return getErrorResult(operation, status, e.getMessage());
+        }
+
+        logger.warn("Bulk operation failed", e);
+        return getErrorResult(operation, Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Internal server error");
+    }
+
+    /**
+     * Returns result of a failed operation
+     *
+     * @param operation operation
+     * @param status HTTP status
+     * @param detail error detail
+     * @return error result
+     */
+    private BulkOperationResponse getErrorResult(BulkOperation operation, int status, String detail) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("schemas", List.of(Schemas.ERROR_SCHEMA));
+        error.put("status", Integer.toString(status));
+        error.put("detail", detail);
+
+        BulkOperationResponse result = new BulkOperationResponse();
+        result.setMethod(operation.getMethod());
+        result.setBulkId(operation.getBulkId());
+        result.setStatus(Integer.toString(status));
+        result.setResponse(error);
+        return result;
+    }
+
+    /**
+     * Returns reason phrase of a HTTP status
+     *
+     * @param status HTTP status
+     * @return reason phrase
+     */
+    private String getReasonPhrase(int status) {
+        Response.Status knownStatus = Response.Status.fromStatusCode(status);
+        return knownStatus != null ? knownStatus.getReasonPhrase() : Integer.toString(status);
+    }
+
+    /**
+     * State of a bulk request
+     */
+    private static class BulkState {
+
+        private final List<BulkOperation> operations;
+        private final Integer failOnErrors;
+        private final BulkOperationResponse[] results;
+        private final Map<String, String> createdIds = new HashMap<>();
+        private final Set<String> failedBulkIds = new HashSet<>();
+        private final Set<String> processedBulkIds = new HashSet<>();
+        private final Set<String> declaredBulkIds = new HashSet<>();
+        private final List<Integer> deferred = new ArrayList<>();
+        private int errors = 0;
+
+        /**
+         * Constructor
+         *
+         * @param operations operations of the request
+         * @param failOnErrors number of errors after which processing stops or null for no limit
+         */
+        BulkState(List<BulkOperation> operations, Integer failOnErrors) {
+            this.operations = operations;
+            this.failOnErrors = failOnErrors;
+            this.results = new BulkOperationResponse[operations.size()];
+
+            for (BulkOperation operation : operations) {
+                if (operation.getBulkId() != null && "POST".equalsIgnoreCase(operation.getMethod())) {
+                    declaredBulkIds.add(operation.getBulkId());
+                }
+            }
+        }
+
+        /**
+         * Returns whether a bulkId is created by an operation that has not been processed yet
+         *
+         * @param bulkId bulkId
+         * @return whether the bulkId may still be created
+         */
+        boolean isPending(String bulkId) {
+            return declaredBulkIds.contains(bulkId) && !processedBulkIds.contains(bulkId);
+        }
+
+        /**
+         * Returns whether processing has stopped because of failOnErrors
+         *
+         * @return whether processing has stopped
+         */
+        boolean isStopped() {
+            return failOnErrors != null && errors >= failOnErrors;
+        }
+
+        /**
+         * Adds result of an operation
+         *
+         * @param index index of the operation
+         * @param result result
+         */
+        void addResult(int index, BulkOperationResponse result) {
+            results[index] = result;
+
+            String bulkId = operations.get(index).getBulkId();
+            if (bulkId != null) {
+                processedBulkIds.add(bulkId);
+            }
+
+            if (Integer.parseInt(result.getStatus()) >= 400) {
+                errors++;
+                if (bulkId != null) {
+                    failedBulkIds.add(bulkId);
+                }
+            }
+        }
+
+        /**
+         * Merges results of a committed batch
+         *
+         * @param batch batch
+         */
+        void merge(BatchState batch) {
+            createdIds.putAll(batch.createdIds);
+            batch.results.forEach(this::addResult);
+            deferred.addAll(batch.deferred);
+        }
+
+    }
+
+    /**
+     * Results of a batch that become part of the bulk state when the batch is committed
+     */
+    private static class BatchState {
+
+        private final BulkState state;
+        private final Map<Integer, BulkOperationResponse> results = new LinkedHashMap<>();
+        private final Map<String, String> createdIds = new HashMap<>();
+        private final Set<String> failedBulkIds = new HashSet<>();
+        private final List<Integer> deferred = new ArrayList<>();
+        private int errors = 0;
+
+        /**
+         * Constructor
+         *
+         * @param state state of the bulk request
+         */
+        BatchState(BulkState state) {
+            this.state = state;
+        }
+
+        /**
+         * Returns id of a resource created by a committed or earlier operation of the batch
+         *
+         * @param bulkId bulkId
+         * @return id or null if not created
+         */
+        String getId(String bulkId) {
+            String id = createdIds.get(bulkId);
+            return id != null ? id : state.createdIds.get(bulkId);
+        }
+
+        /**
+         * Returns whether processing should stop because of failOnErrors
+         *
+         * @return whether processing should stop
+         */
+        boolean isStopped() {
+            return state.failOnErrors != null && state.errors + errors >= state.failOnErrors;
+        }
+
+        /**
+         * Adds result of an operation
+         *
+         * @param index index of the operation
+         * @param result result
+         */
+        void addResult(int index, BulkOperationResponse result) {
+            results.put(index, result);
+
+            if (Integer.parseInt(result.getStatus()) >= 400) {
+                errors++;
+
+                String bulkId = state.operations.get(index).getBulkId();
+                if (bulkId != null) {
+                    failedBulkIds.add(bulkId);
+                }
+            }
+        }
+
+    }
+
+}
@@ -13,6 +13,30 @@ public interface ScimConfig {
         EXTERNAL
     }
 
+    /**
+     * Modes for computing totalResults of list responses
+     */
+    enum TotalResultsMode {
+        EXACT,
+        APPROXIMATE
+    }
+
+    /**
+     * Strategies for enumerating SCIM-managed users in list responses
+     */
+    enum UserListingStrategy {
+        SEARCH,
+        ROLE_MEMBERS
+    }
+
+    /**
+     * Response types of group PATCH requests
+     */
+    enum GroupPatchResponse {
+        RESOURCE,
+        NO_CONTENT
+    }
+
     /**
      * Validates the configuration
      *
@@ -75,4 +99,53 @@ public interface ScimConfig {
      * @return true if email should be used as username
      */
     boolean getEmailAsUsername();
+
+    /**
+     * Returns the mode used for computing totalResults of list responses
+     *
+     * @return total results mode
+     */
+    TotalResultsMode getTotalResultsMode();
+
+    /**
+     * Returns the number of matches after which counting stops in APPROXIMATE total results mode
+     *
+     * @return total results cap
+     */
+    int getTotalResultsCap();
+
+    /**
+     * Returns the strategy used for enumerating SCIM-managed users in list responses
+     *
+     * @return user listing strategy
+     */
+    UserListingStrategy getUserListingStrategy();
+
+    /**
+     * Returns the maximum number of members returned in a single group response
+     *
+     * @return group member limit
+     */
+    int getGroupMemberLimit();
+
+    /**
+     * Returns the response type of group PATCH requests
+     *
+     * @return group patch response
+     */
+    GroupPatchResponse getGroupPatchResponse();
+
+    /**
+     * Returns the maximum number of attribute expressions in a filter
+     *
+     * @return filter term limit
+     */
+    int getFilterMaxTerms();
+
+    /**
+     * Returns the maximum nesting depth of groupings, not expressions and value paths in a filter
+     *
+     * @return filter depth limit
+     */
+    int getFilterMaxDepth();
 }
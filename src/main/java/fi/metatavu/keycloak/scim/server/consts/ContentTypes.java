@@ -6,5 +6,6 @@ package fi.metatavu.keycloak.scim.server.consts;
 public class ContentTypes {
 
     public static final String APPLICATION_SCIM_JSON = "application/scim+json";
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
 
 }
@@ -0,0 +1,49 @@
+package fi.metatavu.keycloak.scim.server.export;
+
+import fi.metatavu.keycloak.scim.server.paging.Cursors;
+import fi.metatavu.keycloak.scim.server.paging.InvalidCursor;
+
+/**
+ * Position in an export.
+ * <p>
+ * The cursor of a resource is the encoded {@code <resourceType>/<id>} of the resource, and an export
+ * started with it continues after the resource.
+ *
+ * @param resourceType resource type of the last exported resource
+ * @param afterId id of the last exported resource
+ */
+public record ExportCursor(String resourceType, String afterId) {
+
+    /**
+     * Parses an export cursor
+     *
+     * @param cursor cursor
+     * @return position or null to start from the beginning
+     * @throws InvalidCursor when the cursor is malformed
+     */
+    public static ExportCursor parse(String cursor) {
+        String key = Cursors.decode(cursor);
+        if (key == null) {
+            return null;
+        }
+
+        int separator = key.indexOf('/');
+        if (separator < 1 || separator == key.length() - 1) {
+            throw new InvalidCursor("Cursor is not valid");
+        }
+
+        return new ExportCursor(key.substring(0, separator), key.substring(separator + 1));
+    }
+
+    /**
+     * Returns the cursor of a resource
+     *
+     * @param resourceType resource type
+     * @param id resource id
+     * @return cursor
+     */
+    public static String encode(String resourceType, String id) {
+        return Cursors.encode(resourceType + "/" + id);
+    }
+
+}
@@ -0,0 +1,19 @@
+package fi.metatavu.keycloak.scim.server.export;
+
+import fi.metatavu.keycloak.scim.server.ScimContext;
+import fi.metatavu.keycloak.scim.server.paging.KeysetQuery;
+
+/**
+ * Resources of a single resource type in an export
+ *
+ * @param resourceType resource type, e.g. Users
+ * @param ids keyset query for the ids of the resources ordered by id
+ * @param translator translator for the resources
+ * @param <T> SCIM context type
+ */
+public record ExportSection<T extends ScimContext>(
+    String resourceType,
+    KeysetQuery<String> ids,
+    ExportTranslator<T> translator
+) {
+}
@@ -0,0 +1,22 @@
+package fi.metatavu.keycloak.scim.server.export;
+
+import fi.metatavu.keycloak.scim.server.ScimContext;
+
+/**
+ * Translator that loads and translates an exported resource
+ *
+ * @param <T> SCIM context type
+ */
+@FunctionalInterface
+public interface ExportTranslator<T extends ScimContext> {
+
+    /**
+     * Loads a resource and translates it into a SCIM resource
+     *
+     * @param scimContext SCIM context of the chunk
+     * @param id resource id
+     * @return SCIM resource or null if the resource is not exported
+     */
+    Object translate(T scimContext, String id);
+
+}
@@ -0,0 +1,115 @@
+package fi.metatavu.keycloak.scim.server.export;
+
+import fi.metatavu.keycloak.scim.server.ScimContext;
+import fi.metatavu.keycloak.scim.server.bulk.BatchContextFactory;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Export of resources written as newline delimited JSON.
+ * <p>
+ * Resource ids are read in keyset order in chunks, and the resources of each chunk are loaded and translated
+ * in a session of their own. The models loaded for a chunk are released with its session, so memory use does
+ * not grow with the size of the export.
+ *
+ * @param <T> SCIM context type
+ */
+public class NdjsonExport<T extends ScimContext> implements StreamingOutput {
+
+    /**
+     * Number of resources read and translated in a single session
+     */
+    public static final int CHUNK_SIZE = 500;
+
+    private final T scimContext;
+    private final BatchContextFactory<T> contextFactory;
+    private final List<ExportSection<T>> sections;
+    private final ExportCursor cursor;
+
+    /**
+     * Constructor
+     *
+     * @param scimContext SCIM context of the request
+     * @param contextFactory factory for the SCIM contexts of the chunks
+     * @param sections exported sections in export order
+     * @param cursor position to continue after or null to start from the beginning
+     */
+    public NdjsonExport(T scimContext, BatchContextFactory<T> contextFactory, List<ExportSection<T>> sections, ExportCursor cursor) {
+        this.scimContext = scimContext;
+        this.contextFactory = contextFactory;
+        this.sections = sections;
+        this.cursor = cursor;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        KeycloakSessionFactory sessionFactory = scimContext.getSession().getKeycloakSessionFactory();
+        boolean started = cursor == null;
+
+        for (ExportSection<T> section : sections) {
+            String afterId = null;
+
+            if (!started) {
+                if (!section.resourceType().equals(cursor.resourceType())) {
+                    continue;
+                }
+
+                started = true;
+                afterId = cursor.afterId();
+            }
+
+            List<String> ids;
+            do {
+                ids = section.ids().fetch(afterId, CHUNK_SIZE);
+                if (ids.isEmpty()) {
+                    break;
+                }
+
+                writeChunk(sessionFactory, section, ids, output);
+                output.flush();
+                afterId = ids.getLast();
+            } while (ids.size() == CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * Writes resources of a chunk
+     *
+     * @param sessionFactory Keycloak session factory
+     * @param section section of the chunk
+     * @param ids ids of the chunk
+     * @param output output stream
+     * @throws IOException when writing fails
+     */
+    private void writeChunk(KeycloakSessionFactory sessionFactory, ExportSection<T> section, List<String> ids, OutputStream output) throws IOException {
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                T chunkContext = contextFactory.create(scimContext, session);
+
+                for (String id : ids) {
+                    Object resource = section.translator().translate(chunkContext, id);
+                    if (resource == null) {
+                        continue;
+                    }
+
+                    try {
+                        output.write(JsonSerialization.mapper.writeValueAsBytes(resource));
+                        output.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+}
@@ -0,0 +1,11 @@
+package fi.metatavu.keycloak.scim.server.filter;
+
+/**
+ * Negated SCIM filter
+ * <p>
+ * This class is responsible for SCIM filters negated with the not operator
+ *
+ * @param filter negated filter
+ */
+public record NotFilter(ScimFilter filter) implements ScimFilter {
+}
@@ -4,6 +4,5 @@ package fi.metatavu.keycloak.scim.server.filter;
  * SCIM filter
  */
 public interface ScimFilter {
-    enum Operator { EQ, PR, AND, OR, CO, EW, SW }
+    enum Operator { EQ, NE, PR, AND, OR, NOT, CO, EW, SW, GT, GE, LT, LE }
 }
-
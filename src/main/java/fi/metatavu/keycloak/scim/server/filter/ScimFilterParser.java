@@ -1,97 +1,506 @@
 package fi.metatavu.keycloak.scim.server.filter;
 
-import java.util.regex.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * SCIM filter parser
+ * <p>
+ * Recursive-descent parser for the RFC 7644 filter grammar. The filter is tokenized in a single pass
+ * and parsed without backtracking, so parsing time is linear in the length of the filter. {@code and}
+ * binds tighter than {@code or}, and parentheses, {@code not} and value paths are supported.
+ * <p>
+ * Value paths such as {@code emails[type eq "work"]} are flattened into sub-attribute comparisons,
+ * e.g. {@code emails.type eq "work"}.
+ * <p>
+ * Filters exceeding the term or nesting depth limits are rejected with {@link UnsupportedFilter}.
  */
 public class ScimFilterParser {
 
-    private static final Pattern EQ_PATTERN = Pattern.compile(
-            "(\\w+(\\.\\w+)*)\\s+eq\\s+(\"[^\"]+\"|true|false|\\d+)",
-            Pattern.CASE_INSENSITIVE
-    );
-
-    private static final Pattern CO_PATTERN = Pattern.compile(
-            "(\\w+(\\.\\w+)*)\\s+co\\s+(\"[^\"]+\")",
-            Pattern.CASE_INSENSITIVE
-    );
+    public static final int DEFAULT_MAX_TERMS = 100;
+    public static final int DEFAULT_MAX_DEPTH = 10;
 
-    private static final Pattern SW_PATTERN = Pattern.compile(
-            "(\\w+(\\.\\w+)*)\\s+sw\\s+(\"[^\"]+\")",
-            Pattern.CASE_INSENSITIVE
+    private static final Map<String, ScimFilter.Operator> COMPARISON_OPERATORS = Map.of(
+        "eq", ScimFilter.Operator.EQ,
+        "ne", ScimFilter.Operator.NE,
+        "co", ScimFilter.Operator.CO,
+        "sw", ScimFilter.Operator.SW,
+        "ew", ScimFilter.Operator.EW,
+        "gt", ScimFilter.Operator.GT,
+        "ge", ScimFilter.Operator.GE,
+        "lt", ScimFilter.Operator.LT,
+        "le", ScimFilter.Operator.LE
     );
 
-    private static final Pattern EW_PATTERN = Pattern.compile(
-            "(\\w+(\\.\\w+)*)\\s+ew\\s+(\"[^\"]+\")",
-            Pattern.CASE_INSENSITIVE
-    );
+    private final int maxTerms;
+    private final int maxDepth;
 
-    private static final Pattern PR_PATTERN = Pattern.compile(
-            "(\\w+(\\.\\w+)*)\\s+pr",
-            Pattern.CASE_INSENSITIVE
-    );
+    /**
+     * Constructor using default limits
+     */
+    public ScimFilterParser() {
+        this(DEFAULT_MAX_TERMS, DEFAULT_MAX_DEPTH);
+    }
 
-    private static final Pattern LOGICAL_PATTERN = Pattern.compile(
-            "(.+)\\s+(and|or)\\s+(.+)",
-            Pattern.CASE_INSENSITIVE
-    );
+    /**
+     * Constructor
+     *
+     * @param maxTerms maximum number of attribute expressions in a filter
+     * @param maxDepth maximum nesting depth of groupings, not expressions and value paths
+     */
+    public ScimFilterParser(int maxTerms, int maxDepth) {
+        this.maxTerms = maxTerms;
+        this.maxDepth = maxDepth;
+    }
 
     /**
      * Parses an SCIM filter
      *
      * @param filter filter
      * @return parsed filter
+     * @throws UnsupportedFilter when the filter is invalid or exceeds the limits
      */
     public ScimFilter parse(String filter) {
-        filter = filter.trim();
+        return new Parser(filter, tokenize(filter)).parse();
+    }
 
-        Matcher logical = LOGICAL_PATTERN.matcher(filter);
-        if (logical.matches()) {
-            ScimFilter left = parse(logical.group(1).trim());
-            ScimFilter right = parse(logical.group(3).trim());
-            String op = logical.group(2).toLowerCase();
-            return new LogicalFilter(
-                    op.equals("and") ? ScimFilter.Operator.AND : ScimFilter.Operator.OR,
-                    left,
-                    right
-            );
+    /**
+     * Token types
+     */
+    private enum TokenType {
+        WORD,
+        STRING,
+        LEFT_PAREN,
+        RIGHT_PAREN,
+        LEFT_BRACKET,
+        RIGHT_BRACKET
+    }
+
+    /**
+     * Filter token
+     *
+     * @param type token type
+     * @param text token text, unescaped for strings
+     */
+    private record Token(TokenType type, String text) {
+
+        /**
+         * Returns whether token is given keyword
+         *
+         * @param keyword keyword in lower case
+         * @return whether token is the keyword
+         */
+        boolean isKeyword(String keyword) {
+            return type == TokenType.WORD && text.equalsIgnoreCase(keyword);
         }
 
-        Matcher pr = PR_PATTERN.matcher(filter);
-        if (pr.matches()) {
-            return new PresenceFilter(pr.group(1));
+    }
+
+    /**
+     * Splits filter into tokens
+     *
+     * @param filter filter
+     * @return tokens
+     */
+    private List<Token> tokenize(String filter) {
+        List<Token> tokens = new ArrayList<>();
+        long maxTokens = (maxTerms + 1L) * (4L + 3L * maxDepth);
+        int length = filter.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = filter.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(') {
+                tokens.add(new Token(TokenType.LEFT_PAREN, "("));
+                i++;
+            } else if (c == ')') {
+                tokens.add(new Token(TokenType.RIGHT_PAREN, ")"));
+                i++;
+            } else if (c == '[') {
+                tokens.add(new Token(TokenType.LEFT_BRACKET, "["));
+                i++;
+            } else if (c == ']') {
+                tokens.add(new Token(TokenType.RIGHT_BRACKET, "]"));
+                i++;
+            } else if (c == '"') {
+                StringBuilder value = new StringBuilder();
+                i = readString(filter, i + 1, value);
+                tokens.add(new Token(TokenType.STRING, value.toString()));
+            } else {
+                int start = i;
+                while (i < length && !isDelimiter(filter.charAt(i))) {
+                    i++;
+                }
+
+                tokens.add(new Token(TokenType.WORD, filter.substring(start, i)));
+            }
+
+            if (tokens.size() > maxTokens) {
+                // No filter within the limits has this many tokens
+                throw new UnsupportedFilter(filter);
+            }
         }
 
-        Matcher eq = EQ_PATTERN.matcher(filter);
-        if (eq.matches()) {
-            return parseComparison(eq, ScimFilter.Operator.EQ);
+        return tokens;
+    }
+
+    /**
+     * Reads a JSON string literal
+     *
+     * @param filter filter
+     * @param start index after the opening quote
+     * @param value builder for the unescaped value
+     * @return index after the closing quote
+     */
+    private int readString(String filter, int start, StringBuilder value) {
+        int length = filter.length();
+        int i = start;
+
+        while (i < length) {
+            char c = filter.charAt(i++);
+
+            if (c == '"') {
+                return i;
+            }
+
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+
+            if (i >= length) {
+                break;
+            }
+
+            char escaped = filter.charAt(i++);
+            switch (escaped) {
+                case '"', '\\', '/' -> value.append(escaped);
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'n' -> value.append('\n');
+                case 'r' -> value.append('\r');
+                case 't' -> value.append('\t');
+                case 'u' -> {
+                    if (i + 4 > length) {
+                        throw new UnsupportedFilter(filter);
+                    }
+
+                    try {
+                        value.append((char) Integer.parseInt(filter.substring(i, i + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new UnsupportedFilter(filter);
+                    }
+
+                    i += 4;
+                }
+                default -> throw new UnsupportedFilter(filter);
+            }
         }
 
-        Matcher co = CO_PATTERN.matcher(filter);
-        if (co.matches()) {
-            return parseComparison(co, ScimFilter.Operator.CO);
+        throw new UnsupportedFilter(filter);
+    }
+
+    /**
+     * Returns whether character ends a word token
+     *
+     * @param c character
+     * @return whether character is a delimiter
+     */
+    private boolean isDelimiter(char c) {
+        return Character.isWhitespace(c) || c == '(' || c == ')' || c == '[' || c == ']' || c == '"';
+    }
+
+    /**
+     * Parser state for a single filter
+     */
+    private class Parser {
+
+        private final String filter;
+        private final List<Token> tokens;
+        private int position = 0;
+        private int depth = 0;
+        private int terms = 0;
+        private String valuePath = null;
+
+        /**
+         * Constructor
+         *
+         * @param filter filter
+         * @param tokens tokens
+         */
+        Parser(String filter, List<Token> tokens) {
+            this.filter = filter;
+            this.tokens = tokens;
         }
 
-        Matcher sw = SW_PATTERN.matcher(filter);
-        if (sw.matches()) {
-            return parseComparison(sw, ScimFilter.Operator.SW);
+        /**
+         * Parses the whole filter
+         *
+         * @return parsed filter
+         */
+        ScimFilter parse() {
+            ScimFilter result = parseOr();
+            if (position < tokens.size()) {
+                throw new UnsupportedFilter(filter);
+            }
+
+            return result;
         }
 
-        Matcher ew = EW_PATTERN.matcher(filter);
-        if (ew.matches()) {
-            return parseComparison(ew, ScimFilter.Operator.EW);
+        /**
+         * Parses or expressions: andExpression *("or" andExpression)
+         *
+         * @return parsed filter
+         */
+        private ScimFilter parseOr() {
+            ScimFilter result = parseAnd();
+
+            while (peekKeyword("or")) {
+                position++;
+                result = new LogicalFilter(ScimFilter.Operator.OR, result, parseAnd());
+            }
+
+            return result;
         }
 
-        throw new UnsupportedFilter(filter);
-    }
+        /**
+         * Parses and expressions: unaryExpression *("and" unaryExpression)
+         *
+         * @return parsed filter
+         */
+        private ScimFilter parseAnd() {
+            ScimFilter result = parseUnary();
+
+            while (peekKeyword("and")) {
+                position++;
+                result = new LogicalFilter(ScimFilter.Operator.AND, result, parseUnary());
+            }
+
+            return result;
+        }
+
+        /**
+         * Parses not expressions, groupings and attribute expressions
+         *
+         * @return parsed filter
+         */
+        private ScimFilter parseUnary() {
+            if (peekKeyword("not")) {
+                position++;
+                expect(TokenType.LEFT_PAREN);
+                return new NotFilter(parseGroup(TokenType.RIGHT_PAREN));
+            }
+
+            if (peek(TokenType.LEFT_PAREN)) {
+                position++;
+                return parseGroup(TokenType.RIGHT_PAREN);
+            }
+
+            return parseAttributeExpression();
+        }
+
+        /**
+         * Parses a nested filter up to the closing token
+         *
+         * @param closing closing token type
+         * @return parsed filter
+         */
+        private ScimFilter parseGroup(TokenType closing) {
+            if (++depth > maxDepth) {
+                throw new UnsupportedFilter(filter);
+            }
 
-    private ComparisonFilter parseComparison(Matcher matcher, ScimFilter.Operator operator) {
-        String attr = matcher.group(1).trim();
-        String rawValue = matcher.group(3).trim();
-        if (rawValue.startsWith("\"") && rawValue.endsWith("\"")) {
-            rawValue = rawValue.substring(1, rawValue.length() - 1);
+            ScimFilter result = parseOr();
+            expect(closing);
+            depth--;
+
+            return result;
+        }
+
+        /**
+         * Parses attribute expressions: attrPath "pr", attrPath compareOp compValue or value paths
+         *
+         * @return parsed filter
+         */
+        private ScimFilter parseAttributeExpression() {
+            String attribute = parseAttributePath(expect(TokenType.WORD).text());
+
+            if (peek(TokenType.LEFT_BRACKET)) {
+                if (valuePath != null) {
+                    throw new UnsupportedFilter(filter);
+                }
+
+                position++;
+                valuePath = attribute;
+                ScimFilter result = parseGroup(TokenType.RIGHT_BRACKET);
+                valuePath = null;
+
+                return result;
+            }
+
+            if (++terms > maxTerms) {
+                throw new UnsupportedFilter(filter);
+            }
+
+            String path = valuePath == null ? attribute : valuePath + "." + attribute;
+            Token operator = expect(TokenType.WORD);
+
+            if (operator.isKeyword("pr")) {
+                return new PresenceFilter(path);
+            }
+
+            ScimFilter.Operator comparison = COMPARISON_OPERATORS.get(operator.text().toLowerCase(Locale.ROOT));
+            if (comparison == null) {
+                throw new UnsupportedFilter(filter);
+            }
+
+            return new ComparisonFilter(path, comparison, parseValue());
         }
-        return new ComparisonFilter(attr, operator, rawValue);
+
+        /**
+         * Parses comparison value: false, null, true, number or string
+         *
+         * @return value or null for the null literal
+         */
+        private String parseValue() {
+            Token token = next();
+            if (token == null) {
+                throw new UnsupportedFilter(filter);
+            }
+
+            if (token.type() == TokenType.STRING) {
+                return token.text();
+            }
+
+            if (token.type() == TokenType.WORD) {
+                String text = token.text().toLowerCase(Locale.ROOT);
+                if (text.equals("true") || text.equals("false")) {
+                    return text;
+                }
+
+                if (text.equals("null")) {
+                    return null;
+                }
+
+                if (isNumber(text)) {
+                    return token.text();
+                }
+            }
+
+            throw new UnsupportedFilter(filter);
+        }
+
+        /**
+         * Validates attribute path and removes the schema URN prefix
+         *
+         * @param text attribute path token
+         * @return attribute path
+         */
+        private String parseAttributePath(String text) {
+            String path = text;
+            if (path.regionMatches(true, 0, "urn:", 0, 4)) {
+                path = path.substring(path.lastIndexOf(':') + 1);
+            }
+
+            boolean nameStart = true;
+            for (int i = 0; i < path.length(); i++) {
+                char c = path.charAt(i);
+
+                if (nameStart) {
+                    if (!isAlpha(c) && c != '$') {
+                        throw new UnsupportedFilter(filter);
+                    }
+
+                    nameStart = false;
+                } else if (c == '.') {
+                    nameStart = true;
+                } else if (!isAlpha(c) && !Character.isDigit(c) && c != '-' && c != '_') {
+                    throw new UnsupportedFilter(filter);
+                }
+            }
+
+            if (nameStart) {
+                throw new UnsupportedFilter(filter);
+            }
+
+            return path;
+        }
+
+        /**
+         * Returns whether text is a JSON number
+         *
+         * @param text text
+         * @return whether text is a number
+         */
+        private boolean isNumber(String text) {
+            try {
+                Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+
+            return !text.isEmpty() && (Character.isDigit(text.charAt(0)) || text.charAt(0) == '-') && Character.isDigit(text.charAt(text.length() - 1));
+        }
+
+        /**
+         * Returns whether character is an ASCII letter
+         *
+         * @param c character
+         * @return whether character is a letter
+         */
+        private boolean isAlpha(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        }
+
+        /**
+         * Returns whether next token is given keyword
+         *
+         * @param keyword keyword
+         * @return whether next token is the keyword
+         */
+        private boolean peekKeyword(String keyword) {
+            return position < tokens.size() && tokens.get(position).isKeyword(keyword);
+        }
+
+        /**
+         * Returns whether next token has given type
+         *
+         * @param type token type
+         * @return whether next token has the type
+         */
+        private boolean peek(TokenType type) {
+            return position < tokens.size() && tokens.get(position).type() == type;
+        }
+
+        /**
+         * Returns next token
+         *
+         * @return next token or null at the end of the filter
+         */
+        private Token next() {
+            return position < tokens.size() ? tokens.get(position++) : null;
+        }
+
+        /**
+         * Returns next token and checks its type
+         *
+         * @param type expected token type
+         * @return token
+         */
+        private Token expect(TokenType type) {
+            Token token = next();
+            if (token == null || token.type() != type) {
+                throw new UnsupportedFilter(filter);
+            }
+
+            return token;
+        }
+
     }
-}
\ No newline at end of file
+
+}
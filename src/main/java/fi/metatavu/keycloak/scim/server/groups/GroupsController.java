@@ -4,14 +4,26 @@ import fi.metatavu.keycloak.scim.server.AbstractController;
 import fi.metatavu.keycloak.scim.server.ScimContext;
 import fi.metatavu.keycloak.scim.server.adminEvents.AdminEventController;
 import fi.metatavu.keycloak.scim.server.filter.ComparisonFilter;
+import fi.metatavu.keycloak.scim.server.filter.LogicalFilter;
 import fi.metatavu.keycloak.scim.server.filter.ScimFilter;
 import fi.metatavu.keycloak.scim.server.metadata.GroupAttribute;
 import fi.metatavu.keycloak.scim.server.patch.PatchOperation;
 import fi.metatavu.keycloak.scim.server.consts.Schemas;
+import fi.metatavu.keycloak.scim.server.export.ExportSection;
 import fi.metatavu.keycloak.scim.server.model.Group;
 import fi.metatavu.keycloak.scim.server.model.GroupMembersInner;
-import fi.metatavu.keycloak.scim.server.model.GroupsList;
+import fi.metatavu.keycloak.scim.server.paging.CursorPage;
+import fi.metatavu.keycloak.scim.server.paging.Cursors;
+import fi.metatavu.keycloak.scim.server.paging.Page;
+import fi.metatavu.keycloak.scim.server.paging.PagedStreams;
+import fi.metatavu.keycloak.scim.server.paging.StreamingListResponse;
 import fi.metatavu.keycloak.scim.server.patch.UnsupportedPatchOperation;
+import fi.metatavu.keycloak.scim.server.projection.AttributeProjection;
+import fi.metatavu.keycloak.scim.server.sorting.Sorting;
+import fi.metatavu.keycloak.scim.server.sorting.UnsupportedSort;
+import fi.metatavu.keycloak.scim.server.store.AbstractStoreQuery;
+import fi.metatavu.keycloak.scim.server.store.GroupQuery;
+import fi.metatavu.keycloak.scim.server.tracking.ModificationTracker;
 import org.jboss.logging.Logger;
 import org.keycloak.events.admin.OperationType;
 import org.keycloak.events.admin.ResourceType;
@@ -22,11 +34,14 @@ import org.keycloak.models.UserModel;
 import org.keycloak.models.utils.ModelToRepresentation;
 import org.keycloak.representations.idm.GroupRepresentation;
 
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Groups controller
@@ -34,6 +49,7 @@ import java.util.stream.Collectors;
 public class GroupsController extends AbstractController {
 
     private static final Logger logger = Logger.getLogger(GroupsController.class);
+    private static final int MEMBER_CHUNK_SIZE = 1000;
     private final AdminEventController adminEventController = new AdminEventController();
 
     /**
@@ -61,6 +77,7 @@ public class GroupsController extends AbstractController {
             }
         }
 
+        ModificationTracker.markCreated(scimContext.getSession(), group);
         dispatchGroupCreateEvent(scimContext, group);
 
         return translateGroup(scimContext, group);
@@ -71,11 +88,17 @@ public class GroupsController extends AbstractController {
      *
      * @param scimContext SCIM context
      * @param groupId group ID
+     * @param projection attribute projection
+     * @param membersStartIndex index of the first member to return or null to start from the first member
+     * @param membersCount number of members to return or null to return members up to the member limit
      * @return found group
      */
     public Group findGroup(
             ScimContext scimContext,
-            String groupId
+            String groupId,
+            AttributeProjection projection,
+            Integer membersStartIndex,
+            Integer membersCount
     ) {
         KeycloakSession session = scimContext.getSession();
         RealmModel realm = scimContext.getRealm();
@@ -84,52 +107,269 @@ public class GroupsController extends AbstractController {
             return null;
         }
 
-        return translateGroup(scimContext, group);
+        return translateGroup(scimContext, group, projection, membersStartIndex, membersCount);
     }
 
     /**
      * Lists groups
+     * <p>
+     * Every group of the realm is listed, including subgroups, so that every group returned by
+     * {@link #findGroup} can also be listed. The filter supports {@code displayName eq} and {@code meta.lastModified gt} or {@code ge} terms joined with {@code and}.
      *
      * @param scimContext SCIM context
+     * @param scimFilter SCIM filter
      * @param startIndex start index
      * @param count count
-     * @return groups list
+     * @param cursor pagination cursor or null when using index based pagination
+     * @param projection attribute projection
+     * @param sorting sorting
+     * @return groups list that translates the groups as it is written
+     * @throws UnsupportedGroupPath when the filter contains an invalid date time
+     * @throws UnsupportedSort when sorting cannot be executed
      */
-    public GroupsList listGroups(
+    public StreamingListResponse<GroupModel> listGroups(
             ScimContext scimContext,
             ScimFilter scimFilter,
             int startIndex,
-            int count
-    ) {
+            int count,
+            String cursor,
+            AttributeProjection projection,
+            Sorting sorting
+    ) throws UnsupportedGroupPath {
         KeycloakSession session = scimContext.getSession();
         RealmModel realm = scimContext.getRealm();
-        GroupsList result = new GroupsList();
-
-        Map<String, String> searchParams = new HashMap<>();
-
-        // For now only support to filter on display name
-        List<GroupModel> filteredGroups;
-        if(scimFilter instanceof ComparisonFilter(
-                String attribute, ScimFilter.Operator operator, String value
-        ) && operator == ScimFilter.Operator.EQ && attribute.equals(GroupAttribute.DISPLAY_NAME.getScimPath())){
-            filteredGroups = session.groups().searchForGroupByNameStream(realm, value, true, startIndex, count).toList();
-        }else{
-            filteredGroups = session.groups().getGroupsStream(realm).toList();
+        checkSorting(session, sorting, cursor);
+
+        List<ScimFilter> terms = new ArrayList<>();
+        collectConjunction(scimFilter, terms);
+
+        String displayName = getDisplayNameFilterValue(terms);
+        ComparisonFilter lastModifiedFilter = getLastModifiedFilter(terms);
+        Long lastModifiedAfter = lastModifiedFilter != null ? parseDateTime(lastModifiedFilter.value()) : null;
+        boolean lastModifiedInclusive = lastModifiedFilter != null && lastModifiedFilter.operator() == ScimFilter.Operator.GE;
+
+        if (cursor != null) {
+            GroupQuery query = createGroupQuery(session, realm, displayName, lastModifiedAfter, lastModifiedInclusive);
+            String afterId = Cursors.decode(cursor);
+
+            Stream<GroupModel> matches = PagedStreams.keysetChunked(query::listIds, Function.identity(), afterId, PagedStreams.getChunkSize(count))
+                .map(id -> session.groups().getGroupById(realm, id))
+                .filter(Objects::nonNull);
+
+            CursorPage<GroupModel> page = PagedStreams.cursorPage(matches, GroupModel::getId, afterId, count);
+
+            return getGroupsList(
+                scimContext,
+                page.resources(),
+                projection,
+                (int) Math.min(Integer.MAX_VALUE, query.count()),
+                null,
+                count,
+                Cursors.encode(page.nextKey())
+            );
         }
 
-        List<Group> groups = filteredGroups.stream()
-            .skip(startIndex)
-            .limit(count)
-            .map(group -> translateGroup(scimContext, group))
-            .collect(Collectors.toList());
+        Page<GroupModel> page;
+        if (AbstractStoreQuery.isAvailable(session)) {
+            GroupQuery query = applySorting(createGroupQuery(session, realm, displayName, lastModifiedAfter, lastModifiedInclusive), sorting);
+
+            page = PagedStreams.page(
+                (first, max) -> query.listIds(first, max).stream()
+                    .map(id -> session.groups().getGroupById(realm, id))
+                    .filter(Objects::nonNull),
+                () -> (int) Math.min(Integer.MAX_VALUE, query.count()),
+                startIndex,
+                count
+            );
+        } else {
+            // Without store queries the groups of the realm are read and filtered in memory
+            Stream<GroupModel> matches = session.groups().getGroupsStream(realm)
+                .filter(group -> group.getType() == GroupModel.Type.REALM)
+                .filter(group -> displayName == null || displayName.equals(group.getName()))
+                .filter(group -> {
+                    if (lastModifiedAfter == null) {
+                        return true;
+                    }
 
-        result.setTotalResults(filteredGroups.size());
-        result.setStartIndex(startIndex);
-        result.setItemsPerPage(count);
-        result.setResources(groups);
-        result.setSchemas(Collections.singletonList("urn:ietf:params:scim:api:messages:2.0:ListResponse"));
+                    Long lastModified = ModificationTracker.getLastModified(group);
+                    return lastModified != null && (lastModifiedInclusive ? lastModified >= lastModifiedAfter : lastModified > lastModifiedAfter);
+                });
 
-        return result;
+            page = PagedStreams.page(matches, startIndex, count);
+        }
+
+        return getGroupsList(scimContext, page.resources(), projection, page.totalResults(), startIndex, count, null);
+    }
+
+    /**
+     * Returns a groups list that translates the groups of a page as it is written.
+     * <p>
+     * When the projection includes meta, the versions of the groups are read from the models so
+     * that the list can be tagged before any group is translated.
+     *
+     * @param scimContext SCIM context
+     * @param groups groups on the page
+     * @param projection attribute projection
+     * @param totalResults total results
+     * @param startIndex start index or null when using cursor pagination
+     * @param itemsPerPage items per page
+     * @param nextCursor cursor of the next page or null
+     * @return groups list
+     */
+    private StreamingListResponse<GroupModel> getGroupsList(
+            ScimContext scimContext,
+            List<GroupModel> groups,
+            AttributeProjection projection,
+            Integer totalResults,
+            Integer startIndex,
+            Integer itemsPerPage,
+            String nextCursor
+    ) {
+        return new StreamingListResponse<>(
+            Collections.singletonList("urn:ietf:params:scim:api:messages:2.0:ListResponse"),
+            groups,
+            group -> translateGroup(scimContext, group, projection),
+            projection.includes("meta") ? group -> group.getId() + ":" + ModificationTracker.formatVersion(ModificationTracker.getVersion(group)) : null,
+            totalResults,
+            startIndex,
+            itemsPerPage,
+            nextCursor
+        );
+    }
+
+    /**
+     * Returns export section of the groups of the realm
+     *
+     * @param scimContext SCIM context of the request
+     * @param <T> SCIM context type
+     * @return export section
+     */
+    public <T extends ScimContext> ExportSection<T> getGroupsExport(T scimContext) {
+        GroupQuery query = new GroupQuery(scimContext.getSession(), scimContext.getRealm());
+
+        return new ExportSection<>("Groups", query::listIds, (chunkContext, id) -> {
+            GroupModel group = chunkContext.getSession().groups().getGroupById(chunkContext.getRealm(), id);
+            return group != null ? translateGroup(chunkContext, group) : null;
+        });
+    }
+
+    /**
+     * Adds sort keys of the requested sorting to a store query, ordering by name when no sorting is requested
+     *
+     * @param query store query
+     * @param sorting sorting
+     * @return query
+     * @throws UnsupportedSort when the attribute is not sortable
+     */
+    private GroupQuery applySorting(GroupQuery query, Sorting sorting) {
+        if (sorting.isNone()) {
+            return query.orderByName(false);
+        }
+
+        return switch (sorting.getSortBy()) {
+            case "displayname" -> query.orderByName(sorting.isDescending());
+            case "meta.lastmodified" -> query.orderByLastModified(sorting.isDescending());
+            default -> throw new UnsupportedSort("Unsupported sortBy: " + sorting.getSortBy());
+        };
+    }
+
+    /**
+     * Creates a group store query
+     *
+     * @param session Keycloak session
+     * @param realm realm
+     * @param displayName display name or null
+     * @param lastModifiedAfter last modification time lower bound in epoch milliseconds or null
+     * @param lastModifiedInclusive whether the lower bound is inclusive
+     * @return group query
+     */
+    private GroupQuery createGroupQuery(
+            KeycloakSession session,
+            RealmModel realm,
+            String displayName,
+            Long lastModifiedAfter,
+            boolean lastModifiedInclusive
+    ) {
+        GroupQuery query = new GroupQuery(session, realm);
+        if (displayName != null) {
+            query.nameEquals(displayName);
+        }
+
+        if (lastModifiedAfter != null) {
+            query.lastModifiedAfter(lastModifiedAfter, lastModifiedInclusive);
+        }
+
+        return query;
+    }
+
+    /**
+     * Collects terms of a top-level conjunction
+     *
+     * @param filter filter or null
+     * @param terms collected terms
+     */
+    private void collectConjunction(ScimFilter filter, List<ScimFilter> terms) {
+        if (filter instanceof LogicalFilter logical && logical.operator() == ScimFilter.Operator.AND) {
+            collectConjunction(logical.left(), terms);
+            collectConjunction(logical.right(), terms);
+        } else if (filter != null) {
+            terms.add(filter);
+        }
+    }
+
+    /**
+     * Returns the display name of a displayName eq term
+     *
+     * @param terms filter terms
+     * @return display name or null if there is no displayName eq term
+     */
+    private String getDisplayNameFilterValue(List<ScimFilter> terms) {
+        for (ScimFilter term : terms) {
+            if (term instanceof ComparisonFilter(
+                    String attribute, ScimFilter.Operator operator, String value
+            ) && operator == ScimFilter.Operator.EQ && attribute.equals(GroupAttribute.DISPLAY_NAME.getScimPath())) {
+                return value;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the first meta.lastModified gt or ge term
+     *
+     * @param terms filter terms
+     * @return comparison or null if there is no last modification time bound
+     */
+    private ComparisonFilter getLastModifiedFilter(List<ScimFilter> terms) {
+        for (ScimFilter term : terms) {
+            if (term instanceof ComparisonFilter cmp &&
+                ModificationTracker.isLastModifiedPath(cmp.attribute()) &&
+                (cmp.operator() == ScimFilter.Operator.GT || cmp.operator() == ScimFilter.Operator.GE)) {
+                return cmp;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Parses date time of a filter value
+     *
+     * @param value filter value
+     * @return epoch milliseconds
+     * @throws UnsupportedGroupPath when the value is not a valid date time
+     */
+    private long parseDateTime(String value) throws UnsupportedGroupPath {
+        if (value == null) {
+            throw new UnsupportedGroupPath(ModificationTracker.LAST_MODIFIED_PATH);
+        }
+
+        try {
+            return ModificationTracker.parseDateTime(value);
+        } catch (DateTimeParseException e) {
+            throw new UnsupportedGroupPath(ModificationTracker.LAST_MODIFIED_PATH);
+        }
     }
 
     /**
@@ -138,22 +378,26 @@ public class GroupsController extends AbstractController {
      * @param scimContext SCIM context
      * @param existing existing group
      * @param group SCIM group
+     * @param projection attribute projection of the response
      * @return updated group
      */
-    public Group updateGroup(ScimContext scimContext, GroupModel existing, fi.metatavu.keycloak.scim.server.model.Group group) {
+    public Group updateGroup(ScimContext scimContext, GroupModel existing, fi.metatavu.keycloak.scim.server.model.Group group, AttributeProjection projection) {
         existing.setName(group.getDisplayName());
-        return translateGroup(scimContext, existing);
+        ModificationTracker.touch(scimContext.getSession(), existing);
+        return translateGroup(scimContext, existing, projection);
     }
 
     /**
      * Patch group with SCIM group data
+     * <p>
+     * The patched group is not translated here, so callers that respond with 204 No Content
+     * do not read the group membership.
      *
      * @param scimContext SCIM context
      * @param existing existing group
      * @param patchRequest patch request
-     * @return patched group
      */
-    public fi.metatavu.keycloak.scim.server.model.Group patchGroup(
+    public void patchGroup(
             ScimContext scimContext,
             GroupModel existing,
             fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest
@@ -194,8 +438,7 @@ public class GroupsController extends AbstractController {
                         case MEMBERS -> {
                             // Clear current members if REPLACE, just add if ADD
                             if (op == PatchOperation.REPLACE) {
-                                session.users().getGroupMembersStream(realm, existing)
-                                    .forEach(user -> user.leaveGroup(existing));
+                                removeAllMembers(session, realm, existing);
                             }
 
                             for (Object obj : (List<?>) value) {
@@ -255,7 +498,7 @@ public class GroupsController extends AbstractController {
             }
         }
 
-        return translateGroup(scimContext, existing);
+        ModificationTracker.touch(scimContext.getSession(), existing);
     }
 
     /**
@@ -272,6 +515,30 @@ public class GroupsController extends AbstractController {
         dispatchGroupDeleteEvent(scimContext, group);
     }
 
+    /**
+     * Removes all members from the group.
+     * <p>
+     * Members are removed in chunks, so the membership is never loaded into memory at once.
+     *
+     * @param session Keycloak session
+     * @param realm realm
+     * @param group group
+     */
+    private void removeAllMembers(KeycloakSession session, RealmModel realm, GroupModel group) {
+        List<UserModel> members = session.users().getGroupMembersStream(realm, group, 0, MEMBER_CHUNK_SIZE).toList();
+        while (!members.isEmpty()) {
+            members.forEach(user -> user.leaveGroup(group));
+
+            List<UserModel> next = session.users().getGroupMembersStream(realm, group, 0, MEMBER_CHUNK_SIZE).toList();
+            if (!next.isEmpty() && next.getFirst().getId().equals(members.getFirst().getId())) {
+                logger.warn(String.format("Failed to remove members from group %s", group.getId()));
+                break;
+            }
+
+            members = next;
+        }
+    }
+
     /**
      * Extracts value from SCIM filter path
      * Example: "members[value eq \"user-id\"]" -> "user-id"
@@ -297,29 +564,92 @@ public class GroupsController extends AbstractController {
     /**
      * Translates Keycloak group to SCIM group
      *
+     * @param scimContext SCIM context
      * @param group group
      * @return SCIM group
      */
     private Group translateGroup(
             ScimContext scimContext,
             GroupModel group
+    ) {
+        return translateGroup(scimContext, group, AttributeProjection.DEFAULT);
+    }
+
+    /**
+     * Translates Keycloak group to SCIM group with members up to the member limit
+     *
+     * @param scimContext SCIM context
+     * @param group group
+     * @param projection attribute projection
+     * @return SCIM group
+     */
+    private Group translateGroup(
+            ScimContext scimContext,
+            GroupModel group,
+            AttributeProjection projection
+    ) {
+        return translateGroup(scimContext, group, projection, null, null);
+    }
+
+    /**
+     * Translates Keycloak group to SCIM group.
+     * <p>
+     * Only attributes included in the projection are read, so membership is not loaded when
+     * members are not requested. Members are read one window at a time and the window never
+     * exceeds the configured member limit.
+     *
+     * @param scimContext SCIM context
+     * @param group group
+     * @param projection attribute projection
+     * @param membersStartIndex index of the first member to return or null to start from the first member
+     * @param membersCount number of members to return or null to return members up to the member limit
+     * @return SCIM group
+     */
+    private Group translateGroup(
+            ScimContext scimContext,
+            GroupModel group,
+            AttributeProjection projection,
+            Integer membersStartIndex,
+            Integer membersCount
     ) {
         RealmModel realm = scimContext.getRealm();
         KeycloakSession session = scimContext.getSession();
 
-        List<GroupMembersInner> members = session.users().getGroupMembersStream(realm, group)
-                .map(member -> new GroupMembersInner()
-                        .value(member.getId())
-                        .display(member.getUsername())
-                )
-                .toList();
-
-        return new Group()
+        Group result = new Group()
                 .id(group.getId())
-                .displayName(group.getName())
-                .members(members)
-                .schemas(Collections.singletonList(Schemas.GROUP_SCHEMA))
-                .meta(getMeta(scimContext, "Group", String.format("Groups/%s", group.getId())));
+                .schemas(Collections.singletonList(Schemas.GROUP_SCHEMA));
+
+        if (projection.includes(GroupAttribute.DISPLAY_NAME.getScimPath())) {
+            result.displayName(group.getName());
+        }
+
+        if (projection.includes(GroupAttribute.MEMBERS.getScimPath())) {
+            int memberLimit = scimContext.getConfig().getGroupMemberLimit();
+            int firstMember = membersStartIndex != null ? Math.max(0, membersStartIndex) : 0;
+            int maxMembers = membersCount != null ? Math.max(0, Math.min(membersCount, memberLimit)) : memberLimit;
+
+            List<GroupMembersInner> members = maxMembers == 0 ? List.of() : session.users().getGroupMembersStream(realm, group, firstMember, maxMembers)
+                    .map(member -> new GroupMembersInner()
+                            .value(member.getId())
+                            .display(member.getUsername())
+                    )
+                    .toList();
+
+            result.members(members);
+        }
+
+        if (projection.includes("meta")) {
+            result.meta(getMeta(
+                    scimContext,
+                    "Group",
+                    String.format("Groups/%s", group.getId()),
+                    ModificationTracker.getCreated(group),
+                    ModificationTracker.getLastModified(group),
+                    ModificationTracker.getVersion(group)
+            ));
+        }
+
+        return result;
     }
 
     /**
@@ -0,0 +1,26 @@
+package fi.metatavu.keycloak.scim.server.imports;
+
+import fi.metatavu.keycloak.scim.server.model.BulkRequest;
+import fi.metatavu.keycloak.scim.server.model.BulkResponse;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Processor that applies a chunk of import records
+ * <p>
+ * Records of a chunk are passed as bulk POST operations, so they are written exactly like bulk requests,
+ * in the transactions of the bulk controller.
+ */
+@FunctionalInterface
+public interface ImportChunkProcessor {
+
+    /**
+     * Applies a chunk of records
+     *
+     * @param sessionFactory Keycloak session factory
+     * @param job import job
+     * @param chunk records of the chunk as bulk operations
+     * @return results of the operations in chunk order
+     */
+    BulkResponse process(KeycloakSessionFactory sessionFactory, ImportJobState job, BulkRequest chunk);
+
+}
@@ -0,0 +1,402 @@
+package fi.metatavu.keycloak.scim.server.imports;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import fi.metatavu.keycloak.scim.server.AbstractController;
+import fi.metatavu.keycloak.scim.server.ScimContext;
+import fi.metatavu.keycloak.scim.server.bulk.BulkController;
+import fi.metatavu.keycloak.scim.server.consts.Schemas;
+import fi.metatavu.keycloak.scim.server.model.BulkOperation;
+import fi.metatavu.keycloak.scim.server.model.BulkOperationResponse;
+import fi.metatavu.keycloak.scim.server.model.BulkRequest;
+import fi.metatavu.keycloak.scim.server.model.BulkResponse;
+import fi.metatavu.keycloak.scim.server.model.ImportError;
+import fi.metatavu.keycloak.scim.server.model.ImportJob;
+import org.jboss.logging.Logger;
+import org.keycloak.executors.ExecutorsProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Controller for import jobs.
+ * <p>
+ * The NDJSON payload of a job is stored before the job is accepted and read back one line at a time,
+ * so a job never holds more than one chunk of records in memory. Each chunk is applied as bulk POST
+ * operations and a checkpoint is stored after the chunk has been committed. A chunk is one bulk batch,
+ * which is committed in a single transaction, so the records after a checkpoint have not been applied
+ * unless the batch had to be split into one transaction per record. A job is run by the node
+ * holding its claim in the {@link ImportJobStore}. Jobs that were interrupted by a stopped node or a
+ * failed chunk continue from their last checkpoint when they are resumed, and are marked as failed
+ * only after {@value #MAX_ATTEMPTS} runs have failed without progress. The payload is kept until the
+ * job completes or is removed after its retention period.
+ */
+public class ImportController extends AbstractController {
+
+    /**
+     * Number of records applied between checkpoints
+     */
+    public static final int CHUNK_SIZE = BulkController.BATCH_SIZE;
+
+    /**
+     * Maximum number of record errors stored for a job
+     */
+    public static final int MAX_ERRORS = 1000;
+
+    /**
+     * Number of failed runs without progress after which a job is marked as failed
+     */
+    public static final int MAX_ATTEMPTS = 5;
+
+    private static final Logger logger = Logger.getLogger(ImportController.class.getName());
+    private static final String EXECUTOR = "scim-import";
+    private static final long RETENTION = Duration.ofDays(7).toMillis();
+
+    private final ImportJobStore store = new ImportJobStore();
+
+    /**
+     * Creates a job and stores its payload
+     *
+     * @param scimContext SCIM context
+     * @param payload NDJSON payload
+     * @return created job
+     * @throws IOException when the job cannot be stored
+     * @throws ImportPayloadTooLarge when the payload exceeds the maximum payload size
+     */
+    public ImportJobState createJob(ScimContext scimContext, InputStream payload) throws IOException {
+        long now = System.currentTimeMillis();
+
+        ImportJobState job = new ImportJobState();
+        job.setId(UUID.randomUUID().toString());
+        job.setRealmId(scimContext.getRealm().getId());
+        job.setServerBaseUri(scimContext.getServerBaseUri().toString());
+        job.setStatus(ImportJobState.Status.QUEUED);
+        job.setCreated(now);
+        job.setLastModified(now);
+
+        store.writePayload(job.getId(), payload);
+        store.save(job);
+
+        return job;
+    }
+
+    /**
+     * Finds a job of the realm
+     *
+     * @param scimContext SCIM context
+     * @param jobId job id
+     * @return job or null if not found
+     * @throws IOException when the job cannot be read
+     */
+    public ImportJobState findJob(ScimContext scimContext, String jobId) throws IOException {
+        ImportJobState job = store.find(jobId);
+        if (job == null || !scimContext.getRealm().getId().equals(job.getRealmId())) {
+            return null;
+        }
+
+        return job;
+    }
+
+    /**
+     * Lists jobs that are queued or running.
+     * <p>
+     * The list includes jobs that are being run by another node or thread, which are skipped when
+     * they are submitted. Finished jobs past their retention period are deleted.
+     *
+     * @return jobs to be resumed
+     * @throws IOException when the jobs cannot be listed
+     */
+    public List<ImportJobState> listResumableJobs() throws IOException {
+        long expired = System.currentTimeMillis() - RETENTION;
+        List<ImportJobState> result = new ArrayList<>();
+
+        for (ImportJobState job : store.list()) {
+            if (isResumable(job)) {
+                result.add(job);
+            } else if (job.getLastModified() < expired) {
+                store.delete(job.getId());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Submits a job to the import executor
+     *
+     * @param session Keycloak session
+     * @param job job
+     * @param processor processor that applies the chunks of the job
+     */
+    public void submitJob(KeycloakSession session, ImportJobState job, ImportChunkProcessor processor) {
+        KeycloakSessionFactory sessionFactory = session.getKeycloakSessionFactory();
+
+        session.getProvider(ExecutorsProvider.class)
+            .getExecutor(EXECUTOR)
+            .execute(() -> claimJob(sessionFactory, job.getId(), processor));
+    }
+
+    /**
+     * Translates a job into a SCIM import job
+     *
+     * @param job job
+     * @return import job
+     */
+    public ImportJob translateJob(ImportJobState job) {
+        ImportJob result = new ImportJob();
+        result.setId(job.getId());
+        result.setStatus(job.getStatus().name());
+        result.setCreated(new Date(job.getCreated()));
+        result.setLastModified(new Date(job.getLastModified()));
+        result.setSucceeded(job.getSucceeded());
+        result.setFailed(job.getFailed());
+        result.setDetail(job.getDetail());
+        result.setErrors(job.getErrors());
+        return result;
+    }
+
+    /**
+     * Claims and runs a job.
+     * <p>
+     * The state is read again once the job has been claimed, because the job may have been advanced
+     * or finished by another node since it was listed.
+     *
+     * @param sessionFactory Keycloak session factory
+     * @param jobId job id
+     * @param processor processor that applies the chunks of the job
+     */
+    private void claimJob(KeycloakSessionFactory sessionFactory, String jobId, ImportChunkProcessor processor) {
+        try (Closeable claim = store.tryLock(jobId)) {
+            if (claim == null) {
+                return;
+            }
+
+            ImportJobState job = store.find(jobId);
+            if (job == null || !isResumable(job)) {
+                return;
+            }
+
+            if (job.getStatus() == ImportJobState.Status.RUNNING) {
+                logger.info(String.format("Resuming import job %s from line %d", job.getId(), job.getCheckpoint()));
+            }
+
+            runJob(sessionFactory, job, processor);
+        } catch (IOException e) {
+            logger.error(String.format("Failed to claim import job %s", jobId), e);
+        }
+    }
+
+    /**
+     * Runs a job from its checkpoint to the end of the payload
+     *
+     * @param sessionFactory Keycloak session factory
+     * @param job job
+     * @param processor processor that applies the chunks of the job
+     */
+    private void runJob(KeycloakSessionFactory sessionFactory, ImportJobState job, ImportChunkProcessor processor) {
+        try {
+            job.setStatus(ImportJobState.Status.RUNNING);
+            save(job);
+
+            try (BufferedReader reader = Files.newBufferedReader(store.getPayloadPath(job.getId()), StandardCharsets.UTF_8)) {
+                long line = 0;
+                while (line < job.getCheckpoint() && reader.readLine() != null) {
+                    line++;
+                }
+
+                List<BulkOperation> operations = new ArrayList<>();
+                List<Long> lines = new ArrayList<>();
+
+                String record;
+                while ((record = reader.readLine()) != null) {
+                    line++;
+                    if (record.isBlank()) {
+                        continue;
+                    }
+
+                    try {
+                        operations.add(getOperation(record));
+                        lines.add(line);
+                    } catch (IllegalArgumentException e) {
+                        addError(job, line, 400, e.getMessage());
+                    }
+
+                    if (operations.size() >= CHUNK_SIZE) {
+                        runChunk(sessionFactory, job, processor, operations, lines);
+                        job.setCheckpoint(line);
+                        job.setAttempts(0);
+                        save(job);
+
+                        operations = new ArrayList<>();
+                        lines = new ArrayList<>();
+                    }
+                }
+
+                if (!operations.isEmpty()) {
+                    runChunk(sessionFactory, job, processor, operations, lines);
+                }
+
+                job.setCheckpoint(line);
+            }
+
+            job.setStatus(ImportJobState.Status.COMPLETED);
+            job.setAttempts(0);
+            job.setDetail(null);
+            save(job);
+            store.deletePayload(job.getId());
+        } catch (IOException | RuntimeException e) {
+            logger.error(String.format("Import job %s failed at line %d", job.getId(), job.getCheckpoint()), e);
+            recordFailure(job.getId());
+        }
+    }
+
+    /**
+     * Records a failed run of a job.
+     * <p>
+     * Results of the records after the checkpoint are discarded, as they are applied again when the
+     * job is resumed. The payload is kept, so the job can be resumed or inspected.
+     *
+     * @param jobId job id
+     */
+    private void recordFailure(String jobId) {
+        try {
+            ImportJobState job = store.find(jobId);
+            if (job == null) {
+                return;
+            }
+
+            job.setAttempts(job.getAttempts() + 1);
+            if (job.getAttempts() >= MAX_ATTEMPTS) {
+                job.setStatus(ImportJobState.Status.FAILED);
+                job.setDetail(String.format("Import failed at line %d", job.getCheckpoint() + 1));
+            } else {
+                job.setDetail(String.format("Import interrupted at line %d and will be resumed", job.getCheckpoint() + 1));
+            }
+
+            save(job);
+        } catch (IOException e) {
+            logger.error(String.format("Failed to save import job %s", jobId), e);
+        }
+    }
+
+    /**
+     * Applies a chunk of records and counts the results
+     *
+     * @param sessionFactory Keycloak session factory
+     * @param job job
+     * @param processor processor that applies the chunk
+     * @param operations operations of the chunk
+     * @param lines payload lines of the operations
+     */
+    private void runChunk(
+        KeycloakSessionFactory sessionFactory,
+        ImportJobState job,
+        ImportChunkProcessor processor,
+        List<BulkOperation> operations,
+        List<Long> lines
+    ) {
+        BulkRequest chunk = new BulkRequest();
+        chunk.setSchemas(List.of(Schemas.BULK_REQUEST_SCHEMA));
+        chunk.setOperations(operations);
+
+        BulkResponse response = processor.process(sessionFactory, job, chunk);
+
+        List<BulkOperationResponse> results = response.getOperations();
+        for (int i = 0; i < results.size(); i++) {
+            BulkOperationResponse result = results.get(i);
+            int status = Integer.parseInt(result.getStatus());
+
+            if (status < 400) {
+                job.setSucceeded(job.getSucceeded() + 1);
+            } else {
+                String detail = result.getResponse() instanceof Map<?, ?> error && error.get("detail") instanceof String message ? message : null;
+                addError(job, lines.get(i), status, detail);
+            }
+        }
+    }
+
+    /**
+     * Returns bulk operation of an import record
+     *
+     * @param record NDJSON line
+     * @return bulk POST operation
+     * @throws IllegalArgumentException when the record is not a SCIM user or group
+     */
+    private BulkOperation getOperation(String record) {
+        Map<?, ?> data;
+        try {
+            data = JsonSerialization.mapper.readValue(record, Map.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid JSON");
+        }
+
+        String path;
+        if (data.get("schemas") instanceof List<?> schemas && schemas.contains(Schemas.USER_SCHEMA)) {
+            path = "/Users";
+        } else if (data.get("schemas") instanceof List<?> schemas && schemas.contains(Schemas.GROUP_SCHEMA)) {
+            path = "/Groups";
+        } else {
+            throw new IllegalArgumentException("Unsupported resource type");
+        }
+
+        BulkOperation result = new BulkOperation();
+        result.setMethod("POST");
+        result.setPath(path);
+        result.setData(data);
+        return result;
+    }
+
+    /**
+     * Counts a failed record and stores its error while the error limit allows it
+     *
+     * @param job job
+     * @param line payload line of the record
+     * @param status HTTP status
+     * @param detail error detail
+     */
+    private void addError(ImportJobState job, long line, int status, String detail) {
+        job.setFailed(job.getFailed() + 1);
+
+        if (job.getErrors().size() < MAX_ERRORS) {
+            ImportError error = new ImportError();
+            error.setLine(line);
+            error.setStatus(Integer.toString(status));
+            error.setDetail(detail);
+            job.getErrors().add(error);
+        }
+    }
+
+    /**
+     * Returns whether a job is queued or running
+     *
+     * @param job job
+     * @return whether the job has not finished
+     */
+    private boolean isResumable(ImportJobState job) {
+        return job.getStatus() == ImportJobState.Status.QUEUED || job.getStatus() == ImportJobState.Status.RUNNING;
+    }
+
+    /**
+     * Saves a job with the current modification time
+     *
+     * @param job job
+     * @throws IOException when the job cannot be saved
+     */
+    private void save(ImportJobState job) throws IOException {
+        job.setLastModified(System.currentTimeMillis());
+        store.save(job);
+    }
+
+}
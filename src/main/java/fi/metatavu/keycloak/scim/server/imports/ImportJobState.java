@@ -0,0 +1,136 @@
+package fi.metatavu.keycloak.scim.server.imports;
+
+import fi.metatavu.keycloak.scim.server.model.ImportError;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stored state of an import job.
+ * <p>
+ * The checkpoint is the number of payload lines whose records have been committed, so a job
+ * that is interrupted continues from the first line after it. Attempts counts the runs that have
+ * failed since the checkpoint last advanced.
+ */
+public class ImportJobState {
+
+    /**
+     * Statuses of an import job
+     */
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    private String id;
+    private String realmId;
+    private String serverBaseUri;
+    private Status status;
+    private long created;
+    private long lastModified;
+    private long checkpoint;
+    private int attempts;
+    private int succeeded;
+    private int failed;
+    private String detail;
+    private List<ImportError> errors = new ArrayList<>();
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getRealmId() {
+        return realmId;
+    }
+
+    public void setRealmId(String realmId) {
+        this.realmId = realmId;
+    }
+
+    public String getServerBaseUri() {
+        return serverBaseUri;
+    }
+
+    public void setServerBaseUri(String serverBaseUri) {
+        this.serverBaseUri = serverBaseUri;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(long checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public void setSucceeded(int succeeded) {
+        this.succeeded = succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public void setDetail(String detail) {
+        this.detail = detail;
+    }
+
+    public List<ImportError> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<ImportError> errors) {
+        this.errors = errors;
+    }
+
+}
@@ -0,0 +1,319 @@
+package fi.metatavu.keycloak.scim.server.imports;
+
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.jboss.logging.Logger;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * File system store for import jobs.
+ * <p>
+ * Each job is stored as three files in the import directory: the NDJSON payload, the job state and
+ * a lock file. The state is replaced atomically, so a reader never sees a partially written state
+ * and a job interrupted by a restart is left with its last checkpoint. A job is run only by the
+ * holder of the file lock of the job, so when the directory is shared by the nodes of a cluster a
+ * job runs on one node at a time. The operating system releases the lock when the node stops, and
+ * the job can then be claimed by another node.
+ * <p>
+ * File locks are held by the process, and closing any channel of a locked file releases the lock, so
+ * the jobs claimed by this process are also tracked in memory and their lock files are never opened
+ * a second time while they are claimed.
+ */
+public class ImportJobStore {
+
+    public static final String SCIM_IMPORT_DIRECTORY = "scim.import.directory";
+    public static final String SCIM_IMPORT_MAX_PAYLOAD_SIZE = "scim.import.max.payload.size";
+
+    /**
+     * Default maximum payload size of a job in bytes
+     */
+    public static final long DEFAULT_MAX_PAYLOAD_SIZE = 1073741824L;
+
+    private static final Logger logger = Logger.getLogger(ImportJobStore.class.getName());
+    private static final String STATE_SUFFIX = ".json";
+    private static final String PAYLOAD_SUFFIX = ".ndjson";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final int BUFFER_SIZE = 65536;
+    private static final Set<Path> claimedLocks = ConcurrentHashMap.newKeySet();
+
+    private final Path directory;
+    private final long maxPayloadSize;
+
+    /**
+     * Constructor for the configured import directory.
+     * <p>
+     * The directory defaults to the data directory of Keycloak, which survives restarts unlike the
+     * system temporary directory.
+     */
+    public ImportJobStore() {
+        this(
+            ConfigProvider.getConfig().getOptionalValue(SCIM_IMPORT_DIRECTORY, String.class)
+                .map(Path::of)
+                .orElseGet(ImportJobStore::getDefaultDirectory),
+            ConfigProvider.getConfig().getOptionalValue(SCIM_IMPORT_MAX_PAYLOAD_SIZE, Long.class)
+                .orElse(DEFAULT_MAX_PAYLOAD_SIZE)
+        );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param directory import directory
+     * @param maxPayloadSize maximum payload size of a job in bytes
+     */
+    public ImportJobStore(Path directory, long maxPayloadSize) {
+        this.directory = directory;
+        this.maxPayloadSize = maxPayloadSize;
+    }
+
+    /**
+     * Returns path of the payload of a job
+     *
+     * @param jobId job id
+     * @return payload path
+     */
+    public Path getPayloadPath(String jobId) {
+        return directory.resolve(jobId + PAYLOAD_SUFFIX);
+    }
+
+    /**
+     * Writes payload of a job.
+     * <p>
+     * A payload exceeding the maximum payload size is removed as soon as the limit is reached.
+     *
+     * @param jobId job id
+     * @param payload payload stream
+     * @throws IOException when the payload cannot be written
+     * @throws ImportPayloadTooLarge when the payload exceeds the maximum payload size
+     */
+    public void writePayload(String jobId, InputStream payload) throws IOException {
+        Files.createDirectories(directory);
+
+        Path path = getPayloadPath(jobId);
+        try (OutputStream output = Files.newOutputStream(path)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long size = 0;
+            int read;
+
+            while ((read = payload.read(buffer)) != -1) {
+                size += read;
+                if (size > maxPayloadSize) {
+                    throw new ImportPayloadTooLarge(maxPayloadSize);
+                }
+
+                output.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    /**
+     * Tries to claim a job.
+     * <p>
+     * The claim is held until the returned handle is closed or the process stops.
+     *
+     * @param jobId job id
+     * @return handle of the claim or null if the job is claimed by another node or thread
+     * @throws IOException when the lock file cannot be opened
+     */
+    public Closeable tryLock(String jobId) throws IOException {
+        Files.createDirectories(directory);
+
+        Path lockPath = directory.toRealPath().resolve(jobId + LOCK_SUFFIX);
+        if (!claimedLocks.add(lockPath)) {
+            // Claimed by another thread of this node
+            return null;
+        }
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (channel.tryLock() != null) {
+                FileChannel lockedChannel = channel;
+                return () -> {
+                    try {
+                        lockedChannel.close();
+                    } finally {
+                        claimedLocks.remove(lockPath);
+                    }
+                };
+            }
+        } catch (OverlappingFileLockException e) {
+            // Locked through another store of this node
+        } catch (IOException | RuntimeException e) {
+            release(channel, lockPath);
+            throw e;
+        }
+
+        release(channel, lockPath);
+        return null;
+    }
+
+    /**
+     * Deletes payload of a job
+     *
+     * @param jobId job id
+     * @throws IOException when the payload cannot be deleted
+     */
+    public void deletePayload(String jobId) throws IOException {
+        Files.deleteIfExists(getPayloadPath(jobId));
+    }
+
+    /**
+     * Saves state of a job
+     *
+     * @param state job state
+     * @throws IOException when the state cannot be written
+     */
+    public void save(ImportJobState state) throws IOException {
+        Files.createDirectories(directory);
+
+        Path path = getStatePath(state.getId());
+        Path temporary = directory.resolve(state.getId() + STATE_SUFFIX + ".tmp");
+        JsonSerialization.mapper.writeValue(temporary.toFile(), state);
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Finds state of a job
+     *
+     * @param jobId job id
+     * @return job state or null if not found
+     * @throws IOException when the state cannot be read
+     */
+    public ImportJobState find(String jobId) throws IOException {
+        if (!isValidId(jobId)) {
+            return null;
+        }
+
+        Path path = getStatePath(jobId);
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        return JsonSerialization.mapper.readValue(path.toFile(), ImportJobState.class);
+    }
+
+    /**
+     * Lists states of all stored jobs.
+     * <p>
+     * States that cannot be read are logged and skipped.
+     *
+     * @return job states
+     * @throws IOException when the import directory cannot be listed
+     */
+    public List<ImportJobState> list() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+
+        List<ImportJobState> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(file -> file.getFileName().toString().endsWith(STATE_SUFFIX)).toList()) {
+                try {
+                    result.add(JsonSerialization.mapper.readValue(path.toFile(), ImportJobState.class));
+                } catch (IOException e) {
+                    logger.warn(String.format("Failed to read import job state %s", path), e);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Deletes a job
+     *
+     * @param jobId job id
+     * @throws IOException when the files of the job cannot be deleted
+     */
+    public void delete(String jobId) throws IOException {
+        deletePayload(jobId);
+        Files.deleteIfExists(getStatePath(jobId));
+        Files.deleteIfExists(getLockPath(jobId));
+    }
+
+    /**
+     * Closes the channel of a lock that was not acquired and releases its in-memory claim
+     *
+     * @param channel channel or null if it was not opened
+     * @param lockPath lock path
+     * @throws IOException when the channel cannot be closed
+     */
+    private void release(FileChannel channel, Path lockPath) throws IOException {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            claimedLocks.remove(lockPath);
+        }
+    }
+
+    /**
+     * Returns path of the state of a job
+     *
+     * @param jobId job id
+     * @return state path
+     */
+    private Path getStatePath(String jobId) {
+        return directory.resolve(jobId + STATE_SUFFIX);
+    }
+
+    /**
+     * Returns path of the lock file of a job
+     *
+     * @param jobId job id
+     * @return lock path
+     */
+    private Path getLockPath(String jobId) {
+        return directory.resolve(jobId + LOCK_SUFFIX);
+    }
+
+    /**
+     * Returns default import directory
+     *
+     * @return scim-imports in the data directory of Keycloak or in the system temporary directory when Keycloak home is not known
+     */
+    private static Path getDefaultDirectory() {
+        String homeDirectory = System.getProperty("kc.home.dir");
+        if (homeDirectory == null) {
+            return Path.of(System.getProperty("java.io.tmpdir"), "keycloak-scim-imports");
+        }
+
+        return Path.of(homeDirectory, "data", "scim-imports");
+    }
+
+    /**
+     * Returns whether a job id is a valid UUID, so it cannot point outside the import directory
+     *
+     * @param jobId job id
+     * @return whether the id is valid
+     */
+    private boolean isValidId(String jobId) {
+        try {
+            return jobId != null && UUID.fromString(jobId).toString().equals(jobId);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+}
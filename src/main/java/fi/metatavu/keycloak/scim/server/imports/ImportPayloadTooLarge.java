@@ -0,0 +1,17 @@
+package fi.metatavu.keycloak.scim.server.imports;
+
+/**
+ * Exception thrown when an import payload exceeds the maximum payload size
+ */
+public class ImportPayloadTooLarge extends RuntimeException {
+
+    /**
+     * Constructor
+     *
+     * @param maxPayloadSize maximum payload size in bytes
+     */
+    public ImportPayloadTooLarge(long maxPayloadSize) {
+        super(String.format("Import payload exceeds %d bytes", maxPayloadSize));
+    }
+
+}
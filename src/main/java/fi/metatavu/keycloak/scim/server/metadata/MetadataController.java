@@ -5,6 +5,7 @@ import java.util.*;
 
 import fi.metatavu.keycloak.scim.server.AbstractController;
 import fi.metatavu.keycloak.scim.server.ScimContext;
+import fi.metatavu.keycloak.scim.server.bulk.BulkController;
 import fi.metatavu.keycloak.scim.server.config.ScimConfig;
 import fi.metatavu.keycloak.scim.server.model.ResourceType;
 import fi.metatavu.keycloak.scim.server.model.SchemaListResponse;
@@ -84,9 +85,9 @@ public class MetadataController extends AbstractController {
         config.setPatch(patch);
 
         ServiceProviderConfigBulk bulk = new ServiceProviderConfigBulk();
-        bulk.setSupported(false);
-        bulk.setMaxOperations(1000);
-        bulk.setMaxPayloadSize(1048576);
+        bulk.setSupported(true);
+        bulk.setMaxOperations(BulkController.MAX_OPERATIONS);
+        bulk.setMaxPayloadSize(BulkController.MAX_PAYLOAD_SIZE);
         config.setBulk(bulk);
 
         ServiceProviderConfigFilter filter = new ServiceProviderConfigFilter();
@@ -99,11 +100,11 @@ public class MetadataController extends AbstractController {
         config.setChangePassword(changePassword);
 
         ServiceFeatureSupport sort = new ServiceFeatureSupport();
-        sort.setSupported(false);
+        sort.setSupported(true);
         config.setSort(sort);
 
         ServiceFeatureSupport etag = new ServiceFeatureSupport();
-        etag.setSupported(false);
+        etag.setSupported(true);
         config.setEtag(etag);
 
         AuthenticationScheme auth = new AuthenticationScheme();
@@ -201,13 +202,21 @@ public class MetadataController extends AbstractController {
     }
 
     /**
-     * Returns user attributes
+     * Returns user attributes.
+     * <p>
+     * Attributes are resolved from the user profile configuration once per context.
      *
      * @param scimContext SCIM context
      * @return user attributes
      */
     public UserAttributes getUserAttributes(ScimContext scimContext) {
-        return new UserAttributes(getUserAttributeMappingList(scimContext));
+        UserAttributes result = scimContext.getUserAttributes();
+        if (result == null) {
+            result = new UserAttributes(getUserAttributeMappingList(scimContext));
+            scimContext.setUserAttributes(result);
+        }
+
+        return result;
     }
 
     /**
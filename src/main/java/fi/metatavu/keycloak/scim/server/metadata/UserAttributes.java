@@ -10,16 +10,39 @@ import java.util.stream.Collectors;
  */
 public class UserAttributes {
 
+    private static final Map<String, String> FILTER_PATH_ALIASES = Map.of(
+        "emails", "email",
+        "emails.value", "email"
+    );
+
     private final Map<String, UserAttribute<?>> attributeMap;
+    private final String schemaVersion;
 
     /**
      * Constructor
      *
      * @param attributes attributes
      */
-    UserAttributes(List<UserAttribute<?>> attributes) {
+    public UserAttributes(List<UserAttribute<?>> attributes) {
         this.attributeMap = attributes.stream()
             .collect(Collectors.toMap(UserAttribute::getScimPath, Function.identity()));
+
+        this.schemaVersion = attributes.stream()
+            .map(attribute -> String.join(":", attribute.getScimPath(), attribute.getSource().name(), attribute.getSourceId(), attribute.getClass().getSimpleName()))
+            .sorted()
+            .collect(Collectors.joining(","));
+    }
+
+    /**
+     * Returns version of the attribute schema.
+     * <p>
+     * The version changes whenever an attribute is added, removed or mapped to a different source,
+     * e.g. when the user profile configuration changes.
+     *
+     * @return schema version
+     */
+    public String getSchemaVersion() {
+        return schemaVersion;
     }
 
     /**
@@ -32,6 +55,18 @@ public class UserAttributes {
         return attributeMap.get(scimPath);
     }
 
+    /**
+     * Finds user attribute by SCIM filter attribute path.
+     * <p>
+     * In filters the multi-valued emails attribute and its value sub-attribute resolve to the single email attribute.
+     *
+     * @param filterPath SCIM filter attribute path
+     * @return user attribute or null if not found
+     */
+    public UserAttribute<?> findByFilterPath(String filterPath) {
+        return findByScimPath(FILTER_PATH_ALIASES.getOrDefault(filterPath, filterPath));
+    }
+
     /**
      * Lists user attributes by source
      *
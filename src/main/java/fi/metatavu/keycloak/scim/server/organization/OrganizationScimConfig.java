@@ -18,6 +18,17 @@ public class OrganizationScimConfig implements ScimConfig {
     public static final String SCIM_EXTERNAL_ISSUER = "SCIM_EXTERNAL_ISSUER";
     public static final String SCIM_AUTHENTICATION_MODE = "SCIM_AUTHENTICATION_MODE";
     public static final String SCIM_EMAIL_AS_USERNAME = "SCIM_EMAIL_AS_USERNAME";
+    public static final String SCIM_TOTAL_RESULTS_MODE = "SCIM_TOTAL_RESULTS_MODE";
+    public static final String SCIM_TOTAL_RESULTS_CAP = "SCIM_TOTAL_RESULTS_CAP";
+    public static final String SCIM_USER_LISTING_STRATEGY = "SCIM_USER_LISTING_STRATEGY";
+    public static final String SCIM_GROUP_MEMBER_LIMIT = "SCIM_GROUP_MEMBER_LIMIT";
+    public static final String SCIM_GROUP_PATCH_RESPONSE = "SCIM_GROUP_PATCH_RESPONSE";
+    public static final int DEFAULT_TOTAL_RESULTS_CAP = 1000;
+    public static final String SCIM_FILTER_MAX_TERMS = "SCIM_FILTER_MAX_TERMS";
+    public static final String SCIM_FILTER_MAX_DEPTH = "SCIM_FILTER_MAX_DEPTH";
+    public static final int DEFAULT_GROUP_MEMBER_LIMIT = 10000;
+    public static final int DEFAULT_FILTER_MAX_TERMS = 100;
+    public static final int DEFAULT_FILTER_MAX_DEPTH = 10;
 
     private final OrganizationModel organization;
 
@@ -56,6 +67,56 @@ public class OrganizationScimConfig implements ScimConfig {
                 )
             );
         }
+
+        try {
+            getTotalResultsMode();
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError(SCIM_TOTAL_RESULTS_MODE + " is invalid");
+        }
+
+        try {
+            if (getTotalResultsCap() < 1) {
+                throw new ConfigurationError(SCIM_TOTAL_RESULTS_CAP + " must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError(SCIM_TOTAL_RESULTS_CAP + " is not a number");
+        }
+
+        try {
+            getUserListingStrategy();
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError(SCIM_USER_LISTING_STRATEGY + " is invalid");
+        }
+
+        try {
+            if (getGroupMemberLimit() < 1) {
+                throw new ConfigurationError(SCIM_GROUP_MEMBER_LIMIT + " must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError(SCIM_GROUP_MEMBER_LIMIT + " is not a number");
+        }
+
+        try {
+            getGroupPatchResponse();
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError(SCIM_GROUP_PATCH_RESPONSE + " is invalid");
+        }
+
+        try {
+            if (getFilterMaxTerms() < 1) {
+                throw new ConfigurationError(SCIM_FILTER_MAX_TERMS + " must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError(SCIM_FILTER_MAX_TERMS + " is not a number");
+        }
+
+        try {
+            if (getFilterMaxDepth() < 1) {
+                throw new ConfigurationError(SCIM_FILTER_MAX_DEPTH + " must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError(SCIM_FILTER_MAX_DEPTH + " is not a number");
+        }
     }
 
     @Override
@@ -104,6 +165,76 @@ public class OrganizationScimConfig implements ScimConfig {
         return "true".equalsIgnoreCase(getAttribute(SCIM_EMAIL_AS_USERNAME));
     }
 
+    @Override
+    public TotalResultsMode getTotalResultsMode() {
+        String value = getAttribute(SCIM_TOTAL_RESULTS_MODE);
+        if (value == null || value.isEmpty()) {
+            return TotalResultsMode.EXACT;
+        }
+
+        return TotalResultsMode.valueOf(value.toUpperCase());
+    }
+
+    @Override
+    public int getTotalResultsCap() {
+        String value = getAttribute(SCIM_TOTAL_RESULTS_CAP);
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_TOTAL_RESULTS_CAP;
+        }
+
+        return Integer.parseInt(value);
+    }
+
+    @Override
+    public UserListingStrategy getUserListingStrategy() {
+        String value = getAttribute(SCIM_USER_LISTING_STRATEGY);
+        if (value == null || value.isEmpty()) {
+            return UserListingStrategy.SEARCH;
+        }
+
+        return UserListingStrategy.valueOf(value.toUpperCase());
+    }
+
+    @Override
+    public int getGroupMemberLimit() {
+        String value = getAttribute(SCIM_GROUP_MEMBER_LIMIT);
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_GROUP_MEMBER_LIMIT;
+        }
+
+        return Integer.parseInt(value);
+    }
+
+    @Override
+    public GroupPatchResponse getGroupPatchResponse() {
+        String value = getAttribute(SCIM_GROUP_PATCH_RESPONSE);
+        if (value == null || value.isEmpty()) {
+            return GroupPatchResponse.RESOURCE;
+        }
+
+        return GroupPatchResponse.valueOf(value.toUpperCase());
+    }
+
+    @Override
+    public int getFilterMaxTerms() {
+        String value = getAttribute(SCIM_FILTER_MAX_TERMS);
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_FILTER_MAX_TERMS;
+        }
+
+        return Integer.parseInt(value);
+    }
+
+    @Override
+    public int getFilterMaxDepth() {
+        String value = getAttribute(SCIM_FILTER_MAX_DEPTH);
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_FILTER_MAX_DEPTH;
+        }
+
+        return Integer.parseInt(value);
+    }
+
     /**
      * Gets the organization attribute
      *
@@ -2,20 +2,30 @@ package fi.metatavu.keycloak.scim.server.organization;
 
 import fi.metatavu.keycloak.scim.server.AbstractScimServer;
 import fi.metatavu.keycloak.scim.server.config.ConfigurationError;
+import fi.metatavu.keycloak.scim.server.export.ExportSection;
 import fi.metatavu.keycloak.scim.server.filter.ScimFilter;
 import fi.metatavu.keycloak.scim.server.jacoco.ExcludeFromJacocoGeneratedReport;
 import fi.metatavu.keycloak.scim.server.metadata.UserAttributes;
 import fi.metatavu.keycloak.scim.server.model.Group;
 import fi.metatavu.keycloak.scim.server.model.PatchRequest;
 import fi.metatavu.keycloak.scim.server.model.User;
+import fi.metatavu.keycloak.scim.server.paging.InvalidCursor;
+import fi.metatavu.keycloak.scim.server.paging.StreamingListResponse;
 import fi.metatavu.keycloak.scim.server.patch.UnsupportedPatchOperation;
+import fi.metatavu.keycloak.scim.server.projection.AttributeProjection;
+import fi.metatavu.keycloak.scim.server.sorting.Sorting;
+import fi.metatavu.keycloak.scim.server.sorting.UnsupportedSort;
+import fi.metatavu.keycloak.scim.server.tracking.EntityTags;
+import fi.metatavu.keycloak.scim.server.users.UnsupportedUserPath;
 import jakarta.ws.rs.InternalServerErrorException;
 import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.Response;
 import org.jboss.logging.Logger;
 import org.keycloak.models.*;
 
 import java.net.URI;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -63,7 +73,7 @@ public class OrganizationScimServer extends AbstractScimServer<OrganizationScimC
     }
 
     @Override
-    public Response updateUser(OrganizationScimContext scimContext, String userId, fi.metatavu.keycloak.scim.server.model.User updateRequest) {
+    public Response updateUser(OrganizationScimContext scimContext, String userId, fi.metatavu.keycloak.scim.server.model.User updateRequest, String ifMatch) {
         boolean emailAsUsername = scimContext.getConfig().getEmailAsUsername();
         KeycloakSession session = scimContext.getSession();
         String username = updateRequest.getUserName();
@@ -94,6 +104,11 @@ public class OrganizationScimServer extends AbstractScimServer<OrganizationScimC
             return Response.status(Response.Status.NOT_FOUND).entity("User not found").build();
         }
 
+        if (isPreconditionFailed(session, user, ifMatch)) {
+            logger.warn(String.format("Version mismatch: %s", userId));
+            return Response.status(Response.Status.PRECONDITION_FAILED).entity("Version mismatch").build();
+        }
+
         // Check if username is being changed to an already existing one
         UserModel existing;
         if (emailAsUsername) {
@@ -110,11 +125,11 @@ public class OrganizationScimServer extends AbstractScimServer<OrganizationScimC
         UserAttributes userAttributes = metadataController.getUserAttributes(scimContext);
         fi.metatavu.keycloak.scim.server.model.User result = organizationUserController.updateOrganizationUser(scimContext, userAttributes, user, updateRequest);
 
-        return Response.ok(result).build();
+        return Response.ok(result).tag(EntityTags.getEntityTag(user)).build();
     }
 
     @Override
-    public Response patchUser(OrganizationScimContext scimContext, String userId, fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest) {
+    public Response patchUser(OrganizationScimContext scimContext, String userId, fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest, String ifMatch) {
         KeycloakSession session = scimContext.getSession();
 
         RealmModel realm = scimContext.getRealm();
@@ -124,45 +139,75 @@ public class OrganizationScimServer extends AbstractScimServer<OrganizationScimC
             return Response.status(Response.Status.NOT_FOUND).entity("User not found").build();
         }
 
+        if (isPreconditionFailed(session, existing, ifMatch)) {
+            logger.warn(String.format("Version mismatch: %s", userId));
+            return Response.status(Response.Status.PRECONDITION_FAILED).entity("Version mismatch").build();
+        }
+
         UserAttributes userAttributes = metadataController.getUserAttributes(scimContext);
 
         try {
             fi.metatavu.keycloak.scim.server.model.User result = organizationUserController.patchOrganizationUser(scimContext, userAttributes, existing, patchRequest);
-            return Response.ok(result).build();
+            return Response.ok(result).tag(EntityTags.getEntityTag(existing)).build();
         } catch (UnsupportedPatchOperation e) {
             return Response.status(Response.Status.BAD_REQUEST).entity("Unsupported patch operation").build();
         }
     }
 
     @Override
-    public Response listUsers(OrganizationScimContext scimContext, ScimFilter scimFilter, Integer startIndex, Integer count) {
+    public Response listUsers(OrganizationScimContext scimContext, ScimFilter scimFilter, Integer startIndex, Integer count, String cursor, AttributeProjection projection, Sorting sorting, String ifNoneMatch) {
         UserAttributes userAttributes = metadataController.getUserAttributes(scimContext);
 
-        fi.metatavu.keycloak.scim.server.model.UsersList usersList = organizationUserController.listOrganizationUsers(
-            scimContext,
-            scimFilter,
-            userAttributes,
-            startIndex,
-            count
-        );
-
-        return Response.ok(usersList).build();
+        try {
+            StreamingListResponse<UserModel> usersList = organizationUserController.listOrganizationUsers(
+                scimContext,
+                scimFilter,
+                userAttributes,
+                startIndex,
+                count,
+                cursor,
+                projection,
+                sorting
+            );
+
+            return listResponse(usersList, ifNoneMatch);
+        } catch (InvalidCursor e) {
+            logger.warn(String.format("Invalid cursor: %s", cursor));
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid cursor").build();
+        } catch (UnsupportedSort e) {
+            logger.warn(String.format("Unsupported sort: %s", e.getMessage()));
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid sortBy").build();
+        } catch (UnsupportedUserPath e) {
+            logger.warn(String.format("Unsupported filter attribute: %s", e.getMessage()));
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid filter").build();
+        }
     }
 
     @Override
-    public Response findUser(OrganizationScimContext scimContext, String userId) {
+    public Response findUser(OrganizationScimContext scimContext, String userId, AttributeProjection projection, String ifNoneMatch) {
+        UserModel userModel = organizationUserController.findOrganizationUserModel(scimContext, userId);
+        if (userModel == null) {
+            logger.warn(String.format("User not found: %s", userId));
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        EntityTag entityTag = EntityTags.getEntityTag(userModel);
+        if (EntityTags.matches(ifNoneMatch, entityTag)) {
+            return Response.notModified(entityTag).build();
+        }
+
         UserAttributes userAttributes = metadataController.getUserAttributes(scimContext);
-        User user = organizationUserController.findOrganizationUser(scimContext, userAttributes, userId);
+        User user = organizationUserController.findOrganizationUser(scimContext, userAttributes, userId, projection);
         if (user == null) {
             logger.warn(String.format("User not found: %s", userId));
             return Response.status(Response.Status.NOT_FOUND).build();
         }
 
-        return Response.ok(user).build();
+        return Response.ok(user).tag(entityTag).build();
     }
 
     @Override
-    public Response deleteUser(OrganizationScimContext scimContext, String userId) {
+    public Response deleteUser(OrganizationScimContext scimContext, String userId, String ifMatch) {
         RealmModel realm = scimContext.getRealm();
         KeycloakSession session = scimContext.getSession();
 
@@ -178,6 +223,11 @@ public class OrganizationScimServer extends AbstractScimServer<OrganizationScimC
             return Response.status(Response.Status.FORBIDDEN).entity("User is not managed by SCIM").build();
         }
 
+        if (isPreconditionFailed(session, user, ifMatch)) {
+            logger.warn(String.format("Version mismatch: %s", userId));
+            return Response.status(Response.Status.PRECONDITION_FAILED).entity("Version mismatch").build();
+        }
+
         organizationUserController.deleteOrganizationUser(scimContext, user);
 
         return Response.noContent().build();
@@ -192,39 +242,81 @@ public class OrganizationScimServer extends AbstractScimServer<OrganizationScimC
 
     @Override
     @ExcludeFromJacocoGeneratedReport
-    public Response listGroups(OrganizationScimContext scimContext, ScimFilter filter, int startIndex, int count) {
+    public Response listGroups(OrganizationScimContext scimContext, ScimFilter filter, int startIndex, int count, String cursor, AttributeProjection projection, Sorting sorting, String ifNoneMatch) {
         // TODO: Organization Groups are not supported yet by the Keycloak
         return Response.status(Response.Status.NOT_IMPLEMENTED).build();
     }
 
     @Override
     @ExcludeFromJacocoGeneratedReport
-    public Response findGroup(OrganizationScimContext scimContext, String id) {
+    public Response findGroup(OrganizationScimContext scimContext, String id, AttributeProjection projection, Integer membersStartIndex, Integer membersCount, String ifNoneMatch) {
         // TODO: Organization Groups are not supported yet by the Keycloak
         return Response.status(Response.Status.NOT_IMPLEMENTED).build();
     }
 
     @Override
     @ExcludeFromJacocoGeneratedReport
-    public Response updateGroup(OrganizationScimContext scimContext, String id, Group updateRequest) {
+    public Response updateGroup(OrganizationScimContext scimContext, String id, Group updateRequest, AttributeProjection projection, String ifMatch) {
         // TODO: Organization Groups are not supported yet by the Keycloak
         return Response.status(Response.Status.NOT_IMPLEMENTED).build();
     }
 
     @Override
     @ExcludeFromJacocoGeneratedReport
-    public Response patchGroup(OrganizationScimContext scimContext, String groupId, PatchRequest patchRequest) {
+    public Response patchGroup(OrganizationScimContext scimContext, String groupId, PatchRequest patchRequest, AttributeProjection projection, String ifMatch) {
         // TODO: Organization Groups are not supported yet by the Keycloak
         return Response.status(Response.Status.NOT_IMPLEMENTED).build();
     }
 
     @Override
     @ExcludeFromJacocoGeneratedReport
-    public Response deleteGroup(OrganizationScimContext scimContext, String id) {
+    public Response deleteGroup(OrganizationScimContext scimContext, String id, String ifMatch) {
         // TODO: Organization Groups are not supported yet by the Keycloak
         return Response.status(Response.Status.NOT_IMPLEMENTED).build();
     }
 
+    @Override
+    protected List<ExportSection<OrganizationScimContext>> getExportSections(OrganizationScimContext scimContext) {
+        UserAttributes userAttributes = metadataController.getUserAttributes(scimContext);
+
+        // Organization groups are not supported yet by the Keycloak, so only the members are exported
+        return List.of(organizationUserController.getOrganizationUsersExport(scimContext, userAttributes));
+    }
+
+    @Override
+    protected ExportSection<OrganizationScimContext> getUserVersions(OrganizationScimContext scimContext) {
+        return organizationUserController.getOrganizationUserVersions(scimContext);
+    }
+
+    @Override
+    protected OrganizationScimContext createBatchContext(OrganizationScimContext scimContext, KeycloakSession session) {
+        RealmModel realm = session.realms().getRealm(scimContext.getRealm().getId());
+        KeycloakContext context = session.getContext();
+        context.setRealm(realm);
+
+        OrganizationModel organization = organizationController.findOrganizationById(
+            session,
+            scimContext.getOrganization().getId()
+        );
+
+        if (organization == null) {
+            throw new NotFoundException("Organization not found");
+        }
+
+        context.setOrganization(organization);
+
+        OrganizationScimContext result = new OrganizationScimContext(
+            scimContext.getServerBaseUri(),
+            session,
+            realm,
+            organization,
+            (OrganizationScimConfig) scimContext.getConfig()
+        );
+
+        result.setUserAttributes(metadataController.getUserAttributes(scimContext));
+        return result;
+    }
+
     /**
      * Returns SCIM context
      *
@@ -3,15 +3,26 @@ package fi.metatavu.keycloak.scim.server.organization;
 import fi.metatavu.keycloak.scim.server.adminEvents.AdminEventController;
 import fi.metatavu.keycloak.scim.server.config.ScimConfig;
 import fi.metatavu.keycloak.scim.server.consts.ScimRoles;
+import fi.metatavu.keycloak.scim.server.export.ExportSection;
 import fi.metatavu.keycloak.scim.server.filter.ScimFilter;
 import fi.metatavu.keycloak.scim.server.metadata.BooleanUserAttribute;
 import fi.metatavu.keycloak.scim.server.metadata.StringUserAttribute;
 import fi.metatavu.keycloak.scim.server.metadata.UserAttribute;
 import fi.metatavu.keycloak.scim.server.metadata.UserAttributes;
 import fi.metatavu.keycloak.scim.server.model.User;
+import fi.metatavu.keycloak.scim.server.paging.Page;
+import fi.metatavu.keycloak.scim.server.paging.PagedStreams;
+import fi.metatavu.keycloak.scim.server.paging.StreamingListResponse;
 import fi.metatavu.keycloak.scim.server.patch.PatchOperation;
 import fi.metatavu.keycloak.scim.server.patch.UnsupportedPatchOperation;
+import fi.metatavu.keycloak.scim.server.projection.AttributeProjection;
+import fi.metatavu.keycloak.scim.server.sorting.Sorting;
+import fi.metatavu.keycloak.scim.server.sorting.UnsupportedSort;
+import fi.metatavu.keycloak.scim.server.store.AbstractStoreQuery;
+import fi.metatavu.keycloak.scim.server.store.UserQuery;
+import fi.metatavu.keycloak.scim.server.tracking.ModificationTracker;
 import fi.metatavu.keycloak.scim.server.users.UnsupportedUserPath;
+import fi.metatavu.keycloak.scim.server.users.UserSearchPlan;
 import fi.metatavu.keycloak.scim.server.users.UsersController;
 import jakarta.ws.rs.NotFoundException;
 import org.jboss.logging.Logger;
@@ -21,10 +32,11 @@ import org.keycloak.models.*;
 import org.keycloak.models.utils.ModelToRepresentation;
 import org.keycloak.organization.OrganizationProvider;
 
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public class OrganizationUserController extends UsersController  {
 
@@ -96,6 +108,8 @@ public class OrganizationUserController extends UsersController  {
         OrganizationProvider organizationProvider = getOrganizationProvider(scimContext.getSession());
         organizationProvider.addManagedMember(organization, user);
 
+        ModificationTracker.touch(scimContext.getSession(), user);
+
         User createdUser = translateUser(
             scimContext,
             userAttributes,
@@ -133,6 +147,7 @@ public class OrganizationUserController extends UsersController  {
         RealmModel realm = scimContext.getRealm();
         OrganizationModel organization = scimContext.getOrganization();
         ScimConfig config = scimContext.getConfig();
+        String previousUsername = existing.getUsername();
 
         ((StringUserAttribute) userAttributes.findByScimPath("userName")).write(existing, scimUser.getUserName());
         ((BooleanUserAttribute) userAttributes.findByScimPath("active")).write(existing, scimUser.getActive() == null || Boolean.TRUE.equals(scimUser.getActive()));
@@ -170,6 +185,11 @@ public class OrganizationUserController extends UsersController  {
             });
         }
 
+        ModificationTracker.touch(scimContext.getSession(), existing);
+        if (!Objects.equals(previousUsername, existing.getUsername())) {
+            ModificationTracker.touchGroups(scimContext.getSession(), existing);
+        }
+
         User updatedUser = translateUser(
             scimContext,
             userAttributes,
@@ -208,6 +228,7 @@ public class OrganizationUserController extends UsersController  {
         RealmModel realm = scimContext.getRealm();
         OrganizationModel organization = scimContext.getOrganization();
         ScimConfig config = scimContext.getConfig();
+        String previousUsername = existing.getUsername();
 
         for (var operation : patchRequest.getOperations()) {
             PatchOperation op = PatchOperation.fromString(operation.getOp());
@@ -248,6 +269,11 @@ public class OrganizationUserController extends UsersController  {
             }
         }
 
+        ModificationTracker.touch(scimContext.getSession(), existing);
+        if (!Objects.equals(previousUsername, existing.getUsername())) {
+            ModificationTracker.touchGroups(scimContext.getSession(), existing);
+        }
+
         fi.metatavu.keycloak.scim.server.model.User patchedUser = translateUser(
             scimContext,
             userAttributes,
@@ -273,12 +299,14 @@ public class OrganizationUserController extends UsersController  {
      * @param scimContext SCIM context
      * @param userAttributes user attributes
      * @param userId user ID
+     * @param projection attribute projection
      * @return found user
      */
     public fi.metatavu.keycloak.scim.server.model.User findOrganizationUser(
         OrganizationScimContext scimContext,
         UserAttributes userAttributes,
-        String userId
+        String userId,
+        AttributeProjection projection
     ) {
         try {
             UserModel organizationUser = getOrganizationProvider(scimContext.getSession()).getMemberById(
@@ -289,7 +317,29 @@ public class OrganizationUserController extends UsersController  {
             return translateUser(
                 scimContext,
                 userAttributes,
-                organizationUser
+                organizationUser,
+                projection
+            );
+        } catch (NotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds a user model from the organization
+     *
+     * @param scimContext SCIM context
+     * @param userId user ID
+     * @return user or null if the user is not a member of the organization
+     */
+    public UserModel findOrganizationUserModel(
+        OrganizationScimContext scimContext,
+        String userId
+    ) {
+        try {
+            return getOrganizationProvider(scimContext.getSession()).getMemberById(
+                scimContext.getOrganization(),
+                userId
             );
         } catch (NotFoundException e) {
             return null;
@@ -303,41 +353,116 @@ public class OrganizationUserController extends UsersController  {
      * @param scimFilter SCIM filter
      * @param firstResult first result
      * @param maxResults max results
-     * @return users list
+     * @param cursor pagination cursor or null when using index based pagination
+     * @param projection attribute projection
+     * @param sorting sorting
+     * @return users list that translates the users as it is written
+     * @throws UnsupportedSort when sorting cannot be executed
      */
-    public fi.metatavu.keycloak.scim.server.model.UsersList listOrganizationUsers(
+    public StreamingListResponse<UserModel> listOrganizationUsers(
         OrganizationScimContext scimContext,
         ScimFilter scimFilter,
         UserAttributes userAttributes,
         Integer firstResult,
-        Integer maxResults
+        Integer maxResults,
+        String cursor,
+        AttributeProjection projection,
+        Sorting sorting
     ) {
-        fi.metatavu.keycloak.scim.server.model.UsersList result = new fi.metatavu.keycloak.scim.server.model.UsersList();
         RealmModel realm = scimContext.getRealm();
         KeycloakSession session = scimContext.getSession();
+        checkSorting(session, sorting, cursor);
 
         RoleModel scimManagedRole = realm.getRole(ScimRoles.SCIM_MANAGED_ROLE);
         if (scimManagedRole == null) {
             throw new IllegalStateException("SCIM managed role not found");
         }
 
-        List<UserModel> filteredUsers = getOrganizationProvider(session).getMembersStream(scimContext.getOrganization(), Collections.emptyMap(), true, null, null)
-            .filter(user -> matchScimFilter(user, userAttributes, scimFilter))
-            .filter(user -> user.hasRole(scimManagedRole))
-            .toList();
+        OrganizationProvider organizationProvider = getOrganizationProvider(session);
+        OrganizationModel organization = scimContext.getOrganization();
+        boolean roleMembers = scimContext.getConfig().getUserListingStrategy() == ScimConfig.UserListingStrategy.ROLE_MEMBERS;
+        UserSearchPlan searchPlan = getSearchPlan(scimFilter, userAttributes);
+        Map<String, String> searchParams = searchPlan.searchParams();
+        ScimFilter residualFilter = searchPlan.residualFilter();
+
+        if (cursor != null) {
+            UserQuery query = limitToManagedUsers(createUserQuery(session, realm, searchPlan), scimManagedRole, roleMembers)
+                .organizationMember(organization);
+
+            Predicate<UserModel> predicate = getFilterPredicate(userAttributes, residualFilter);
+
+            return listUsersByCursor(scimContext, userAttributes, query, predicate, cursor, maxResults, projection);
+        }
+
+        int countLimit = getCountLimit(scimContext, firstResult, maxResults);
+
+        Page<UserModel> page;
+        if (AbstractStoreQuery.isAvailable(session)) {
+            // Organization membership, the role check and search criteria are all part of the store query
+            UserQuery query = limitToManagedUsers(applyListingOrder(createUserQuery(session, realm, searchPlan), sorting), scimManagedRole, roleMembers)
+                .organizationMember(organization);
 
-        List<fi.metatavu.keycloak.scim.server.model.User> users = filteredUsers.stream()
-            .skip(firstResult)
-            .limit(maxResults)
-            .map(user -> translateUser(scimContext, userAttributes, user))
-            .toList();
+            page = getUsersPage(scimContext, query, getFilterPredicate(userAttributes, residualFilter), firstResult, maxResults, countLimit);
+        } else if (roleMembers) {
+            // Enumerate direct members of the SCIM managed role and keep the ones belonging to the organization
+            Stream<UserModel> matches = PagedStreams.chunked((first, max) -> session.users().getRoleMembersStream(realm, scimManagedRole, first, max), PagedStreams.DEFAULT_CHUNK_SIZE)
+                .filter(user -> organizationProvider.isMember(organization, user))
+                .filter(compileScimFilter(userAttributes, scimFilter));
 
-        result.setTotalResults(filteredUsers.size());
-        result.setResources(users);
-        result.setStartIndex(firstResult);
-        result.setItemsPerPage(maxResults);
+            page = PagedStreams.page(matches, firstResult, maxResults, countLimit);
+        } else {
+            // Search criteria and paging are passed to the organization member query, only the role check is done in memory
+            Map<String, String> memberFilters = new HashMap<>(searchParams);
+            memberFilters.remove(UserModel.EXACT);
+            boolean exact = searchPlan.isExact();
+            Predicate<UserModel> residualPredicate = compileScimFilter(userAttributes, searchPlan.getSearchResidualFilter());
+
+            page = PagedStreams.page(
+                (first, max) -> organizationProvider.getMembersStream(organization, memberFilters, exact, first, max),
+                user -> residualPredicate.test(user) && user.hasRole(scimManagedRole),
+                firstResult,
+                maxResults,
+                countLimit
+            );
+        }
+
+        return getUsersList(
+            scimContext,
+            userAttributes,
+            page.resources(),
+            projection,
+            page.totalResults(),
+            firstResult,
+            maxResults,
+            null
+        );
+    }
+
+    /**
+     * Returns export section of the SCIM-managed members of the organization
+     *
+     * @param scimContext SCIM context of the request
+     * @param userAttributes user attributes
+     * @return export section
+     */
+    public ExportSection<OrganizationScimContext> getOrganizationUsersExport(OrganizationScimContext scimContext, UserAttributes userAttributes) {
+        UserQuery query = new UserQuery(scimContext.getSession(), scimContext.getRealm())
+            .organizationMember(scimContext.getOrganization());
+
+        return getUsersExport(scimContext, userAttributes, query);
+    }
+
+    /**
+     * Returns section of the versions of the SCIM-managed members of the organization
+     *
+     * @param scimContext SCIM context of the request
+     * @return section translating the members into their versions
+     */
+    public ExportSection<OrganizationScimContext> getOrganizationUserVersions(OrganizationScimContext scimContext) {
+        UserQuery query = new UserQuery(scimContext.getSession(), scimContext.getRealm())
+            .organizationMember(scimContext.getOrganization());
 
-        return result;
+        return getUserVersions(scimContext, query);
     }
 
     /**
@@ -351,6 +476,8 @@ public class OrganizationUserController extends UsersController  {
         OrganizationProvider organizationProvider = getOrganizationProvider(session);
 
         if (organizationProvider.isManagedMember(scimContext.getOrganization(), user)) {
+            // Removing a managed member deletes the user
+            ModificationTracker.touchGroups(scimContext.getSession(), user);
             organizationProvider.removeMember(scimContext.getOrganization(), user);
             dispatchOrganizationMemberDeleteEvent(scimContext, user);
             dispatchUserDeleteEvent(scimContext, user);
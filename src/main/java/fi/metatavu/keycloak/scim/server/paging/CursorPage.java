@@ -0,0 +1,13 @@
+package fi.metatavu.keycloak.scim.server.paging;
+
+import java.util.List;
+
+/**
+ * Single page of results read with cursor pagination
+ *
+ * @param resources resources on the page
+ * @param nextKey key to continue from or null if there are no more results
+ * @param <T> resource type
+ */
+public record CursorPage<T>(List<T> resources, String nextKey) {
+}
@@ -0,0 +1,62 @@
+package fi.metatavu.keycloak.scim.server.paging;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encoding of opaque pagination cursors
+ * <p>
+ * A cursor holds the key of the last resource of the previous page. An empty cursor
+ * starts cursor pagination from the beginning.
+ */
+public class Cursors {
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * Encodes a key into a cursor
+     *
+     * @param key key
+     * @return cursor or null when key is null
+     */
+    public static String encode(String key) {
+        if (key == null) {
+            return null;
+        }
+
+        return Base64.getUrlEncoder()
+            .withoutPadding()
+            .encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor into a key
+     *
+     * @param cursor cursor
+     * @return key or null when the cursor is empty
+     * @throws InvalidCursor when the cursor is malformed
+     */
+    public static String decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+
+        if (cursor.length() > MAX_KEY_LENGTH * 2) {
+            throw new InvalidCursor("Cursor is too long");
+        }
+
+        String key;
+        try {
+            key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursor("Cursor is not valid");
+        }
+
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH || key.chars().anyMatch(Character::isISOControl)) {
+            throw new InvalidCursor("Cursor is not valid");
+        }
+
+        return key;
+    }
+
+}
@@ -0,0 +1,17 @@
+package fi.metatavu.keycloak.scim.server.paging;
+
+/**
+ * Exception thrown when a pagination cursor is malformed
+ */
+public class InvalidCursor extends RuntimeException {
+
+    /**
+     * Constructor
+     *
+     * @param message message
+     */
+    public InvalidCursor(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,22 @@
+package fi.metatavu.keycloak.scim.server.paging;
+
+import java.util.List;
+
+/**
+ * Query that returns results ordered by a unique key, starting after given key
+ *
+ * @param <T> result type
+ */
+@FunctionalInterface
+public interface KeysetQuery<T> {
+
+    /**
+     * Fetches results after given key
+     *
+     * @param afterKey key of the last already read result or null to start from the beginning
+     * @param maxResults maximum number of results
+     * @return results ordered by key
+     */
+    List<T> fetch(String afterKey, int maxResults);
+
+}
@@ -0,0 +1,13 @@
+package fi.metatavu.keycloak.scim.server.paging;
+
+import java.util.List;
+
+/**
+ * Single page of results
+ *
+ * @param resources resources on the page
+ * @param totalResults total number of matching resources
+ * @param <T> resource type
+ */
+public record Page<T>(List<T> resources, int totalResults) {
+}
@@ -0,0 +1,24 @@
+package fi.metatavu.keycloak.scim.server.paging;
+
+import java.util.stream.Stream;
+
+/**
+ * Query that returns one window of results from a store
+ * <p>
+ * Implementations usually delegate to the first / max overloads of Keycloak providers
+ *
+ * @param <T> result type
+ */
+@FunctionalInterface
+public interface PageQuery<T> {
+
+    /**
+     * Fetches a window of results
+     *
+     * @param firstResult index of the first result
+     * @param maxResults maximum number of results
+     * @return results
+     */
+    Stream<T> fetch(int firstResult, int maxResults);
+
+}
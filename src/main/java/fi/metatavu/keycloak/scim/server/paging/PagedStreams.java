@@ -0,0 +1,304 @@
+package fi.metatavu.keycloak.scim.server.paging;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Utilities for reading large result sets from Keycloak providers page by page
+ */
+public class PagedStreams {
+
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+    public static final int MAX_CHUNK_SIZE = 1000;
+
+    /**
+     * Returns a lazy stream that reads the results of given query in chunks.
+     * <p>
+     * Only one chunk is held in memory at a time and reading stops after
+     * the first chunk that is shorter than the chunk size.
+     *
+     * @param query query
+     * @param chunkSize chunk size
+     * @return lazy stream of all results
+     * @param <T> result type
+     */
+    public static <T> Stream<T> chunked(PageQuery<T> query, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(new ChunkIterator<>(query, chunkSize), Spliterator.ORDERED | Spliterator.NONNULL),
+            false
+        );
+    }
+
+    /**
+     * Returns a lazy stream that reads the results of given keyset query in chunks.
+     * <p>
+     * Each chunk continues after the key of the last result of the previous chunk, so
+     * reading a chunk costs the same regardless of how far the stream has advanced.
+     *
+     * @param query keyset query
+     * @param keyOf function returning the key of a result
+     * @param afterKey key to start after or null to start from the beginning
+     * @param chunkSize chunk size
+     * @return lazy stream of results
+     * @param <T> result type
+     */
+    public static <T> Stream<T> keysetChunked(KeysetQuery<T> query, Function<T, String> keyOf, String afterKey, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(new KeysetChunkIterator<>(query, keyOf, afterKey, chunkSize), Spliterator.ORDERED | Spliterator.NONNULL),
+            false
+        );
+    }
+
+    /**
+     * Returns a suitable chunk size for reading a page of given size
+     *
+     * @param maxResults maximum number of results on the page
+     * @return chunk size
+     */
+    public static int getChunkSize(int maxResults) {
+        return (int) Math.min(MAX_CHUNK_SIZE, Math.max(DEFAULT_CHUNK_SIZE, maxResults + 1L));
+    }
+
+    /**
+     * Collects a cursor page from a stream of matching results ordered by key.
+     * <p>
+     * One match past the page is read to find out whether another page exists.
+     *
+     * @param matches matching results ordered by key
+     * @param keyOf function returning the key of a result
+     * @param afterKey key the page started after
+     * @param maxResults maximum number of results on the page
+     * @return cursor page
+     * @param <T> result type
+     */
+    public static <T> CursorPage<T> cursorPage(Stream<T> matches, Function<T, String> keyOf, String afterKey, int maxResults) {
+        int pageSize = Math.max(0, maxResults);
+
+        List<T> results;
+        try (matches) {
+            results = matches.limit(pageSize + 1L).toList();
+        }
+
+        if (results.size() <= pageSize) {
+            return new CursorPage<>(results, null);
+        }
+
+        List<T> resources = results.subList(0, pageSize);
+        String nextKey = resources.isEmpty() ? afterKey : keyOf.apply(resources.getLast());
+
+        return new CursorPage<>(resources, nextKey);
+    }
+
+    /**
+     * Collects a page from a stream of matching results.
+     * <p>
+     * Stream is consumed once: results inside the requested window are collected and
+     * the rest are only counted.
+     *
+     * @param matches matching results
+     * @param firstResult index of the first result on the page
+     * @param maxResults maximum number of results on the page
+     * @return page
+     * @param <T> result type
+     */
+    public static <T> Page<T> page(Stream<T> matches, int firstResult, int maxResults) {
+        return page(matches, firstResult, maxResults, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Collects a page from a stream of matching results, counting at most given number of matches.
+     * <p>
+     * When the count limit is reached the stream is not consumed further and the limit is
+     * returned as the total.
+     *
+     * @param matches matching results
+     * @param firstResult index of the first result on the page
+     * @param maxResults maximum number of results on the page
+     * @param countLimit maximum number of matches to count
+     * @return page
+     * @param <T> result type
+     */
+    public static <T> Page<T> page(Stream<T> matches, int firstResult, int maxResults, int countLimit) {
+        List<T> resources = new ArrayList<>(Math.max(0, Math.min(maxResults, DEFAULT_CHUNK_SIZE)));
+        long lastResult = (long) firstResult + Math.max(0, maxResults);
+        int index = 0;
+
+        try (matches) {
+            Iterator<T> iterator = matches.iterator();
+            while (index < countLimit && iterator.hasNext()) {
+                T match = iterator.next();
+                if (index >= firstResult && index < lastResult) {
+                    resources.add(match);
+                }
+
+                index++;
+            }
+        }
+
+        return new Page<>(resources, index);
+    }
+
+    /**
+     * Collects a page from the results of given query, applying given predicate in memory.
+     * <p>
+     * Store is read in chunks so that memory use is bounded by the chunk and page sizes
+     * instead of the size of the whole result set.
+     *
+     * @param query query
+     * @param predicate in-memory predicate for criteria that could not be pushed into the query
+     * @param firstResult index of the first result on the page
+     * @param maxResults maximum number of results on the page
+     * @param countLimit maximum number of matches to count
+     * @return page
+     * @param <T> result type
+     */
+    public static <T> Page<T> page(PageQuery<T> query, Predicate<T> predicate, int firstResult, int maxResults, int countLimit) {
+        return page(chunked(query, DEFAULT_CHUNK_SIZE).filter(predicate), firstResult, maxResults, countLimit);
+    }
+
+    /**
+     * Reads a page directly from the store when all criteria are part of the query.
+     * <p>
+     * Only the requested window is fetched and the total is resolved with a dedicated count query.
+     *
+     * @param query query
+     * @param countQuery count query with the same criteria as the query
+     * @param firstResult index of the first result on the page
+     * @param maxResults maximum number of results on the page
+     * @return page
+     * @param <T> result type
+     */
+    public static <T> Page<T> page(PageQuery<T> query, IntSupplier countQuery, int firstResult, int maxResults) {
+        List<T> resources;
+        try (Stream<T> stream = query.fetch(firstResult, maxResults)) {
+            resources = stream.toList();
+        }
+
+        return new Page<>(resources, countQuery.getAsInt());
+    }
+
+    /**
+     * Iterator that fetches the next chunk from the query when the current one is exhausted
+     *
+     * @param <T> result type
+     */
+    private static class ChunkIterator<T> implements Iterator<T> {
+
+        private final PageQuery<T> query;
+        private final int chunkSize;
+        private Iterator<T> current = Collections.emptyIterator();
+        private int offset = 0;
+        private boolean exhausted = false;
+
+        /**
+         * Constructor
+         *
+         * @param query query
+         * @param chunkSize chunk size
+         */
+        ChunkIterator(PageQuery<T> query, int chunkSize) {
+            this.query = query;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (exhausted) {
+                    return false;
+                }
+
+                List<T> chunk;
+                try (Stream<T> stream = query.fetch(offset, chunkSize)) {
+                    chunk = stream.toList();
+                }
+
+                offset += chunkSize;
+                exhausted = chunk.size() < chunkSize;
+                current = chunk.iterator();
+            }
+
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return current.next();
+        }
+    }
+
+    /**
+     * Iterator that fetches the next chunk from a keyset query when the current one is exhausted
+     *
+     * @param <T> result type
+     */
+    private static class KeysetChunkIterator<T> implements Iterator<T> {
+
+        private final KeysetQuery<T> query;
+        private final Function<T, String> keyOf;
+        private final int chunkSize;
+        private Iterator<T> current = Collections.emptyIterator();
+        private String afterKey;
+        private boolean exhausted = false;
+
+        /**
+         * Constructor
+         *
+         * @param query keyset query
+         * @param keyOf function returning the key of a result
+         * @param afterKey key to start after
+         * @param chunkSize chunk size
+         */
+        KeysetChunkIterator(KeysetQuery<T> query, Function<T, String> keyOf, String afterKey, int chunkSize) {
+            this.query = query;
+            this.keyOf = keyOf;
+            this.afterKey = afterKey;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (exhausted) {
+                    return false;
+                }
+
+                List<T> chunk = query.fetch(afterKey, chunkSize);
+                exhausted = chunk.size() < chunkSize;
+                if (!chunk.isEmpty()) {
+                    afterKey = keyOf.apply(chunk.getLast());
+                }
+
+                current = chunk.iterator();
+            }
+
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return current.next();
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package fi.metatavu.keycloak.scim.server.paging;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * SCIM ListResponse that is written to the response stream one resource at a time.
+ * <p>
+ * Resources are kept as store models and translated only when they are written, so a single
+ * translated resource is held in memory at a time instead of the whole page. Translation happens
+ * while the response is written, which is still within the session of the request. Resources are
+ * serialized with the same mapper as other responses, so the output matches a buffered list.
+ *
+ * @param <M> store model type
+ */
+public class StreamingListResponse<M> implements StreamingOutput {
+
+    private final List<String> schemas;
+    private final List<M> resources;
+    private final Function<M, ?> translator;
+    private final Function<M, String> versionKey;
+    private final Integer totalResults;
+    private final Integer startIndex;
+    private final Integer itemsPerPage;
+    private final String nextCursor;
+
+    /**
+     * Constructor
+     *
+     * @param schemas schemas of the list response or null if omitted
+     * @param resources store models on the page
+     * @param translator translates a store model into a SCIM resource
+     * @param versionKey returns the id and version of a store model or null if the resources are listed without versions
+     * @param totalResults total results or null if unknown
+     * @param startIndex start index or null when using cursor pagination
+     * @param itemsPerPage items per page
+     * @param nextCursor cursor of the next page or null
+     */
+    public StreamingListResponse(
+        List<String> schemas,
+        List<M> resources,
+        Function<M, ?> translator,
+        Function<M, String> versionKey,
+        Integer totalResults,
+        Integer startIndex,
+        Integer itemsPerPage,
+        String nextCursor
+    ) {
+        this.schemas = schemas;
+        this.resources = resources;
+        this.translator = translator;
+        this.versionKey = versionKey;
+        this.totalResults = totalResults;
+        this.startIndex = startIndex;
+        this.itemsPerPage = itemsPerPage;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Returns id and version keys of the listed resources.
+     * <p>
+     * The keys are read from the store models, so the collection can be tagged without translating the resources.
+     *
+     * @return keys in list order or null if the resources are listed without versions
+     */
+    public List<String> getResourceVersions() {
+        if (versionKey == null) {
+            return null;
+        }
+
+        return resources.stream().map(versionKey).toList();
+    }
+
+    public Integer getTotalResults() {
+        return totalResults;
+    }
+
+    public Integer getStartIndex() {
+        return startIndex;
+    }
+
+    public Integer getItemsPerPage() {
+        return itemsPerPage;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        JsonGenerator generator = JsonSerialization.mapper.createGenerator(output)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        try (generator) {
+            generator.writeStartObject();
+
+            if (schemas != null) {
+                generator.writeArrayFieldStart("schemas");
+                for (String schema : schemas) {
+                    generator.writeString(schema);
+                }
+
+                generator.writeEndArray();
+            }
+
+            writeNumberField(generator, "totalResults", totalResults);
+            writeNumberField(generator, "startIndex", startIndex);
+            writeNumberField(generator, "itemsPerPage", itemsPerPage);
+
+            if (nextCursor != null) {
+                generator.writeStringField("nextCursor", nextCursor);
+            }
+
+            generator.writeArrayFieldStart("Resources");
+            for (M resource : resources) {
+                Object translated = translator.apply(resource);
+                if (translated != null) {
+                    JsonSerialization.mapper.writeValue(generator, translated);
+                }
+            }
+
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes a number field when the value is present
+     *
+     * @param generator JSON generator
+     * @param name field name
+     * @param value value or null
+     * @throws IOException when writing fails
+     */
+    private void writeNumberField(JsonGenerator generator, String name, Integer value) throws IOException {
+        if (value != null) {
+            generator.writeNumberField(name, value);
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package fi.metatavu.keycloak.scim.server.projection;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Attribute projection requested with the SCIM attributes and excludedAttributes query parameters.
+ * <p>
+ * Translators consult the projection before reading an attribute, so attributes that are not part
+ * of the response are never loaded from the store.
+ */
+public class AttributeProjection {
+
+    /**
+     * Projection that returns the default attribute set
+     */
+    public static final AttributeProjection DEFAULT = new AttributeProjection(null, Collections.emptySet());
+
+    private static final Set<String> ALWAYS_RETURNED = Set.of("id", "schemas");
+
+    private final Set<String> attributes;
+    private final Set<String> excludedAttributes;
+
+    /**
+     * Constructor
+     *
+     * @param attributes requested attribute paths or null if the default attribute set is requested
+     * @param excludedAttributes excluded attribute paths
+     */
+    private AttributeProjection(Set<String> attributes, Set<String> excludedAttributes) {
+        this.attributes = attributes;
+        this.excludedAttributes = excludedAttributes;
+    }
+
+    /**
+     * Parses projection from the attributes and excludedAttributes query parameters
+     *
+     * @param attributes comma separated list of requested attributes or null
+     * @param excludedAttributes comma separated list of excluded attributes or null
+     * @return projection
+     * @throws IllegalArgumentException when both parameters are given
+     */
+    public static AttributeProjection parse(String attributes, String excludedAttributes) {
+        Set<String> requested = parsePaths(attributes);
+        Set<String> excluded = parsePaths(excludedAttributes);
+
+        if (!requested.isEmpty() && !excluded.isEmpty()) {
+            throw new IllegalArgumentException("attributes and excludedAttributes are mutually exclusive");
+        }
+
+        if (requested.isEmpty() && excluded.isEmpty()) {
+            return DEFAULT;
+        }
+
+        return new AttributeProjection(requested.isEmpty() ? null : requested, excluded);
+    }
+
+    /**
+     * Returns whether the projection returns the default attribute set
+     *
+     * @return whether neither attributes nor excludedAttributes were requested
+     */
+    public boolean isDefault() {
+        return attributes == null && excludedAttributes.isEmpty();
+    }
+
+    /**
+     * Returns whether attribute should be included in the response.
+     * <p>
+     * A complex attribute is included when any of its sub-attributes is requested and a sub-attribute
+     * is included when its parent attribute is requested or it is not excluded directly or via its parent.
+     *
+     * @param path attribute path, e.g. "userName" or "name.givenName"
+     * @return whether attribute should be included
+     */
+    public boolean includes(String path) {
+        String normalized = normalize(path);
+        if (ALWAYS_RETURNED.contains(normalized)) {
+            return true;
+        }
+
+        if (attributes != null) {
+            return attributes.stream().anyMatch(requested ->
+                requested.equals(normalized) ||
+                normalized.startsWith(requested + ".") ||
+                requested.startsWith(normalized + ".")
+            );
+        }
+
+        return excludedAttributes.stream().noneMatch(excluded ->
+            excluded.equals(normalized) ||
+            normalized.startsWith(excluded + ".")
+        );
+    }
+
+    /**
+     * Parses comma separated list of attribute paths
+     *
+     * @param value comma separated list or null
+     * @return normalized attribute paths
+     */
+    private static Set<String> parsePaths(String value) {
+        if (value == null || value.isBlank()) {
+            return Collections.emptySet();
+        }
+
+        return Arrays.stream(value.split(","))
+            .map(String::trim)
+            .filter(path -> !path.isEmpty())
+            .map(AttributeProjection::normalize)
+            .collect(Collectors.toSet());
+    }
+
+    /**
+     * Normalizes attribute path by removing the schema URN prefix and lower casing the path
+     * because SCIM attribute names are case-insensitive.
+     *
+     * @param path attribute path
+     * @return normalized path
+     */
+    private static String normalize(String path) {
+        String result = path;
+        if (result.regionMatches(true, 0, "urn:", 0, 4)) {
+            result = result.substring(result.lastIndexOf(':') + 1);
+        }
+
+        return result.toLowerCase(Locale.ROOT);
+    }
+
+}
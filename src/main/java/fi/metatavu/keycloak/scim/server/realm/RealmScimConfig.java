@@ -21,6 +21,17 @@ public class RealmScimConfig implements ScimConfig {
     public static final String SCIM_LINK_IDP = "scim.link.idp";
     public static final String SCIM_IDENTITY_PROVIDER_ALIAS = "scim.identity.provider.alias";
     public static final String SCIM_EMAIL_AS_USERNAME = "scim.email.as.username";
+    public static final String SCIM_TOTAL_RESULTS_MODE = "scim.total.results.mode";
+    public static final String SCIM_TOTAL_RESULTS_CAP = "scim.total.results.cap";
+    public static final String SCIM_USER_LISTING_STRATEGY = "scim.user.listing.strategy";
+    public static final String SCIM_GROUP_MEMBER_LIMIT = "scim.group.member.limit";
+    public static final String SCIM_GROUP_PATCH_RESPONSE = "scim.group.patch.response";
+    public static final int DEFAULT_TOTAL_RESULTS_CAP = 1000;
+    public static final String SCIM_FILTER_MAX_TERMS = "scim.filter.max.terms";
+    public static final String SCIM_FILTER_MAX_DEPTH = "scim.filter.max.depth";
+    public static final int DEFAULT_GROUP_MEMBER_LIMIT = 10000;
+    public static final int DEFAULT_FILTER_MAX_TERMS = 100;
+    public static final int DEFAULT_FILTER_MAX_DEPTH = 10;
     private final Config config;
     private final RealmModel realm;
 
@@ -60,6 +71,56 @@ public class RealmScimConfig implements ScimConfig {
         if (getLinkIdp() && getIdentityProviderAlias() == null) {
             throw new ConfigurationError("SCIM_IDENTITY_PROVIDER_ALIAS must be set when SCIM_LINK_IDP is true");
         }
+
+        try {
+            getTotalResultsMode();
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError("SCIM_TOTAL_RESULTS_MODE is invalid");
+        }
+
+        try {
+            if (getTotalResultsCap() < 1) {
+                throw new ConfigurationError("SCIM_TOTAL_RESULTS_CAP must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError("SCIM_TOTAL_RESULTS_CAP is not a number");
+        }
+
+        try {
+            getUserListingStrategy();
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError("SCIM_USER_LISTING_STRATEGY is invalid");
+        }
+
+        try {
+            if (getGroupMemberLimit() < 1) {
+                throw new ConfigurationError("SCIM_GROUP_MEMBER_LIMIT must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError("SCIM_GROUP_MEMBER_LIMIT is not a number");
+        }
+
+        try {
+            getGroupPatchResponse();
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError("SCIM_GROUP_PATCH_RESPONSE is invalid");
+        }
+
+        try {
+            if (getFilterMaxTerms() < 1) {
+                throw new ConfigurationError("SCIM_FILTER_MAX_TERMS must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError("SCIM_FILTER_MAX_TERMS is not a number");
+        }
+
+        try {
+            if (getFilterMaxDepth() < 1) {
+                throw new ConfigurationError("SCIM_FILTER_MAX_DEPTH must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationError("SCIM_FILTER_MAX_DEPTH is not a number");
+        }
     }
 
     /**
@@ -145,6 +206,86 @@ public class RealmScimConfig implements ScimConfig {
             .orElse(false);
     }
 
+    /**
+     * Returns the mode used for computing totalResults of list responses.
+     */
+    @Override
+    public TotalResultsMode getTotalResultsMode() {
+        return readRealmAttribute(SCIM_TOTAL_RESULTS_MODE)
+            .or(() -> config.getOptionalValue(SCIM_TOTAL_RESULTS_MODE, String.class))
+            .map(String::toUpperCase)
+            .map(TotalResultsMode::valueOf)
+            .orElse(TotalResultsMode.EXACT);
+    }
+
+    /**
+     * Returns the number of matches after which counting stops in APPROXIMATE mode.
+     */
+    @Override
+    public int getTotalResultsCap() {
+        return readRealmAttribute(SCIM_TOTAL_RESULTS_CAP)
+            .map(Integer::parseInt)
+            .or(() -> config.getOptionalValue(SCIM_TOTAL_RESULTS_CAP, Integer.class))
+            .orElse(DEFAULT_TOTAL_RESULTS_CAP);
+    }
+
+    /**
+     * Returns the strategy used for enumerating SCIM-managed users.
+     */
+    @Override
+    public UserListingStrategy getUserListingStrategy() {
+        return readRealmAttribute(SCIM_USER_LISTING_STRATEGY)
+            .or(() -> config.getOptionalValue(SCIM_USER_LISTING_STRATEGY, String.class))
+            .map(String::toUpperCase)
+            .map(UserListingStrategy::valueOf)
+            .orElse(UserListingStrategy.SEARCH);
+    }
+
+    /**
+     * Returns the maximum number of members returned in a single group response.
+     */
+    @Override
+    public int getGroupMemberLimit() {
+        return readRealmAttribute(SCIM_GROUP_MEMBER_LIMIT)
+            .map(Integer::parseInt)
+            .or(() -> config.getOptionalValue(SCIM_GROUP_MEMBER_LIMIT, Integer.class))
+            .orElse(DEFAULT_GROUP_MEMBER_LIMIT);
+    }
+
+    /**
+     * Returns the response type of group PATCH requests.
+     */
+    @Override
+    public GroupPatchResponse getGroupPatchResponse() {
+        return readRealmAttribute(SCIM_GROUP_PATCH_RESPONSE)
+            .or(() -> config.getOptionalValue(SCIM_GROUP_PATCH_RESPONSE, String.class))
+            .map(String::toUpperCase)
+            .map(GroupPatchResponse::valueOf)
+            .orElse(GroupPatchResponse.RESOURCE);
+    }
+
+    /**
+     * Returns the maximum number of attribute expressions in a filter.
+     */
+    @Override
+    public int getFilterMaxTerms() {
+        return readRealmAttribute(SCIM_FILTER_MAX_TERMS)
+            .map(Integer::parseInt)
+            .or(() -> config.getOptionalValue(SCIM_FILTER_MAX_TERMS, Integer.class))
+            .orElse(DEFAULT_FILTER_MAX_TERMS);
+    }
+
+    /**
+     * Returns the maximum nesting depth of a filter.
+     */
+    @Override
+    public int getFilterMaxDepth() {
+        return readRealmAttribute(SCIM_FILTER_MAX_DEPTH)
+            .map(Integer::parseInt)
+            .or(() -> config.getOptionalValue(SCIM_FILTER_MAX_DEPTH, Integer.class))
+            .orElse(DEFAULT_FILTER_MAX_DEPTH);
+    }
+
     /**
      * Helper method to read the first string from a realm attribute.
      */
@@ -2,23 +2,44 @@ package fi.metatavu.keycloak.scim.server.realm;
 
 import fi.metatavu.keycloak.scim.server.AbstractScimServer;
 import fi.metatavu.keycloak.scim.server.config.ConfigurationError;
+import fi.metatavu.keycloak.scim.server.config.ScimConfig;
+import fi.metatavu.keycloak.scim.server.export.ExportSection;
 import fi.metatavu.keycloak.scim.server.filter.ScimFilter;
 import fi.metatavu.keycloak.scim.server.groups.UnsupportedGroupPath;
+import fi.metatavu.keycloak.scim.server.imports.ImportController;
+import fi.metatavu.keycloak.scim.server.imports.ImportJobState;
+import fi.metatavu.keycloak.scim.server.imports.ImportPayloadTooLarge;
 import fi.metatavu.keycloak.scim.server.metadata.UserAttributes;
+import fi.metatavu.keycloak.scim.server.model.BulkRequest;
+import fi.metatavu.keycloak.scim.server.model.BulkResponse;
+import fi.metatavu.keycloak.scim.server.model.ImportJob;
 import fi.metatavu.keycloak.scim.server.model.User;
+import fi.metatavu.keycloak.scim.server.paging.InvalidCursor;
+import fi.metatavu.keycloak.scim.server.paging.StreamingListResponse;
 import fi.metatavu.keycloak.scim.server.patch.UnsupportedPatchOperation;
+import fi.metatavu.keycloak.scim.server.projection.AttributeProjection;
+import fi.metatavu.keycloak.scim.server.sorting.Sorting;
+import fi.metatavu.keycloak.scim.server.sorting.UnsupportedSort;
+import fi.metatavu.keycloak.scim.server.tracking.EntityTags;
+import fi.metatavu.keycloak.scim.server.users.UnsupportedUserPath;
 import jakarta.ws.rs.InternalServerErrorException;
 import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.UriBuilder;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.util.List;
 import java.util.Objects;
 import org.jboss.logging.Logger;
 import org.keycloak.models.GroupModel;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.RoleModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
 
 /**
  * SCIM server implementation for realms
@@ -27,6 +48,12 @@ public class RealmScimServer extends AbstractScimServer<RealmScimContext> {
 
     private static final Logger logger = Logger.getLogger(RealmScimServer.class.getName());
 
+    private final ImportController importController;
+
+    public RealmScimServer() {
+        this.importController = new ImportController();
+    }
+
     @Override
     public Response createUser(
         RealmScimContext scimContext,
@@ -62,7 +89,7 @@ public class RealmScimServer extends AbstractScimServer<RealmScimContext> {
     }
 
     @Override
-    public Response updateUser(RealmScimContext scimContext, String userId, fi.metatavu.keycloak.scim.server.model.User updateRequest) {
+    public Response updateUser(RealmScimContext scimContext, String userId, fi.metatavu.keycloak.scim.server.model.User updateRequest, String ifMatch) {
         boolean emailAsUsername = scimContext.getConfig().getEmailAsUsername();
         KeycloakSession session = scimContext.getSession();
 
@@ -92,6 +119,11 @@ public class RealmScimServer extends AbstractScimServer<RealmScimContext> {
             return Response.status(Response.Status.NOT_FOUND).entity("User not found").build();
         }
 
+        if (isPreconditionFailed(session, user, ifMatch)) {
+            logger.warn(String.format("Version mismatch: %s", userId));
+            return Response.status(Response.Status.PRECONDITION_FAILED).entity("Version mismatch").build();
+        }
+
         // Check if username is being changed to an already existing one
         UserModel existing;
         if (emailAsUsername) {
@@ -108,11 +140,11 @@ public class RealmScimServer extends AbstractScimServer<RealmScimContext> {
         UserAttributes userAttributes = metadataController.getUserAttributes(scimContext);
         fi.metatavu.keycloak.scim.server.model.User result = usersController.updateUser(scimContext, userAttributes, user, updateRequest);
 
-        return Response.ok(result).build();
+        return Response.ok(result).tag(EntityTags.getEntityTag(user)).build();
     }
 
     @Override
-    public Response patchUser(RealmScimContext scimContext, String userId, fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest) {
+    public Response patchUser(RealmScimContext scimContext, String userId, fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest, String ifMatch) {
         KeycloakSession session = scimContext.getSession();
 
         RealmModel realm = scimContext.getRealm();
@@ -122,45 +154,75 @@ public class RealmScimServer extends AbstractScimServer<RealmScimContext> {
             return Response.status(Response.Status.NOT_FOUND).entity("User not found").build();
         }
 
+        if (isPreconditionFailed(session, existing, ifMatch)) {
+            logger.warn(String.format("Version mismatch: %s", userId));
+            return Response.status(Response.Status.PRECONDITION_FAILED).entity("Version mismatch").build();
+        }
+
         UserAttributes userAttributes = metadataController.getUserAttributes(scimContext);
 
         try {
             fi.metatavu.keycloak.scim.server.model.User result = usersController.patchUser(scimContext, userAttributes, existing, patchRequest);
-            return Response.ok(result).build();
+            return Response.ok(result).tag(EntityTags.getEntityTag(existing)).build();
         } catch (UnsupportedPatchOperation e) {
             return Response.status(Response.Status.BAD_REQUEST).entity("Unsupported patch operation").build();
         }
     }
 
     @Override
-    public Response listUsers(RealmScimContext scimContext, ScimFilter scimFilter, Integer startIndex, Integer count) {
+    public Response listUsers(RealmScimContext scimContext, ScimFilter scimFilter, Integer startIndex, Integer count, String cursor, AttributeProjection projection, Sorting sorting, String ifNoneMatch) {
         UserAttributes userAttributes = metadataController.getUserAttributes(scimContext);
 
-        fi.metatavu.keycloak.scim.server.model.UsersList usersList = usersController.listUsers(
-            scimContext,
-            scimFilter,
-            userAttributes,
-            startIndex,
-            count
-        );
-
-        return Response.ok(usersList).build();
+        try {
+            StreamingListResponse<UserModel> usersList = usersController.listUsers(
+                scimContext,
+                scimFilter,
+                userAttributes,
+                startIndex,
+                count,
+                cursor,
+                projection,
+                sorting
+            );
+
+            return listResponse(usersList, ifNoneMatch);
+        } catch (InvalidCursor e) {
+            logger.warn(String.format("Invalid cursor: %s", cursor));
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid cursor").build();
+        } catch (UnsupportedSort e) {
+            logger.warn(String.format("Unsupported sort: %s", e.getMessage()));
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid sortBy").build();
+        } catch (UnsupportedUserPath e) {
+            logger.warn(String.format("Unsupported filter attribute: %s", e.getMessage()));
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid filter").build();
+        }
     }
 
     @Override
-    public Response findUser(RealmScimContext scimContext, String userId) {
+    public Response findUser(RealmScimContext scimContext, String userId, AttributeProjection projection, String ifNoneMatch) {
+        UserModel userModel = scimContext.getSession().users().getUserById(scimContext.getRealm(), userId);
+        if (userModel == null) {
+            logger.warn(String.format("User not found: %s", userId));
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        EntityTag entityTag = EntityTags.getEntityTag(userModel);
+        if (EntityTags.matches(ifNoneMatch, entityTag)) {
+            return Response.notModified(entityTag).build();
+        }
+
         UserAttributes userAttributes = metadataController.getUserAttributes(scimContext);
-        User user = usersController.findUser(scimContext, userAttributes, userId);
+        User user = usersController.findUser(scimContext, userAttributes, userId, projection);
         if (user == null) {
             logger.warn(String.format("User not found: %s", userId));
             return Response.status(Response.Status.NOT_FOUND).build();
         }
 
-        return Response.ok(user).build();
+        return Response.ok(user).tag(entityTag).build();
     }
 
     @Override
-    public Response deleteUser(RealmScimContext scimContext, String userId) {
+    public Response deleteUser(RealmScimContext scimContext, String userId, String ifMatch) {
         RealmModel realm = scimContext.getRealm();
         KeycloakSession session = scimContext.getSession();
 
@@ -176,6 +238,11 @@ public class RealmScimServer extends AbstractScimServer<RealmScimContext> {
             return Response.status(Response.Status.FORBIDDEN).entity("User is not managed by SCIM").build();
         }
 
+        if (isPreconditionFailed(session, user, ifMatch)) {
+            logger.warn(String.format("Version mismatch: %s", userId));
+            return Response.status(Response.Status.PRECONDITION_FAILED).entity("Version mismatch").build();
+        }
+
         usersController.deleteUser(scimContext, user);
 
         return Response.noContent().build();
@@ -200,23 +267,44 @@ public class RealmScimServer extends AbstractScimServer<RealmScimContext> {
     }
 
     @Override
-    public Response listGroups(RealmScimContext scimContext, ScimFilter filter, int startIndex, int count) {
-        fi.metatavu.keycloak.scim.server.model.GroupsList groupList = groupsController.listGroups(scimContext, filter, startIndex, count);
-        return Response.ok(groupList).build();
+    public Response listGroups(RealmScimContext scimContext, ScimFilter filter, int startIndex, int count, String cursor, AttributeProjection projection, Sorting sorting, String ifNoneMatch) {
+        try {
+            StreamingListResponse<GroupModel> groupList = groupsController.listGroups(scimContext, filter, startIndex, count, cursor, projection, sorting);
+            return listResponse(groupList, ifNoneMatch);
+        } catch (InvalidCursor e) {
+            logger.warn(String.format("Invalid cursor: %s", cursor));
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid cursor").build();
+        } catch (UnsupportedSort e) {
+            logger.warn(String.format("Unsupported sort: %s", e.getMessage()));
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid sortBy").build();
+        } catch (UnsupportedGroupPath e) {
+            logger.warn(String.format("Unsupported filter attribute: %s", e.getMessage()));
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid filter").build();
+        }
     }
 
     @Override
-    public Response findGroup(RealmScimContext scimContext, String id) {
-        fi.metatavu.keycloak.scim.server.model.Group group = groupsController.findGroup(scimContext, id);
+    public Response findGroup(RealmScimContext scimContext, String id, AttributeProjection projection, Integer membersStartIndex, Integer membersCount, String ifNoneMatch) {
+        GroupModel groupModel = scimContext.getSession().groups().getGroupById(scimContext.getRealm(), id);
+        if (groupModel == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        EntityTag entityTag = EntityTags.getEntityTag(groupModel);
+        if (EntityTags.matches(ifNoneMatch, entityTag)) {
+            return Response.notModified(entityTag).build();
+        }
+
+        fi.metatavu.keycloak.scim.server.model.Group group = groupsController.findGroup(scimContext, id, projection, membersStartIndex, membersCount);
         if (group == null) {
             return Response.status(Response.Status.NOT_FOUND).build();
         }
 
-        return Response.ok(group).build();
+        return Response.ok(group).tag(entityTag).build();
     }
 
     @Override
-    public Response updateGroup(RealmScimContext scimContext, String id, fi.metatavu.keycloak.scim.server.model.Group updateRequest) {
+    public Response updateGroup(RealmScimContext scimContext, String id, fi.metatavu.keycloak.scim.server.model.Group updateRequest, AttributeProjection projection, String ifMatch) {
         KeycloakSession session = scimContext.getSession();
 
         GroupModel existing = session.groups().getGroupById(scimContext.getRealm(), id);
@@ -228,17 +316,23 @@ public class RealmScimServer extends AbstractScimServer<RealmScimContext> {
             return Response.status(Response.Status.BAD_REQUEST).entity("Group ID mismatch").build();
         }
 
+        if (isPreconditionFailed(session, existing, ifMatch)) {
+            logger.warn(String.format("Version mismatch: %s", id));
+            return Response.status(Response.Status.PRECONDITION_FAILED).entity("Version mismatch").build();
+        }
+
         fi.metatavu.keycloak.scim.server.model.Group updated = groupsController.updateGroup(
             scimContext,
             existing,
-            updateRequest
+            updateRequest,
+            projection
         );
 
-        return Response.ok(updated).build();
+        return Response.ok(updated).tag(EntityTags.getEntityTag(existing)).build();
     }
 
     @Override
-    public Response patchGroup(RealmScimContext scimContext, String groupId, fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest) {
+    public Response patchGroup(RealmScimContext scimContext, String groupId, fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest, AttributeProjection projection, String ifMatch) {
         KeycloakSession session = scimContext.getSession();
 
         GroupModel existing = session.groups().getGroupById(scimContext.getRealm(), groupId);
@@ -250,29 +344,196 @@ public class RealmScimServer extends AbstractScimServer<RealmScimContext> {
             return Response.status(Response.Status.BAD_REQUEST).entity("Group ID mismatch").build();
         }
 
+        if (isPreconditionFailed(session, existing, ifMatch)) {
+            logger.warn(String.format("Version mismatch: %s", groupId));
+            return Response.status(Response.Status.PRECONDITION_FAILED).entity("Version mismatch").build();
+        }
+
         try {
-            fi.metatavu.keycloak.scim.server.model.Group updated = groupsController.patchGroup(scimContext, existing, patchRequest);
-            return Response.ok(updated).build();
+            groupsController.patchGroup(scimContext, existing, patchRequest);
         } catch (UnsupportedGroupPath e) {
             return Response.status(Response.Status.BAD_REQUEST).entity("Unsupported group path").build();
         } catch (UnsupportedPatchOperation e) {
             return Response.status(Response.Status.BAD_REQUEST).entity("Unsupported patch operation").build();
         }
+
+        // Respond with 204 No Content unless the client explicitly asked for attributes
+        EntityTag entityTag = EntityTags.getEntityTag(existing);
+        if (projection.isDefault() && scimContext.getConfig().getGroupPatchResponse() == ScimConfig.GroupPatchResponse.NO_CONTENT) {
+            return Response.noContent().tag(entityTag).build();
+        }
+
+        fi.metatavu.keycloak.scim.server.model.Group updated = groupsController.findGroup(scimContext, groupId, projection, null, null);
+        return Response.ok(updated).tag(entityTag).build();
     }
 
     @Override
-    public Response deleteGroup(RealmScimContext scimContext, String id) {
+    public Response deleteGroup(RealmScimContext scimContext, String id, String ifMatch) {
         KeycloakSession session = scimContext.getSession();
         GroupModel group = session.groups().getGroupById(scimContext.getRealm(), id);
         if (group == null) {
             return Response.status(Response.Status.NOT_FOUND).build();
         }
 
+        if (isPreconditionFailed(session, group, ifMatch)) {
+            logger.warn(String.format("Version mismatch: %s", id));
+            return Response.status(Response.Status.PRECONDITION_FAILED).entity("Version mismatch").build();
+        }
+
         groupsController.deleteGroup(scimContext, group);
 
         return Response.noContent().build();
     }
 
+    @Override
+    protected List<ExportSection<RealmScimContext>> getExportSections(RealmScimContext scimContext) {
+        UserAttributes userAttributes = metadataController.getUserAttributes(scimContext);
+
+        return List.of(
+            usersController.getUsersExport(scimContext, userAttributes),
+            groupsController.getGroupsExport(scimContext)
+        );
+    }
+
+    @Override
+    protected ExportSection<RealmScimContext> getUserVersions(RealmScimContext scimContext) {
+        return usersController.getUserVersions(scimContext);
+    }
+
+    @Override
+    protected RealmScimContext createBatchContext(RealmScimContext scimContext, KeycloakSession session) {
+        RealmModel realm = session.realms().getRealm(scimContext.getRealm().getId());
+        session.getContext().setRealm(realm);
+
+        RealmScimContext result = new RealmScimContext(
+            scimContext.getServerBaseUri(),
+            session,
+            realm,
+            new RealmScimConfig(realm)
+        );
+
+        result.setUserAttributes(metadataController.getUserAttributes(scimContext));
+        return result;
+    }
+
+    /**
+     * Starts an import job.
+     * <p>
+     * The payload is stored before the job is accepted, and the records are applied in the background.
+     *
+     * @param scimContext SCIM context
+     * @param payload NDJSON payload
+     * @return response with the accepted job
+     */
+    public Response startImport(RealmScimContext scimContext, InputStream payload) {
+        ImportJobState job;
+        try {
+            job = importController.createJob(scimContext, payload);
+        } catch (ImportPayloadTooLarge e) {
+            logger.warn(String.format("Cannot start import: %s", e.getMessage()));
+            return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).entity("Payload too large").build();
+        } catch (IOException e) {
+            logger.error("Failed to store import payload", e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("Failed to store import").build();
+        }
+
+        ImportJob accepted = importController.translateJob(job);
+        importController.submitJob(scimContext.getSession(), job, this::processImportChunk);
+
+        return Response.accepted(accepted)
+            .location(scimContext.getServerBaseUri().resolve(String.format("Import/%s", job.getId())))
+            .build();
+    }
+
+    /**
+     * Finds an import job
+     *
+     * @param scimContext SCIM context
+     * @param jobId job id
+     * @return response with the job
+     */
+    public Response findImportJob(RealmScimContext scimContext, String jobId) {
+        ImportJobState job;
+        try {
+            job = importController.findJob(scimContext, jobId);
+        } catch (IOException e) {
+            logger.error(String.format("Failed to read import job %s", jobId), e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("Failed to read import job").build();
+        }
+
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).entity("Import job not found").build();
+        }
+
+        return Response.ok(importController.translateJob(job)).build();
+    }
+
+    /**
+     * Resumes import jobs that are queued or running.
+     * <p>
+     * Jobs that are being run by another node or thread are skipped when they are claimed.
+     *
+     * @param sessionFactory Keycloak session factory
+     */
+    public void resumeImports(KeycloakSessionFactory sessionFactory) {
+        List<ImportJobState> jobs;
+        try {
+            jobs = importController.listResumableJobs();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to list import jobs", e);
+            return;
+        }
+
+        if (jobs.isEmpty()) {
+            return;
+        }
+
+        // Resumes are run by the shared Keycloak timer, which must not be stopped by a failure
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                for (ImportJobState job : jobs) {
+                    importController.submitJob(session, job, this::processImportChunk);
+                }
+            });
+        } catch (RuntimeException e) {
+            logger.error("Failed to resume import jobs", e);
+        }
+    }
+
+    /**
+     * Applies a chunk of import records as bulk operations.
+     * <p>
+     * The context of the chunk is resolved in a short transaction of its own, and the operations are
+     * written in the transactions of the bulk controller, which read the realm again.
+     *
+     * @param sessionFactory Keycloak session factory
+     * @param job import job
+     * @param chunk records of the chunk
+     * @return results of the records
+     */
+    private BulkResponse processImportChunk(KeycloakSessionFactory sessionFactory, ImportJobState job, BulkRequest chunk) {
+        RealmScimContext scimContext = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+            RealmModel realm = session.realms().getRealm(job.getRealmId());
+            if (realm == null) {
+                throw new NotFoundException("Realm not found");
+            }
+
+            session.getContext().setRealm(realm);
+
+            RealmScimContext result = new RealmScimContext(
+                URI.create(job.getServerBaseUri()),
+                session,
+                realm,
+                new RealmScimConfig(realm)
+            );
+
+            metadataController.getUserAttributes(result);
+            return result;
+        });
+
+        return bulkController.processBulk(scimContext, this, this::createBatchContext, chunk);
+    }
+
     /**
      * Returns SCIM context
      *
@@ -0,0 +1,372 @@
+package fi.metatavu.keycloak.scim.server.reconcile;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import fi.metatavu.keycloak.scim.server.ScimContext;
+import fi.metatavu.keycloak.scim.server.bulk.BatchContextFactory;
+import fi.metatavu.keycloak.scim.server.export.ExportSection;
+import fi.metatavu.keycloak.scim.server.model.ReconcileDifference;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Differences between a client-supplied set of resource versions and the resources on the server,
+ * written as newline delimited JSON.
+ * <p>
+ * The records of the request and the resources of the server are both read in id order and merge-joined,
+ * so neither side is held in memory. Server ids are read in keyset order in chunks, and the versions of
+ * each chunk are loaded in a session of their own.
+ * <p>
+ * Records of the request must be ordered by the character codes of their ids, while the server ids
+ * follow the collation of the database, which may order some ids differently. A record that sorts
+ * before the current server resource is therefore not reported as missing until it has been looked
+ * up, and a record found by the lookup is compared when the server resource is read. Only records
+ * ordered differently by the database are held in memory until then.
+ *
+ * @param <T> SCIM context type
+ */
+public class ReconcileDiff<T extends ScimContext> implements StreamingOutput {
+
+    /**
+     * Number of server resources read in a single session
+     */
+    public static final int CHUNK_SIZE = 500;
+
+    public static final String MISSING = "missing";
+    public static final String EXTRA = "extra";
+    public static final String CHANGED = "changed";
+    public static final String ERROR = "error";
+
+    private final T scimContext;
+    private final BatchContextFactory<T> contextFactory;
+    private final ExportSection<T> versions;
+    private final InputStream payload;
+
+    /**
+     * Version of a resource
+     *
+     * @param id resource id
+     * @param version resource version or null when only the id is compared
+     */
+    private record Entry(String id, String version) {
+    }
+
+    /**
+     * Record of the request that cannot be compared
+     */
+    private static class InvalidRecord extends Exception {
+
+        private final long line;
+
+        /**
+         * Constructor
+         *
+         * @param line payload line of the record
+         * @param message error detail
+         */
+        InvalidRecord(long line, String message) {
+            super(message);
+            this.line = line;
+        }
+
+    }
+
+    /**
+     * Constructor
+     *
+     * @param scimContext SCIM context of the request
+     * @param contextFactory factory for the SCIM contexts of the chunks
+     * @param versions section translating the resources into their versions
+     * @param payload NDJSON records of the request ordered by id
+     */
+    public ReconcileDiff(T scimContext, BatchContextFactory<T> contextFactory, ExportSection<T> versions, InputStream payload) {
+        this.scimContext = scimContext;
+        this.contextFactory = contextFactory;
+        this.versions = versions;
+        this.payload = payload;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        ClientEntries clientEntries = new ClientEntries(new BufferedReader(new InputStreamReader(payload, StandardCharsets.UTF_8)));
+        ServerEntries serverEntries = new ServerEntries(scimContext.getSession().getKeycloakSessionFactory());
+
+        // Records passed by the merge-join that have not been looked up yet, and records found by the lookup
+        Map<String, String> unmatched = new LinkedHashMap<>();
+        Map<String, String> found = new HashMap<>();
+
+        try {
+            Entry client = clientEntries.next();
+            Entry server = serverEntries.next();
+
+            while (client != null || server != null) {
+                if (server != null && (unmatched.containsKey(server.id()) || found.containsKey(server.id()))) {
+                    String version = unmatched.containsKey(server.id()) ? unmatched.remove(server.id()) : found.remove(server.id());
+                    writeChange(output, version, server);
+                    server = serverEntries.next();
+                    continue;
+                }
+
+                int comparison = client == null ? 1 : server == null ? -1 : client.id().compareTo(server.id());
+
+                if (comparison < 0) {
+                    if (server == null) {
+                        writeDifference(output, client.id(), MISSING, null);
+                    } else {
+                        unmatched.put(client.id(), client.version());
+                        if (unmatched.size() >= CHUNK_SIZE) {
+                            lookupUnmatched(output, serverEntries, unmatched, found);
+                        }
+                    }
+                } else if (comparison > 0) {
+                    writeDifference(output, server.id(), EXTRA, server.version());
+                } else {
+                    writeChange(output, client.version(), server);
+                }
+
+                if (comparison <= 0) {
+                    client = clientEntries.next();
+                }
+
+                if (comparison >= 0) {
+                    server = serverEntries.next();
+                }
+            }
+
+            for (String id : unmatched.keySet()) {
+                writeDifference(output, id, MISSING, null);
+            }
+        } catch (InvalidRecord e) {
+            ReconcileDifference error = new ReconcileDifference();
+            error.setStatus(ERROR);
+            error.setLine(e.line);
+            error.setDetail(e.getMessage());
+            writeLine(output, error);
+        }
+
+        output.flush();
+    }
+
+    /**
+     * Looks up records passed by the merge-join on the server.
+     * <p>
+     * Records that do not exist are missing. Records that exist are ordered differently by the database,
+     * and are compared when the server resource is read.
+     *
+     * @param output output stream
+     * @param serverEntries server resources
+     * @param unmatched records to look up by id
+     * @param found records found by earlier lookups by id
+     * @throws IOException when writing fails
+     */
+    private void lookupUnmatched(OutputStream output, ServerEntries serverEntries, Map<String, String> unmatched, Map<String, String> found) throws IOException {
+        Set<String> existing = serverEntries.loadChunk(new ArrayList<>(unmatched.keySet())).stream()
+            .map(Entry::id)
+            .collect(Collectors.toSet());
+
+        for (Map.Entry<String, String> record : unmatched.entrySet()) {
+            if (existing.contains(record.getKey())) {
+                found.put(record.getKey(), record.getValue());
+            } else {
+                writeDifference(output, record.getKey(), MISSING, null);
+            }
+        }
+
+        unmatched.clear();
+    }
+
+    /**
+     * Writes a changed difference when the version of a record differs from the server version
+     *
+     * @param output output stream
+     * @param version version of the record or null when only the id is compared
+     * @param server server resource
+     * @throws IOException when writing fails
+     */
+    private void writeChange(OutputStream output, String version, Entry server) throws IOException {
+        if (version != null && !version.equals(server.version())) {
+            writeDifference(output, server.id(), CHANGED, server.version());
+        }
+    }
+
+    /**
+     * Writes a difference
+     *
+     * @param output output stream
+     * @param id resource id
+     * @param status difference status
+     * @param version server version of the resource or null
+     * @throws IOException when writing fails
+     */
+    private void writeDifference(OutputStream output, String id, String status, String version) throws IOException {
+        ReconcileDifference difference = new ReconcileDifference();
+        difference.setId(id);
+        difference.setStatus(status);
+        difference.setVersion(version);
+        writeLine(output, difference);
+    }
+
+    /**
+     * Writes an NDJSON line
+     *
+     * @param output output stream
+     * @param value line value
+     * @throws IOException when writing fails
+     */
+    private void writeLine(OutputStream output, Object value) throws IOException {
+        output.write(JsonSerialization.mapper.writeValueAsBytes(value));
+        output.write('\n');
+    }
+
+    /**
+     * Records of the request, read one line at a time
+     */
+    private static class ClientEntries {
+
+        private final BufferedReader reader;
+        private long line;
+        private Entry previous;
+
+        /**
+         * Constructor
+         *
+         * @param reader payload reader
+         */
+        ClientEntries(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Returns the next record of the request
+         *
+         * @return next record or null at the end of the payload
+         * @throws IOException when reading fails
+         * @throws InvalidRecord when the record is invalid or out of order
+         */
+        Entry next() throws IOException, InvalidRecord {
+            String record;
+            while ((record = reader.readLine()) != null) {
+                line++;
+                if (!record.isBlank()) {
+                    previous = parse(record);
+                    return previous;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Parses a record
+         *
+         * @param record NDJSON line
+         * @return parsed record
+         * @throws InvalidRecord when the record is invalid or out of order
+         */
+        private Entry parse(String record) throws InvalidRecord {
+            Map<?, ?> data;
+            try {
+                data = JsonSerialization.mapper.readValue(record, Map.class);
+            } catch (JsonProcessingException e) {
+                throw new InvalidRecord(line, "Invalid JSON");
+            }
+
+            if (!(data.get("id") instanceof String id)) {
+                throw new InvalidRecord(line, "Missing id");
+            }
+
+            if (previous != null && id.compareTo(previous.id()) <= 0) {
+                throw new InvalidRecord(line, "Records are not ordered by id");
+            }
+
+            Object version = data.get("version");
+            if (version != null && !(version instanceof String)) {
+                throw new InvalidRecord(line, "Invalid version");
+            }
+
+            return new Entry(id, (String) version);
+        }
+
+    }
+
+    /**
+     * Versions of the server resources in id order, loaded one chunk at a time
+     */
+    private class ServerEntries {
+
+        private final KeycloakSessionFactory sessionFactory;
+        private Iterator<Entry> chunk = List.<Entry>of().iterator();
+        private String afterId;
+        private boolean exhausted;
+
+        /**
+         * Constructor
+         *
+         * @param sessionFactory Keycloak session factory
+         */
+        ServerEntries(KeycloakSessionFactory sessionFactory) {
+            this.sessionFactory = sessionFactory;
+        }
+
+        /**
+         * Returns the next server resource
+         *
+         * @return next resource or null when all resources have been read
+         */
+        Entry next() {
+            while (!chunk.hasNext() && !exhausted) {
+                List<String> ids = versions.ids().fetch(afterId, CHUNK_SIZE);
+                exhausted = ids.size() < CHUNK_SIZE;
+                if (ids.isEmpty()) {
+                    break;
+                }
+
+                afterId = ids.getLast();
+                chunk = loadChunk(ids).iterator();
+            }
+
+            return chunk.hasNext() ? chunk.next() : null;
+        }
+
+        /**
+         * Loads versions of a chunk in its own session
+         *
+         * @param ids ids of the chunk
+         * @return versions of the exported resources of the chunk in id order
+         */
+        private List<Entry> loadChunk(List<String> ids) {
+            return KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+                T chunkContext = contextFactory.create(scimContext, session);
+                List<Entry> result = new ArrayList<>();
+
+                for (String id : ids) {
+                    Object version = versions.translator().translate(chunkContext, id);
+                    if (version != null) {
+                        result.add(new Entry(id, Objects.toString(version)));
+                    }
+                }
+
+                return result;
+            });
+        }
+
+    }
+
+}
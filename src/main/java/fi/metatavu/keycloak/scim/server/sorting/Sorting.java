@@ -0,0 +1,100 @@
+package fi.metatavu.keycloak.scim.server.sorting;
+
+import java.util.Locale;
+
+/**
+ * Sorting requested with the SCIM sortBy and sortOrder query parameters.
+ * <p>
+ * Sorting is executed in the store query, so that only the requested page is loaded.
+ */
+public class Sorting {
+
+    /**
+     * Sorting that leaves the order to the listing
+     */
+    public static final Sorting NONE = new Sorting(null, false);
+
+    private final String sortBy;
+    private final boolean descending;
+
+    /**
+     * Constructor
+     *
+     * @param sortBy normalized attribute path or null if no sorting was requested
+     * @param descending whether the order is descending
+     */
+    private Sorting(String sortBy, boolean descending) {
+        this.sortBy = sortBy;
+        this.descending = descending;
+    }
+
+    /**
+     * Parses sorting from the sortBy and sortOrder query parameters
+     *
+     * @param sortBy attribute path or null
+     * @param sortOrder "ascending", "descending" or null
+     * @return sorting
+     * @throws IllegalArgumentException when sortOrder is not valid
+     */
+    public static Sorting parse(String sortBy, String sortOrder) {
+        boolean descending;
+        if (sortOrder == null || sortOrder.isBlank() || "ascending".equalsIgnoreCase(sortOrder.trim())) {
+            descending = false;
+        } else if ("descending".equalsIgnoreCase(sortOrder.trim())) {
+            descending = true;
+        } else {
+            throw new IllegalArgumentException("Invalid sortOrder: " + sortOrder);
+        }
+
+        if (sortBy == null || sortBy.isBlank()) {
+            return NONE;
+        }
+
+        return new Sorting(normalize(sortBy), descending);
+    }
+
+    /**
+     * Returns whether sorting was requested
+     *
+     * @return whether sortBy was given
+     */
+    public boolean isNone() {
+        return sortBy == null;
+    }
+
+    /**
+     * Returns requested attribute path
+     *
+     * @return lower case attribute path without the core schema prefix, e.g. "name.familyname"
+     */
+    public String getSortBy() {
+        return sortBy;
+    }
+
+    /**
+     * Returns whether the order is descending
+     *
+     * @return whether the order is descending
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * Normalizes attribute path
+     *
+     * @param path attribute path
+     * @return lower case path without the core schema prefix
+     */
+    private static String normalize(String path) {
+        String result = path.trim().toLowerCase(Locale.ROOT);
+
+        int schemaSeparator = result.lastIndexOf(':');
+        if (result.startsWith("urn:") && schemaSeparator != -1) {
+            result = result.substring(schemaSeparator + 1);
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,17 @@
+package fi.metatavu.keycloak.scim.server.sorting;
+
+/**
+ * Exception thrown when requested sorting cannot be executed
+ */
+public class UnsupportedSort extends RuntimeException {
+
+    /**
+     * Constructor
+     *
+     * @param message message
+     */
+    public UnsupportedSort(String message) {
+        super(message);
+    }
+
+}
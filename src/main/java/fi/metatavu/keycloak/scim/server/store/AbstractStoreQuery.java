@@ -0,0 +1,204 @@
+package fi.metatavu.keycloak.scim.server.store;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Order;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class for queries that read SCIM resources directly from the Keycloak JPA store.
+ * <p>
+ * Queries return only entity ids ordered by id, so that they can be used for keyset pagination.
+ * Queries with sort keys are ordered by the sort keys first and by id after that, and support only
+ * index based pagination. Models are loaded through the Keycloak providers so that caching and
+ * adapters work as usual.
+ *
+ * @param <T> entity type
+ */
+public abstract class AbstractStoreQuery<T> {
+
+    private final EntityManager entityManager;
+    private final Class<T> entityClass;
+    private final List<Criterion<T>> criteria = new ArrayList<>();
+    private final List<Ordering<T>> orderings = new ArrayList<>();
+
+    /**
+     * Sort key with its direction
+     *
+     * @param key sort key
+     * @param descending whether the order is descending
+     * @param <T> entity type
+     */
+    private record Ordering<T>(OrderKey<T> key, boolean descending) {
+    }
+
+    /**
+     * Constructor
+     *
+     * @param session Keycloak session
+     * @param entityClass entity class
+     */
+    protected AbstractStoreQuery(KeycloakSession session, Class<T> entityClass) {
+        this.entityManager = getEntityManager(session);
+        this.entityClass = entityClass;
+    }
+
+    /**
+     * Returns whether the session is backed by the JPA store
+     *
+     * @param session Keycloak session
+     * @return true if the JPA store is available
+     */
+    public static boolean isAvailable(KeycloakSession session) {
+        return session.getProvider(JpaConnectionProvider.class) != null;
+    }
+
+    /**
+     * Lists entity ids ordered by id
+     *
+     * @param afterId only ids after this id are returned. Null to start from the beginning
+     * @param maxResults maximum number of ids
+     * @return entity ids
+     * @throws IllegalStateException when the query has sort keys
+     */
+    public List<String> listIds(String afterId, int maxResults) {
+        if (!orderings.isEmpty()) {
+            throw new IllegalStateException("Keyset pagination is not supported with sort keys");
+        }
+
+        return entityManager.createQuery(getIdQuery(afterId))
+            .setMaxResults(maxResults)
+            .getResultList();
+    }
+
+    /**
+     * Lists a window of entity ids ordered by the sort keys and id
+     *
+     * @param firstResult index of the first id
+     * @param maxResults maximum number of ids
+     * @return entity ids
+     */
+    public List<String> listIds(int firstResult, int maxResults) {
+        return entityManager.createQuery(getIdQuery(null))
+            .setFirstResult(firstResult)
+            .setMaxResults(maxResults)
+            .getResultList();
+    }
+
+    /**
+     * Counts entities matching the query
+     *
+     * @return count
+     */
+    public long count() {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<T> root = query.from(entityClass);
+
+        query.select(criteriaBuilder.count(root))
+            .where(getPredicates(criteriaBuilder, query, root).toArray(Predicate[]::new));
+
+        return entityManager.createQuery(query).getSingleResult();
+    }
+
+    /**
+     * Returns the entity manager of the query
+     *
+     * @return entity manager
+     */
+    protected EntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    /**
+     * Adds a criterion to the query
+     *
+     * @param criterion criterion
+     */
+    protected void addCriterion(Criterion<T> criterion) {
+        criteria.add(criterion);
+    }
+
+    /**
+     * Adds a sort key to the query.
+     * <p>
+     * Entities without a value for the key are sorted last regardless of the direction.
+     *
+     * @param key sort key
+     * @param descending whether the order is descending
+     */
+    protected void addOrder(OrderKey<T> key, boolean descending) {
+        orderings.add(new Ordering<>(key, descending));
+    }
+
+    /**
+     * Builds a query selecting entity ids ordered by the sort keys and id
+     *
+     * @param afterId only ids after this id are selected. Null to select from the beginning
+     * @return query
+     */
+    private CriteriaQuery<String> getIdQuery(String afterId) {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+        Root<T> root = query.from(entityClass);
+
+        List<Predicate> predicates = getPredicates(criteriaBuilder, query, root);
+        if (afterId != null) {
+            predicates.add(criteriaBuilder.greaterThan(root.get("id"), afterId));
+        }
+
+        List<Order> orders = new ArrayList<>();
+        for (Ordering<T> ordering : orderings) {
+            Expression<?> expression = ordering.key().toExpression(criteriaBuilder, root);
+            orders.add(criteriaBuilder.asc(criteriaBuilder.selectCase().when(criteriaBuilder.isNull(expression), 1).otherwise(0)));
+            orders.add(ordering.descending() ? criteriaBuilder.desc(expression) : criteriaBuilder.asc(expression));
+        }
+
+        orders.add(criteriaBuilder.asc(root.get("id")));
+
+        return query.select(root.get("id"))
+            .where(predicates.toArray(Predicate[]::new))
+            .orderBy(orders);
+    }
+
+    /**
+     * Translates the criteria into predicates
+     *
+     * @param criteriaBuilder criteria builder
+     * @param query query
+     * @param root query root
+     * @return predicates
+     */
+    private List<Predicate> getPredicates(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query, Root<T> root) {
+        List<Predicate> result = new ArrayList<>();
+        for (Criterion<T> criterion : criteria) {
+            result.add(criterion.toPredicate(criteriaBuilder, query, root));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the entity manager of the session
+     *
+     * @param session Keycloak session
+     * @return entity manager
+     */
+    static EntityManager getEntityManager(KeycloakSession session) {
+        JpaConnectionProvider connectionProvider = session.getProvider(JpaConnectionProvider.class);
+        if (connectionProvider == null) {
+            throw new IllegalStateException("JPA store is not available");
+        }
+
+        return connectionProvider.getEntityManager();
+    }
+
+}
@@ -0,0 +1,26 @@
+package fi.metatavu.keycloak.scim.server.store;
+
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+
+/**
+ * Single criterion of a store query
+ *
+ * @param <T> entity type
+ */
+@FunctionalInterface
+public interface Criterion<T> {
+
+    /**
+     * Translates the criterion into a JPA predicate
+     *
+     * @param criteriaBuilder criteria builder
+     * @param query query the predicate is added to
+     * @param root query root
+     * @return predicate
+     */
+    Predicate toPredicate(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query, Root<T> root);
+
+}
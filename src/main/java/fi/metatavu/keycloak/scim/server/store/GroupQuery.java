@@ -0,0 +1,104 @@
+package fi.metatavu.keycloak.scim.server.store;
+
+import fi.metatavu.keycloak.scim.server.tracking.ModificationTracker;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.jpa.entities.GroupAttributeEntity;
+import org.keycloak.models.jpa.entities.GroupEntity;
+
+/**
+ * Store query for groups
+ * <p>
+ * Organization groups are always excluded.
+ */
+public class GroupQuery extends AbstractStoreQuery<GroupEntity> {
+
+    /**
+     * Constructor
+     *
+     * @param session Keycloak session
+     * @param realm realm
+     */
+    public GroupQuery(KeycloakSession session, RealmModel realm) {
+        super(session, GroupEntity.class);
+
+        String realmId = realm.getId();
+        addCriterion((criteriaBuilder, query, root) -> criteriaBuilder.equal(root.get("realm"), realmId));
+        addCriterion((criteriaBuilder, query, root) -> criteriaBuilder.equal(root.get("type"), GroupModel.Type.REALM.intValue()));
+    }
+
+    /**
+     * Limits the query to groups with given name
+     *
+     * @param name group name
+     * @return query
+     */
+    public GroupQuery nameEquals(String name) {
+        addCriterion((criteriaBuilder, query, root) -> criteriaBuilder.equal(root.get("name"), name));
+        return this;
+    }
+
+    /**
+     * Limits the query to groups modified after given time.
+     * <p>
+     * Groups without a modification marker have not been modified since tracking started and are excluded.
+     *
+     * @param timestamp epoch milliseconds
+     * @param inclusive whether groups modified exactly at the given time are included
+     * @return query
+     */
+    public GroupQuery lastModifiedAfter(long timestamp, boolean inclusive) {
+        String bound = ModificationTracker.format(timestamp);
+
+        addCriterion((criteriaBuilder, query, root) -> {
+            Subquery<Integer> subquery = query.subquery(Integer.class);
+            Root<GroupAttributeEntity> attribute = subquery.from(GroupAttributeEntity.class);
+            Path<String> value = attribute.get("value");
+            subquery.select(criteriaBuilder.literal(1)).where(
+                criteriaBuilder.equal(attribute.get("group"), root),
+                criteriaBuilder.equal(attribute.get("name"), ModificationTracker.LAST_MODIFIED_ATTRIBUTE),
+                inclusive ? criteriaBuilder.greaterThanOrEqualTo(value, bound) : criteriaBuilder.greaterThan(value, bound)
+            );
+
+            return criteriaBuilder.exists(subquery);
+        });
+
+        return this;
+    }
+
+    /**
+     * Orders the query by group name, ignoring case
+     *
+     * @param descending whether the order is descending
+     * @return query
+     */
+    public GroupQuery orderByName(boolean descending) {
+        addOrder((criteriaBuilder, root) -> criteriaBuilder.lower(root.get("name")), descending);
+        return this;
+    }
+
+    /**
+     * Orders the query by last modification time.
+     * <p>
+     * Groups without a modification marker are sorted last.
+     *
+     * @param descending whether the order is descending
+     * @return query
+     */
+    public GroupQuery orderByLastModified(boolean descending) {
+        addOrder((criteriaBuilder, root) -> {
+            Join<GroupEntity, GroupAttributeEntity> attribute = root.join("attributes", JoinType.LEFT);
+            attribute.on(criteriaBuilder.equal(attribute.get("name"), ModificationTracker.LAST_MODIFIED_ATTRIBUTE));
+            return attribute.get("value");
+        }, descending);
+
+        return this;
+    }
+
+}
@@ -0,0 +1,24 @@
+package fi.metatavu.keycloak.scim.server.store;
+
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Root;
+
+/**
+ * Sort key of a store query
+ *
+ * @param <T> entity type
+ */
+@FunctionalInterface
+public interface OrderKey<T> {
+
+    /**
+     * Translates the sort key into a JPA expression
+     *
+     * @param criteriaBuilder criteria builder
+     * @param root query root
+     * @return expression the results are ordered by
+     */
+    Expression<?> toExpression(CriteriaBuilder criteriaBuilder, Root<T> root);
+
+}
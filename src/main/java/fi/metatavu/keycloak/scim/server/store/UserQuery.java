@@ -0,0 +1,394 @@
+package fi.metatavu.keycloak.scim.server.store;
+
+import fi.metatavu.keycloak.scim.server.tracking.ModificationTracker;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.OrganizationModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.jpa.entities.GroupEntity;
+import org.keycloak.models.jpa.entities.GroupRoleMappingEntity;
+import org.keycloak.models.jpa.entities.OrganizationEntity;
+import org.keycloak.models.jpa.entities.RoleEntity;
+import org.keycloak.models.jpa.entities.UserAttributeEntity;
+import org.keycloak.models.jpa.entities.UserEntity;
+import org.keycloak.models.jpa.entities.UserGroupMembershipEntity;
+import org.keycloak.models.jpa.entities.UserRoleMappingEntity;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Store query for users
+ * <p>
+ * Service account users are always excluded, like in Keycloak user searches.
+ */
+public class UserQuery extends AbstractStoreQuery<UserEntity> {
+
+    private static final List<String> SEARCH_FIELDS = List.of("username", "email", "firstName", "lastName");
+    private static final char LIKE_ESCAPE = '\\';
+
+    /**
+     * Constructor
+     *
+     * @param session Keycloak session
+     * @param realm realm
+     */
+    public UserQuery(KeycloakSession session, RealmModel realm) {
+        super(session, UserEntity.class);
+
+        String realmId = realm.getId();
+        addCriterion((criteriaBuilder, query, root) -> criteriaBuilder.equal(root.get("realmId"), realmId));
+        addCriterion((criteriaBuilder, query, root) -> criteriaBuilder.isNull(root.get("serviceAccountClientLink")));
+    }
+
+    /**
+     * Limits the query to users who have given role mapped directly
+     *
+     * @param role role
+     * @return query
+     */
+    public UserQuery roleMember(RoleModel role) {
+        String roleId = role.getId();
+
+        addCriterion((criteriaBuilder, query, root) -> {
+            Subquery<Integer> subquery = query.subquery(Integer.class);
+            Root<UserRoleMappingEntity> mapping = subquery.from(UserRoleMappingEntity.class);
+            subquery.select(criteriaBuilder.literal(1)).where(
+                criteriaBuilder.equal(mapping.get("user"), root),
+                criteriaBuilder.equal(mapping.get("roleId"), roleId)
+            );
+
+            return criteriaBuilder.exists(subquery);
+        });
+
+        return this;
+    }
+
+    /**
+     * Limits the query to users who have given role, like {@link UserModel#hasRole(RoleModel)}.
+     * <p>
+     * A user has the role when the role, or a composite role that contains it, is mapped to the user
+     * directly or to a group the user is a member of, or to a parent of such a group. The composite roles
+     * and groups are resolved when this method is called, so that the query itself only compares ids.
+     *
+     * @param role role
+     * @return query
+     */
+    public UserQuery roleHolder(RoleModel role) {
+        Set<String> roleIds = resolveClosure(Set.of(role.getId()), this::findCompositeRoleIds);
+        Set<String> groupIds = resolveClosure(new HashSet<>(findMappedGroupIds(roleIds)), this::findSubGroupIds);
+
+        addCriterion((criteriaBuilder, query, root) -> {
+            Subquery<Integer> mapped = query.subquery(Integer.class);
+            Root<UserRoleMappingEntity> mapping = mapped.from(UserRoleMappingEntity.class);
+            mapped.select(criteriaBuilder.literal(1)).where(
+                criteriaBuilder.equal(mapping.get("user"), root),
+                mapping.get("roleId").in(roleIds)
+            );
+
+            if (groupIds.isEmpty()) {
+                return criteriaBuilder.exists(mapped);
+            }
+
+            Subquery<Integer> inherited = query.subquery(Integer.class);
+            Root<UserGroupMembershipEntity> membership = inherited.from(UserGroupMembershipEntity.class);
+            inherited.select(criteriaBuilder.literal(1)).where(
+                criteriaBuilder.equal(membership.get("user"), root),
+                membership.get("groupId").in(groupIds)
+            );
+
+            return criteriaBuilder.or(criteriaBuilder.exists(mapped), criteriaBuilder.exists(inherited));
+        });
+
+        return this;
+    }
+
+    /**
+     * Limits the query to members of given organization
+     *
+     * @param organization organization
+     * @return query
+     */
+    public UserQuery organizationMember(OrganizationModel organization) {
+        String organizationId = organization.getId();
+
+        addCriterion((criteriaBuilder, query, root) -> {
+            Subquery<Integer> subquery = query.subquery(Integer.class);
+            Root<UserGroupMembershipEntity> membership = subquery.from(UserGroupMembershipEntity.class);
+            Root<OrganizationEntity> organizationEntity = subquery.from(OrganizationEntity.class);
+            subquery.select(criteriaBuilder.literal(1)).where(
+                criteriaBuilder.equal(membership.get("user"), root),
+                criteriaBuilder.equal(membership.get("groupId"), organizationEntity.get("groupId")),
+                criteriaBuilder.equal(organizationEntity.get("id"), organizationId)
+            );
+
+            return criteriaBuilder.exists(subquery);
+        });
+
+        return this;
+    }
+
+    /**
+     * Adds Keycloak user search parameters as case-insensitive criteria.
+     * <p>
+     * Keys follow the {@link org.keycloak.models.UserProvider#searchForUserStream(RealmModel, Map)} conventions:
+     * user model fields, {@link UserModel#ENABLED}, {@link UserModel#SEARCH} or names of user attributes.
+     * User model fields are compared exactly when {@link UserModel#EXACT} is true and with an infix match
+     * otherwise. The search value is matched as a prefix of username, email, first name or last name and
+     * user attributes are always compared exactly.
+     *
+     * @param searchParams search parameters
+     * @return query
+     */
+    public UserQuery searchParams(Map<String, String> searchParams) {
+        boolean exact = Boolean.parseBoolean(searchParams.get(UserModel.EXACT));
+
+        searchParams.forEach((key, value) -> {
+            switch (key) {
+                case UserModel.EXACT -> {
+                    // Applied to user model fields
+                }
+                case UserModel.USERNAME -> fieldMatches("username", value, exact);
+                case UserModel.EMAIL -> fieldMatches("email", value, exact);
+                case UserModel.FIRST_NAME -> fieldMatches("firstName", value, exact);
+                case UserModel.LAST_NAME -> fieldMatches("lastName", value, exact);
+                case UserModel.ENABLED -> {
+                    boolean enabled = Boolean.parseBoolean(value);
+                    addCriterion((criteriaBuilder, query, root) -> criteriaBuilder.equal(root.get("enabled"), enabled));
+                }
+                case UserModel.SEARCH -> {
+                    String pattern = escapeLike(value.toLowerCase()) + "%";
+                    addCriterion((criteriaBuilder, query, root) -> criteriaBuilder.or(
+                        SEARCH_FIELDS.stream()
+                            .map(field -> criteriaBuilder.like(criteriaBuilder.lower(root.get(field)), pattern, LIKE_ESCAPE))
+                            .toArray(Predicate[]::new)
+                    ));
+                }
+                default -> attributeEquals(key, value);
+            }
+        });
+
+        return this;
+    }
+
+    /**
+     * Limits the query to users modified after given time.
+     * <p>
+     * Users without a modification marker are compared by their creation time.
+     *
+     * @param timestamp epoch milliseconds
+     * @param inclusive whether users modified exactly at the given time are included
+     * @return query
+     */
+    public UserQuery lastModifiedAfter(long timestamp, boolean inclusive) {
+        String bound = ModificationTracker.format(timestamp);
+
+        addCriterion((criteriaBuilder, query, root) -> {
+            Subquery<Integer> modified = query.subquery(Integer.class);
+            Root<UserAttributeEntity> modifiedAttribute = modified.from(UserAttributeEntity.class);
+            Path<String> value = modifiedAttribute.get("value");
+            modified.select(criteriaBuilder.literal(1)).where(
+                criteriaBuilder.equal(modifiedAttribute.get("user"), root),
+                criteriaBuilder.equal(modifiedAttribute.get("name"), ModificationTracker.LAST_MODIFIED_ATTRIBUTE),
+                inclusive ? criteriaBuilder.greaterThanOrEqualTo(value, bound) : criteriaBuilder.greaterThan(value, bound)
+            );
+
+            Subquery<Integer> marked = query.subquery(Integer.class);
+            Root<UserAttributeEntity> markedAttribute = marked.from(UserAttributeEntity.class);
+            marked.select(criteriaBuilder.literal(1)).where(
+                criteriaBuilder.equal(markedAttribute.get("user"), root),
+                criteriaBuilder.equal(markedAttribute.get("name"), ModificationTracker.LAST_MODIFIED_ATTRIBUTE)
+            );
+
+            Path<Long> created = root.get("createdTimestamp");
+
+            return criteriaBuilder.or(
+                criteriaBuilder.exists(modified),
+                criteriaBuilder.and(
+                    criteriaBuilder.not(criteriaBuilder.exists(marked)),
+                    inclusive ? criteriaBuilder.greaterThanOrEqualTo(created, timestamp) : criteriaBuilder.greaterThan(created, timestamp)
+                )
+            );
+        });
+
+        return this;
+    }
+
+    /**
+     * Orders the query by a user field, ignoring case
+     *
+     * @param field field name, one of username, email, firstName or lastName
+     * @param descending whether the order is descending
+     * @return query
+     */
+    public UserQuery orderBy(String field, boolean descending) {
+        if (!SEARCH_FIELDS.contains(field)) {
+            throw new IllegalArgumentException("Unsupported sort field: " + field);
+        }
+
+        addOrder((criteriaBuilder, root) -> criteriaBuilder.lower(root.get(field)), descending);
+        return this;
+    }
+
+    /**
+     * Orders the query by last modification time.
+     * <p>
+     * Users without a modification marker have not been modified since tracking started, so
+     * they are ordered by their creation time, which is also the last modification time they report.
+     *
+     * @param descending whether the order is descending
+     * @return query
+     */
+    public UserQuery orderByLastModified(boolean descending) {
+        addOrder((criteriaBuilder, root) -> {
+            Join<UserEntity, UserAttributeEntity> attribute = root.join("attributes", JoinType.LEFT);
+            attribute.on(criteriaBuilder.equal(attribute.get("name"), ModificationTracker.LAST_MODIFIED_ATTRIBUTE));
+            Path<String> value = attribute.get("value");
+            Path<Long> created = root.get("createdTimestamp");
+            return criteriaBuilder.coalesce(value.as(Long.class), created);
+        }, descending);
+
+        return this;
+    }
+
+    /**
+     * Resolves the ids reachable from given ids by repeatedly applying a lookup
+     *
+     * @param seeds ids to start from
+     * @param lookup lookup returning the ids directly reachable from given ids
+     * @return seeds and every id reachable from them
+     */
+    private Set<String> resolveClosure(Set<String> seeds, Function<Collection<String>, List<String>> lookup) {
+        Set<String> result = new HashSet<>(seeds);
+        Set<String> frontier = seeds;
+
+        while (!frontier.isEmpty()) {
+            Set<String> next = new HashSet<>();
+            for (String id : lookup.apply(frontier)) {
+                if (result.add(id)) {
+                    next.add(id);
+                }
+            }
+
+            frontier = next;
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds composite roles that directly contain any of given roles
+     *
+     * @param roleIds role ids
+     * @return ids of the composite roles
+     */
+    private List<String> findCompositeRoleIds(Collection<String> roleIds) {
+        CriteriaBuilder criteriaBuilder = getEntityManager().getCriteriaBuilder();
+        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+        Root<RoleEntity> root = query.from(RoleEntity.class);
+        Join<RoleEntity, RoleEntity> composite = root.join("compositeRoles");
+
+        query.select(root.get("id")).distinct(true).where(composite.get("id").in(roleIds));
+
+        return getEntityManager().createQuery(query).getResultList();
+    }
+
+    /**
+     * Finds groups that have any of given roles mapped
+     *
+     * @param roleIds role ids
+     * @return ids of the groups
+     */
+    private List<String> findMappedGroupIds(Collection<String> roleIds) {
+        CriteriaBuilder criteriaBuilder = getEntityManager().getCriteriaBuilder();
+        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+        Root<GroupRoleMappingEntity> root = query.from(GroupRoleMappingEntity.class);
+
+        query.select(root.get("group").get("id")).distinct(true).where(root.get("roleId").in(roleIds));
+
+        return getEntityManager().createQuery(query).getResultList();
+    }
+
+    /**
+     * Finds direct subgroups of given groups
+     *
+     * @param groupIds group ids
+     * @return ids of the subgroups
+     */
+    private List<String> findSubGroupIds(Collection<String> groupIds) {
+        CriteriaBuilder criteriaBuilder = getEntityManager().getCriteriaBuilder();
+        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+        Root<GroupEntity> root = query.from(GroupEntity.class);
+
+        query.select(root.get("id")).where(root.get("parentId").in(groupIds));
+
+        return getEntityManager().createQuery(query).getResultList();
+    }
+
+    /**
+     * Adds a case-insensitive criterion on a user field
+     *
+     * @param field field name
+     * @param value value
+     * @param exact whether value is compared exactly or matched anywhere in the field
+     */
+    private void fieldMatches(String field, String value, boolean exact) {
+        String lowerCaseValue = value.toLowerCase();
+
+        if (exact) {
+            addCriterion((criteriaBuilder, query, root) -> criteriaBuilder.equal(criteriaBuilder.lower(root.get(field)), lowerCaseValue));
+        } else {
+            String pattern = "%" + escapeLike(lowerCaseValue) + "%";
+            addCriterion((criteriaBuilder, query, root) -> criteriaBuilder.like(criteriaBuilder.lower(root.get(field)), pattern, LIKE_ESCAPE));
+        }
+    }
+
+    /**
+     * Escapes like pattern wildcards in value
+     *
+     * @param value value
+     * @return escaped value
+     */
+    private String escapeLike(String value) {
+        return value
+            .replace("\\", "\\\\")
+            .replace("%", "\\%")
+            .replace("_", "\\_");
+    }
+
+    /**
+     * Adds a case-insensitive equality criterion on a user attribute
+     *
+     * @param name attribute name
+     * @param value value
+     */
+    private void attributeEquals(String name, String value) {
+        String lowerCaseValue = value.toLowerCase();
+
+        addCriterion((criteriaBuilder, query, root) -> {
+            Subquery<Integer> subquery = query.subquery(Integer.class);
+            Root<UserAttributeEntity> attribute = subquery.from(UserAttributeEntity.class);
+            subquery.select(criteriaBuilder.literal(1)).where(
+                criteriaBuilder.equal(attribute.get("user"), root),
+                criteriaBuilder.equal(attribute.get("name"), name),
+                criteriaBuilder.equal(criteriaBuilder.lower(attribute.get("value")), lowerCaseValue)
+            );
+
+            return criteriaBuilder.exists(subquery);
+        });
+    }
+
+}
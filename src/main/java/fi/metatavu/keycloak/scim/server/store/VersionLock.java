@@ -0,0 +1,107 @@
+package fi.metatavu.keycloak.scim.server.store;
+
+import fi.metatavu.keycloak.scim.server.tracking.ModificationTracker;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Root;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.jpa.entities.GroupAttributeEntity;
+import org.keycloak.models.jpa.entities.GroupEntity;
+import org.keycloak.models.jpa.entities.UserAttributeEntity;
+import org.keycloak.models.jpa.entities.UserEntity;
+
+import java.util.List;
+
+/**
+ * Reads resource versions from the Keycloak JPA store while holding a write lock on the resource.
+ * <p>
+ * The lock is held until the end of the transaction, so conditional writes of the same resource are
+ * serialized and only one of two writers sending the same version succeeds. The version is read from
+ * the database instead of the model, because a cached model may not yet reflect a write that another
+ * transaction has just committed. Pending changes are flushed before locking, so resources created
+ * earlier in the transaction can be locked and the version includes the writes made so far.
+ */
+public class VersionLock {
+
+    private final EntityManager entityManager;
+
+    /**
+     * Constructor
+     *
+     * @param session Keycloak session
+     */
+    public VersionLock(KeycloakSession session) {
+        this.entityManager = AbstractStoreQuery.getEntityManager(session);
+    }
+
+    /**
+     * Locks a user and returns its version
+     *
+     * @param userId user id
+     * @return version or null if the user is not stored in the JPA store
+     */
+    public Long lockUser(String userId) {
+        entityManager.flush();
+
+        UserEntity user = entityManager.find(UserEntity.class, userId, LockModeType.PESSIMISTIC_WRITE);
+        if (user == null) {
+            return null;
+        }
+
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+        Root<UserAttributeEntity> root = query.from(UserAttributeEntity.class);
+        query.select(root.get("value")).where(
+            criteriaBuilder.equal(root.get("user"), user),
+            criteriaBuilder.equal(root.get("name"), ModificationTracker.VERSION_ATTRIBUTE)
+        );
+
+        return parseVersion(entityManager.createQuery(query).getResultList());
+    }
+
+    /**
+     * Locks a group and returns its version
+     *
+     * @param groupId group id
+     * @return version or null if the group is not stored in the JPA store
+     */
+    public Long lockGroup(String groupId) {
+        entityManager.flush();
+
+        GroupEntity group = entityManager.find(GroupEntity.class, groupId, LockModeType.PESSIMISTIC_WRITE);
+        if (group == null) {
+            return null;
+        }
+
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+        Root<GroupAttributeEntity> root = query.from(GroupAttributeEntity.class);
+        query.select(root.get("value")).where(
+            criteriaBuilder.equal(root.get("group"), group),
+            criteriaBuilder.equal(root.get("name"), ModificationTracker.VERSION_ATTRIBUTE)
+        );
+
+        return parseVersion(entityManager.createQuery(query).getResultList());
+    }
+
+    /**
+     * Parses version attribute values
+     *
+     * @param values attribute values
+     * @return version, 0 when the resource has no valid version
+     */
+    private long parseVersion(List<String> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            return Long.parseLong(values.getFirst());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
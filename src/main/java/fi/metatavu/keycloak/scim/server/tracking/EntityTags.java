@@ -0,0 +1,149 @@
+package fi.metatavu.keycloak.scim.server.tracking;
+
+import jakarta.ws.rs.core.EntityTag;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.UserModel;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Entity tags of SCIM resources.
+ * <p>
+ * Resource tags are weak tags of the modification counter maintained by {@link ModificationTracker},
+ * so they equal the {@code meta.version} of the resource. Tags are compared with the weak comparison
+ * function, as SCIM clients send the {@code meta.version} they have received as is.
+ */
+public class EntityTags {
+
+    private static final int COLLECTION_TAG_BYTES = 16;
+
+    private EntityTags() {
+    }
+
+    /**
+     * Returns entity tag of a user
+     *
+     * @param user user
+     * @return entity tag
+     */
+    public static EntityTag getEntityTag(UserModel user) {
+        return getEntityTag(ModificationTracker.getVersion(user));
+    }
+
+    /**
+     * Returns entity tag of a group
+     *
+     * @param group group
+     * @return entity tag
+     */
+    public static EntityTag getEntityTag(GroupModel group) {
+        return getEntityTag(ModificationTracker.getVersion(group));
+    }
+
+    /**
+     * Returns entity tag of a version
+     *
+     * @param version modification counter
+     * @return entity tag
+     */
+    public static EntityTag getEntityTag(long version) {
+        return new EntityTag(Long.toString(version), true);
+    }
+
+    /**
+     * Returns entity tag of a list response.
+     * <p>
+     * The tag is a digest of the page state and the ids and versions of the listed resources.
+     *
+     * @param resourceVersions id and version of each listed resource
+     * @param totalResults total results or null
+     * @param startIndex start index or null
+     * @param nextCursor next cursor or null
+     * @return entity tag
+     */
+    public static EntityTag getCollectionEntityTag(
+        List<String> resourceVersions,
+        Integer totalResults,
+        Integer startIndex,
+        String nextCursor
+    ) {
+        MessageDigest digest = getDigest();
+        update(digest, String.valueOf(totalResults));
+        update(digest, String.valueOf(startIndex));
+        update(digest, String.valueOf(nextCursor));
+
+        for (String resourceVersion : resourceVersions) {
+            update(digest, resourceVersion);
+        }
+
+        byte[] hash = digest.digest();
+        return new EntityTag(HexFormat.of().formatHex(hash, 0, COLLECTION_TAG_BYTES), true);
+    }
+
+    /**
+     * Returns whether an If-None-Match or If-Match header matches an entity tag
+     *
+     * @param header header value or null
+     * @param entityTag entity tag of the current representation
+     * @return whether any of the listed tags matches, or the header is *
+     */
+    public static boolean matches(String header, EntityTag entityTag) {
+        if (header == null || header.isBlank()) {
+            return false;
+        }
+
+        for (String candidate : header.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*")) {
+                return true;
+            }
+
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+
+            if (value.equals(entityTag.getValue())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds a length-prefixed value to a digest
+     *
+     * @param digest digest
+     * @param value value
+     */
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    /**
+     * Returns SHA-256 digest
+     *
+     * @return digest
+     */
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+}
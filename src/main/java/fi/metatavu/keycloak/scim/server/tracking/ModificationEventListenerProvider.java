@@ -0,0 +1,189 @@
+package fi.metatavu.keycloak.scim.server.tracking;
+
+import fi.metatavu.keycloak.scim.server.adminEvents.AdminEventController;
+import org.jboss.logging.Logger;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerTransaction;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.util.Set;
+
+/**
+ * Event listener that maintains modification markers for changes made outside SCIM,
+ * e.g. in the admin console or by users updating their own profile.
+ * <p>
+ * Markers are written in a separate transaction after the transaction that produced the event
+ * has been committed. Admin events sent by the SCIM server itself are ignored, because SCIM
+ * operations update the markers directly.
+ */
+public class ModificationEventListenerProvider implements EventListenerProvider {
+
+    private static final Logger logger = Logger.getLogger(ModificationEventListenerProvider.class);
+
+    private static final Set<EventType> USER_EVENT_TYPES = Set.of(
+        EventType.UPDATE_PROFILE,
+        EventType.UPDATE_EMAIL
+    );
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final EventListenerTransaction transaction;
+
+    /**
+     * Constructor
+     *
+     * @param session Keycloak session
+     */
+    public ModificationEventListenerProvider(KeycloakSession session) {
+        this.sessionFactory = session.getKeycloakSessionFactory();
+        this.transaction = new EventListenerTransaction(this::processAdminEvent, this::processEvent);
+        session.getTransactionManager().enlistAfterCompletion(transaction);
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        if (USER_EVENT_TYPES.contains(event.getType()) && event.getUserId() != null) {
+            transaction.addEvent(event);
+        }
+    }
+
+    @Override
+    public void onEvent(AdminEvent event, boolean includeRepresentation) {
+        if (event.getAuthDetails() != null && AdminEventController.SCIM_CLIENT_USER_ID.equals(event.getAuthDetails().getUserId())) {
+            return;
+        }
+
+        transaction.addAdminEvent(event, includeRepresentation);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Updates the marker of the user of a user event
+     *
+     * @param event event
+     */
+    private void processEvent(Event event) {
+        runInRealm(event.getRealmId(), (session, realm) -> touchUser(session, realm, event.getUserId()));
+    }
+
+    /**
+     * Updates the markers of the resources changed by an admin event
+     *
+     * @param event admin event
+     * @param includeRepresentation whether representation is included
+     */
+    private void processAdminEvent(AdminEvent event, Boolean includeRepresentation) {
+        String resourcePath = event.getResourcePath();
+        if (resourcePath == null) {
+            return;
+        }
+
+        String[] segments = resourcePath.split("/");
+        ResourceType resourceType = event.getResourceType();
+        OperationType operationType = event.getOperationType();
+
+        if (resourceType == ResourceType.USER && segments.length == 2 && isCreateOrUpdate(operationType)) {
+            runInRealm(event.getRealmId(), (session, realm) -> touchUser(session, realm, segments[1]));
+        } else if (resourceType == ResourceType.GROUP && segments.length == 2 && isCreateOrUpdate(operationType)) {
+            runInRealm(event.getRealmId(), (session, realm) -> {
+                GroupModel group = session.groups().getGroupById(realm, segments[1]);
+                if (group == null) {
+                    return;
+                }
+
+                if (operationType == OperationType.CREATE) {
+                    ModificationTracker.markCreated(session, group);
+                } else {
+                    ModificationTracker.touch(session, group);
+                }
+            });
+        } else if (resourceType == ResourceType.GROUP_MEMBERSHIP && segments.length == 4) {
+            // Membership paths are users/{userId}/groups/{groupId}
+            runInRealm(event.getRealmId(), (session, realm) -> {
+                GroupModel group = session.groups().getGroupById(realm, segments[3]);
+                if (group != null) {
+                    ModificationTracker.touch(session, group);
+                }
+            });
+        }
+    }
+
+    /**
+     * Updates the markers of a user and its groups.
+     * <p>
+     * The event does not tell whether the username was changed, so the groups listing the user
+     * as a member are marked as modified on every change.
+     *
+     * @param session Keycloak session
+     * @param realm realm
+     * @param userId user id
+     */
+    private void touchUser(KeycloakSession session, RealmModel realm, String userId) {
+        UserModel user = session.users().getUserById(realm, userId);
+        if (user != null) {
+            ModificationTracker.touch(session, user);
+            ModificationTracker.touchGroups(session, user);
+        }
+    }
+
+    /**
+     * Returns whether operation creates or updates a resource
+     *
+     * @param operationType operation type
+     * @return whether operation is create or update
+     */
+    private boolean isCreateOrUpdate(OperationType operationType) {
+        return operationType == OperationType.CREATE || operationType == OperationType.UPDATE;
+    }
+
+    /**
+     * Runs a task in a new transaction within a realm
+     *
+     * @param realmId realm id
+     * @param task task
+     */
+    private void runInRealm(String realmId, RealmTask task) {
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                RealmModel realm = session.realms().getRealm(realmId);
+                if (realm == null) {
+                    return;
+                }
+
+                session.getContext().setRealm(realm);
+                task.run(session, realm);
+            });
+        } catch (Exception e) {
+            logger.warn("Failed to update modification marker", e);
+        }
+    }
+
+    /**
+     * Task run within a realm
+     */
+    @FunctionalInterface
+    private interface RealmTask {
+
+        /**
+         * Runs the task
+         *
+         * @param session Keycloak session
+         * @param realm realm
+         */
+        void run(KeycloakSession session, RealmModel realm);
+
+    }
+
+}
@@ -0,0 +1,50 @@
+package fi.metatavu.keycloak.scim.server.tracking;
+
+import org.keycloak.Config;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.UserModel;
+
+/**
+ * Factory for the modification event listener
+ * <p>
+ * The listener is global, so modification markers are maintained in every realm without
+ * adding the listener to the realm event configuration. Groups of deleted users are marked
+ * from the provider event sent before the user is removed, because the membership is gone
+ * by the time the admin event is delivered.
+ */
+public class ModificationEventListenerProviderFactory implements EventListenerProviderFactory {
+
+    @Override
+    public EventListenerProvider create(KeycloakSession session) {
+        return new ModificationEventListenerProvider(session);
+    }
+
+    @Override
+    public void init(Config.Scope config) {}
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        factory.register(event -> {
+            if (event instanceof UserModel.UserPreRemovedEvent userPreRemovedEvent) {
+                ModificationTracker.touchGroups(userPreRemovedEvent.getKeycloakSession(), userPreRemovedEvent.getUser());
+            }
+        });
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public String getId() {
+        return "scim-modification-tracker";
+    }
+
+    @Override
+    public boolean isGlobal() {
+        return true;
+    }
+
+}
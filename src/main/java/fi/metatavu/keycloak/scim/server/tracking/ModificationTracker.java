@@ -0,0 +1,225 @@
+package fi.metatavu.keycloak.scim.server.tracking;
+
+import fi.metatavu.keycloak.scim.server.store.AbstractStoreQuery;
+import fi.metatavu.keycloak.scim.server.store.VersionLock;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.UserModel;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+
+/**
+ * Maintains modification markers of SCIM resources.
+ * <p>
+ * Keycloak does not record when users or groups were last modified, so the time of the last
+ * change is stored in the {@value #LAST_MODIFIED_ATTRIBUTE} attribute of the resource. The value
+ * is epoch milliseconds zero-padded to a fixed width, so that markers can be compared as strings
+ * in store queries. Every change also increments the {@value #VERSION_ATTRIBUTE} counter, and
+ * groups record their creation time in {@value #CREATED_ATTRIBUTE}.
+ * <p>
+ * When the JPA store is available, the counter is incremented from the value stored in the database
+ * while holding the {@link VersionLock} of the resource, so concurrent writers on any node never
+ * write the same version.
+ */
+public class ModificationTracker {
+
+    /**
+     * SCIM path of the last modification time
+     */
+    public static final String LAST_MODIFIED_PATH = "meta.lastModified";
+
+    /**
+     * Name of the attribute holding the last modification time
+     */
+    public static final String LAST_MODIFIED_ATTRIBUTE = "scim.lastModified";
+
+    /**
+     * Name of the attribute holding the modification counter
+     */
+    public static final String VERSION_ATTRIBUTE = "scim.version";
+
+    /**
+     * Name of the attribute holding the creation time of a group
+     */
+    public static final String CREATED_ATTRIBUTE = "scim.created";
+
+    private ModificationTracker() {
+    }
+
+    /**
+     * Marks user as modified now
+     *
+     * @param session Keycloak session
+     * @param user user
+     */
+    public static void touch(KeycloakSession session, UserModel user) {
+        Long version = AbstractStoreQuery.isAvailable(session) ? new VersionLock(session).lockUser(user.getId()) : null;
+        user.setSingleAttribute(LAST_MODIFIED_ATTRIBUTE, format(System.currentTimeMillis()));
+        user.setSingleAttribute(VERSION_ATTRIBUTE, Long.toString((version != null ? version : getVersion(user)) + 1));
+    }
+
+    /**
+     * Marks group as modified now
+     *
+     * @param session Keycloak session
+     * @param group group
+     */
+    public static void touch(KeycloakSession session, GroupModel group) {
+        Long version = AbstractStoreQuery.isAvailable(session) ? new VersionLock(session).lockGroup(group.getId()) : null;
+        group.setSingleAttribute(LAST_MODIFIED_ATTRIBUTE, format(System.currentTimeMillis()));
+        group.setSingleAttribute(VERSION_ATTRIBUTE, Long.toString((version != null ? version : getVersion(group)) + 1));
+    }
+
+    /**
+     * Marks the groups of a user as modified now.
+     * <p>
+     * Group representations list their members by username, so the groups change when a member
+     * is renamed or deleted. Groups are locked in id order, so concurrent writers do not deadlock.
+     *
+     * @param session Keycloak session
+     * @param user user
+     */
+    public static void touchGroups(KeycloakSession session, UserModel user) {
+        user.getGroupsStream()
+            .sorted(Comparator.comparing(GroupModel::getId))
+            .forEach(group -> touch(session, group));
+    }
+
+    /**
+     * Marks group as created now
+     *
+     * @param session Keycloak session
+     * @param group group
+     */
+    public static void markCreated(KeycloakSession session, GroupModel group) {
+        group.setSingleAttribute(CREATED_ATTRIBUTE, format(System.currentTimeMillis()));
+        touch(session, group);
+    }
+
+    /**
+     * Returns creation time of a user
+     *
+     * @param user user
+     * @return creation time in epoch milliseconds or null if unknown
+     */
+    public static Long getCreated(UserModel user) {
+        return user.getCreatedTimestamp();
+    }
+
+    /**
+     * Returns creation time of a group
+     *
+     * @param group group
+     * @return creation time in epoch milliseconds or null if the group was created before tracking started
+     */
+    public static Long getCreated(GroupModel group) {
+        return parse(group.getFirstAttribute(CREATED_ATTRIBUTE));
+    }
+
+    /**
+     * Returns modification counter of a user
+     *
+     * @param user user
+     * @return number of tracked changes
+     */
+    public static long getVersion(UserModel user) {
+        Long version = parse(user.getFirstAttribute(VERSION_ATTRIBUTE));
+        return version != null ? version : 0;
+    }
+
+    /**
+     * Returns modification counter of a group
+     *
+     * @param group group
+     * @return number of tracked changes
+     */
+    public static long getVersion(GroupModel group) {
+        Long version = parse(group.getFirstAttribute(VERSION_ATTRIBUTE));
+        return version != null ? version : 0;
+    }
+
+    /**
+     * Formats modification counter as a SCIM version
+     *
+     * @param version modification counter
+     * @return weak entity tag, e.g. W/"3"
+     */
+    public static String formatVersion(long version) {
+        return String.format("W/\"%d\"", version);
+    }
+
+    /**
+     * Returns last modification time of a user.
+     * <p>
+     * Users that have not been modified since tracking started fall back to their creation time.
+     *
+     * @param user user
+     * @return last modification time in epoch milliseconds or null if unknown
+     */
+    public static Long getLastModified(UserModel user) {
+        Long lastModified = parse(user.getFirstAttribute(LAST_MODIFIED_ATTRIBUTE));
+        return lastModified != null ? lastModified : user.getCreatedTimestamp();
+    }
+
+    /**
+     * Returns last modification time of a group
+     *
+     * @param group group
+     * @return last modification time in epoch milliseconds or null if the group has not been modified since tracking started
+     */
+    public static Long getLastModified(GroupModel group) {
+        return parse(group.getFirstAttribute(LAST_MODIFIED_ATTRIBUTE));
+    }
+
+    /**
+     * Returns whether SCIM path refers to the last modification time
+     *
+     * @param path SCIM path
+     * @return whether path is meta.lastModified
+     */
+    public static boolean isLastModifiedPath(String path) {
+        return LAST_MODIFIED_PATH.equalsIgnoreCase(path);
+    }
+
+    /**
+     * Parses SCIM date time value
+     *
+     * @param value RFC 3339 date time, e.g. 2025-03-27T10:00:00Z
+     * @return epoch milliseconds
+     * @throws DateTimeParseException when value is not a valid date time
+     */
+    public static long parseDateTime(String value) {
+        return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Formats timestamp as a marker value
+     *
+     * @param timestamp epoch milliseconds
+     * @return marker value
+     */
+    public static String format(long timestamp) {
+        return String.format("%013d", timestamp);
+    }
+
+    /**
+     * Parses marker value
+     *
+     * @param value marker value or null
+     * @return epoch milliseconds or null if value is missing or invalid
+     */
+    private static Long parse(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+package fi.metatavu.keycloak.scim.server.users;
+
+import fi.metatavu.keycloak.scim.server.filter.ComparisonFilter;
+import fi.metatavu.keycloak.scim.server.filter.LogicalFilter;
+import fi.metatavu.keycloak.scim.server.filter.NotFilter;
+import fi.metatavu.keycloak.scim.server.filter.PresenceFilter;
+import fi.metatavu.keycloak.scim.server.filter.ScimFilter;
+import fi.metatavu.keycloak.scim.server.metadata.UserAttribute;
+import fi.metatavu.keycloak.scim.server.metadata.UserAttributes;
+import fi.metatavu.keycloak.scim.server.tracking.ModificationTracker;
+import org.keycloak.models.UserModel;
+
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Compiles SCIM filters into user predicates.
+ * <p>
+ * Attributes are resolved and literals folded once per filter, so evaluating the predicate does not
+ * look up attributes or allocate strings for each user. Compiled predicates are cached by filter and
+ * attribute schema version.
+ */
+public class UserFilterCompiler {
+
+    private static final int CACHE_SIZE = 256;
+
+    private static final Map<CacheKey, Predicate<UserModel>> CACHE = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Predicate<UserModel>> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        }
+    );
+
+    /**
+     * Cache key
+     *
+     * @param schemaVersion attribute schema version
+     * @param filter SCIM filter
+     */
+    private record CacheKey(String schemaVersion, ScimFilter filter) {
+    }
+
+    /**
+     * Returns compiled predicate for a SCIM filter
+     *
+     * @param scimFilter SCIM filter or null
+     * @param userAttributes user attributes
+     * @return predicate matching users that match the filter
+     * @throws UnsupportedUserPath when filter refers to an unknown attribute
+     */
+    public Predicate<UserModel> compile(
+        ScimFilter scimFilter,
+        UserAttributes userAttributes
+    ) {
+        if (scimFilter == null) {
+            return user -> true;
+        }
+
+        CacheKey key = new CacheKey(userAttributes.getSchemaVersion(), scimFilter);
+        Predicate<UserModel> cached = CACHE.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Predicate<UserModel> compiled = compileNode(scimFilter, userAttributes);
+        CACHE.put(key, compiled);
+
+        return compiled;
+    }
+
+    /**
+     * Compiles a filter node
+     *
+     * @param filter filter node
+     * @param userAttributes user attributes
+     * @return predicate
+     */
+    private Predicate<UserModel> compileNode(
+        ScimFilter filter,
+        UserAttributes userAttributes
+    ) {
+        return switch (filter) {
+            case ComparisonFilter cmp when ModificationTracker.isLastModifiedPath(cmp.attribute()) -> compileLastModifiedComparison(cmp);
+            case ComparisonFilter cmp -> compileComparison(cmp, getUserAttribute(userAttributes, cmp.attribute()));
+            case LogicalFilter logical -> {
+                Predicate<UserModel> left = compileNode(logical.left(), userAttributes);
+                Predicate<UserModel> right = compileNode(logical.right(), userAttributes);
+
+                yield switch (logical.operator()) {
+                    case AND -> user -> left.test(user) && right.test(user);
+                    case OR -> user -> left.test(user) || right.test(user);
+                    default -> user -> false;
+                };
+            }
+            case NotFilter not -> compileNode(not.filter(), userAttributes).negate();
+            case PresenceFilter presence when ModificationTracker.isLastModifiedPath(presence.attribute()) ->
+                user -> ModificationTracker.getLastModified(user) != null;
+            case PresenceFilter presence -> {
+                UserAttribute<?> userAttribute = getUserAttribute(userAttributes, presence.attribute());
+                yield user -> {
+                    Object value = userAttribute.read(user);
+                    if (value instanceof Boolean booleanValue) {
+                        return booleanValue;
+                    }
+
+                    return value != null;
+                };
+            }
+            default -> user -> false;
+        };
+    }
+
+    /**
+     * Compiles a comparison
+     *
+     * @param cmp comparison
+     * @param userAttribute resolved user attribute
+     * @return predicate
+     */
+    private Predicate<UserModel> compileComparison(
+        ComparisonFilter cmp,
+        UserAttribute<?> userAttribute
+    ) {
+        String expected = cmp.value();
+        ScimFilter.Operator operator = cmp.operator();
+
+        if (expected == null) {
+            // Comparison with null matches absent values
+            boolean absentMatches = operator == ScimFilter.Operator.EQ;
+            return user -> (userAttribute.read(user) == null) == absentMatches;
+        }
+
+        StringMatcher matcher = switch (operator) {
+            case EQ -> actual -> actual.equalsIgnoreCase(expected);
+            case NE -> actual -> !actual.equalsIgnoreCase(expected);
+            case CO -> actual -> containsIgnoreCase(actual, expected);
+            case SW -> actual -> actual.regionMatches(true, 0, expected, 0, expected.length());
+            case EW -> actual -> actual.length() >= expected.length() &&
+                actual.regionMatches(true, actual.length() - expected.length(), expected, 0, expected.length());
+            case GT -> actual -> actual.compareToIgnoreCase(expected) > 0;
+            case GE -> actual -> actual.compareToIgnoreCase(expected) >= 0;
+            case LT -> actual -> actual.compareToIgnoreCase(expected) < 0;
+            case LE -> actual -> actual.compareToIgnoreCase(expected) <= 0;
+            default -> null;
+        };
+
+        if (matcher == null) {
+            return user -> false;
+        }
+
+        // Attributes without a value are not equal to any value
+        boolean absentMatches = operator == ScimFilter.Operator.NE;
+
+        // Boolean values are matched against their string form, folded here to constant strings
+        boolean trueMatches = matcher.matches(Boolean.TRUE.toString());
+        boolean falseMatches = matcher.matches(Boolean.FALSE.toString());
+
+        return user -> {
+            Object actual = userAttribute.read(user);
+
+            return switch (actual) {
+                case null -> absentMatches;
+                case String actualString -> matcher.matches(actualString);
+                case Boolean actualBoolean -> actualBoolean ? trueMatches : falseMatches;
+                default -> throw new UnsupportedUserPath("Unsupported attribute type: " + actual.getClass());
+            };
+        };
+    }
+
+    /**
+     * Compiles a comparison on the last modification time
+     *
+     * @param cmp comparison
+     * @return predicate
+     * @throws UnsupportedUserPath when the value is not a valid date time
+     */
+    private Predicate<UserModel> compileLastModifiedComparison(ComparisonFilter cmp) {
+        ScimFilter.Operator operator = cmp.operator();
+
+        if (cmp.value() == null) {
+            boolean absentMatches = operator == ScimFilter.Operator.EQ;
+            return user -> (ModificationTracker.getLastModified(user) == null) == absentMatches;
+        }
+
+        long expected;
+        try {
+            expected = ModificationTracker.parseDateTime(cmp.value());
+        } catch (DateTimeParseException e) {
+            throw new UnsupportedUserPath("Invalid date time: " + cmp.value());
+        }
+
+        return user -> {
+            Long actual = ModificationTracker.getLastModified(user);
+            if (actual == null) {
+                return operator == ScimFilter.Operator.NE;
+            }
+
+            return switch (operator) {
+                case EQ -> actual == expected;
+                case NE -> actual != expected;
+                case GT -> actual > expected;
+                case GE -> actual >= expected;
+                case LT -> actual < expected;
+                case LE -> actual <= expected;
+                default -> false;
+            };
+        };
+    }
+
+    /**
+     * Returns whether value contains search string ignoring case without allocating lower case copies
+     *
+     * @param value value
+     * @param search search string
+     * @return whether value contains search string
+     */
+    private static boolean containsIgnoreCase(String value, String search) {
+        int searchLength = search.length();
+        int last = value.length() - searchLength;
+
+        for (int i = 0; i <= last; i++) {
+            if (value.regionMatches(true, i, search, 0, searchLength)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Resolves user attribute by SCIM path
+     *
+     * @param userAttributes user attributes
+     * @param scimPath SCIM path
+     * @return user attribute
+     * @throws UnsupportedUserPath when attribute is unknown
+     */
+    private UserAttribute<?> getUserAttribute(
+        UserAttributes userAttributes,
+        String scimPath
+    ) {
+        UserAttribute<?> userAttribute = userAttributes.findByFilterPath(scimPath);
+        if (userAttribute == null) {
+            throw new UnsupportedUserPath("Unsupported attribute: " + scimPath);
+        }
+
+        return userAttribute;
+    }
+
+    /**
+     * Matcher for string values
+     */
+    @FunctionalInterface
+    private interface StringMatcher {
+
+        /**
+         * Returns whether value matches
+         *
+         * @param value value
+         * @return whether value matches
+         */
+        boolean matches(String value);
+
+    }
+
+}
@@ -0,0 +1,71 @@
+package fi.metatavu.keycloak.scim.server.users;
+
+import fi.metatavu.keycloak.scim.server.filter.ComparisonFilter;
+import fi.metatavu.keycloak.scim.server.filter.LogicalFilter;
+import fi.metatavu.keycloak.scim.server.filter.ScimFilter;
+import org.keycloak.models.UserModel;
+
+import java.util.Map;
+
+/**
+ * Plan for resolving a SCIM user filter
+ * <p>
+ * Search parameters are passed to the store and select a superset of the matching users.
+ * The residual filter contains the parts of the filter the store can not answer exactly
+ * and must be evaluated in memory for each user returned by the store.
+ * <p>
+ * A {@code meta.lastModified gt} or {@code ge} term can only be answered by store queries
+ * ({@link fi.metatavu.keycloak.scim.server.store.UserQuery}), so it is kept apart from the search parameters.
+ * Listings that use the Keycloak user search evaluate it in memory with {@link #getSearchResidualFilter()}.
+ *
+ * @param searchParams Keycloak user search parameters or empty map if nothing is pushed into the store
+ * @param lastModifiedFilter last modification time lower bound or null if there is none
+ * @param residualFilter filter evaluated in memory or null if the search parameters and the last modification time bound answer the whole filter
+ */
+public record UserSearchPlan(Map<String, String> searchParams, ComparisonFilter lastModifiedFilter, ScimFilter residualFilter) {
+
+    /**
+     * Returns whether any part of the filter is pushed into the store
+     *
+     * @return whether search parameters are present
+     */
+    public boolean isPushedDown() {
+        return !searchParams.isEmpty();
+    }
+
+    /**
+     * Returns filter evaluated in memory when the last modification time bound is not part of the store query
+     *
+     * @return residual filter including the last modification time bound or null if there is nothing to evaluate
+     */
+    public ScimFilter getSearchResidualFilter() {
+        if (lastModifiedFilter == null) {
+            return residualFilter;
+        }
+
+        if (residualFilter == null) {
+            return lastModifiedFilter;
+        }
+
+        return new LogicalFilter(ScimFilter.Operator.AND, lastModifiedFilter, residualFilter);
+    }
+
+    /**
+     * Returns whether the store answers the whole filter
+     *
+     * @return whether there is no residual filter
+     */
+    public boolean isComplete() {
+        return residualFilter == null;
+    }
+
+    /**
+     * Returns whether user model fields are compared exactly
+     *
+     * @return whether search parameters use exact comparison
+     */
+    public boolean isExact() {
+        return Boolean.parseBoolean(searchParams.get(UserModel.EXACT));
+    }
+
+}
@@ -0,0 +1,260 @@
+package fi.metatavu.keycloak.scim.server.users;
+
+import fi.metatavu.keycloak.scim.server.filter.ComparisonFilter;
+import fi.metatavu.keycloak.scim.server.filter.LogicalFilter;
+import fi.metatavu.keycloak.scim.server.filter.ScimFilter;
+import fi.metatavu.keycloak.scim.server.metadata.UserAttribute;
+import fi.metatavu.keycloak.scim.server.metadata.UserAttributes;
+import fi.metatavu.keycloak.scim.server.tracking.ModificationTracker;
+import org.keycloak.models.UserModel;
+
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Planner that translates SCIM user filters into Keycloak user search parameters.
+ * <p>
+ * The top-level conjunction of the filter is split into terms and every term the store can answer
+ * is pushed into the search parameters. Terms that the store can only narrow down (e.g. prefix match
+ * executed as an infix search) are pushed and also kept in the residual filter, other terms such as
+ * disjunctions and presence filters are evaluated in memory only.
+ * <p>
+ * Keycloak applies {@link UserModel#EXACT} to all user model fields of a search, so the planner uses
+ * exact comparison when the filter contains an equality term on a user model field and infix search
+ * otherwise. User profile attributes and {@link UserModel#ENABLED} are always compared exactly.
+ * <p>
+ * The first {@code meta.lastModified gt} or {@code ge} term is returned as a separate bound for store queries.
+ */
+public class UserSearchPlanner {
+
+    private static final Set<String> SEARCHABLE_FIELDS = Set.of(
+        UserModel.USERNAME,
+        UserModel.EMAIL,
+        UserModel.FIRST_NAME,
+        UserModel.LAST_NAME
+    );
+
+    /**
+     * How a single filter term is pushed into the store
+     */
+    private enum Pushdown {
+        NONE,
+        EXACT,
+        SUPERSET
+    }
+
+    /**
+     * Plans the search for a SCIM filter
+     *
+     * @param scimFilter SCIM filter or null
+     * @param userAttributes user attributes
+     * @return search plan
+     * @throws UnsupportedUserPath when a comparison refers to an unknown attribute
+     */
+    public UserSearchPlan plan(
+        ScimFilter scimFilter,
+        UserAttributes userAttributes
+    ) {
+        if (scimFilter == null) {
+            return new UserSearchPlan(Map.of(), null, null);
+        }
+
+        List<ScimFilter> terms = new ArrayList<>();
+        collectConjunction(scimFilter, terms);
+
+        boolean exact = terms.stream().anyMatch(term ->
+            term instanceof ComparisonFilter cmp &&
+            cmp.operator() == ScimFilter.Operator.EQ &&
+            cmp.value() != null &&
+            !ModificationTracker.isLastModifiedPath(cmp.attribute()) &&
+            SEARCHABLE_FIELDS.contains(getUserAttribute(userAttributes, cmp).getSourceId())
+        );
+
+        Map<String, String> searchParams = new HashMap<>();
+        List<ScimFilter> residual = new ArrayList<>();
+        ComparisonFilter lastModifiedFilter = null;
+
+        for (ScimFilter term : terms) {
+            if (!(term instanceof ComparisonFilter cmp)) {
+                residual.add(term);
+                continue;
+            }
+
+            if (ModificationTracker.isLastModifiedPath(cmp.attribute())) {
+                if (lastModifiedFilter == null && isLowerBound(cmp)) {
+                    lastModifiedFilter = cmp;
+                } else {
+                    residual.add(term);
+                }
+
+                continue;
+            }
+
+            UserAttribute<?> userAttribute = getUserAttribute(userAttributes, cmp);
+            String key = userAttribute.getSourceId();
+            Pushdown pushdown = searchParams.containsKey(key) ? Pushdown.NONE : getPushdown(userAttribute, cmp, exact);
+
+            if (pushdown != Pushdown.NONE) {
+                searchParams.put(key, cmp.value());
+            }
+
+            if (pushdown != Pushdown.EXACT) {
+                residual.add(term);
+            }
+
+            if (cmp.operator() == ScimFilter.Operator.SW && SEARCHABLE_FIELDS.contains(key) && isPlainSearchValue(cmp.value())) {
+                // Keycloak free text search is a prefix search over username, email, first and last name
+                searchParams.putIfAbsent(UserModel.SEARCH, cmp.value());
+            }
+        }
+
+        if (!searchParams.isEmpty()) {
+            searchParams.put(UserModel.EXACT, Boolean.toString(exact));
+        }
+
+        return new UserSearchPlan(searchParams, lastModifiedFilter, toConjunction(residual));
+    }
+
+    /**
+     * Returns whether comparison is a gt or ge bound on the last modification time
+     *
+     * @param cmp comparison on meta.lastModified
+     * @return whether comparison is a lower bound
+     * @throws UnsupportedUserPath when the value is not a valid date time
+     */
+    private boolean isLowerBound(ComparisonFilter cmp) {
+        if (cmp.operator() != ScimFilter.Operator.GT && cmp.operator() != ScimFilter.Operator.GE) {
+            return false;
+        }
+
+        if (cmp.value() == null) {
+            return false;
+        }
+
+        try {
+            ModificationTracker.parseDateTime(cmp.value());
+        } catch (DateTimeParseException e) {
+            throw new UnsupportedUserPath("Invalid date time: " + cmp.value());
+        }
+
+        return true;
+    }
+
+    /**
+     * Resolves how a comparison term can be pushed into the store
+     *
+     * @param userAttribute user attribute
+     * @param cmp comparison
+     * @param exact whether user model fields are compared exactly
+     * @return pushdown
+     */
+    private Pushdown getPushdown(
+        UserAttribute<?> userAttribute,
+        ComparisonFilter cmp,
+        boolean exact
+    ) {
+        String key = userAttribute.getSourceId();
+        ScimFilter.Operator operator = cmp.operator();
+
+        if (cmp.value() == null) {
+            return Pushdown.NONE;
+        }
+
+        if (userAttribute.getSource() == UserAttribute.Source.USER_PROFILE) {
+            return operator == ScimFilter.Operator.EQ ? Pushdown.EXACT : Pushdown.NONE;
+        }
+
+        if (UserModel.ENABLED.equals(key)) {
+            boolean booleanValue = "true".equalsIgnoreCase(cmp.value()) || "false".equalsIgnoreCase(cmp.value());
+            return operator == ScimFilter.Operator.EQ && booleanValue ? Pushdown.EXACT : Pushdown.NONE;
+        }
+
+        if (!SEARCHABLE_FIELDS.contains(key)) {
+            return Pushdown.NONE;
+        }
+
+        if (exact) {
+            return operator == ScimFilter.Operator.EQ ? Pushdown.EXACT : Pushdown.NONE;
+        }
+
+        return switch (operator) {
+            case CO -> isPlainSearchValue(cmp.value()) ? Pushdown.EXACT : Pushdown.SUPERSET;
+            case SW, EW, EQ -> Pushdown.SUPERSET;
+            default -> Pushdown.NONE;
+        };
+    }
+
+    /**
+     * Returns whether value can be used as a search value without being interpreted as a wildcard,
+     * quote or term separator by the store
+     *
+     * @param value value
+     * @return whether value is plain
+     */
+    private boolean isPlainSearchValue(String value) {
+        if (value == null || value.isEmpty()) {
+            return false;
+        }
+
+        return value.chars().noneMatch(c -> c == '*' || c == '"' || c == '%' || c == '_' || c == '\\' || Character.isWhitespace(c));
+    }
+
+    /**
+     * Resolves user attribute of a comparison
+     *
+     * @param userAttributes user attributes
+     * @param cmp comparison
+     * @return user attribute
+     * @throws UnsupportedUserPath when attribute is unknown
+     */
+    private UserAttribute<?> getUserAttribute(
+        UserAttributes userAttributes,
+        ComparisonFilter cmp
+    ) {
+        UserAttribute<?> userAttribute = userAttributes.findByFilterPath(cmp.attribute());
+        if (userAttribute == null) {
+            throw new UnsupportedUserPath("Unsupported attribute: " + cmp.attribute());
+        }
+
+        return userAttribute;
+    }
+
+    /**
+     * Collects terms of a top-level conjunction
+     *
+     * @param filter filter
+     * @param terms collected terms
+     */
+    private void collectConjunction(
+        ScimFilter filter,
+        List<ScimFilter> terms
+    ) {
+        if (filter instanceof LogicalFilter logical && logical.operator() == ScimFilter.Operator.AND) {
+            collectConjunction(logical.left(), terms);
+            collectConjunction(logical.right(), terms);
+        } else {
+            terms.add(filter);
+        }
+    }
+
+    /**
+     * Combines terms into a conjunction
+     *
+     * @param terms terms
+     * @return conjunction or null if there are no terms
+     */
+    private ScimFilter toConjunction(List<ScimFilter> terms) {
+        ScimFilter result = null;
+
+        for (ScimFilter term : terms) {
+            result = result == null ? term : new LogicalFilter(ScimFilter.Operator.AND, result, term);
+        }
+
+        return result;
+    }
+
+}
@@ -3,21 +3,31 @@ package fi.metatavu.keycloak.scim.server.users;
 import fi.metatavu.keycloak.scim.server.AbstractController;
 import fi.metatavu.keycloak.scim.server.ScimContext;
 import fi.metatavu.keycloak.scim.server.adminEvents.AdminEventController;
+import fi.metatavu.keycloak.scim.server.config.ScimConfig;
 import fi.metatavu.keycloak.scim.server.consts.Schemas;
 import fi.metatavu.keycloak.scim.server.consts.ScimRoles;
+import fi.metatavu.keycloak.scim.server.export.ExportSection;
 import fi.metatavu.keycloak.scim.server.filter.ComparisonFilter;
-import fi.metatavu.keycloak.scim.server.filter.LogicalFilter;
-import fi.metatavu.keycloak.scim.server.filter.PresenceFilter;
 import fi.metatavu.keycloak.scim.server.filter.ScimFilter;
 import fi.metatavu.keycloak.scim.server.metadata.BooleanUserAttribute;
 import fi.metatavu.keycloak.scim.server.metadata.StringUserAttribute;
 import fi.metatavu.keycloak.scim.server.metadata.UserAttribute;
 import fi.metatavu.keycloak.scim.server.metadata.UserAttributes;
 import fi.metatavu.keycloak.scim.server.model.User;
-import fi.metatavu.keycloak.scim.server.model.UsersList;
+import fi.metatavu.keycloak.scim.server.paging.CursorPage;
+import fi.metatavu.keycloak.scim.server.paging.Cursors;
+import fi.metatavu.keycloak.scim.server.paging.Page;
+import fi.metatavu.keycloak.scim.server.paging.PagedStreams;
+import fi.metatavu.keycloak.scim.server.paging.StreamingListResponse;
 import fi.metatavu.keycloak.scim.server.patch.PatchOperation;
 import fi.metatavu.keycloak.scim.server.patch.UnsupportedPatchOperation;
+import fi.metatavu.keycloak.scim.server.projection.AttributeProjection;
 import fi.metatavu.keycloak.scim.server.realm.RealmScimContext;
+import fi.metatavu.keycloak.scim.server.sorting.Sorting;
+import fi.metatavu.keycloak.scim.server.sorting.UnsupportedSort;
+import fi.metatavu.keycloak.scim.server.store.AbstractStoreQuery;
+import fi.metatavu.keycloak.scim.server.store.UserQuery;
+import fi.metatavu.keycloak.scim.server.tracking.ModificationTracker;
 import jakarta.ws.rs.NotFoundException;
 import org.jboss.logging.Logger;
 import org.keycloak.events.admin.OperationType;
@@ -33,6 +43,10 @@ import org.keycloak.models.utils.ModelToRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
 
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * Users controller
@@ -41,6 +55,8 @@ public class UsersController extends AbstractController {
 
     private static final Logger logger = Logger.getLogger(UsersController.class);
     private final AdminEventController adminEventController = new AdminEventController();
+    private final UserSearchPlanner searchPlanner = new UserSearchPlanner();
+    private final UserFilterCompiler filterCompiler = new UserFilterCompiler();
 
     /**
      * Creates a user
@@ -99,6 +115,8 @@ public class UsersController extends AbstractController {
             });
         }
 
+        ModificationTracker.touch(scimContext.getSession(), user);
+
         User createdUser = translateUser(
             scimContext,
             userAttributes,
@@ -127,12 +145,14 @@ public class UsersController extends AbstractController {
      * @param scimContext SCIM context
      * @param userAttributes user attributes
      * @param userId user ID
+     * @param projection attribute projection
      * @return found user
      */
     public User findUser(
         ScimContext scimContext,
         UserAttributes userAttributes,
-        String userId
+        String userId,
+        AttributeProjection projection
     ) {
         try {
             KeycloakSession session = scimContext.getSession();
@@ -142,7 +162,8 @@ public class UsersController extends AbstractController {
             return translateUser(
                 scimContext,
                 userAttributes,
-                userModel
+                userModel,
+                projection
             );
         } catch (NotFoundException e) {
             return null;
@@ -156,61 +177,428 @@ public class UsersController extends AbstractController {
      * @param scimFilter SCIM filter
      * @param firstResult first result
      * @param maxResults max results
-     * @return users list
+     * @param cursor pagination cursor or null when using index based pagination
+     * @param projection attribute projection
+     * @param sorting sorting
+     * @return users list that translates the users as it is written
+     * @throws UnsupportedSort when sorting cannot be executed
      */
-    public UsersList listUsers(
+    public StreamingListResponse<UserModel> listUsers(
         ScimContext scimContext,
         ScimFilter scimFilter,
         UserAttributes userAttributes,
         Integer firstResult,
-        Integer maxResults
+        Integer maxResults,
+        String cursor,
+        AttributeProjection projection,
+        Sorting sorting
     ) {
-        UsersList result = new UsersList();
         RealmModel realm = scimContext.getRealm();
         KeycloakSession session = scimContext.getSession();
+        checkSorting(session, sorting, cursor);
 
-        Map<String, String> searchParams = new HashMap<>();
+        UserSearchPlan searchPlan = getSearchPlan(scimFilter, userAttributes);
+        Map<String, String> searchParams = searchPlan.searchParams();
+        ScimFilter residualFilter = searchPlan.residualFilter();
 
-        if (scimFilter instanceof ComparisonFilter cmp) {
-            if (cmp.operator() == ScimFilter.Operator.EQ) {
-                UserAttribute<?> userAttribute = userAttributes.findByScimPath(cmp.attribute());
-                if (userAttribute == null) {
-                    throw new UnsupportedUserPath("Unsupported attribute: " + cmp.attribute());
-                }
+        RoleModel scimManagedRole = realm.getRole(ScimRoles.SCIM_MANAGED_ROLE);
+        if (scimManagedRole == null) {
+            throw new IllegalStateException("SCIM managed role not found");
+        }
 
-                String value = cmp.value();
+        boolean roleMembers = scimContext.getConfig().getUserListingStrategy() == ScimConfig.UserListingStrategy.ROLE_MEMBERS;
 
-                if (userAttribute.getSource() == UserAttribute.Source.USER_MODEL || userAttribute.getSource() == UserAttribute.Source.USER_PROFILE) {
-                    searchParams.put(userAttribute.getSourceId(), value);
-                }
-            }
+        if (cursor != null) {
+            UserQuery query = limitToManagedUsers(createUserQuery(session, realm, searchPlan), scimManagedRole, roleMembers);
+            Predicate<UserModel> predicate = getFilterPredicate(userAttributes, residualFilter);
+
+            return listUsersByCursor(scimContext, userAttributes, query, predicate, cursor, maxResults, projection);
         }
 
-        RoleModel scimManagedRole = realm.getRole(ScimRoles.SCIM_MANAGED_ROLE);
+        int countLimit = getCountLimit(scimContext, firstResult, maxResults);
+
+        Page<UserModel> page;
+        if (AbstractStoreQuery.isAvailable(session)) {
+            // The role check, search criteria, last modification time bound and sorting are all part of the store query
+            UserQuery query = limitToManagedUsers(applyListingOrder(createUserQuery(session, realm, searchPlan), sorting), scimManagedRole, roleMembers);
+            page = getUsersPage(scimContext, query, getFilterPredicate(userAttributes, residualFilter), firstResult, maxResults, countLimit);
+        } else if (!searchPlan.isPushedDown() && roleMembers) {
+            Predicate<UserModel> filterPredicate = compileScimFilter(userAttributes, scimFilter);
+
+            // Enumerate direct members of the SCIM managed role, so the cost follows the SCIM managed population
+            page = PagedStreams.page(
+                (first, max) -> session.users().getRoleMembersStream(realm, scimManagedRole, first, max),
+                filterPredicate,
+                firstResult,
+                maxResults,
+                countLimit
+            );
+        } else {
+            Predicate<UserModel> residualPredicate = compileScimFilter(userAttributes, searchPlan.getSearchResidualFilter());
+
+            page = PagedStreams.page(
+                (first, max) -> session.users().searchForUserStream(realm, searchParams, first, max),
+                user -> residualPredicate.test(user) && user.hasRole(scimManagedRole),
+                firstResult,
+                maxResults,
+                countLimit
+            );
+        }
+
+        return getUsersList(
+            scimContext,
+            userAttributes,
+            page.resources(),
+            projection,
+            page.totalResults(),
+            firstResult,
+            maxResults,
+            null
+        );
+    }
+
+    /**
+     * Reads a page of users from a store query.
+     * <p>
+     * When the query answers the whole filter, only the requested window is loaded and the total
+     * comes from a count query. Otherwise the query is read in chunks and the residual predicate is
+     * evaluated for each user.
+     *
+     * @param scimContext SCIM context
+     * @param query store query
+     * @param predicate in-memory predicate for criteria that are not part of the query or null if there are none
+     * @param firstResult first result
+     * @param maxResults max results
+     * @param countLimit maximum number of matches to count
+     * @return page
+     */
+    protected Page<UserModel> getUsersPage(
+        ScimContext scimContext,
+        UserQuery query,
+        Predicate<UserModel> predicate,
+        int firstResult,
+        int maxResults,
+        int countLimit
+    ) {
+        RealmModel realm = scimContext.getRealm();
+        KeycloakSession session = scimContext.getSession();
+
+        if (predicate == null) {
+            return PagedStreams.page(
+                (first, max) -> getUsersByIds(session, realm, query.listIds(first, max)),
+                () -> (int) Math.min(Integer.MAX_VALUE, query.count()),
+                firstResult,
+                maxResults
+            );
+        }
+
+        Stream<UserModel> matches = PagedStreams.chunked((first, max) -> query.listIds(first, max).stream(), PagedStreams.DEFAULT_CHUNK_SIZE)
+            .map(id -> session.users().getUserById(realm, id))
+            .filter(Objects::nonNull)
+            .filter(predicate);
+
+        return PagedStreams.page(matches, firstResult, maxResults, countLimit);
+    }
+
+    /**
+     * Limits a store query to SCIM-managed users.
+     * <p>
+     * With the ROLE_MEMBERS listing strategy only direct members of the role are included, otherwise
+     * users who get the role through a group or a composite role are included as well.
+     *
+     * @param query store query
+     * @param scimManagedRole SCIM managed role
+     * @param roleMembers whether the ROLE_MEMBERS listing strategy is used
+     * @return query
+     */
+    protected UserQuery limitToManagedUsers(UserQuery query, RoleModel scimManagedRole, boolean roleMembers) {
+        return roleMembers ? query.roleMember(scimManagedRole) : query.roleHolder(scimManagedRole);
+    }
+
+    /**
+     * Lists users using cursor pagination.
+     * <p>
+     * Users are read from the store in keyset order by id. The total is only returned when
+     * every criterion is part of the store query and it can be resolved with a count query.
+     *
+     * @param scimContext SCIM context
+     * @param userAttributes user attributes
+     * @param query store query
+     * @param predicate in-memory predicate for criteria that are not part of the query or null if there are none
+     * @param cursor pagination cursor
+     * @param maxResults max results
+     * @param projection attribute projection
+     * @return users list that translates the users as it is written
+     */
+    protected StreamingListResponse<UserModel> listUsersByCursor(
+        ScimContext scimContext,
+        UserAttributes userAttributes,
+        UserQuery query,
+        Predicate<UserModel> predicate,
+        String cursor,
+        int maxResults,
+        AttributeProjection projection
+    ) {
+        RealmModel realm = scimContext.getRealm();
+        KeycloakSession session = scimContext.getSession();
+        String afterId = Cursors.decode(cursor);
+
+        Stream<UserModel> matches = PagedStreams.keysetChunked(query::listIds, Function.identity(), afterId, PagedStreams.getChunkSize(maxResults))
+            .map(id -> session.users().getUserById(realm, id))
+            .filter(Objects::nonNull);
+
+        if (predicate != null) {
+            matches = matches.filter(predicate);
+        }
+
+        CursorPage<UserModel> page = PagedStreams.cursorPage(matches, UserModel::getId, afterId, maxResults);
+
+        return getUsersList(
+            scimContext,
+            userAttributes,
+            page.resources(),
+            projection,
+            predicate == null ? (int) Math.min(Integer.MAX_VALUE, query.count()) : null,
+            null,
+            maxResults,
+            Cursors.encode(page.nextKey())
+        );
+    }
+
+    /**
+     * Returns a users list that translates the users of a page as it is written.
+     * <p>
+     * When the projection includes meta, the versions of the users are read from the models so
+     * that the list can be tagged before any user is translated.
+     *
+     * @param scimContext SCIM context
+     * @param userAttributes user attributes
+     * @param users users on the page
+     * @param projection attribute projection
+     * @param totalResults total results or null if unknown
+     * @param startIndex start index or null when using cursor pagination
+     * @param itemsPerPage items per page
+     * @param nextCursor cursor of the next page or null
+     * @return users list
+     */
+    protected StreamingListResponse<UserModel> getUsersList(
+        ScimContext scimContext,
+        UserAttributes userAttributes,
+        List<UserModel> users,
+        AttributeProjection projection,
+        Integer totalResults,
+        Integer startIndex,
+        Integer itemsPerPage,
+        String nextCursor
+    ) {
+        return new StreamingListResponse<>(
+            null,
+            users,
+            user -> translateUser(scimContext, userAttributes, user, projection),
+            projection.includes("meta") ? user -> user.getId() + ":" + ModificationTracker.formatVersion(ModificationTracker.getVersion(user)) : null,
+            totalResults,
+            startIndex,
+            itemsPerPage,
+            nextCursor
+        );
+    }
+
+    /**
+     * Returns export section of the SCIM-managed users of the realm
+     *
+     * @param scimContext SCIM context of the request
+     * @param userAttributes user attributes
+     * @param <T> SCIM context type
+     * @return export section
+     */
+    public <T extends ScimContext> ExportSection<T> getUsersExport(T scimContext, UserAttributes userAttributes) {
+        return getUsersExport(scimContext, userAttributes, new UserQuery(scimContext.getSession(), scimContext.getRealm()));
+    }
+
+    /**
+     * Returns export section of the SCIM-managed users matching a store query
+     *
+     * @param scimContext SCIM context of the request
+     * @param userAttributes user attributes
+     * @param query store query
+     * @param <T> SCIM context type
+     * @return export section
+     */
+    protected <T extends ScimContext> ExportSection<T> getUsersExport(T scimContext, UserAttributes userAttributes, UserQuery query) {
+        return getManagedUsersSection(scimContext, query, (chunkContext, user) -> translateUser(chunkContext, userAttributes, user));
+    }
+
+    /**
+     * Returns section of the versions of the SCIM-managed users of the realm
+     *
+     * @param scimContext SCIM context of the request
+     * @param <T> SCIM context type
+     * @return section translating the users into their versions
+     */
+    public <T extends ScimContext> ExportSection<T> getUserVersions(T scimContext) {
+        return getUserVersions(scimContext, new UserQuery(scimContext.getSession(), scimContext.getRealm()));
+    }
+
+    /**
+     * Returns section of the versions of the SCIM-managed users matching a store query.
+     * <p>
+     * Only the version attribute is read, so the users are not translated.
+     *
+     * @param scimContext SCIM context of the request
+     * @param query store query
+     * @param <T> SCIM context type
+     * @return section translating the users into their versions
+     */
+    protected <T extends ScimContext> ExportSection<T> getUserVersions(T scimContext, UserQuery query) {
+        return getManagedUsersSection(scimContext, query, (chunkContext, user) -> ModificationTracker.formatVersion(ModificationTracker.getVersion(user)));
+    }
+
+    /**
+     * Returns section of the SCIM-managed users matching a store query.
+     * <p>
+     * With the ROLE_MEMBERS listing strategy the role is part of the query, otherwise it is checked
+     * for each user when the user is loaded.
+     *
+     * @param scimContext SCIM context of the request
+     * @param query store query
+     * @param translator translator for the loaded users
+     * @param <T> SCIM context type
+     * @return section
+     */
+    private <T extends ScimContext> ExportSection<T> getManagedUsersSection(T scimContext, UserQuery query, BiFunction<T, UserModel, Object> translator) {
+        RoleModel scimManagedRole = scimContext.getRealm().getRole(ScimRoles.SCIM_MANAGED_ROLE);
         if (scimManagedRole == null) {
             throw new IllegalStateException("SCIM managed role not found");
         }
 
-        
+        boolean roleMembers = scimContext.getConfig().getUserListingStrategy() == ScimConfig.UserListingStrategy.ROLE_MEMBERS;
+        if (roleMembers) {
+            query.roleMember(scimManagedRole);
+        }
 
-        List<UserModel> filteredUsers = session.users()
-            .searchForUserStream(scimContext.getRealm(), searchParams)
-            .filter(user -> !searchParams.isEmpty() || matchScimFilter(user, userAttributes, scimFilter))
-            .filter(user -> user.hasRole(scimManagedRole))
-            .toList();
+        return new ExportSection<>("Users", query::listIds, (chunkContext, id) -> {
+            RealmModel realm = chunkContext.getRealm();
+            UserModel user = chunkContext.getSession().users().getUserById(realm, id);
+            if (user == null || (!roleMembers && !user.hasRole(realm.getRole(ScimRoles.SCIM_MANAGED_ROLE)))) {
+                return null;
+            }
 
-        List<User> users = filteredUsers.stream()
-            .skip(firstResult)
-            .limit(maxResults)
-            .map(user -> translateUser(scimContext, userAttributes, user))
-            .toList();
+            return translator.apply(chunkContext, user);
+        });
+    }
 
-        result.setTotalResults(filteredUsers.size());
-        result.setResources(users);
-        result.setStartIndex(firstResult);
-        result.setItemsPerPage(maxResults);
+    /**
+     * Creates a store query for the search parameters and the last modification time bound of a search plan
+     *
+     * @param session Keycloak session
+     * @param realm realm
+     * @param searchPlan search plan
+     * @return store query
+     */
+    protected UserQuery createUserQuery(
+        KeycloakSession session,
+        RealmModel realm,
+        UserSearchPlan searchPlan
+    ) {
+        UserQuery query = new UserQuery(session, realm).searchParams(searchPlan.searchParams());
 
-        return result;
+        ComparisonFilter lastModifiedFilter = searchPlan.lastModifiedFilter();
+        if (lastModifiedFilter != null) {
+            query.lastModifiedAfter(
+                ModificationTracker.parseDateTime(lastModifiedFilter.value()),
+                lastModifiedFilter.operator() == ScimFilter.Operator.GE
+            );
+        }
+
+        return query;
+    }
+
+    /**
+     * Adds sort keys of the requested sorting to a store query
+     *
+     * @param query store query
+     * @param sorting sorting
+     * @return query
+     * @throws UnsupportedSort when the attribute is not sortable
+     */
+    protected UserQuery applySorting(UserQuery query, Sorting sorting) {
+        if (sorting.isNone()) {
+            return query;
+        }
+
+        boolean descending = sorting.isDescending();
+
+        return switch (sorting.getSortBy()) {
+            case "username" -> query.orderBy("username", descending);
+            case "name.familyname" -> query.orderBy("lastName", descending);
+            case "name.givenname" -> query.orderBy("firstName", descending);
+            case "emails", "emails.value" -> query.orderBy("email", descending);
+            case "meta.lastmodified" -> query.orderByLastModified(descending);
+            default -> throw new UnsupportedSort("Unsupported sortBy: " + sorting.getSortBy());
+        };
+    }
+
+    /**
+     * Adds sort keys of the requested sorting to a store query, ordering by username when no sorting is requested
+     * like the Keycloak user search does
+     *
+     * @param query store query
+     * @param sorting sorting
+     * @return query
+     * @throws UnsupportedSort when the attribute is not sortable
+     */
+    protected UserQuery applyListingOrder(UserQuery query, Sorting sorting) {
+        if (sorting.isNone()) {
+            return query.orderBy("username", false);
+        }
+
+        return applySorting(query, sorting);
+    }
+
+    /**
+     * Loads users by ids, skipping users that no longer exist
+     *
+     * @param session Keycloak session
+     * @param realm realm
+     * @param ids user ids
+     * @return users
+     */
+    protected Stream<UserModel> getUsersByIds(KeycloakSession session, RealmModel realm, List<String> ids) {
+        return ids.stream()
+            .map(id -> session.users().getUserById(realm, id))
+            .filter(Objects::nonNull);
+    }
+
+    /**
+     * Plans which parts of the filter are pushed into the user search and which are evaluated in memory
+     *
+     * @param scimFilter SCIM filter
+     * @param userAttributes user attributes
+     * @return search plan
+     */
+    protected UserSearchPlan getSearchPlan(
+        ScimFilter scimFilter,
+        UserAttributes userAttributes
+    ) {
+        return searchPlanner.plan(scimFilter, userAttributes);
+    }
+
+    /**
+     * Returns in-memory predicate for the SCIM filter
+     *
+     * @param userAttributes user attributes
+     * @param scimFilter SCIM filter
+     * @return predicate or null if there is no filter
+     */
+    protected Predicate<UserModel> getFilterPredicate(
+        UserAttributes userAttributes,
+        ScimFilter scimFilter
+    ) {
+        if (scimFilter == null) {
+            return null;
+        }
+
+        return compileScimFilter(userAttributes, scimFilter);
     }
 
     /**
@@ -228,6 +616,8 @@ public class UsersController extends AbstractController {
         UserModel existing,
         User scimUser
     ) {
+        String previousUsername = existing.getUsername();
+
         ((StringUserAttribute) userAttributes.findByScimPath("userName")).write(existing, scimUser.getUserName());
         ((BooleanUserAttribute) userAttributes.findByScimPath("active")).write(existing, scimUser.getActive() == null || Boolean.TRUE.equals(scimUser.getActive()));
 
@@ -264,6 +654,11 @@ public class UsersController extends AbstractController {
             });
         }
 
+        ModificationTracker.touch(scimContext.getSession(), existing);
+        if (!Objects.equals(previousUsername, existing.getUsername())) {
+            ModificationTracker.touchGroups(scimContext.getSession(), existing);
+        }
+
         final User updatedUser = translateUser(scimContext, userAttributes, existing);
 
         if (scimContext.getConfig().getLinkIdp()) {
@@ -295,6 +690,8 @@ public class UsersController extends AbstractController {
         UserModel existing,
         fi.metatavu.keycloak.scim.server.model.PatchRequest patchRequest
     ) throws UnsupportedPatchOperation {
+        String previousUsername = existing.getUsername();
+
         for (var operation : patchRequest.getOperations()) {
             PatchOperation op = PatchOperation.fromString(operation.getOp());
             if (op == null) {
@@ -334,6 +731,11 @@ public class UsersController extends AbstractController {
             }
         }
 
+        ModificationTracker.touch(scimContext.getSession(), existing);
+        if (!Objects.equals(previousUsername, existing.getUsername())) {
+            ModificationTracker.touchGroups(scimContext.getSession(), existing);
+        }
+
         dispatchUserUpdateEvent(scimContext, existing);
 
         final User patchedUser = translateUser(scimContext, userAttributes, existing);
@@ -417,77 +819,17 @@ public class UsersController extends AbstractController {
     }
 
     /**
-     * Tests if user matches SCIM filter
+     * Compiles SCIM filter into a user predicate
      *
-     * @param user user
      * @param userAttributes user attributes
-     * @param filter SCIM filter
-     * @return true if user matches filter
+     * @param filter SCIM filter or null
+     * @return predicate matching users that match the filter
      */
-    protected boolean matchScimFilter(
-            UserModel user,
+    protected Predicate<UserModel> compileScimFilter(
             UserAttributes userAttributes,
             ScimFilter filter
     ) {
-        switch (filter) {
-            case null -> {
-                return true;
-            }
-            case ComparisonFilter cmp -> {
-                UserAttribute<?> userAttribute = userAttributes.findByScimPath(cmp.attribute());
-                if (userAttribute == null) {
-                    throw new UnsupportedUserPath("Unsupported attribute: " + cmp.attribute());
-                }
-
-                String value = cmp.value();
-                Object actual = userAttribute.read(user);
-                if (actual == null) return false;
-
-                String actualString;
-                if (actual instanceof String) {
-                    actualString = (String) actual;
-                } else if (actual instanceof Boolean) {
-                    actualString = Boolean.toString((Boolean) actual);
-                } else {
-                    throw new UnsupportedUserPath("Unsupported attribute type: " + actual.getClass());
-                }
-
-                return switch (cmp.operator()) {
-                    case EQ -> actualString.equalsIgnoreCase(value);
-                    case CO -> actualString.toLowerCase().contains(value.toLowerCase());
-                    case SW -> actualString.toLowerCase().startsWith(value.toLowerCase());
-                    case EW -> actualString.toLowerCase().endsWith(value.toLowerCase());
-                    default -> false;
-                };
-            }
-            case LogicalFilter logical -> {
-                boolean left = matchScimFilter(user, userAttributes, logical.left());
-                boolean right = matchScimFilter(user, userAttributes, logical.right());
-
-                return switch (logical.operator()) {
-                    case AND -> left && right;
-                    case OR -> left || right;
-                    default -> false;
-                };
-            }
-            case PresenceFilter presence -> {
-                UserAttribute<?> presenceAttribute = userAttributes.findByScimPath(presence.attribute());
-                if (presenceAttribute == null) {
-                    throw new UnsupportedUserPath("Unsupported attribute: " + presence.attribute());
-                }
-
-                Object value = presenceAttribute.read(user);
-                if (value instanceof Boolean) {
-                    return (Boolean) value;
-                }
-
-                return value != null;
-            }
-            default -> {
-            }
-        }
-
-        return false;
+        return filterCompiler.compile(filter, userAttributes);
     }
 
     /**
@@ -500,6 +842,27 @@ public class UsersController extends AbstractController {
             ScimContext scimContext,
             UserAttributes userAttributes,
             UserModel user
+    ) {
+        return translateUser(scimContext, userAttributes, user, AttributeProjection.DEFAULT);
+    }
+
+    /**
+     * Translates Keycloak user to SCIM user.
+     * <p>
+     * Only attributes included in the projection are read, so user profile attributes that are
+     * not requested are not loaded.
+     *
+     * @param scimContext SCIM context
+     * @param userAttributes user attributes
+     * @param user Keycloak user
+     * @param projection attribute projection
+     * @return SCIM user
+     */
+    protected fi.metatavu.keycloak.scim.server.model.User translateUser(
+            ScimContext scimContext,
+            UserAttributes userAttributes,
+            UserModel user,
+            AttributeProjection projection
     ) {
         if (user == null) {
             return null;
@@ -509,21 +872,53 @@ public class UsersController extends AbstractController {
 
         fi.metatavu.keycloak.scim.server.model.User result = new fi.metatavu.keycloak.scim.server.model.User()
                 .id(user.getId())
-                .userName(emailAsUsername ? user.getEmail() : user.getUsername())
-                .active(user.isEnabled())
-                .emails(Collections.singletonList(new fi.metatavu.keycloak.scim.server.model.UserEmailsInner()
-                        .value(user.getEmail())
-                        .primary(true)
-                ))
-                .meta(getMeta(scimContext, "User", String.format("Users/%s", user.getId())))
-                .schemas(Collections.singletonList(Schemas.USER_SCHEMA))
-                .name(new fi.metatavu.keycloak.scim.server.model.UserName()
-                        .familyName(user.getLastName())
-                        .givenName(user.getFirstName())
-                );
+                .schemas(Collections.singletonList(Schemas.USER_SCHEMA));
+
+        if (projection.includes("userName")) {
+            result.userName(emailAsUsername ? user.getEmail() : user.getUsername());
+        }
+
+        if (projection.includes("active")) {
+            result.active(user.isEnabled());
+        }
+
+        if (projection.includes("emails")) {
+            result.emails(Collections.singletonList(new fi.metatavu.keycloak.scim.server.model.UserEmailsInner()
+                    .value(user.getEmail())
+                    .primary(true)
+            ));
+        }
+
+        if (projection.includes("meta")) {
+            result.meta(getMeta(
+                scimContext,
+                "User",
+                String.format("Users/%s", user.getId()),
+                ModificationTracker.getCreated(user),
+                ModificationTracker.getLastModified(user),
+                ModificationTracker.getVersion(user)
+            ));
+        }
+
+        if (projection.includes("name")) {
+            fi.metatavu.keycloak.scim.server.model.UserName name = new fi.metatavu.keycloak.scim.server.model.UserName();
+            if (projection.includes("name.familyName")) {
+                name.familyName(user.getLastName());
+            }
+
+            if (projection.includes("name.givenName")) {
+                name.givenName(user.getFirstName());
+            }
+
+            result.name(name);
+        }
 
         List<UserAttribute<?>> customAttributes = userAttributes.listBySource(UserAttribute.Source.USER_PROFILE);
         for (UserAttribute<?> userAttribute : customAttributes) {
+            if (!projection.includes(userAttribute.getScimPath())) {
+                continue;
+            }
+
             Object value = userAttribute.read(user);
             if (value != null) {
                 result.putAdditionalProperty(userAttribute.getScimPath(), value);
@@ -545,6 +940,7 @@ public class UsersController extends AbstractController {
     ) {
         KeycloakSession session = scimContext.getSession();
         RealmModel realm = scimContext.getRealm();
+        ModificationTracker.touchGroups(scimContext.getSession(), user);
         session.users().removeUser(realm, user);
         dispatchUserDeleteEvent(scimContext, user);
     }
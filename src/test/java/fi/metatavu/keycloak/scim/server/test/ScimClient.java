@@ -2,12 +2,20 @@ package fi.metatavu.keycloak.scim.server.test;
 
 import fi.metatavu.keycloak.scim.server.test.client.ApiClient;
 import fi.metatavu.keycloak.scim.server.test.client.ApiException;
+import fi.metatavu.keycloak.scim.server.test.client.ApiResponse;
+import fi.metatavu.keycloak.scim.server.test.client.api.BulkApi;
 import fi.metatavu.keycloak.scim.server.test.client.api.GroupsApi;
+import fi.metatavu.keycloak.scim.server.test.client.api.ImportApi;
 import fi.metatavu.keycloak.scim.server.test.client.api.MetadataApi;
 import fi.metatavu.keycloak.scim.server.test.client.api.UsersApi;
 import fi.metatavu.keycloak.scim.server.test.client.model.*;
 
+import java.io.IOException;
 import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
 
 /**
  * SCIM client
@@ -41,7 +49,48 @@ public class ScimClient {
      * @throws ApiException thrown when API call fails
      */
     public UsersList listUsers(String filter, Integer startIndex, Integer count) throws ApiException {
-        return getUsersApi().listUsers(filter, startIndex, count);
+        return getUsersApi().listUsers(filter, startIndex, count, null, null, null, null, null, null);
+    }
+
+    /**
+     * Lists users using cursor pagination
+     *
+     * @param filter filter
+     * @param cursor cursor or null for the first page
+     * @param count count
+     * @return users list
+     * @throws ApiException thrown when API call fails
+     */
+    public UsersList listUsersByCursor(String filter, String cursor, Integer count) throws ApiException {
+        return getUsersApi().listUsers(filter, null, count, cursor == null ? "" : cursor, null, null, null, null, null);
+    }
+
+    /**
+     * Lists users sorted by an attribute
+     *
+     * @param filter filter
+     * @param startIndex start index
+     * @param count count
+     * @param sortBy attribute to sort by
+     * @param sortOrder sort order or null
+     * @return users list
+     * @throws ApiException thrown when API call fails
+     */
+    public UsersList listUsersSorted(String filter, Integer startIndex, Integer count, String sortBy, String sortOrder) throws ApiException {
+        return getUsersApi().listUsers(filter, startIndex, count, null, null, null, sortBy, sortOrder, null);
+    }
+
+    /**
+     * Lists users with attribute projection
+     *
+     * @param filter filter
+     * @param attributes attributes to return or null
+     * @param excludedAttributes attributes to leave out or null
+     * @return users list
+     * @throws ApiException thrown when API call fails
+     */
+    public UsersList listUsersWithAttributes(String filter, String attributes, String excludedAttributes) throws ApiException {
+        return getUsersApi().listUsers(filter, null, null, null, attributes, excludedAttributes, null, null, null);
     }
 
     /**
@@ -61,7 +110,31 @@ public class ScimClient {
      * @return found user
      */
     public User findUser(String id) throws ApiException {
-        return getUsersApi().findUser(id);
+        return getUsersApi().findUser(id, null, null, null);
+    }
+
+    /**
+     * Finds a user conditionally
+     *
+     * @param id user ID
+     * @param ifNoneMatch If-None-Match header value or null
+     * @return API response with the status code and headers
+     * @throws ApiException thrown when API call fails or user is not modified
+     */
+    public ApiResponse<User> findUserWithHttpInfo(String id, String ifNoneMatch) throws ApiException {
+        return getUsersApi().findUserWithHttpInfo(id, null, null, ifNoneMatch);
+    }
+
+    /**
+     * Lists users conditionally
+     *
+     * @param filter filter
+     * @param ifNoneMatch If-None-Match header value or null
+     * @return API response with the status code and headers
+     * @throws ApiException thrown when API call fails or list is not modified
+     */
+    public ApiResponse<UsersList> listUsersWithHttpInfo(String filter, String ifNoneMatch) throws ApiException {
+        return getUsersApi().listUsersWithHttpInfo(filter, null, null, null, null, null, null, null, ifNoneMatch);
     }
 
     /**
@@ -73,9 +146,21 @@ public class ScimClient {
      * @throws ApiException thrown when API call fails
      */
     public User updateUser(String id, User user) throws ApiException {
-        return getUsersApi().updateUser(id, user);
+        return getUsersApi().updateUser(id, user, null);
     }
 
+    /**
+     * Updates a user conditionally
+     *
+     * @param id user ID
+     * @param user user to update
+     * @param ifMatch If-Match header value
+     * @return API response with the status code and headers
+     * @throws ApiException thrown when API call fails or version does not match
+     */
+    public ApiResponse<User> updateUserWithHttpInfo(String id, User user, String ifMatch) throws ApiException {
+        return getUsersApi().updateUserWithHttpInfo(id, user, ifMatch);
+    }
 
     /**
      * Patches a user
@@ -85,7 +170,7 @@ public class ScimClient {
      * @return patched user
      */
     public User patchUser(String id, PatchRequest patchRequest) throws ApiException {
-        return getUsersApi().patchUser(id, patchRequest);
+        return getUsersApi().patchUser(id, patchRequest, null);
     }
 
     /**
@@ -94,7 +179,18 @@ public class ScimClient {
      * @param userId user ID
      */
     public void deleteUser(String userId) throws ApiException {
-        getUsersApi().deleteUser(userId);
+        getUsersApi().deleteUser(userId, null);
+    }
+
+    /**
+     * Deletes a user conditionally
+     *
+     * @param userId user ID
+     * @param ifMatch If-Match header value
+     * @throws ApiException thrown when API call fails or version does not match
+     */
+    public void deleteUser(String userId, String ifMatch) throws ApiException {
+        getUsersApi().deleteUser(userId, ifMatch);
     }
 
     /**
@@ -107,7 +203,60 @@ public class ScimClient {
      * @throws ApiException thrown when API call fails
      */
     public GroupsList listGroups(String filter, Integer startIndex, Integer count) throws ApiException {
-        return getGroupsApi().listGroups(filter, startIndex, count);
+        return getGroupsApi().listGroups(filter, startIndex, count, null, null, null, null, null, null);
+    }
+
+    /**
+     * Lists groups using cursor pagination
+     *
+     * @param filter filter
+     * @param cursor cursor or null for the first page
+     * @param count count
+     * @return groups list
+     * @throws ApiException thrown when API call fails
+     */
+    public GroupsList listGroupsByCursor(String filter, String cursor, Integer count) throws ApiException {
+        return getGroupsApi().listGroups(filter, null, count, cursor == null ? "" : cursor, null, null, null, null, null);
+    }
+
+    /**
+     * Lists groups sorted by an attribute
+     *
+     * @param filter filter
+     * @param startIndex start index
+     * @param count count
+     * @param sortBy attribute to sort by
+     * @param sortOrder sort order or null
+     * @return groups list
+     * @throws ApiException thrown when API call fails
+     */
+    public GroupsList listGroupsSorted(String filter, Integer startIndex, Integer count, String sortBy, String sortOrder) throws ApiException {
+        return getGroupsApi().listGroups(filter, startIndex, count, null, null, null, sortBy, sortOrder, null);
+    }
+
+    /**
+     * Lists groups with attribute projection
+     *
+     * @param filter filter
+     * @param attributes attributes to return or null
+     * @param excludedAttributes attributes to leave out or null
+     * @return groups list
+     * @throws ApiException thrown when API call fails
+     */
+    public GroupsList listGroupsWithAttributes(String filter, String attributes, String excludedAttributes) throws ApiException {
+        return getGroupsApi().listGroups(filter, null, null, null, attributes, excludedAttributes, null, null, null);
+    }
+
+    /**
+     * Lists groups conditionally
+     *
+     * @param filter filter
+     * @param ifNoneMatch If-None-Match header value or null
+     * @return API response with the status code and headers
+     * @throws ApiException thrown when API call fails or list is not modified
+     */
+    public ApiResponse<GroupsList> listGroupsWithHttpInfo(String filter, String ifNoneMatch) throws ApiException {
+        return getGroupsApi().listGroupsWithHttpInfo(filter, null, null, null, null, null, null, null, ifNoneMatch);
     }
 
     /**
@@ -129,7 +278,45 @@ public class ScimClient {
      * @throws ApiException thrown when API call fails
      */
     public Group findGroup(String id) throws ApiException {
-        return getGroupsApi().getGroup(id);
+        return getGroupsApi().getGroup(id, null, null, null, null, null);
+    }
+
+    /**
+     * Finds a group with attribute projection
+     *
+     * @param id group ID
+     * @param attributes attributes to return or null
+     * @param excludedAttributes attributes to leave out or null
+     * @return found group
+     * @throws ApiException thrown when API call fails
+     */
+    public Group findGroup(String id, String attributes, String excludedAttributes) throws ApiException {
+        return getGroupsApi().getGroup(id, attributes, excludedAttributes, null, null, null);
+    }
+
+    /**
+     * Finds a group conditionally
+     *
+     * @param id group ID
+     * @param ifNoneMatch If-None-Match header value or null
+     * @return API response with the status code and headers
+     * @throws ApiException thrown when API call fails or group is not modified
+     */
+    public ApiResponse<Group> findGroupWithHttpInfo(String id, String ifNoneMatch) throws ApiException {
+        return getGroupsApi().getGroupWithHttpInfo(id, null, null, null, null, ifNoneMatch);
+    }
+
+    /**
+     * Finds a group with a range of its members
+     *
+     * @param id group ID
+     * @param membersStartIndex index of the first member to return
+     * @param membersCount number of members to return
+     * @return found group
+     * @throws ApiException thrown when API call fails
+     */
+    public Group findGroupMembers(String id, Integer membersStartIndex, Integer membersCount) throws ApiException {
+        return getGroupsApi().getGroup(id, null, null, membersStartIndex, membersCount, null);
     }
 
     /**
@@ -141,7 +328,7 @@ public class ScimClient {
      * @throws ApiException thrown when API call fails
      */
     public Group updateGroup(String id, Group group) throws ApiException {
-        return getGroupsApi().updateGroup(id, group);
+        return getGroupsApi().updateGroup(id, group, null, null, null);
     }
 
     /**
@@ -153,7 +340,33 @@ public class ScimClient {
      * @throws ApiException thrown when API call fails
      */
     public Group patchGroup(String id, PatchRequest patchRequest) throws ApiException {
-        return getGroupsApi().patchGroup(id, patchRequest);
+        return getGroupsApi().patchGroup(id, patchRequest, null, null, null);
+    }
+
+    /**
+     * Patches a group conditionally
+     *
+     * @param id group ID
+     * @param patchRequest patch request
+     * @param ifMatch If-Match header value
+     * @return API response with the status code and headers
+     * @throws ApiException thrown when API call fails or version does not match
+     */
+    public ApiResponse<Group> patchGroupWithHttpInfo(String id, PatchRequest patchRequest, String ifMatch) throws ApiException {
+        return getGroupsApi().patchGroupWithHttpInfo(id, patchRequest, null, null, ifMatch);
+    }
+
+    /**
+     * Patches a group with attribute projection of the response
+     *
+     * @param id group ID
+     * @param patchRequest patch request
+     * @param excludedAttributes attributes to leave out of the response
+     * @return patched group
+     * @throws ApiException thrown when API call fails
+     */
+    public Group patchGroup(String id, PatchRequest patchRequest, String excludedAttributes) throws ApiException {
+        return getGroupsApi().patchGroup(id, patchRequest, null, excludedAttributes, null);
     }
 
     /**
@@ -163,7 +376,121 @@ public class ScimClient {
      * @throws ApiException thrown when API call fails
      */
     public void deleteGroup(String groupId) throws ApiException {
-        getGroupsApi().deleteGroup(groupId);
+        getGroupsApi().deleteGroup(groupId, null);
+    }
+
+    /**
+     * Runs bulk operations
+     *
+     * @param bulkRequest bulk request
+     * @return bulk response
+     */
+    public BulkResponse bulk(BulkRequest bulkRequest) throws ApiException {
+        return getBulkApi().bulk(bulkRequest);
+    }
+
+    /**
+     * Starts an import job.
+     * <p>
+     * The NDJSON payload is sent as is, as the generated client would encode it as a JSON string.
+     *
+     * @param payload NDJSON payload
+     * @return accepted import job
+     * @throws ApiException thrown when API call fails
+     */
+    public ImportJob startImport(String payload) throws ApiException {
+        HttpRequest request = HttpRequest.newBuilder(scimUri.resolve("Import"))
+            .header("Authorization", "Bearer " + accessToken)
+            .header("Content-Type", "application/x-ndjson")
+            .POST(HttpRequest.BodyPublishers.ofString(payload))
+            .build();
+
+        try (HttpClient httpClient = HttpClient.newHttpClient()) {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 202) {
+                throw new ApiException(response.statusCode(), "startImport call failed with: " + response.statusCode() + " - " + response.body());
+            }
+
+            return getApiClient().getObjectMapper().readValue(response.body(), ImportJob.class);
+        } catch (IOException e) {
+            throw new ApiException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        }
+    }
+
+    /**
+     * Finds an import job
+     *
+     * @param jobId job ID
+     * @return found import job
+     * @throws ApiException thrown when API call fails
+     */
+    public ImportJob findImportJob(String jobId) throws ApiException {
+        return getImportApi().getImportJob(jobId);
+    }
+
+    /**
+     * Exports users and groups
+     * <p>
+     * The NDJSON response is read as is, as the generated client would parse it as a JSON string.
+     *
+     * @param cursor cursor of the last received resource or null to start from the beginning
+     * @return exported resources, one JSON document per line
+     * @throws ApiException thrown when API call fails
+     */
+    public List<String> export(String cursor) throws ApiException {
+        URI uri = scimUri.resolve(cursor != null ? "Export?cursor=" + cursor : "Export");
+        HttpRequest request = HttpRequest.newBuilder(uri)
+            .header("Authorization", "Bearer " + accessToken)
+            .GET()
+            .build();
+
+        try (HttpClient httpClient = HttpClient.newHttpClient()) {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new ApiException(response.statusCode(), "export call failed with: " + response.statusCode() + " - " + response.body());
+            }
+
+            return response.body().lines().toList();
+        } catch (IOException e) {
+            throw new ApiException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        }
+    }
+
+    /**
+     * Compares versions of users known by the client with the server
+     * <p>
+     * The NDJSON payload and response are sent and read as is, as the generated client would encode them as JSON strings.
+     *
+     * @param payload NDJSON records ordered by id
+     * @return differences, one JSON document per line
+     * @throws ApiException thrown when API call fails
+     */
+    public List<String> reconcile(String payload) throws ApiException {
+        HttpRequest request = HttpRequest.newBuilder(scimUri.resolve("Reconcile"))
+            .header("Authorization", "Bearer " + accessToken)
+            .header("Content-Type", "application/x-ndjson")
+            .POST(HttpRequest.BodyPublishers.ofString(payload))
+            .build();
+
+        try (HttpClient httpClient = HttpClient.newHttpClient()) {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new ApiException(response.statusCode(), "reconcile call failed with: " + response.statusCode() + " - " + response.body());
+            }
+
+            return response.body().lines().toList();
+        } catch (IOException e) {
+            throw new ApiException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        }
     }
 
     /**
@@ -231,6 +558,24 @@ public class ScimClient {
         return new GroupsApi(getApiClient());
     }
 
+    /**
+     * Returns initialized bulk API
+     *
+     * @return initialized bulk API
+     */
+    private BulkApi getBulkApi() {
+        return new BulkApi(getApiClient());
+    }
+
+    /**
+     * Returns initialized import API
+     *
+     * @return initialized import API
+     */
+    private ImportApi getImportApi() {
+        return new ImportApi(getApiClient());
+    }
+
     private MetadataApi getMetadataApi() {
         return new MetadataApi(getApiClient());
     }
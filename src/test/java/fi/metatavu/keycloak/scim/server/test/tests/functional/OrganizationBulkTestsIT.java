@@ -0,0 +1,81 @@
+package fi.metatavu.keycloak.scim.server.test.tests.functional;
+
+import fi.metatavu.keycloak.scim.server.test.tests.AbstractOrganizationScimTest;
+import fi.metatavu.keycloak.scim.server.test.ScimClient;
+import fi.metatavu.keycloak.scim.server.test.TestConsts;
+import fi.metatavu.keycloak.scim.server.test.client.ApiException;
+import fi.metatavu.keycloak.scim.server.test.client.model.BulkOperation;
+import fi.metatavu.keycloak.scim.server.test.client.model.BulkOperationResponse;
+import fi.metatavu.keycloak.scim.server.test.client.model.BulkRequest;
+import fi.metatavu.keycloak.scim.server.test.client.model.BulkResponse;
+import jakarta.ws.rs.NotFoundException;
+import org.junit.jupiter.api.Test;
+import org.keycloak.representations.idm.MemberRepresentation;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for SCIM 2.0 Bulk endpoint of organizations
+ */
+@Testcontainers
+public class OrganizationBulkTestsIT extends AbstractOrganizationScimTest {
+
+    @Test
+    void testBulkCreateAndPatchUser() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient(TestConsts.ORGANIZATION_1_ID);
+
+        BulkOperation create = new BulkOperation();
+        create.setMethod("POST");
+        create.setPath("/Users");
+        create.setBulkId("user1");
+        create.setData(Map.of(
+            "schemas", List.of("urn:ietf:params:scim:schemas:core:2.0:User"),
+            "userName", "bulk-org-user",
+            "active", true,
+            "name", Map.of("givenName", "Bulk", "familyName", "User"),
+            "emails", List.of(Map.of("value", "bulk-org-user@example.com", "primary", true))
+        ));
+
+        BulkOperation patch = new BulkOperation();
+        patch.setMethod("PATCH");
+        patch.setPath("/Users/bulkId:user1");
+        patch.setData(Map.of(
+            "schemas", List.of("urn:ietf:params:scim:api:messages:2.0:PatchOp"),
+            "Operations", List.of(Map.of("op", "replace", "path", "name.familyName", "value", "Patched"))
+        ));
+
+        BulkRequest request = new BulkRequest();
+        request.setSchemas(List.of("urn:ietf:params:scim:api:messages:2.0:BulkRequest"));
+        request.setOperations(List.of(create, patch));
+
+        BulkResponse response = scimClient.bulk(request);
+        assertEquals(2, response.getOperations().size());
+
+        BulkOperationResponse created = response.getOperations().get(0);
+        assertEquals("201", created.getStatus());
+        assertNotNull(created.getLocation());
+        assertTrue(created.getLocation().contains(TestConsts.ORGANIZATION_1_ID));
+        assertEquals("200", response.getOperations().get(1).getStatus());
+
+        String userId = created.getLocation().substring(created.getLocation().lastIndexOf('/') + 1);
+
+        try {
+            assertEquals("Patched", findRealmUser(TestConsts.ORGANIZATIONS_REALM, userId).getLastName());
+
+            MemberRepresentation member = findOrganizationMember(TestConsts.ORGANIZATIONS_REALM, TestConsts.ORGANIZATION_1_ID, userId);
+            assertNotNull(member);
+
+            assertThrows(
+                NotFoundException.class,
+                () -> findOrganizationMember(TestConsts.ORGANIZATIONS_REALM, TestConsts.ORGANIZATION_2_ID, userId)
+            );
+        } finally {
+            deleteRealmUser(TestConsts.ORGANIZATIONS_REALM, userId);
+        }
+    }
+
+}
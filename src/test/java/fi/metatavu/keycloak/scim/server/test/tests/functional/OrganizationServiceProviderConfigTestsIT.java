@@ -33,14 +33,14 @@ public class OrganizationServiceProviderConfigTestsIT extends AbstractOrganizati
     private void assertServiceProviderConfig(ServiceProviderConfig config, String organizationId) {
         assertArrayEquals(new String[]{"urn:ietf:params:scim:schemas:core:2.0:ServiceProviderConfig"}, config.getSchemas().toArray());
         assertTrue(config.getPatch().getSupported());
-        assertFalse(config.getBulk().getSupported());
+        assertTrue(config.getBulk().getSupported());
         assertEquals(1000, config.getBulk().getMaxOperations());
         assertEquals(1048576, config.getBulk().getMaxPayloadSize());
         assertTrue(config.getFilter().getSupported());
         assertEquals(200, config.getFilter().getMaxResults());
         assertFalse(config.getChangePassword().getSupported());
-        assertFalse(config.getSort().getSupported());
-        assertFalse(config.getEtag().getSupported());
+        assertTrue(config.getSort().getSupported());
+        assertTrue(config.getEtag().getSupported());
         assertNotNull(config.getAuthenticationSchemes());
         assertEquals(1, config.getAuthenticationSchemes().size());
         assertEquals("OAuth Bearer Token", config.getAuthenticationSchemes().get(0).getName());
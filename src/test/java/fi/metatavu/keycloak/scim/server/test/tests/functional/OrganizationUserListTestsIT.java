@@ -236,7 +236,7 @@ class OrganizationUserListTestsIT extends AbstractOrganizationScimTest {
     ScimClient scimClient = getAuthenticatedScimClient(TestConsts.ORGANIZATION_1_ID);
 
     ApiException exception = assertThrows(ApiException.class, () ->
-            scimClient.listUsers("userName gt \"bob\"", 0, 10)
+            scimClient.listUsers("userName regex \"bob\"", 0, 10)
     );
 
     assertEquals("listUsers call failed with: 400 - Invalid filter", exception.getMessage());
@@ -0,0 +1,203 @@
+package fi.metatavu.keycloak.scim.server.test.tests.functional;
+
+import fi.metatavu.keycloak.scim.server.test.tests.AbstractInternalAuthRealmScimTest;
+import fi.metatavu.keycloak.scim.server.test.ScimClient;
+import fi.metatavu.keycloak.scim.server.test.TestConsts;
+import fi.metatavu.keycloak.scim.server.test.client.ApiException;
+import fi.metatavu.keycloak.scim.server.test.client.model.BulkOperation;
+import fi.metatavu.keycloak.scim.server.test.client.model.BulkOperationResponse;
+import fi.metatavu.keycloak.scim.server.test.client.model.BulkRequest;
+import fi.metatavu.keycloak.scim.server.test.client.model.BulkResponse;
+import fi.metatavu.keycloak.scim.server.test.client.model.Group;
+import org.junit.jupiter.api.Test;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for SCIM 2.0 Bulk endpoint
+ */
+@Testcontainers
+public class RealmBulkTestsIT extends AbstractInternalAuthRealmScimTest {
+
+    @Test
+    void testBulkCreateUserAndGroup() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        // The group refers to the user created by a later operation
+        BulkResponse response = scimClient.bulk(getBulkRequest(null, List.of(
+            getOperation("POST", "/Groups", "group1", Map.of(
+                "schemas", List.of("urn:ietf:params:scim:schemas:core:2.0:Group"),
+                "displayName", "bulk-group",
+                "members", List.of(Map.of("value", "bulkId:user1"))
+            )),
+            getOperation("POST", "/Users", "user1", getUserData("bulk-user"))
+        )));
+
+        assertEquals(List.of("urn:ietf:params:scim:api:messages:2.0:BulkResponse"), response.getSchemas());
+        assertEquals(2, response.getOperations().size());
+
+        BulkOperationResponse groupResult = response.getOperations().get(0);
+        BulkOperationResponse userResult = response.getOperations().get(1);
+        assertEquals("group1", groupResult.getBulkId());
+        assertEquals("201", groupResult.getStatus());
+        assertEquals("user1", userResult.getBulkId());
+        assertEquals("201", userResult.getStatus());
+        assertNotNull(userResult.getVersion());
+
+        String groupId = getId(groupResult);
+        String userId = getId(userResult);
+
+        try {
+            UserRepresentation realmUser = findRealmUser(TestConsts.TEST_REALM, userId);
+            assertEquals("bulk-user", realmUser.getUsername());
+
+            Group group = scimClient.findGroup(groupId);
+            assertEquals("bulk-group", group.getDisplayName());
+            assertNotNull(group.getMembers());
+            assertEquals(1, group.getMembers().size());
+            assertEquals(userId, group.getMembers().getFirst().getValue());
+        } finally {
+            deleteRealmGroup(TestConsts.TEST_REALM, groupId);
+            deleteRealmUser(TestConsts.TEST_REALM, userId);
+        }
+    }
+
+    @Test
+    void testBulkOperationErrors() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        BulkResponse response = scimClient.bulk(getBulkRequest(null, List.of(
+            getOperation("POST", "/Users", "invalid", Map.of("schemas", List.of("urn:ietf:params:scim:schemas:core:2.0:User"))),
+            getOperation("PATCH", "/Users/bulkId:invalid", null, Map.of(
+                "schemas", List.of("urn:ietf:params:scim:api:messages:2.0:PatchOp"),
+                "Operations", List.of(Map.of("op", "replace", "path", "active", "value", false))
+            )),
+            getOperation("DELETE", "/Users/does-not-exist", null, null),
+            getOperation("POST", "/Users", "valid", getUserData("bulk-errors-user"))
+        )));
+
+        assertEquals(4, response.getOperations().size());
+        assertEquals("400", response.getOperations().get(0).getStatus());
+        assertEquals("409", response.getOperations().get(1).getStatus());
+        assertEquals("404", response.getOperations().get(2).getStatus());
+        assertEquals("201", response.getOperations().get(3).getStatus());
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> error = (Map<String, Object>) response.getOperations().get(0).getResponse();
+        assertEquals("Missing userName", error.get("detail"));
+
+        deleteRealmUser(TestConsts.TEST_REALM, getId(response.getOperations().get(3)));
+    }
+
+    @Test
+    void testBulkFailOnErrors() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        BulkResponse response = scimClient.bulk(getBulkRequest(1, List.of(
+            getOperation("POST", "/Users", "invalid", Map.of("schemas", List.of("urn:ietf:params:scim:schemas:core:2.0:User"))),
+            getOperation("POST", "/Users", "skipped", getUserData("bulk-skipped-user"))
+        )));
+
+        assertEquals(1, response.getOperations().size());
+        assertEquals("400", response.getOperations().getFirst().getStatus());
+        assertEquals(0, scimClient.listUsers("userName eq \"bulk-skipped-user\"", 0, 10).getTotalResults());
+    }
+
+    @Test
+    void testBulkTooManyOperations() {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        List<BulkOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 1001; i++) {
+            operations.add(getOperation("DELETE", "/Users/does-not-exist", null, null));
+        }
+
+        ApiException exception = assertThrows(ApiException.class, () -> scimClient.bulk(getBulkRequest(null, operations)));
+        assertEquals(413, exception.getCode());
+    }
+
+    @Test
+    void testBulkPayloadTooLarge() {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        // Few operations, but more than a megabyte of data in total
+        String displayName = "x".repeat(300000);
+        List<BulkOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            operations.add(getOperation("POST", "/Groups", "group-" + i, Map.of(
+                "schemas", List.of("urn:ietf:params:scim:schemas:core:2.0:Group"),
+                "displayName", displayName
+            )));
+        }
+
+        ApiException exception = assertThrows(ApiException.class, () -> scimClient.bulk(getBulkRequest(null, operations)));
+        assertEquals(413, exception.getCode());
+    }
+
+    /**
+     * Returns bulk request
+     *
+     * @param failOnErrors fail on errors or null
+     * @param operations operations
+     * @return bulk request
+     */
+    private BulkRequest getBulkRequest(Integer failOnErrors, List<BulkOperation> operations) {
+        BulkRequest result = new BulkRequest();
+        result.setSchemas(List.of("urn:ietf:params:scim:api:messages:2.0:BulkRequest"));
+        result.setFailOnErrors(failOnErrors);
+        result.setOperations(operations);
+        return result;
+    }
+
+    /**
+     * Returns bulk operation
+     *
+     * @param method method
+     * @param path path
+     * @param bulkId bulk id or null
+     * @param data data or null
+     * @return bulk operation
+     */
+    private BulkOperation getOperation(String method, String path, String bulkId, Object data) {
+        BulkOperation result = new BulkOperation();
+        result.setMethod(method);
+        result.setPath(path);
+        result.setBulkId(bulkId);
+        result.setData(data);
+        return result;
+    }
+
+    /**
+     * Returns data of a user create operation
+     *
+     * @param userName user name
+     * @return user data
+     */
+    private Map<String, Object> getUserData(String userName) {
+        return Map.of(
+            "schemas", List.of("urn:ietf:params:scim:schemas:core:2.0:User"),
+            "userName", userName,
+            "active", true,
+            "name", Map.of("givenName", "Bulk", "familyName", "User"),
+            "emails", List.of(Map.of("value", userName + "@example.com", "primary", true))
+        );
+    }
+
+    /**
+     * Returns id of the resource in the location of an operation result
+     *
+     * @param result operation result
+     * @return resource id
+     */
+    private String getId(BulkOperationResponse result) {
+        assertNotNull(result.getLocation());
+        return result.getLocation().substring(result.getLocation().lastIndexOf('/') + 1);
+    }
+
+}
@@ -0,0 +1,135 @@
+package fi.metatavu.keycloak.scim.server.test.tests.functional;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.metatavu.keycloak.scim.server.export.ExportCursor;
+import fi.metatavu.keycloak.scim.server.test.ScimClient;
+import fi.metatavu.keycloak.scim.server.test.TestConsts;
+import fi.metatavu.keycloak.scim.server.test.client.ApiException;
+import fi.metatavu.keycloak.scim.server.test.client.model.Group;
+import fi.metatavu.keycloak.scim.server.test.client.model.User;
+import fi.metatavu.keycloak.scim.server.test.tests.AbstractInternalAuthRealmScimTest;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for NDJSON export
+ */
+@Testcontainers
+public class RealmExportTestsIT extends AbstractInternalAuthRealmScimTest {
+
+    private static final String USER_SCHEMA = "urn:ietf:params:scim:schemas:core:2.0:User";
+    private static final String GROUP_SCHEMA = "urn:ietf:params:scim:schemas:core:2.0:Group";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testExport() throws ApiException, IOException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+        List<User> users = createUsers(scimClient, "export-user", "Export", "User", 3);
+        Group group = createGroup(scimClient, "export-group");
+
+        try {
+            List<JsonNode> resources = parse(scimClient.export(null));
+
+            List<String> userIds = getIds(resources, USER_SCHEMA);
+            List<String> groupIds = getIds(resources, GROUP_SCHEMA);
+            assertEquals(resources.size(), userIds.size() + groupIds.size());
+
+            for (User user : users) {
+                assertTrue(userIds.contains(user.getId()));
+            }
+
+            assertTrue(groupIds.contains(group.getId()));
+            assertEquals(userIds.stream().sorted().toList(), userIds);
+            assertEquals(groupIds.stream().sorted().toList(), groupIds);
+            assertTrue(resources.getFirst().get("schemas").toString().contains(USER_SCHEMA));
+
+            JsonNode exportedUser = resources.get(userIds.indexOf(users.getFirst().getId()));
+            assertEquals(users.getFirst().getUserName(), exportedUser.get("userName").asText());
+            assertEquals(users.getFirst().getName().getGivenName(), exportedUser.get("name").get("givenName").asText());
+
+            JsonNode exportedGroup = resources.get(userIds.size() + groupIds.indexOf(group.getId()));
+            assertEquals("export-group", exportedGroup.get("displayName").asText());
+        } finally {
+            deleteRealmUsers(TestConsts.TEST_REALM, users);
+            deleteRealmGroup(TestConsts.TEST_REALM, group.getId());
+        }
+    }
+
+    @Test
+    void testExportResume() throws ApiException, IOException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+        List<User> users = createUsers(scimClient, "resume-user", "Resume", "User", 3);
+        Group group = createGroup(scimClient, "resume-group");
+
+        try {
+            List<JsonNode> resources = parse(scimClient.export(null));
+            List<String> userIds = getIds(resources, USER_SCHEMA);
+            List<String> groupIds = getIds(resources, GROUP_SCHEMA);
+
+            String afterUserId = userIds.get(userIds.size() - 2);
+            List<JsonNode> afterUser = parse(scimClient.export(ExportCursor.encode("Users", afterUserId)));
+            assertEquals(List.of(userIds.getLast()), getIds(afterUser, USER_SCHEMA));
+            assertEquals(groupIds, getIds(afterUser, GROUP_SCHEMA));
+
+            List<JsonNode> afterUsers = parse(scimClient.export(ExportCursor.encode("Users", userIds.getLast())));
+            assertEquals(groupIds, getIds(afterUsers, GROUP_SCHEMA));
+            assertTrue(getIds(afterUsers, USER_SCHEMA).isEmpty());
+
+            List<JsonNode> afterGroups = parse(scimClient.export(ExportCursor.encode("Groups", groupIds.getLast())));
+            assertTrue(afterGroups.isEmpty());
+        } finally {
+            deleteRealmUsers(TestConsts.TEST_REALM, users);
+            deleteRealmGroup(TestConsts.TEST_REALM, group.getId());
+        }
+    }
+
+    @Test
+    void testExportInvalidCursor() {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        ApiException invalid = assertThrows(ApiException.class, () -> scimClient.export("not-a-cursor!"));
+        assertEquals(400, invalid.getCode());
+
+        ApiException unknownType = assertThrows(ApiException.class, () -> scimClient.export(ExportCursor.encode("Devices", "1")));
+        assertEquals(400, unknownType.getCode());
+    }
+
+    /**
+     * Parses exported lines
+     *
+     * @param lines exported lines
+     * @return parsed resources
+     * @throws IOException when a line is not valid JSON
+     */
+    private List<JsonNode> parse(List<String> lines) throws IOException {
+        List<JsonNode> result = new ArrayList<>();
+        for (String line : lines) {
+            result.add(objectMapper.readTree(line));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns ids of exported resources with given schema in export order
+     *
+     * @param resources exported resources
+     * @param schema resource schema
+     * @return resource ids
+     */
+    private List<String> getIds(List<JsonNode> resources, String schema) {
+        return resources.stream()
+            .filter(resource -> resource.get("schemas").toString().contains(schema))
+            .map(resource -> resource.get("id").asText())
+            .toList();
+    }
+
+}
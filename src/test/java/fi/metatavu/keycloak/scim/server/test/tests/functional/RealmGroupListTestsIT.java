@@ -4,11 +4,18 @@ import fi.metatavu.keycloak.scim.server.test.tests.AbstractInternalAuthRealmScim
 import fi.metatavu.keycloak.scim.server.test.ScimClient;
 import fi.metatavu.keycloak.scim.server.test.TestConsts;
 import fi.metatavu.keycloak.scim.server.test.client.ApiException;
+import fi.metatavu.keycloak.scim.server.test.client.ApiResponse;
 import fi.metatavu.keycloak.scim.server.test.client.model.Group;
+import fi.metatavu.keycloak.scim.server.test.client.model.GroupMembersInner;
 import fi.metatavu.keycloak.scim.server.test.client.model.GroupsList;
+import fi.metatavu.keycloak.scim.server.test.client.model.User;
+import jakarta.ws.rs.core.Response;
 import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.CreatedResponseUtil;
+import org.keycloak.representations.idm.GroupRepresentation;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -76,6 +83,42 @@ class RealmGroupListTestsIT extends AbstractInternalAuthRealmScimTest {
         }
     }
 
+    @Test
+    void testListGroupsIncludesSubgroups() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+        Group parent = createGroup(scimClient, "parent-group");
+
+        try {
+            GroupRepresentation subgroup = new GroupRepresentation();
+            subgroup.setName("child-group");
+
+            String subgroupId;
+            try (Response response = getKeycloakContainer().getKeycloakAdminClient()
+                .realm(TestConsts.TEST_REALM)
+                .groups()
+                .group(parent.getId())
+                .subGroup(subgroup)) {
+                subgroupId = CreatedResponseUtil.getCreatedId(response);
+            }
+
+            GroupsList groupsList = scimClient.listGroups(null, 0, 10);
+            assertEquals(2, groupsList.getTotalResults());
+            assertEquals(List.of("child-group", "parent-group"), groupsList.getResources().stream().map(Group::getDisplayName).toList());
+
+            GroupsList page = scimClient.listGroups(null, 1, 1);
+            assertEquals(2, page.getTotalResults());
+            assertEquals(1, page.getResources().size());
+            assertEquals(parent.getId(), page.getResources().getFirst().getId());
+
+            GroupsList filtered = scimClient.listGroups("displayName eq \"child-group\"", 0, 10);
+            assertEquals(1, filtered.getTotalResults());
+            assertEquals(subgroupId, filtered.getResources().getFirst().getId());
+            assertEquals(subgroupId, scimClient.findGroup(subgroupId).getId());
+        } finally {
+            deleteGroup(scimClient, parent.getId());
+        }
+    }
+
     @Test
     void testFilterByDisplayNameNoMatch() throws ApiException {
         ScimClient scimClient = getAuthenticatedScimClient();
@@ -188,6 +231,212 @@ class RealmGroupListTestsIT extends AbstractInternalAuthRealmScimTest {
         }
     }
 
+    @Test
+    void testListGroupsIfNoneMatch() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+        Group group = createGroup(scimClient, "etag-group");
+        String filter = "displayName eq \"etag-group\"";
+
+        try {
+            ApiResponse<GroupsList> response = scimClient.listGroupsWithHttpInfo(filter, null);
+            assertEquals(200, response.getStatusCode());
+            String etag = response.getHeaders().get("ETag").getFirst();
+
+            ApiException notModified = assertThrows(ApiException.class, () ->
+                scimClient.listGroupsWithHttpInfo(filter, etag)
+            );
+            assertEquals(304, notModified.getCode());
+
+            // Updating a listed group bumps its version and changes the tag of the list
+            scimClient.updateGroup(group.getId(), group);
+
+            ApiResponse<GroupsList> modified = scimClient.listGroupsWithHttpInfo(filter, etag);
+            assertEquals(200, modified.getStatusCode());
+            assertNotEquals(etag, modified.getHeaders().get("ETag").getFirst());
+        } finally {
+            deleteGroup(scimClient, group.getId());
+        }
+    }
+
+    @Test
+    void testCursorPagination() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+        List<Group> createdGroups = new ArrayList<>();
+
+        try {
+            for (int i = 1; i <= 5; i++) {
+                createdGroups.add(createGroup(scimClient, "cursor-group-" + i));
+            }
+
+            List<String> listedIds = new ArrayList<>();
+            String cursor = null;
+            int pages = 0;
+
+            do {
+                GroupsList page = scimClient.listGroupsByCursor(null, cursor, 2);
+                assertEquals(5, page.getTotalResults());
+                assertNull(page.getStartIndex());
+                assertNotNull(page.getResources());
+                assertTrue(page.getResources().size() <= 2);
+
+                page.getResources().forEach(group -> listedIds.add(group.getId()));
+                cursor = page.getNextCursor();
+                pages++;
+            } while (cursor != null);
+
+            assertEquals(3, pages);
+            assertEquals(5, listedIds.size());
+            assertEquals(createdGroups.stream().map(Group::getId).sorted().toList(), listedIds);
+        } finally {
+            for (Group group : createdGroups) {
+                deleteGroup(scimClient, group.getId());
+            }
+        }
+    }
+
+    @Test
+    void testInvalidCursor() {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        ApiException exception = assertThrows(ApiException.class, () ->
+                scimClient.listGroupsByCursor(null, "not a cursor!", 2)
+        );
+
+        assertEquals("listGroups call failed with: 400 - Invalid cursor", exception.getMessage());
+    }
+
+    @Test
+    void testSortGroups() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+        List<Group> createdGroups = new ArrayList<>();
+
+        try {
+            createdGroups.add(createGroup(scimClient, "sorted-group-b"));
+            createdGroups.add(createGroup(scimClient, "Sorted-group-c"));
+            createdGroups.add(createGroup(scimClient, "sorted-group-a"));
+
+            GroupsList ascending = scimClient.listGroupsSorted(null, 0, 10, "displayName", "ascending");
+            assertEquals(3, ascending.getTotalResults());
+            assertEquals(
+                List.of("sorted-group-a", "sorted-group-b", "Sorted-group-c"),
+                ascending.getResources().stream().map(Group::getDisplayName).toList()
+            );
+
+            // Sorting is applied before paging
+            GroupsList descending = scimClient.listGroupsSorted(null, 1, 1, "displayName", "descending");
+            assertEquals(3, descending.getTotalResults());
+            assertEquals("sorted-group-b", descending.getResources().getFirst().getDisplayName());
+        } finally {
+            for (Group group : createdGroups) {
+                deleteGroup(scimClient, group.getId());
+            }
+        }
+    }
+
+    @Test
+    void testInvalidSort() {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        ApiException exception = assertThrows(ApiException.class, () ->
+                scimClient.listGroupsSorted(null, 0, 10, "members", null)
+        );
+
+        assertEquals("listGroups call failed with: 400 - Invalid sortBy", exception.getMessage());
+    }
+
+    @Test
+    void testExcludedAttributes() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+        User user = createUser(scimClient, "projection-user", "Projection", "User");
+
+        Group group = new Group();
+        group.setDisplayName("projection-group");
+        group.setSchemas(Collections.singletonList("urn:ietf:params:scim:schemas:core:2.0:Group"));
+        group.setMembers(List.of(new GroupMembersInner().value(user.getId())));
+        Group created = scimClient.createGroup(group);
+
+        try {
+            assertEquals(1, created.getMembers().size());
+
+            GroupsList groupsList = scimClient.listGroupsWithAttributes(null, null, "members");
+            assertEquals(1, groupsList.getTotalResults());
+            Group listed = groupsList.getResources().getFirst();
+            assertEquals(created.getId(), listed.getId());
+            assertEquals("projection-group", listed.getDisplayName());
+            assertTrue(listed.getMembers() == null || listed.getMembers().isEmpty());
+
+            Group found = scimClient.findGroup(created.getId(), null, "members");
+            assertEquals("projection-group", found.getDisplayName());
+            assertTrue(found.getMembers() == null || found.getMembers().isEmpty());
+            assertNotNull(found.getMeta());
+        } finally {
+            deleteGroup(scimClient, created.getId());
+            deleteRealmUser(TestConsts.TEST_REALM, user.getId());
+        }
+    }
+
+    @Test
+    void testAttributes() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+        Group group = createGroup(scimClient, "attributes-group");
+
+        try {
+            Group found = scimClient.findGroup(group.getId(), "displayName", null);
+            assertEquals(group.getId(), found.getId());
+            assertEquals("attributes-group", found.getDisplayName());
+            assertNull(found.getMeta());
+        } finally {
+            deleteGroup(scimClient, group.getId());
+        }
+    }
+
+    @Test
+    void testAttributesAndExcludedAttributes() {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        ApiException exception = assertThrows(ApiException.class, () ->
+                scimClient.listGroupsWithAttributes(null, "displayName", "members")
+        );
+
+        assertEquals("listGroups call failed with: 400 - Invalid attributes", exception.getMessage());
+    }
+
+    @Test
+    void testFilterByLastModified() throws ApiException, InterruptedException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        Group group1 = createGroup(scimClient, "unchanged-group");
+        String before = Instant.now().plusMillis(1).toString();
+        Thread.sleep(10);
+        Group group2 = createGroup(scimClient, "changed-group");
+
+        try {
+
+            GroupsList groupsList = scimClient.listGroups(String.format("meta.lastModified gt \"%s\"", before), 0, 10);
+            assertEquals(1, groupsList.getTotalResults());
+            assertEquals(group2.getId(), groupsList.getResources().getFirst().getId());
+
+            GroupsList named = scimClient.listGroups(String.format("meta.lastModified ge \"%s\" and displayName eq \"unchanged-group\"", before), 0, 10);
+            assertEquals(0, named.getTotalResults());
+
+            assertEquals(2, scimClient.listGroups("meta.lastModified gt \"2000-01-01T00:00:00Z\"", 0, 10).getTotalResults());
+        } finally {
+            deleteGroup(scimClient, group1.getId());
+            deleteGroup(scimClient, group2.getId());
+        }
+    }
+
+    @Test
+    void testInvalidFilterLastModified() {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        ApiException exception = assertThrows(ApiException.class, () ->
+                scimClient.listGroups("meta.lastModified gt \"yesterday\"", 0, 10)
+        );
+
+        assertEquals("listGroups call failed with: 400 - Invalid filter", exception.getMessage());
+    }
+
     @Test
     void testInvalidFilterMissingOperator() throws ApiException {
         ScimClient scimClient = getAuthenticatedScimClient();
@@ -4,6 +4,7 @@ import fi.metatavu.keycloak.scim.server.test.tests.AbstractInternalAuthRealmScim
 import fi.metatavu.keycloak.scim.server.test.ScimClient;
 import fi.metatavu.keycloak.scim.server.test.TestConsts;
 import fi.metatavu.keycloak.scim.server.test.client.ApiException;
+import fi.metatavu.keycloak.scim.server.test.client.ApiResponse;
 import fi.metatavu.keycloak.scim.server.test.client.model.*;
 import org.junit.jupiter.api.Test;
 import org.keycloak.events.admin.AdminEvent;
@@ -12,6 +13,7 @@ import org.keycloak.events.admin.ResourceType;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -208,4 +210,169 @@ public class RealmGroupPatchTestsIT extends AbstractInternalAuthRealmScimTest {
         deleteRealmUser(TestConsts.TEST_REALM, user.getId());
         deleteRealmGroup(TestConsts.TEST_REALM, group.getId());
     }
+
+    @Test
+    void testPatchResponseWithoutMembers() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        User user = createUser(scimClient, "excluded-members-user", "Excluded", "User");
+        Group group = createGroup(scimClient, "excluded-members-group");
+
+        PatchRequest patchRequest = new PatchRequest();
+        patchRequest.setSchemas(List.of("urn:ietf:params:scim:api:messages:2.0:PatchOp"));
+
+        PatchRequestOperationsInner operation = new PatchRequestOperationsInner();
+        operation.setOp("add");
+        operation.setPath("members");
+
+        GroupMembersInner member = new GroupMembersInner();
+        member.setValue(user.getId());
+        operation.setValue(Collections.singletonList(member));
+
+        patchRequest.setOperations(List.of(operation));
+
+        Group patched = scimClient.patchGroup(group.getId(), patchRequest, "members");
+        assertEquals(group.getId(), patched.getId());
+        assertEquals("excluded-members-group", patched.getDisplayName());
+        assertTrue(patched.getMembers() == null || patched.getMembers().isEmpty());
+
+        // The member was still added
+        Group found = scimClient.findGroup(group.getId());
+        assertEquals(1, found.getMembers().size());
+        assertEquals(user.getId(), found.getMembers().getFirst().getValue());
+
+        // Clean up
+        deleteRealmUser(TestConsts.TEST_REALM, user.getId());
+        deleteRealmGroup(TestConsts.TEST_REALM, group.getId());
+    }
+
+    @Test
+    void testReplaceGroupMembers() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        List<User> users = createUsers(scimClient, "replace-user", "Replace", "User", 3);
+        Group group = createGroup(scimClient, "replace-members-group");
+
+        scimClient.patchGroup(group.getId(), getMembersPatchRequest("add", users.subList(0, 2)));
+        Group patched = scimClient.patchGroup(group.getId(), getMembersPatchRequest("replace", users.subList(2, 3)));
+
+        assertEquals(1, patched.getMembers().size());
+        assertEquals(users.get(2).getId(), patched.getMembers().getFirst().getValue());
+
+        // Clean up
+        deleteRealmUsers(TestConsts.TEST_REALM, users);
+        deleteRealmGroup(TestConsts.TEST_REALM, group.getId());
+    }
+
+    @Test
+    void testGroupMemberPaging() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        List<User> users = createUsers(scimClient, "paged-member", "Paged", "Member", 3);
+        Group group = createGroup(scimClient, "paged-members-group");
+
+        scimClient.patchGroup(group.getId(), getMembersPatchRequest("add", users));
+
+        Group all = scimClient.findGroup(group.getId());
+        assertEquals(3, all.getMembers().size());
+
+        Group firstPage = scimClient.findGroupMembers(group.getId(), 0, 2);
+        assertEquals(2, firstPage.getMembers().size());
+
+        Group secondPage = scimClient.findGroupMembers(group.getId(), 2, 2);
+        assertEquals(1, secondPage.getMembers().size());
+
+        List<String> pagedIds = new ArrayList<>();
+        firstPage.getMembers().forEach(member -> pagedIds.add(member.getValue()));
+        secondPage.getMembers().forEach(member -> pagedIds.add(member.getValue()));
+
+        assertEquals(
+            all.getMembers().stream().map(GroupMembersInner::getValue).sorted().toList(),
+            pagedIds.stream().sorted().toList()
+        );
+
+        // Clean up
+        deleteRealmUsers(TestConsts.TEST_REALM, users);
+        deleteRealmGroup(TestConsts.TEST_REALM, group.getId());
+    }
+
+    @Test
+    void testPatchGroupIfMatch() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        User user = createUser(scimClient, "if-match-member", "IfMatch", "Member");
+        Group group = createGroup(scimClient, "if-match-group");
+        String version = group.getMeta().getVersion();
+
+        ApiResponse<Group> response = scimClient.patchGroupWithHttpInfo(group.getId(), getMembersPatchRequest("add", List.of(user)), version);
+        String etag = response.getHeaders().get("ETag").getFirst();
+        assertNotEquals(version, etag);
+
+        // Second writer based on the same version is rejected and the membership is not changed
+        ApiException exception = assertThrows(ApiException.class, () ->
+            scimClient.patchGroupWithHttpInfo(group.getId(), getMembersPatchRequest("remove", List.of(user)), version)
+        );
+        assertEquals(412, exception.getCode());
+
+        Group found = scimClient.findGroup(group.getId());
+        assertEquals(etag, found.getMeta().getVersion());
+        assertEquals(1, found.getMembers().size());
+
+        // Clean up
+        deleteRealmUser(TestConsts.TEST_REALM, user.getId());
+        deleteRealmGroup(TestConsts.TEST_REALM, group.getId());
+    }
+
+    @Test
+    void testGroupVersionFollowsMembers() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        User user = createUser(scimClient, "version-member", "Version", "Member");
+        Group group = createGroup(scimClient, "version-group");
+
+        Group patched = scimClient.patchGroup(group.getId(), getMembersPatchRequest("add", List.of(user)));
+        String version = patched.getMeta().getVersion();
+
+        // Renaming a member changes the member display of the group
+        user.setUserName("version-member-renamed");
+        scimClient.updateUser(user.getId(), user);
+
+        Group renamed = scimClient.findGroup(group.getId());
+        assertNotEquals(version, renamed.getMeta().getVersion());
+        assertEquals("version-member-renamed", renamed.getMembers().getFirst().getDisplay());
+
+        // Deleting a member removes it from the group
+        scimClient.deleteUser(user.getId());
+
+        Group deleted = scimClient.findGroup(group.getId());
+        assertNotEquals(renamed.getMeta().getVersion(), deleted.getMeta().getVersion());
+        assertTrue(deleted.getMembers() == null || deleted.getMembers().isEmpty());
+
+        // Clean up
+        deleteRealmGroup(TestConsts.TEST_REALM, group.getId());
+    }
+
+    /**
+     * Creates a patch request for group members
+     *
+     * @param op patch operation
+     * @param users users
+     * @return patch request
+     */
+    private PatchRequest getMembersPatchRequest(String op, List<User> users) {
+        PatchRequest patchRequest = new PatchRequest();
+        patchRequest.setSchemas(List.of("urn:ietf:params:scim:api:messages:2.0:PatchOp"));
+
+        PatchRequestOperationsInner operation = new PatchRequestOperationsInner();
+        operation.setOp(op);
+        operation.setPath("members");
+        operation.setValue(users.stream()
+            .map(user -> new GroupMembersInner().value(user.getId()))
+            .toList()
+        );
+
+        patchRequest.setOperations(List.of(operation));
+
+        return patchRequest;
+    }
 }
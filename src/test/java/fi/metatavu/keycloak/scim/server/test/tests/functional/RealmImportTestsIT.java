@@ -0,0 +1,99 @@
+package fi.metatavu.keycloak.scim.server.test.tests.functional;
+
+import fi.metatavu.keycloak.scim.server.test.tests.AbstractInternalAuthRealmScimTest;
+import fi.metatavu.keycloak.scim.server.test.ScimClient;
+import fi.metatavu.keycloak.scim.server.test.TestConsts;
+import fi.metatavu.keycloak.scim.server.test.client.ApiException;
+import fi.metatavu.keycloak.scim.server.test.client.model.Group;
+import fi.metatavu.keycloak.scim.server.test.client.model.ImportError;
+import fi.metatavu.keycloak.scim.server.test.client.model.ImportJob;
+import fi.metatavu.keycloak.scim.server.test.client.model.User;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for NDJSON import jobs
+ */
+@Testcontainers
+public class RealmImportTestsIT extends AbstractInternalAuthRealmScimTest {
+
+    @Test
+    void testImport() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        String payload = String.join("\n",
+            getUserRecord("import-user-1"),
+            getUserRecord("import-user-2"),
+            "{ not json",
+            "",
+            getUserRecord("import-user-1"),
+            "{\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:Group\"],\"displayName\":\"import-group\"}",
+            "{\"schemas\":[\"urn:example:Unknown\"]}"
+        );
+
+        ImportJob accepted = scimClient.startImport(payload);
+        assertNotNull(accepted.getId());
+
+        await()
+            .atMost(Duration.ofMinutes(1))
+            .until(() -> {
+                String status = scimClient.findImportJob(accepted.getId()).getStatus();
+                return "COMPLETED".equals(status) || "FAILED".equals(status);
+            });
+
+        ImportJob job = scimClient.findImportJob(accepted.getId());
+        assertEquals("COMPLETED", job.getStatus());
+        assertEquals(3, job.getSucceeded());
+        assertEquals(3, job.getFailed());
+
+        List<ImportError> errors = job.getErrors();
+        assertEquals(3, errors.size());
+        assertEquals(3L, errors.get(0).getLine());
+        assertEquals("400", errors.get(0).getStatus());
+        assertEquals(7L, errors.get(1).getLine());
+        assertEquals("400", errors.get(1).getStatus());
+        assertEquals(5L, errors.get(2).getLine());
+        assertEquals("409", errors.get(2).getStatus());
+
+        List<User> users = scimClient.listUsers("userName sw \"import-user-\"", 0, 10).getResources();
+        assertEquals(2, users.size());
+
+        List<Group> groups = scimClient.listGroups("displayName eq \"import-group\"", 0, 10).getResources();
+        assertEquals(1, groups.size());
+
+        for (User user : users) {
+            deleteRealmUser(TestConsts.TEST_REALM, user.getId());
+        }
+
+        deleteRealmGroup(TestConsts.TEST_REALM, groups.getFirst().getId());
+    }
+
+    @Test
+    void testImportJobNotFound() {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        ApiException exception = assertThrows(ApiException.class, () -> scimClient.findImportJob("00000000-0000-0000-0000-000000000000"));
+        assertEquals(404, exception.getCode());
+    }
+
+    /**
+     * Returns NDJSON record of a user
+     *
+     * @param userName user name
+     * @return user record
+     */
+    private String getUserRecord(String userName) {
+        return String.format(
+            "{\"schemas\":[\"urn:ietf:params:scim:schemas:core:2.0:User\"],\"userName\":\"%1$s\",\"active\":true," +
+            "\"name\":{\"givenName\":\"Import\",\"familyName\":\"User\"},\"emails\":[{\"value\":\"%1$s@example.com\",\"primary\":true}]}",
+            userName
+        );
+    }
+
+}
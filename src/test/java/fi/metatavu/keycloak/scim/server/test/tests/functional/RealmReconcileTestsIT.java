@@ -0,0 +1,184 @@
+package fi.metatavu.keycloak.scim.server.test.tests.functional;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.metatavu.keycloak.scim.server.test.ScimClient;
+import fi.metatavu.keycloak.scim.server.test.TestConsts;
+import fi.metatavu.keycloak.scim.server.test.client.ApiException;
+import fi.metatavu.keycloak.scim.server.test.client.model.User;
+import fi.metatavu.keycloak.scim.server.test.tests.AbstractInternalAuthRealmScimTest;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.representations.idm.PartialImportRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for user reconciliation
+ */
+@Testcontainers
+public class RealmReconcileTestsIT extends AbstractInternalAuthRealmScimTest {
+
+    private static final String USER_SCHEMA = "urn:ietf:params:scim:schemas:core:2.0:User";
+    private static final String MISSING_ID = "ffffffff-ffff-ffff-ffff-ffffffffffff";
+    private static final String IMPORTED_ID = "Imported-User";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testReconcile() throws ApiException, IOException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+        List<User> users = createUsers(scimClient, "reconcile-user", "Reconcile", "User", 3);
+        String extraId = users.get(0).getId();
+        String changedId = users.get(1).getId();
+
+        try {
+            List<String> records = new ArrayList<>();
+            for (String line : scimClient.export(null)) {
+                JsonNode resource = objectMapper.readTree(line);
+                if (!resource.get("schemas").toString().contains(USER_SCHEMA)) {
+                    continue;
+                }
+
+                String id = resource.get("id").asText();
+                if (id.equals(extraId)) {
+                    continue;
+                }
+
+                String version = id.equals(changedId) ? "W/\"-1\"" : resource.get("meta").get("version").asText();
+                records.add(getRecord(id, version));
+            }
+
+            records.add(getRecord(MISSING_ID, null));
+
+            List<JsonNode> differences = parse(scimClient.reconcile(String.join("\n", records)));
+            assertEquals(3, differences.size());
+
+            Set<String> ids = differences.stream().map(difference -> difference.get("id").asText()).collect(Collectors.toSet());
+            assertEquals(Set.of(extraId, changedId, MISSING_ID), ids);
+
+            for (JsonNode difference : differences) {
+                String id = difference.get("id").asText();
+                String status = difference.get("status").asText();
+
+                if (id.equals(extraId)) {
+                    assertEquals("extra", status);
+                    assertNotNull(difference.get("version"));
+                } else if (id.equals(changedId)) {
+                    assertEquals("changed", status);
+                    assertNotEquals("W/\"-1\"", difference.get("version").asText());
+                } else {
+                    assertEquals("missing", status);
+                    assertNull(difference.get("version"));
+                }
+            }
+        } finally {
+            deleteRealmUsers(TestConsts.TEST_REALM, users);
+        }
+    }
+
+    @Test
+    void testReconcileNonUuidId() throws ApiException, IOException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+        RealmResource realm = getKeycloakContainer().getKeycloakAdminClient().realm(TestConsts.TEST_REALM);
+
+        // Imported users keep their ids, so the ids are not necessarily lowercase UUIDs
+        UserRepresentation user = new UserRepresentation();
+        user.setId(IMPORTED_ID);
+        user.setUsername("reconcile-imported");
+        user.setEnabled(true);
+        user.setRealmRoles(List.of("scim-managed"));
+
+        PartialImportRepresentation partialImport = new PartialImportRepresentation();
+        partialImport.setIfResourceExists(PartialImportRepresentation.Policy.FAIL.name());
+        partialImport.setUsers(List.of(user));
+        realm.partialImport(partialImport).close();
+
+        try {
+            Map<String, String> versions = new TreeMap<>();
+            for (String line : scimClient.export(null)) {
+                JsonNode resource = objectMapper.readTree(line);
+                if (resource.get("schemas").toString().contains(USER_SCHEMA)) {
+                    versions.put(resource.get("id").asText(), resource.get("meta").get("version").asText());
+                }
+            }
+
+            assertTrue(versions.containsKey(IMPORTED_ID));
+
+            List<String> records = new ArrayList<>();
+            for (Map.Entry<String, String> entry : versions.entrySet()) {
+                records.add(getRecord(entry.getKey(), entry.getValue()));
+            }
+
+            assertEquals(List.of(), parse(scimClient.reconcile(String.join("\n", records))));
+
+            records.remove(getRecord(IMPORTED_ID, versions.get(IMPORTED_ID)));
+            List<JsonNode> differences = parse(scimClient.reconcile(String.join("\n", records)));
+            assertEquals(1, differences.size());
+            assertEquals(IMPORTED_ID, differences.getFirst().get("id").asText());
+            assertEquals("extra", differences.getFirst().get("status").asText());
+        } finally {
+            deleteRealmUser(TestConsts.TEST_REALM, IMPORTED_ID);
+        }
+    }
+
+    @Test
+    void testReconcileUnorderedRecords() throws ApiException, IOException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        String payload = String.join("\n",
+            getRecord(MISSING_ID, null),
+            "",
+            getRecord("00000000-0000-0000-0000-000000000000", null)
+        );
+
+        List<JsonNode> differences = parse(scimClient.reconcile(payload));
+        JsonNode error = differences.getLast();
+        assertEquals("error", error.get("status").asText());
+        assertEquals(3, error.get("line").asLong());
+        assertEquals("Records are not ordered by id", error.get("detail").asText());
+    }
+
+    /**
+     * Returns NDJSON record of a user
+     *
+     * @param id user id
+     * @param version user version or null
+     * @return record
+     * @throws IOException when the record cannot be serialized
+     */
+    private String getRecord(String id, String version) throws IOException {
+        if (version == null) {
+            return objectMapper.writeValueAsString(objectMapper.createObjectNode().put("id", id));
+        }
+
+        return objectMapper.writeValueAsString(objectMapper.createObjectNode().put("id", id).put("version", version));
+    }
+
+    /**
+     * Parses response lines
+     *
+     * @param lines response lines
+     * @return parsed lines
+     * @throws IOException when a line is not valid JSON
+     */
+    private List<JsonNode> parse(List<String> lines) throws IOException {
+        List<JsonNode> result = new ArrayList<>();
+        for (String line : lines) {
+            result.add(objectMapper.readTree(line));
+        }
+
+        return result;
+    }
+
+}
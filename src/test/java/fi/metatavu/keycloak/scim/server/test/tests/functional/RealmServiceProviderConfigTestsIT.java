@@ -33,7 +33,7 @@ public class RealmServiceProviderConfigTestsIT extends AbstractInternalAuthRealm
         assertTrue(config.getPatch().getSupported());
 
         assertNotNull(config.getBulk());
-        assertFalse(config.getBulk().getSupported());
+        assertTrue(config.getBulk().getSupported());
         assertEquals(1000, config.getBulk().getMaxOperations());
         assertEquals(1048576, config.getBulk().getMaxPayloadSize());
 
@@ -45,10 +45,10 @@ public class RealmServiceProviderConfigTestsIT extends AbstractInternalAuthRealm
         assertFalse(config.getChangePassword().getSupported());
 
         assertNotNull(config.getSort());
-        assertFalse(config.getSort().getSupported());
+        assertTrue(config.getSort().getSupported());
 
         assertNotNull(config.getEtag());
-        assertFalse(config.getEtag().getSupported());
+        assertTrue(config.getEtag().getSupported());
 
         assertNotNull(config.getAuthenticationSchemes());
         assertEquals(1, config.getAuthenticationSchemes().size());
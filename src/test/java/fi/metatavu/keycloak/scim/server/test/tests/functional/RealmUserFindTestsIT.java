@@ -4,6 +4,7 @@ import fi.metatavu.keycloak.scim.server.test.tests.AbstractInternalAuthRealmScim
 import fi.metatavu.keycloak.scim.server.test.ScimClient;
 import fi.metatavu.keycloak.scim.server.test.TestConsts;
 import fi.metatavu.keycloak.scim.server.test.client.ApiException;
+import fi.metatavu.keycloak.scim.server.test.client.ApiResponse;
 import fi.metatavu.keycloak.scim.server.test.client.model.User;
 import org.junit.jupiter.api.Test;
 import org.testcontainers.junit.jupiter.Testcontainers;
@@ -49,6 +50,43 @@ public class RealmUserFindTestsIT extends AbstractInternalAuthRealmScimTest {
         deleteRealmUser(TestConsts.TEST_REALM, userId);
     }
 
+    @Test
+    void testFindUserIfNoneMatch() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        User user = new User();
+        user.setUserName("find-conditional");
+        user.setActive(true);
+        user.setSchemas(List.of("urn:ietf:params:scim:schemas:core:2.0:User"));
+        user.setName(getName("Find", "Conditional"));
+        user.setEmails(getEmails("find.conditional@example.com"));
+
+        User created = scimClient.createUser(user);
+        String userId = created.getId();
+
+        // Entity tag equals the version of the resource
+        ApiResponse<User> response = scimClient.findUserWithHttpInfo(userId, null);
+        assertEquals(200, response.getStatusCode());
+        String etag = response.getHeaders().get("ETag").getFirst();
+        assertEquals(created.getMeta().getVersion(), etag);
+
+        // Matching tag returns 304 Not Modified
+        ApiException notModified = assertThrows(ApiException.class, () ->
+                scimClient.findUserWithHttpInfo(userId, etag)
+        );
+        assertEquals(304, notModified.getCode());
+
+        // Tag of a modified user does not match
+        created.setName(getName("Find", "Changed"));
+        scimClient.updateUser(userId, created);
+
+        ApiResponse<User> modified = scimClient.findUserWithHttpInfo(userId, etag);
+        assertEquals(200, modified.getStatusCode());
+        assertNotEquals(etag, modified.getHeaders().get("ETag").getFirst());
+
+        deleteRealmUser(TestConsts.TEST_REALM, userId);
+    }
+
     @Test
     void testFindUserNotFound() {
         ScimClient scimClient = getAuthenticatedScimClient();
@@ -0,0 +1,168 @@
+package fi.metatavu.keycloak.scim.server.test.tests.functional;
+
+import fi.metatavu.keycloak.scim.server.test.ScimClient;
+import fi.metatavu.keycloak.scim.server.test.TestConsts;
+import fi.metatavu.keycloak.scim.server.test.client.ApiException;
+import fi.metatavu.keycloak.scim.server.test.client.model.User;
+import fi.metatavu.keycloak.scim.server.test.client.model.UsersList;
+import fi.metatavu.keycloak.scim.server.test.tests.AbstractInternalAuthRealmScimTest;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.CreatedResponseUtil;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.RealmRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for SCIM 2.0 User list endpoint with the ROLE_MEMBERS listing strategy
+ */
+@Testcontainers
+class RealmUserListRoleMembersTestsIT extends AbstractInternalAuthRealmScimTest {
+
+  @BeforeEach
+  void setRoleMembersStrategy() {
+    setUserListingStrategy("ROLE_MEMBERS");
+  }
+
+  @AfterEach
+  void resetListingStrategy() {
+    setUserListingStrategy("SEARCH");
+  }
+
+  @Test
+  void testPagination() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+    List<User> users = createUsers(scimClient, "role-members-user", "RoleMembers", "User", 5);
+
+    try {
+      UsersList page1 = scimClient.listUsers("name.givenName sw \"RoleMembers\"", 0, 2);
+      assertEquals(5, page1.getTotalResults());
+      assertEquals(2, page1.getResources().size());
+
+      UsersList page2 = scimClient.listUsers("name.givenName sw \"RoleMembers\"", 2, 2);
+      assertEquals(5, page2.getTotalResults());
+      assertEquals(2, page2.getResources().size());
+
+      UsersList page3 = scimClient.listUsers("name.givenName sw \"RoleMembers\"", 4, 2);
+      assertEquals(5, page3.getTotalResults());
+      assertEquals(1, page3.getResources().size());
+
+      List<String> userNames = new ArrayList<>();
+      for (UsersList page : List.of(page1, page2, page3)) {
+        page.getResources().forEach(user -> userNames.add(user.getUserName()));
+      }
+
+      assertEquals(users.stream().map(User::getUserName).sorted().toList(), userNames);
+    } finally {
+      deleteRealmUsers(TestConsts.TEST_REALM, users);
+    }
+  }
+
+  @Test
+  void testFilters() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+    List<User> users = createUsers(scimClient, "role-members-filter", "RoleMembersFilter", "User", 3);
+
+    try {
+      UsersList pushedDown = scimClient.listUsers("userName eq \"role-members-filter-1\"", 0, 10);
+      assertEquals(1, pushedDown.getTotalResults());
+      assertEquals("role-members-filter-1", pushedDown.getResources().getFirst().getUserName());
+
+      UsersList inMemory = scimClient.listUsers("userName ew \"filter-0\" or userName ew \"filter-2\"", 0, 1);
+      assertEquals(2, inMemory.getTotalResults());
+      assertEquals(1, inMemory.getResources().size());
+      assertEquals("role-members-filter-0", inMemory.getResources().getFirst().getUserName());
+
+      UsersList noMatch = scimClient.listUsers("userName eq \"role-members-filter-9\"", 0, 10);
+      assertEquals(0, noMatch.getTotalResults());
+    } finally {
+      deleteRealmUsers(TestConsts.TEST_REALM, users);
+    }
+  }
+
+  @Test
+  void testCursorPagination() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+    List<User> users = createUsers(scimClient, "role-members-cursor", "RoleMembersCursor", "User", 3);
+
+    try {
+      UsersList first = scimClient.listUsersByCursor("name.givenName sw \"RoleMembersCursor\"", null, 2);
+      assertEquals(3, first.getTotalResults());
+      assertEquals(2, first.getResources().size());
+      assertNotNull(first.getNextCursor());
+
+      UsersList second = scimClient.listUsersByCursor("name.givenName sw \"RoleMembersCursor\"", first.getNextCursor(), 2);
+      assertEquals(3, second.getTotalResults());
+      assertEquals(1, second.getResources().size());
+      assertNull(second.getNextCursor());
+    } finally {
+      deleteRealmUsers(TestConsts.TEST_REALM, users);
+    }
+  }
+
+  @Test
+  void testRoleFromGroupIsNotListed() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+    RealmResource realm = getKeycloakContainer().getKeycloakAdminClient().realm(TestConsts.TEST_REALM);
+
+    GroupRepresentation group = new GroupRepresentation();
+    group.setName("role-members-group");
+    String groupId;
+    try (Response response = realm.groups().add(group)) {
+      groupId = CreatedResponseUtil.getCreatedId(response);
+    }
+
+    realm.groups().group(groupId).roles().realmLevel().add(List.of(realm.roles().get("scim-managed").toRepresentation()));
+
+    UserRepresentation user = new UserRepresentation();
+    user.setUsername("role-members-inherited");
+    user.setEnabled(true);
+    String userId;
+    try (Response response = realm.users().create(user)) {
+      userId = CreatedResponseUtil.getCreatedId(response);
+    }
+
+    realm.users().get(userId).joinGroup(groupId);
+
+    try {
+      UsersList usersList = scimClient.listUsers("userName eq \"role-members-inherited\"", 0, 10);
+      assertEquals(0, usersList.getTotalResults());
+      assertTrue(usersList.getResources() == null || usersList.getResources().isEmpty());
+
+      UsersList allUsers = scimClient.listUsers(null, 0, 10);
+      assertEquals(1, allUsers.getTotalResults());
+      assertEquals("testadmin", allUsers.getResources().getFirst().getUserName());
+    } finally {
+      deleteRealmUser(TestConsts.TEST_REALM, userId);
+      deleteRealmGroup(TestConsts.TEST_REALM, groupId);
+    }
+  }
+
+  /**
+   * Sets the user listing strategy of the test realm
+   *
+   * @param strategy listing strategy
+   */
+  private void setUserListingStrategy(String strategy) {
+    RealmResource realm = getKeycloakContainer().getKeycloakAdminClient().realm(TestConsts.TEST_REALM);
+    RealmRepresentation representation = realm.toRepresentation();
+
+    Map<String, String> attributes = representation.getAttributes() != null ? new HashMap<>(representation.getAttributes()) : new HashMap<>();
+    attributes.put("scim.user.listing.strategy", strategy);
+    representation.setAttributes(attributes);
+
+    realm.update(representation);
+  }
+
+}
@@ -6,10 +6,17 @@ import fi.metatavu.keycloak.scim.server.test.TestConsts;
 import fi.metatavu.keycloak.scim.server.test.client.ApiException;
 import fi.metatavu.keycloak.scim.server.test.client.model.User;
 import fi.metatavu.keycloak.scim.server.test.client.model.UsersList;
+import jakarta.ws.rs.core.Response;
 import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.CreatedResponseUtil;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -143,6 +150,165 @@ class RealmUserListTestsIT extends AbstractInternalAuthRealmScimTest {
     assertEquals(1, usersList.getTotalResults());
   }
 
+  @Test
+  void testFilterByUserNameStartsWith() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+
+    assertEquals(1, scimClient.listUsers("userName sw \"testad\"", 0, 10).getTotalResults());
+    assertEquals(0, scimClient.listUsers("userName sw \"admin\"", 0, 10).getTotalResults());
+  }
+
+  @Test
+  void testFilterByEmailContains() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+
+    assertEquals(1, scimClient.listUsers("email co \"admin@example\"", 0, 10).getTotalResults());
+    assertEquals(0, scimClient.listUsers("email co \"admin@other\"", 0, 10).getTotalResults());
+  }
+
+  @Test
+  void testFilterByUserNameEndsWith() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+
+    assertEquals(1, scimClient.listUsers("userName ew \"admin\"", 0, 10).getTotalResults());
+    assertEquals(0, scimClient.listUsers("userName ew \"test\"", 0, 10).getTotalResults());
+  }
+
+  @Test
+  void testFilterByConjunctionWithPostFilteredTerms() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+
+    assertEquals(1, scimClient.listUsers("email eq \"testadmin@example.com\" and name.givenName sw \"te\" and userName pr", 0, 10).getTotalResults());
+    assertEquals(0, scimClient.listUsers("email eq \"testadmin@example.com\" and name.familyName co \"xyz\"", 0, 10).getTotalResults());
+    assertEquals(1, scimClient.listUsers("name.givenName co \"es\" and name.familyName sw \"ad\"", 0, 10).getTotalResults());
+  }
+
+  @Test
+  void testFilterOperatorsAndGrouping() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+
+    assertEquals(1, scimClient.listUsers("userName gt \"testaaa\" and userName le \"testadmin\"", 0, 10).getTotalResults());
+    assertEquals(0, scimClient.listUsers("userName lt \"testadmin\"", 0, 10).getTotalResults());
+    assertEquals(0, scimClient.listUsers("not (userName eq \"testadmin\")", 0, 10).getTotalResults());
+    assertEquals(1, scimClient.listUsers("userName ne \"bob\" and (active eq false or name.givenName eq \"Test\")", 0, 10).getTotalResults());
+    assertEquals(1, scimClient.listUsers("emails[value eq \"testadmin@example.com\"]", 0, 10).getTotalResults());
+  }
+
+  @Test
+  void testInvalidFilterTooManyTerms() {
+    ScimClient scimClient = getAuthenticatedScimClient();
+    String filter = String.join(" or ", Collections.nCopies(120, "userName pr"));
+
+    ApiException exception = assertThrows(ApiException.class, () ->
+            scimClient.listUsers(filter, 0, 10)
+    );
+
+    assertEquals("listUsers call failed with: 400 - Invalid filter", exception.getMessage());
+  }
+
+  @Test
+  void testFilterByLastModified() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+    String before = Instant.now().minusSeconds(1).toString();
+
+    User created = createUser(scimClient, "delta-user", "Delta", "User");
+    try {
+      UsersList modified = scimClient.listUsers(String.format("meta.lastModified gt \"%s\"", before), 0, 10);
+      assertEquals(1, modified.getTotalResults());
+      assertEquals(created.getId(), modified.getResources().getFirst().getId());
+
+      assertEquals(1, scimClient.listUsers(String.format("meta.lastModified ge \"%s\" and userName eq \"delta-user\"", before), 0, 10).getTotalResults());
+      assertEquals(0, scimClient.listUsers(String.format("meta.lastModified gt \"%s\" and userName eq \"testadmin\"", before), 0, 10).getTotalResults());
+      assertEquals(0, scimClient.listUsers("meta.lastModified gt \"2100-01-01T00:00:00Z\"", 0, 10).getTotalResults());
+      assertEquals(2, scimClient.listUsers("meta.lastModified gt \"2000-01-01T00:00:00Z\"", 0, 10).getTotalResults());
+    } finally {
+      deleteRealmUser(TestConsts.TEST_REALM, created.getId());
+    }
+  }
+
+  @Test
+  void testInvalidFilterLastModified() {
+    ScimClient scimClient = getAuthenticatedScimClient();
+
+    ApiException exception = assertThrows(ApiException.class, () ->
+            scimClient.listUsers("meta.lastModified gt \"yesterday\"", 0, 10)
+    );
+
+    assertEquals("listUsers call failed with: 400 - Invalid filter", exception.getMessage());
+  }
+
+  @Test
+  void testSortUsers() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+
+    List<User> created = List.of(
+        createUser(scimClient, "sort-b", "Sort", "Charlie"),
+        createUser(scimClient, "sort-c", "Sort", "alpha"),
+        createUser(scimClient, "sort-a", "Sort", "Bravo")
+    );
+
+    try {
+      UsersList byUserName = scimClient.listUsersSorted("userName sw \"sort-\"", 0, 10, "userName", null);
+      assertEquals(List.of("sort-a", "sort-b", "sort-c"), byUserName.getResources().stream().map(User::getUserName).toList());
+
+      UsersList byFamilyName = scimClient.listUsersSorted("userName sw \"sort-\"", 0, 10, "name.familyName", "descending");
+      assertEquals(List.of("sort-b", "sort-a", "sort-c"), byFamilyName.getResources().stream().map(User::getUserName).toList());
+
+      // Sorting is applied before paging
+      UsersList secondPage = scimClient.listUsersSorted("userName sw \"sort-\"", 1, 1, "emails", "ascending");
+      assertEquals(3, secondPage.getTotalResults());
+      assertEquals("sort-b", secondPage.getResources().getFirst().getUserName());
+
+      UsersList byLastModified = scimClient.listUsersSorted("userName sw \"sort-\"", 0, 10, "meta.lastModified", "descending");
+      assertEquals(List.of("sort-a", "sort-c", "sort-b"), byLastModified.getResources().stream().map(User::getUserName).toList());
+    } finally {
+      created.forEach(user -> deleteRealmUser(TestConsts.TEST_REALM, user.getId()));
+    }
+  }
+
+  @Test
+  void testSortByLastModifiedWithUnmodifiedUsers() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+
+    // testadmin is imported with the realm, so it has no modification marker and reports its creation time
+    List<User> created = List.of(
+        createUser(scimClient, "mixed-b", "Mixed", "User"),
+        createUser(scimClient, "mixed-a", "Mixed", "User")
+    );
+
+    try {
+      String filter = "userName eq \"testadmin\" or userName sw \"mixed-\"";
+
+      UsersList ascending = scimClient.listUsersSorted(filter, 0, 10, "meta.lastModified", "ascending");
+      assertEquals(List.of("testadmin", "mixed-b", "mixed-a"), ascending.getResources().stream().map(User::getUserName).toList());
+
+      List<Instant> lastModified = ascending.getResources().stream()
+          .map(user -> Instant.parse(user.getMeta().getLastModified()))
+          .toList();
+      assertEquals(lastModified.stream().sorted().toList(), lastModified);
+
+      UsersList descending = scimClient.listUsersSorted(filter, 0, 10, "meta.lastModified", "descending");
+      assertEquals(List.of("mixed-a", "mixed-b", "testadmin"), descending.getResources().stream().map(User::getUserName).toList());
+    } finally {
+      created.forEach(user -> deleteRealmUser(TestConsts.TEST_REALM, user.getId()));
+    }
+  }
+
+  @Test
+  void testInvalidSort() {
+    ScimClient scimClient = getAuthenticatedScimClient();
+
+    ApiException unsupported = assertThrows(ApiException.class, () ->
+        scimClient.listUsersSorted(null, 0, 10, "phoneNumbers", null)
+    );
+    assertEquals("listUsers call failed with: 400 - Invalid sortBy", unsupported.getMessage());
+
+    ApiException invalidOrder = assertThrows(ApiException.class, () ->
+        scimClient.listUsersSorted(null, 0, 10, "userName", "sideways")
+    );
+    assertEquals("listUsers call failed with: 400 - Invalid sortOrder", invalidOrder.getMessage());
+  }
+
   @Test
   void testFilterByUserNameNoMatch() throws ApiException {
     ScimClient scimClient = getAuthenticatedScimClient();
@@ -219,7 +385,7 @@ class RealmUserListTestsIT extends AbstractInternalAuthRealmScimTest {
     ScimClient scimClient = getAuthenticatedScimClient();
 
     ApiException exception = assertThrows(ApiException.class, () ->
-            scimClient.listUsers("userName gt \"bob\"", 0, 10)
+            scimClient.listUsers("userName regex \"bob\"", 0, 10)
     );
 
     assertEquals("listUsers call failed with: 400 - Invalid filter", exception.getMessage());
@@ -295,4 +461,128 @@ class RealmUserListTestsIT extends AbstractInternalAuthRealmScimTest {
     }
   }
 
+  @Test
+  void testListUsersWithRoleFromGroup() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+    RealmResource realm = getKeycloakContainer().getKeycloakAdminClient().realm(TestConsts.TEST_REALM);
+
+    GroupRepresentation group = new GroupRepresentation();
+    group.setName("inherited-role-group");
+    String groupId;
+    try (Response response = realm.groups().add(group)) {
+      groupId = CreatedResponseUtil.getCreatedId(response);
+    }
+
+    realm.groups().group(groupId).roles().realmLevel().add(List.of(realm.roles().get("scim-managed").toRepresentation()));
+
+    List<String> userIds = new ArrayList<>();
+    for (String username : List.of("inherited-role-member", "inherited-role-outsider")) {
+      UserRepresentation user = new UserRepresentation();
+      user.setUsername(username);
+      user.setFirstName("Inherited");
+      user.setEnabled(true);
+      try (Response response = realm.users().create(user)) {
+        userIds.add(CreatedResponseUtil.getCreatedId(response));
+      }
+    }
+
+    realm.users().get(userIds.getFirst()).joinGroup(groupId);
+
+    UsersList usersList = scimClient.listUsers("name.givenName eq \"Inherited\"", 0, 10);
+    assertEquals(1, usersList.getTotalResults());
+    assertEquals(1, usersList.getResources().size());
+    assertEquals("inherited-role-member", usersList.getResources().getFirst().getUserName());
+
+    UsersList allUsers = scimClient.listUsers(null, 0, 10);
+    assertEquals(2, allUsers.getTotalResults());
+
+    for (String userId : userIds) {
+      deleteRealmUser(TestConsts.TEST_REALM, userId);
+    }
+
+    deleteRealmGroup(TestConsts.TEST_REALM, groupId);
+  }
+
+  @Test
+  void testCursorPagination() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+    List<User> createdUsers = new ArrayList<>();
+
+    for (int i = 1; i <= 5; i++) {
+      User user = new User();
+      user.setUserName("cursor-user-" + i);
+      user.setActive(true);
+      user.setSchemas(List.of("urn:ietf:params:scim:schemas:core:2.0:User"));
+      user.setName(getName("Cursor", "User" + i));
+      user.setEmails(getEmails("cursor" + i + "@example.com"));
+
+      createdUsers.add(scimClient.createUser(user));
+    }
+
+    try {
+      List<String> listedIds = new ArrayList<>();
+      String cursor = null;
+      int pages = 0;
+
+      do {
+        UsersList page = scimClient.listUsersByCursor("name.givenName eq \"Cursor\"", cursor, 2);
+        assertNull(page.getStartIndex());
+        assertEquals(2, page.getItemsPerPage());
+        assertNotNull(page.getResources());
+        assertTrue(page.getResources().size() <= 2);
+
+        page.getResources().forEach(user -> listedIds.add(user.getId()));
+        cursor = page.getNextCursor();
+        pages++;
+      } while (cursor != null);
+
+      assertEquals(3, pages);
+      assertEquals(createdUsers.stream().map(User::getId).sorted().toList(), listedIds);
+    } finally {
+      for (User user : createdUsers) {
+        deleteRealmUser(TestConsts.TEST_REALM, user.getId());
+      }
+    }
+  }
+
+  @Test
+  void testInvalidCursor() {
+    ScimClient scimClient = getAuthenticatedScimClient();
+
+    ApiException exception = assertThrows(ApiException.class, () ->
+            scimClient.listUsersByCursor(null, "not a cursor!", 2)
+    );
+
+    assertEquals("listUsers call failed with: 400 - Invalid cursor", exception.getMessage());
+  }
+
+  @Test
+  void testAttributes() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+    UsersList usersList = scimClient.listUsersWithAttributes(null, "userName,name.givenName", null);
+
+    assertEquals(1, usersList.getTotalResults());
+    User user = usersList.getResources().getFirst();
+    assertEquals("6794995e-e862-4208-aadf-5f0bf411b29d", user.getId());
+    assertEquals("testadmin", user.getUserName());
+    assertEquals("Test", user.getName().getGivenName());
+    assertNull(user.getName().getFamilyName());
+    assertTrue(user.getEmails() == null || user.getEmails().isEmpty());
+    assertNull(user.getActive());
+    assertNull(user.getMeta());
+  }
+
+  @Test
+  void testExcludedAttributes() throws ApiException {
+    ScimClient scimClient = getAuthenticatedScimClient();
+    UsersList usersList = scimClient.listUsersWithAttributes(null, null, "emails,name");
+
+    assertEquals(1, usersList.getTotalResults());
+    User user = usersList.getResources().getFirst();
+    assertEquals("testadmin", user.getUserName());
+    assertNull(user.getName());
+    assertTrue(user.getEmails() == null || user.getEmails().isEmpty());
+    assertNotNull(user.getMeta());
+  }
+
 }
@@ -4,6 +4,7 @@ import fi.metatavu.keycloak.scim.server.test.tests.AbstractInternalAuthRealmScim
 import fi.metatavu.keycloak.scim.server.test.ScimClient;
 import fi.metatavu.keycloak.scim.server.test.TestConsts;
 import fi.metatavu.keycloak.scim.server.test.client.ApiException;
+import fi.metatavu.keycloak.scim.server.test.client.ApiResponse;
 import fi.metatavu.keycloak.scim.server.test.client.model.User;
 import org.junit.jupiter.api.Test;
 import org.keycloak.events.admin.AdminEvent;
@@ -12,8 +13,10 @@ import org.keycloak.representations.idm.UserRepresentation;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
 
+import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -183,4 +186,82 @@ public class RealmUserUpdateTestsIT extends AbstractInternalAuthRealmScimTest {
         // Cleanup
         deleteRealmUser(TestConsts.TEST_REALM, created.getId());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testUpdateUserMeta() throws ApiException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        User user = new User();
+        user.setUserName("meta-user");
+        user.setActive(true);
+        user.setSchemas(List.of("urn:ietf:params:scim:schemas:core:2.0:User"));
+
+        User created = scimClient.createUser(user);
+        assertNotNull(created.getMeta());
+        assertNotNull(created.getMeta().getCreated());
+        assertNotNull(created.getMeta().getLastModified());
+        assertEquals("W/\"1\"", created.getMeta().getVersion());
+
+        try {
+            // Changes through SCIM increment the version
+            user.setActive(false);
+            User updated = scimClient.updateUser(created.getId(), user);
+            assertEquals(created.getMeta().getCreated(), updated.getMeta().getCreated());
+            assertEquals("W/\"2\"", updated.getMeta().getVersion());
+
+            // Changes made outside SCIM are tracked by the event listener
+            UserRepresentation realmUser = findRealmUser(TestConsts.TEST_REALM, created.getId());
+            realmUser.setFirstName("Changed");
+            getKeycloakContainer().getKeycloakAdminClient()
+                .realms()
+                .realm(TestConsts.TEST_REALM)
+                .users()
+                .get(created.getId())
+                .update(realmUser);
+
+            await()
+                .atMost(Duration.ofSeconds(10))
+                .until(() -> "W/\"3\"".equals(scimClient.findUser(created.getId()).getMeta().getVersion()));
+        } finally {
+            deleteRealmUser(TestConsts.TEST_REALM, created.getId());
+        }
+    }
+
+    @Test
+    void testUpdateUserIfMatch() throws ApiException, IOException {
+        ScimClient scimClient = getAuthenticatedScimClient();
+
+        User user = new User();
+        user.setUserName("if-match-user");
+        user.setActive(true);
+        user.setSchemas(List.of("urn:ietf:params:scim:schemas:core:2.0:User"));
+
+        User created = scimClient.createUser(user);
+        String version = created.getMeta().getVersion();
+
+        // Matching version is accepted and the response carries the new version
+        user.setActive(false);
+        ApiResponse<User> response = scimClient.updateUserWithHttpInfo(created.getId(), user, version);
+        assertEquals(200, response.getStatusCode());
+        assertEquals("W/\"2\"", response.getHeaders().get("ETag").getFirst());
+        assertEquals("W/\"2\"", response.getData().getMeta().getVersion());
+
+        // Stale version is rejected before anything is written
+        clearAdminEvents();
+        user.setActive(true);
+        ApiException exception = assertThrows(ApiException.class, () ->
+            scimClient.updateUserWithHttpInfo(created.getId(), user, version)
+        );
+        assertEquals(412, exception.getCode());
+        assertTrue(getAdminEvents().isEmpty());
+        assertFalse(scimClient.findUser(created.getId()).getActive());
+
+        ApiException deleteException = assertThrows(ApiException.class, () ->
+            scimClient.deleteUser(created.getId(), version)
+        );
+        assertEquals(412, deleteException.getCode());
+
+        // Matching version deletes the user
+        scimClient.deleteUser(created.getId(), "W/\"2\"");
+    }
+}
@@ -0,0 +1,75 @@
+package fi.metatavu.keycloak.scim.server.test.tests.unit;
+
+import fi.metatavu.keycloak.scim.server.projection.AttributeProjection;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AttributeProjectionTest {
+
+    @Test
+    void testDefaultIncludesEverything() {
+        AttributeProjection projection = AttributeProjection.parse(null, " ");
+
+        assertSame(AttributeProjection.DEFAULT, projection);
+        assertTrue(projection.includes("members"));
+        assertTrue(projection.includes("name.givenName"));
+    }
+
+    @Test
+    void testAttributes() {
+        AttributeProjection projection = AttributeProjection.parse("userName, name.givenName", null);
+
+        assertTrue(projection.includes("id"));
+        assertTrue(projection.includes("schemas"));
+        assertTrue(projection.includes("username"));
+        assertTrue(projection.includes("name"));
+        assertTrue(projection.includes("name.givenName"));
+        assertFalse(projection.includes("name.familyName"));
+        assertFalse(projection.includes("emails"));
+        assertFalse(projection.includes("meta"));
+    }
+
+    @Test
+    void testParentAttributeIncludesSubAttributes() {
+        AttributeProjection projection = AttributeProjection.parse("name", null);
+
+        assertTrue(projection.includes("name.givenName"));
+        assertTrue(projection.includes("name.familyName"));
+    }
+
+    @Test
+    void testExcludedAttributes() {
+        AttributeProjection projection = AttributeProjection.parse(null, "members,name.familyName");
+
+        assertFalse(projection.includes("members"));
+        assertFalse(projection.includes("members.value"));
+        assertFalse(projection.includes("name.familyName"));
+        assertTrue(projection.includes("name"));
+        assertTrue(projection.includes("name.givenName"));
+        assertTrue(projection.includes("displayName"));
+    }
+
+    @Test
+    void testIdCannotBeExcluded() {
+        AttributeProjection projection = AttributeProjection.parse(null, "id");
+
+        assertTrue(projection.includes("id"));
+    }
+
+    @Test
+    void testSchemaPrefix() {
+        AttributeProjection projection = AttributeProjection.parse(null, "urn:ietf:params:scim:schemas:core:2.0:Group:members");
+
+        assertFalse(projection.includes("members"));
+        assertTrue(projection.includes("displayName"));
+    }
+
+    @Test
+    void testMutuallyExclusive() {
+        assertThrows(IllegalArgumentException.class, () -> AttributeProjection.parse("userName", "emails"));
+    }
+}
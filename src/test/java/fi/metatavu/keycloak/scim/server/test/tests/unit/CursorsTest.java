@@ -0,0 +1,35 @@
+package fi.metatavu.keycloak.scim.server.test.tests.unit;
+
+import fi.metatavu.keycloak.scim.server.paging.Cursors;
+import fi.metatavu.keycloak.scim.server.paging.InvalidCursor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CursorsTest {
+
+    @Test
+    void testRoundTrip() {
+        String key = "6794995e-e862-4208-aadf-5f0bf411b29d";
+        String cursor = Cursors.encode(key);
+
+        assertEquals(key, Cursors.decode(cursor));
+    }
+
+    @Test
+    void testEmptyCursorStartsFromBeginning() {
+        assertNull(Cursors.decode(""));
+        assertNull(Cursors.decode(null));
+        assertNull(Cursors.encode(null));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "not a cursor!", "%%%", "AA" })
+    void testInvalidCursor(String cursor) {
+        assertThrows(InvalidCursor.class, () -> Cursors.decode(cursor));
+    }
+}
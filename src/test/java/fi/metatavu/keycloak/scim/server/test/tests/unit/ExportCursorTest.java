@@ -0,0 +1,45 @@
+package fi.metatavu.keycloak.scim.server.test.tests.unit;
+
+import fi.metatavu.keycloak.scim.server.export.ExportCursor;
+import fi.metatavu.keycloak.scim.server.paging.Cursors;
+import fi.metatavu.keycloak.scim.server.paging.InvalidCursor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ExportCursorTest {
+
+    @Test
+    void testRoundTrip() {
+        String id = "6794995e-e862-4208-aadf-5f0bf411b29d";
+        ExportCursor cursor = ExportCursor.parse(ExportCursor.encode("Users", id));
+
+        assertEquals("Users", cursor.resourceType());
+        assertEquals(id, cursor.afterId());
+    }
+
+    @Test
+    void testIdWithSeparator() {
+        ExportCursor cursor = ExportCursor.parse(ExportCursor.encode("Groups", "a/b"));
+
+        assertEquals("Groups", cursor.resourceType());
+        assertEquals("a/b", cursor.afterId());
+    }
+
+    @Test
+    void testEmptyCursorStartsFromBeginning() {
+        assertNull(ExportCursor.parse(""));
+        assertNull(ExportCursor.parse(null));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "Users", "/id", "Users/" })
+    void testInvalidCursor(String key) {
+        String cursor = Cursors.encode(key);
+        assertThrows(InvalidCursor.class, () -> ExportCursor.parse(cursor));
+    }
+}
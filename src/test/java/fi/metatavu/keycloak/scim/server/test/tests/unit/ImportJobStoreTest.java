@@ -0,0 +1,134 @@
+package fi.metatavu.keycloak.scim.server.test.tests.unit;
+
+import fi.metatavu.keycloak.scim.server.imports.ImportJobState;
+import fi.metatavu.keycloak.scim.server.imports.ImportJobStore;
+import fi.metatavu.keycloak.scim.server.imports.ImportPayloadTooLarge;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportJobStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testPayloadWithinLimit() throws IOException {
+        ImportJobStore store = new ImportJobStore(directory, 10);
+        String jobId = UUID.randomUUID().toString();
+
+        store.writePayload(jobId, new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("0123456789", Files.readString(store.getPayloadPath(jobId)));
+    }
+
+    @Test
+    void testPayloadTooLarge() {
+        ImportJobStore store = new ImportJobStore(directory, 10);
+        String jobId = UUID.randomUUID().toString();
+
+        assertThrows(ImportPayloadTooLarge.class, () ->
+            store.writePayload(jobId, new ByteArrayInputStream("01234567890".getBytes(StandardCharsets.UTF_8)))
+        );
+        assertFalse(Files.exists(store.getPayloadPath(jobId)));
+    }
+
+    @Test
+    void testLockIsExclusive() throws IOException {
+        ImportJobStore store = new ImportJobStore(directory, 10);
+        ImportJobStore otherStore = new ImportJobStore(directory, 10);
+        String jobId = UUID.randomUUID().toString();
+
+        try (Closeable claim = store.tryLock(jobId)) {
+            assertNotNull(claim);
+            assertNull(otherStore.tryLock(jobId));
+            assertNull(store.tryLock(jobId));
+        }
+
+        try (Closeable claim = otherStore.tryLock(jobId)) {
+            assertNotNull(claim);
+        }
+    }
+
+    @Test
+    void testLockIsKeptWhenClaimedAgain() throws Exception {
+        ImportJobStore store = new ImportJobStore(directory, 10);
+        ImportJobStore otherStore = new ImportJobStore(directory, 10);
+        String jobId = UUID.randomUUID().toString();
+
+        try (Closeable claim = store.tryLock(jobId)) {
+            assertNotNull(claim);
+            assertNull(store.tryLock(jobId));
+            assertNull(otherStore.tryLock(jobId));
+
+            // The lock table of this process hides released file locks, so the lock is checked from another process
+            assertFalse(canLockInOtherProcess(directory.resolve(jobId + ".lock")));
+        }
+
+        assertTrue(canLockInOtherProcess(directory.resolve(jobId + ".lock")));
+    }
+
+    @Test
+    void testStateIsSharedThroughDirectory() throws IOException {
+        ImportJobStore store = new ImportJobStore(directory, 10);
+        ImportJobStore otherStore = new ImportJobStore(directory, 10);
+
+        ImportJobState job = new ImportJobState();
+        job.setId(UUID.randomUUID().toString());
+        job.setStatus(ImportJobState.Status.RUNNING);
+        job.setCheckpoint(1000);
+        job.setAttempts(2);
+        store.save(job);
+
+        ImportJobState found = otherStore.find(job.getId());
+        assertNotNull(found);
+        assertEquals(ImportJobState.Status.RUNNING, found.getStatus());
+        assertEquals(1000, found.getCheckpoint());
+        assertEquals(2, found.getAttempts());
+        assertEquals(1, otherStore.list().size());
+    }
+
+    /**
+     * Returns whether a file can be locked by another process
+     *
+     * @param path file path
+     * @return whether the lock was acquired
+     * @throws Exception when the process cannot be run
+     */
+    private boolean canLockInOtherProcess(Path path) throws Exception {
+        Process process = new ProcessBuilder(
+            Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp",
+            System.getProperty("java.class.path"),
+            LockProbe.class.getName(),
+            path.toString()
+        ).inheritIO().start();
+
+        return process.waitFor() == 0;
+    }
+
+    /**
+     * Process that exits with 0 when it can lock given file
+     */
+    public static class LockProbe {
+
+        public static void main(String[] args) throws IOException {
+            try (FileChannel channel = FileChannel.open(Path.of(args[0]), StandardOpenOption.WRITE)) {
+                System.exit(channel.tryLock() != null ? 0 : 1);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,214 @@
+package fi.metatavu.keycloak.scim.server.test.tests.unit;
+
+import com.sun.net.httpserver.HttpServer;
+import fi.metatavu.keycloak.scim.server.authentication.JwkKey;
+import fi.metatavu.keycloak.scim.server.authentication.JwksKeyStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwksKeyStoreTest {
+
+    private final TestClock clock = new TestClock();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+    private volatile String body;
+    private HttpServer server;
+    private String jwksUrl;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        JwksKeyStore.setClock(clock);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/jwks", exchange -> {
+            requests.incrementAndGet();
+            byte[] response = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("Cache-Control", "public, max-age=60");
+            exchange.sendResponseHeaders(status, response.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(response);
+            }
+        });
+        server.start();
+
+        // Keys are cached per URL, so every test uses a server of its own
+        jwksUrl = String.format("http://localhost:%d/jwks", server.getAddress().getPort());
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        JwksKeyStore.setClock(Clock.systemUTC());
+    }
+
+    @Test
+    void testTimeToLive() {
+        assertEquals(JwksKeyStore.DEFAULT_TTL, JwksKeyStore.getTimeToLive(null));
+        assertEquals(JwksKeyStore.DEFAULT_TTL, JwksKeyStore.getTimeToLive("no-cache"));
+        assertEquals(Duration.ofSeconds(300), JwksKeyStore.getTimeToLive("public, max-age=300"));
+        assertEquals(Duration.ofSeconds(300), JwksKeyStore.getTimeToLive("Max-Age = 300, must-revalidate"));
+        assertEquals(JwksKeyStore.DEFAULT_TTL, JwksKeyStore.getTimeToLive("s-maxage=300"));
+        assertEquals(JwksKeyStore.MIN_TTL, JwksKeyStore.getTimeToLive("max-age=0"));
+        assertEquals(JwksKeyStore.MAX_TTL, JwksKeyStore.getTimeToLive("max-age=31536000"));
+        assertEquals(JwksKeyStore.MAX_TTL, JwksKeyStore.getTimeToLive("max-age=99999999999999999999"));
+    }
+
+    @Test
+    void testGenerationChangesWhenKeysRotate() throws Exception {
+        body = getJwks("key-1");
+        JwkKey key = JwksKeyStore.getKey(jwksUrl, "key-1");
+        assertNotNull(key);
+        assertEquals(0, JwksKeyStore.getGeneration(jwksUrl));
+
+        // Same key id with a new key
+        body = getJwks("key-1");
+        clock.advance(Duration.ofMinutes(2));
+        assertEquals(0, JwksKeyStore.getGeneration(jwksUrl));
+
+        await()
+            .atMost(Duration.ofSeconds(10))
+            .until(() -> JwksKeyStore.getGeneration(jwksUrl) == 1);
+
+        assertNotEquals(key.getPublicKey(), JwksKeyStore.getKey(jwksUrl, "key-1").getPublicKey());
+    }
+
+    @Test
+    void testStaleKeysAreUsedWhenRefreshFails() throws Exception {
+        body = getJwks("key-1");
+        JwkKey key = JwksKeyStore.getKey(jwksUrl, "key-1");
+        assertNotNull(key);
+
+        status = 500;
+        clock.advance(Duration.ofMinutes(2));
+        assertEquals(key, JwksKeyStore.getKey(jwksUrl, "key-1"));
+        assertEquals(1, JwksKeyStore.getKeys(jwksUrl).size());
+
+        await()
+            .atMost(Duration.ofSeconds(10))
+            .until(() -> requests.get() >= 2);
+
+        // The failed refresh keeps the previous keys and generation
+        assertEquals(key, JwksKeyStore.getKey(jwksUrl, "key-1"));
+        assertEquals(0, JwksKeyStore.getGeneration(jwksUrl));
+
+        clock.advance(JwksKeyStore.MAX_STALE);
+        assertThrows(IOException.class, () -> JwksKeyStore.getKey(jwksUrl, "key-1"));
+        assertEquals(-1, JwksKeyStore.getGeneration(jwksUrl));
+    }
+
+    @Test
+    void testUnknownKeyRefreshIsThrottledAfterFailure() throws Exception {
+        body = getJwks("key-1");
+        assertNotNull(JwksKeyStore.getKey(jwksUrl, "key-1"));
+        assertEquals(1, requests.get());
+
+        // Unknown key right after the fetch does not refresh
+        assertNull(JwksKeyStore.getKey(jwksUrl, "key-2"));
+        assertEquals(1, requests.get());
+
+        // Failed refresh is attempted once per interval, even though the keys were fetched long ago
+        status = 500;
+        clock.advance(JwksKeyStore.MIN_REFRESH_INTERVAL);
+        assertNull(JwksKeyStore.getKey(jwksUrl, "key-2"));
+        assertEquals(2, requests.get());
+
+        assertNull(JwksKeyStore.getKey(jwksUrl, "key-2"));
+        assertEquals(2, requests.get());
+
+        clock.advance(JwksKeyStore.MIN_REFRESH_INTERVAL);
+        assertNull(JwksKeyStore.getKey(jwksUrl, "key-2"));
+        assertEquals(3, requests.get());
+    }
+
+    /**
+     * Returns JWKS with a new RSA key
+     *
+     * @param kid key id
+     * @return JWKS JSON
+     * @throws NoSuchAlgorithmException when RSA is not available
+     */
+    private String getJwks(String kid) throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        RSAPublicKey publicKey = (RSAPublicKey) generator.generateKeyPair().getPublic();
+
+        return String.format(
+            "{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"%s\",\"use\":\"sig\",\"alg\":\"RS256\",\"n\":\"%s\",\"e\":\"%s\"}]}",
+            kid,
+            encode(publicKey.getModulus()),
+            encode(publicKey.getPublicExponent())
+        );
+    }
+
+    /**
+     * Encodes an unsigned integer as base64url
+     *
+     * @param value value
+     * @return encoded value
+     */
+    private String encode(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Clock that is moved forward by tests
+     */
+    private static class TestClock extends Clock {
+
+        private volatile Instant instant = Instant.now();
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+
+        /**
+         * Moves the clock forward
+         *
+         * @param duration duration
+         */
+        void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+    }
+
+}
@@ -0,0 +1,74 @@
+package fi.metatavu.keycloak.scim.server.test.tests.unit;
+
+import fi.metatavu.keycloak.scim.server.authentication.KeycloakAuthorizationCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeycloakAuthorizationCacheTest {
+
+    @Test
+    void testValidatedToken() {
+        long generation = KeycloakAuthorizationCache.getGeneration("realm");
+        String tokenKey = KeycloakAuthorizationCache.getTokenKey("realm", "valid-token");
+        KeycloakAuthorizationCache.putToken("realm", tokenKey, "client", System.currentTimeMillis() + 60000, generation);
+
+        assertEquals("client", KeycloakAuthorizationCache.findClientId("realm", tokenKey));
+        assertNull(KeycloakAuthorizationCache.findClientId("other-realm", KeycloakAuthorizationCache.getTokenKey("other-realm", "valid-token")));
+    }
+
+    @Test
+    void testExpiredTokenIsNotCached() {
+        long generation = KeycloakAuthorizationCache.getGeneration("realm");
+        String tokenKey = KeycloakAuthorizationCache.getTokenKey("realm", "expired-token");
+        KeycloakAuthorizationCache.putToken("realm", tokenKey, "client", System.currentTimeMillis() - 1000, generation);
+
+        assertNull(KeycloakAuthorizationCache.findClientId("realm", tokenKey));
+    }
+
+    @Test
+    void testAuthorizedClient() {
+        KeycloakAuthorizationCache.putAuthorized("realm", "authorized-client", KeycloakAuthorizationCache.getGeneration("realm"));
+
+        assertTrue(KeycloakAuthorizationCache.isAuthorized("realm", "authorized-client"));
+        assertFalse(KeycloakAuthorizationCache.isAuthorized("other-realm", "authorized-client"));
+    }
+
+    @Test
+    void testInvalidate() {
+        long generation = KeycloakAuthorizationCache.getGeneration("invalidated-realm");
+        String tokenKey = KeycloakAuthorizationCache.getTokenKey("invalidated-realm", "invalidated-token");
+        KeycloakAuthorizationCache.putToken("invalidated-realm", tokenKey, "invalidated-client", System.currentTimeMillis() + 60000, generation);
+        KeycloakAuthorizationCache.putAuthorized("invalidated-realm", "invalidated-client", generation);
+
+        KeycloakAuthorizationCache.invalidate("invalidated-realm");
+
+        assertNull(KeycloakAuthorizationCache.findClientId("invalidated-realm", tokenKey));
+        assertFalse(KeycloakAuthorizationCache.isAuthorized("invalidated-realm", "invalidated-client"));
+    }
+
+    @Test
+    void testInvalidateDoesNotAffectOtherRealms() {
+        long generation = KeycloakAuthorizationCache.getGeneration("unchanged-realm");
+        String tokenKey = KeycloakAuthorizationCache.getTokenKey("unchanged-realm", "unchanged-token");
+        KeycloakAuthorizationCache.putToken("unchanged-realm", tokenKey, "unchanged-client", System.currentTimeMillis() + 60000, generation);
+        KeycloakAuthorizationCache.putAuthorized("unchanged-realm", "unchanged-client", generation);
+
+        KeycloakAuthorizationCache.invalidate("changed-realm");
+
+        assertEquals("unchanged-client", KeycloakAuthorizationCache.findClientId("unchanged-realm", tokenKey));
+        assertTrue(KeycloakAuthorizationCache.isAuthorized("unchanged-realm", "unchanged-client"));
+    }
+
+    @Test
+    void testDecisionMadeBeforeInvalidationIsNotCached() {
+        long generation = KeycloakAuthorizationCache.getGeneration("stale-realm");
+        KeycloakAuthorizationCache.invalidate("stale-realm");
+        KeycloakAuthorizationCache.putAuthorized("stale-realm", "stale-client", generation);
+
+        assertFalse(KeycloakAuthorizationCache.isAuthorized("stale-realm", "stale-client"));
+    }
+}
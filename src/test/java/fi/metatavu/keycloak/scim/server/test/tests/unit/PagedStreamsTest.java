@@ -0,0 +1,141 @@
+package fi.metatavu.keycloak.scim.server.test.tests.unit;
+
+import fi.metatavu.keycloak.scim.server.paging.CursorPage;
+import fi.metatavu.keycloak.scim.server.paging.Page;
+import fi.metatavu.keycloak.scim.server.paging.PagedStreams;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PagedStreamsTest {
+
+    @Test
+    void testChunkedReadsAllResultsInChunks() {
+        List<Integer> source = IntStream.range(0, 250).boxed().toList();
+        List<int[]> queries = new ArrayList<>();
+
+        List<Integer> result = PagedStreams.chunked((first, max) -> {
+            queries.add(new int[] { first, max });
+            return source.stream().skip(first).limit(max);
+        }, 100).toList();
+
+        assertEquals(source, result);
+        assertEquals(3, queries.size());
+        assertEquals(200, queries.get(2)[0]);
+    }
+
+    @Test
+    void testChunkedStopsAfterFullLastChunkWithEmptyQuery() {
+        List<Integer> source = IntStream.range(0, 200).boxed().toList();
+        List<Integer> firsts = new ArrayList<>();
+
+        long count = PagedStreams.chunked((first, max) -> {
+            firsts.add(first);
+            return source.stream().skip(first).limit(max);
+        }, 100).count();
+
+        assertEquals(200, count);
+        assertEquals(List.of(0, 100, 200), firsts);
+    }
+
+    @Test
+    void testChunkedIsLazy() {
+        List<Integer> firsts = new ArrayList<>();
+
+        List<Integer> result = PagedStreams.chunked((first, max) -> {
+            firsts.add(first);
+            return IntStream.range(first, first + max).boxed();
+        }, 10).limit(5).toList();
+
+        assertEquals(List.of(0, 1, 2, 3, 4), result);
+        assertEquals(List.of(0), firsts);
+    }
+
+    @Test
+    void testPageCollectsWindowAndCountsAll() {
+        List<Integer> source = IntStream.range(0, 1000).boxed().toList();
+
+        Page<Integer> page = PagedStreams.page(
+            (first, max) -> source.stream().skip(first).limit(max),
+            value -> value % 2 == 0,
+            10,
+            5,
+            Integer.MAX_VALUE
+        );
+
+        assertEquals(List.of(20, 22, 24, 26, 28), page.resources());
+        assertEquals(500, page.totalResults());
+    }
+
+    @Test
+    void testPageBeyondResults() {
+        Page<Integer> page = PagedStreams.page(IntStream.range(0, 3).boxed(), 5, 10);
+
+        assertEquals(List.of(), page.resources());
+        assertEquals(3, page.totalResults());
+    }
+
+    @Test
+    void testPageStopsCountingAtLimit() {
+        List<Integer> consumed = new ArrayList<>();
+
+        Page<Integer> page = PagedStreams.page(
+            IntStream.range(0, 10000).boxed().peek(consumed::add),
+            0,
+            10,
+            100
+        );
+
+        assertEquals(10, page.resources().size());
+        assertEquals(100, page.totalResults());
+        assertEquals(100, consumed.size());
+    }
+
+    @Test
+    void testPageWithCountQuery() {
+        List<Integer> source = IntStream.range(0, 50).boxed().toList();
+
+        Page<Integer> page = PagedStreams.page(
+            (first, max) -> source.stream().skip(first).limit(max),
+            () -> source.size(),
+            40,
+            20
+        );
+
+        assertEquals(IntStream.range(40, 50).boxed().toList(), page.resources());
+        assertEquals(50, page.totalResults());
+    }
+
+    @Test
+    void testKeysetChunkedContinuesAfterLastKey() {
+        List<String> keys = IntStream.range(0, 25).mapToObj(i -> String.format("key-%03d", i)).toList();
+        List<String> afterKeys = new ArrayList<>();
+
+        List<String> result = PagedStreams.keysetChunked((afterKey, max) -> {
+            afterKeys.add(afterKey);
+            return keys.stream().filter(key -> afterKey == null || key.compareTo(afterKey) > 0).limit(max).toList();
+        }, Function.identity(), "key-004", 10).toList();
+
+        assertEquals(keys.subList(5, 25), result);
+        assertEquals(List.of("key-004", "key-014", "key-024"), afterKeys);
+    }
+
+    @Test
+    void testCursorPageReturnsNextKeyWhenMoreResultsExist() {
+        List<String> keys = IntStream.range(0, 5).mapToObj(i -> "key-" + i).toList();
+
+        CursorPage<String> page = PagedStreams.cursorPage(keys.stream(), Function.identity(), null, 2);
+        assertEquals(List.of("key-0", "key-1"), page.resources());
+        assertEquals("key-1", page.nextKey());
+
+        CursorPage<String> lastPage = PagedStreams.cursorPage(keys.stream().skip(4), Function.identity(), "key-3", 2);
+        assertEquals(List.of("key-4"), lastPage.resources());
+        assertNull(lastPage.nextKey());
+    }
+}
@@ -3,6 +3,9 @@ package fi.metatavu.keycloak.scim.server.test.tests.unit;
 import fi.metatavu.keycloak.scim.server.filter.*;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.Collections;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -107,9 +110,108 @@ public class ScimFilterParserTest {
         assertEquals("@example.com", filter.value());
     }
 
+    @Test
+    public void testAndBindsTighterThanOr() {
+        ScimFilter result = parser.parse("title pr or userName eq \"a\" and active eq true");
+
+        LogicalFilter or = assertInstanceOf(LogicalFilter.class, result);
+        assertEquals(ScimFilter.Operator.OR, or.operator());
+        assertInstanceOf(PresenceFilter.class, or.left());
+
+        LogicalFilter and = assertInstanceOf(LogicalFilter.class, or.right());
+        assertEquals(ScimFilter.Operator.AND, and.operator());
+    }
+
+    @Test
+    public void testGrouping() {
+        ScimFilter result = parser.parse("(title pr or userName eq \"a\") and active eq true");
+
+        LogicalFilter and = assertInstanceOf(LogicalFilter.class, result);
+        assertEquals(ScimFilter.Operator.AND, and.operator());
+
+        LogicalFilter or = assertInstanceOf(LogicalFilter.class, and.left());
+        assertEquals(ScimFilter.Operator.OR, or.operator());
+    }
+
+    @Test
+    public void testNotFilter() {
+        ScimFilter result = parser.parse("not (userName eq \"a\")");
+
+        NotFilter not = assertInstanceOf(NotFilter.class, result);
+        ComparisonFilter filter = assertInstanceOf(ComparisonFilter.class, not.filter());
+        assertEquals("userName", filter.attribute());
+    }
+
+    @Test
+    public void testComparisonOperators() {
+        assertEquals(ScimFilter.Operator.NE, ((ComparisonFilter) parser.parse("userName ne \"a\"")).operator());
+        assertEquals(ScimFilter.Operator.GT, ((ComparisonFilter) parser.parse("userName gt \"a\"")).operator());
+        assertEquals(ScimFilter.Operator.GE, ((ComparisonFilter) parser.parse("userName ge \"a\"")).operator());
+        assertEquals(ScimFilter.Operator.LT, ((ComparisonFilter) parser.parse("userName lt \"a\"")).operator());
+        assertEquals(ScimFilter.Operator.LE, ((ComparisonFilter) parser.parse("userName le \"a\"")).operator());
+    }
+
+    @Test
+    public void testValuePath() {
+        ScimFilter result = parser.parse("emails[type eq \"work\" and value co \"@example.com\"]");
+
+        LogicalFilter and = assertInstanceOf(LogicalFilter.class, result);
+        assertEquals("emails.type", ((ComparisonFilter) and.left()).attribute());
+        assertEquals("emails.value", ((ComparisonFilter) and.right()).attribute());
+    }
+
+    @Test
+    public void testValues() {
+        assertNull(((ComparisonFilter) parser.parse("title eq null")).value());
+        assertEquals("true", ((ComparisonFilter) parser.parse("active eq TRUE")).value());
+        assertEquals("-1.5e3", ((ComparisonFilter) parser.parse("count gt -1.5e3")).value());
+        assertEquals("a \"b\" \\ c\u00e4", ((ComparisonFilter) parser.parse("userName eq \"a \\\"b\\\" \\\\ c\\u00e4\"")).value());
+        assertEquals("a and b", ((ComparisonFilter) parser.parse("userName eq \"a and b\"")).value());
+    }
+
+    @Test
+    public void testSchemaPrefix() {
+        ComparisonFilter filter = (ComparisonFilter) parser.parse("urn:ietf:params:scim:schemas:core:2.0:User:userName eq \"a\"");
+        assertEquals("userName", filter.attribute());
+    }
+
+    @Test
+    public void testTermLimit() {
+        ScimFilterParser limited = new ScimFilterParser(3, 10);
+
+        assertInstanceOf(LogicalFilter.class, limited.parse("a pr and b pr and c pr"));
+        assertThrows(UnsupportedFilter.class, () -> limited.parse("a pr and b pr and c pr and d pr"));
+    }
+
+    @Test
+    public void testDepthLimit() {
+        ScimFilterParser limited = new ScimFilterParser(10, 2);
+
+        assertInstanceOf(PresenceFilter.class, limited.parse("((a pr))"));
+        assertThrows(UnsupportedFilter.class, () -> limited.parse("(((a pr)))"));
+        assertInstanceOf(NotFilter.class, limited.parse("emails[not (a pr)]"));
+        assertThrows(UnsupportedFilter.class, () -> limited.parse("emails[not ((a pr))]"));
+    }
+
+    @Test
+    public void testLongFilterIsRejectedQuickly() {
+        String filter = String.join(" and ", Collections.nCopies(500, "userName eq \"a\"")) + " and";
+
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+            assertThrows(UnsupportedFilter.class, () -> parser.parse(filter));
+            assertThrows(UnsupportedFilter.class, () -> new ScimFilterParser(1000, 10).parse(filter));
+        });
+    }
+
     @Test
     public void testInvalidFilterThrows() {
         assertThrows(UnsupportedFilter.class, () -> parser.parse("userName foo \"x\""));
         assertThrows(UnsupportedFilter.class, () -> parser.parse("something = wrong"));
+        assertThrows(UnsupportedFilter.class, () -> parser.parse("userName eq bob"));
+        assertThrows(UnsupportedFilter.class, () -> parser.parse("(userName pr"));
+        assertThrows(UnsupportedFilter.class, () -> parser.parse("userName pr)"));
+        assertThrows(UnsupportedFilter.class, () -> parser.parse("emails[value pr"));
+        assertThrows(UnsupportedFilter.class, () -> parser.parse("emails[type[value pr]]"));
+        assertThrows(UnsupportedFilter.class, () -> parser.parse("userName eq \"unterminated"));
     }
 }
\ No newline at end of file
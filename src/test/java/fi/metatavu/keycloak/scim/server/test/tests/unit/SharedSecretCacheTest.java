@@ -0,0 +1,34 @@
+package fi.metatavu.keycloak.scim.server.test.tests.unit;
+
+import fi.metatavu.keycloak.scim.server.authentication.SharedSecretCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SharedSecretCacheTest {
+
+    private static final String SHARED_SECRET = "$argon2id$v=19$m=65536,t=2,p=1$c29tZXNhbHQ$c29tZWhhc2g";
+    private static final String OTHER_SHARED_SECRET = "$argon2id$v=19$m=65536,t=2,p=1$b3RoZXJzYWx0$c29tZWhhc2g";
+
+    @Test
+    void testVerifiedSecret() {
+        SharedSecretCache.putVerified(SHARED_SECRET, "presented-secret");
+
+        assertTrue(SharedSecretCache.isVerified(SHARED_SECRET, "presented-secret"));
+        assertFalse(SharedSecretCache.isVerified(SHARED_SECRET, "other-secret"));
+    }
+
+    @Test
+    void testChangedSharedSecretInvalidatesVerifiedSecret() {
+        SharedSecretCache.putVerified(SHARED_SECRET, "changed-secret");
+
+        assertFalse(SharedSecretCache.isVerified(OTHER_SHARED_SECRET, "changed-secret"));
+    }
+
+    @Test
+    void testCredentialIsParsedOnce() {
+        assertSame(SharedSecretCache.getCredential(SHARED_SECRET), SharedSecretCache.getCredential(SHARED_SECRET));
+    }
+}
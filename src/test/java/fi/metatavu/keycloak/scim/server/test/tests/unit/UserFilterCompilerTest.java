@@ -0,0 +1,155 @@
+package fi.metatavu.keycloak.scim.server.test.tests.unit;
+
+import fi.metatavu.keycloak.scim.server.filter.ScimFilter;
+import fi.metatavu.keycloak.scim.server.filter.ScimFilterParser;
+import fi.metatavu.keycloak.scim.server.metadata.BooleanUserAttribute;
+import fi.metatavu.keycloak.scim.server.metadata.StringUserAttribute;
+import fi.metatavu.keycloak.scim.server.metadata.UserAttribute;
+import fi.metatavu.keycloak.scim.server.metadata.UserAttributes;
+import fi.metatavu.keycloak.scim.server.model.SchemaAttribute;
+import fi.metatavu.keycloak.scim.server.users.UserFilterCompiler;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.UserModel;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserFilterCompilerTest {
+
+    private final ScimFilterParser parser = new ScimFilterParser();
+    private final UserFilterCompiler compiler = new UserFilterCompiler();
+    private final UserAttributes userAttributes = createUserAttributes("title");
+    private final Map<String, Map<String, Object>> userValues = new HashMap<>();
+
+    @Test
+    void testNeMatchesAbsentValue() {
+        Predicate<UserModel> predicate = compile("title ne \"Manager\"");
+
+        assertTrue(predicate.test(createUser(Map.of())));
+        assertTrue(predicate.test(createUser(Map.of("title", "Engineer"))));
+        assertFalse(predicate.test(createUser(Map.of("title", "manager"))));
+    }
+
+    @Test
+    void testEqDoesNotMatchAbsentValue() {
+        Predicate<UserModel> predicate = compile("title eq \"Manager\"");
+
+        assertFalse(predicate.test(createUser(Map.of())));
+        assertTrue(predicate.test(createUser(Map.of("title", "MANAGER"))));
+    }
+
+    @Test
+    void testComparisonWithNull() {
+        Predicate<UserModel> eqNull = compile("title eq null");
+        Predicate<UserModel> neNull = compile("title ne null");
+
+        assertTrue(eqNull.test(createUser(Map.of())));
+        assertFalse(eqNull.test(createUser(Map.of("title", "Manager"))));
+        assertFalse(neNull.test(createUser(Map.of())));
+        assertTrue(neNull.test(createUser(Map.of("title", "Manager"))));
+    }
+
+    @Test
+    void testBooleanComparison() {
+        UserModel active = createUser(Map.of("active", true));
+        UserModel inactive = createUser(Map.of("active", false));
+
+        assertTrue(compile("active eq true").test(active));
+        assertFalse(compile("active eq true").test(inactive));
+        assertTrue(compile("active eq \"TRUE\"").test(active));
+        assertTrue(compile("active ne true").test(inactive));
+        assertFalse(compile("active ne false").test(inactive));
+        assertTrue(compile("active sw \"f\"").test(inactive));
+        assertFalse(compile("active eq \"yes\"").test(active));
+    }
+
+    @Test
+    void testCaseFolding() {
+        UserModel user = createUser(Map.of("userName", "Alice.Smith@Example.COM"));
+
+        assertTrue(compile("userName co \"SMITH@example\"").test(user));
+        assertTrue(compile("userName sw \"alice.\"").test(user));
+        assertTrue(compile("userName ew \"example.com\"").test(user));
+        assertFalse(compile("userName ew \"alice\"").test(user));
+        assertFalse(compile("userName sw \"Alice.Smith@Example.COM.\"").test(user));
+        assertFalse(compile("userName co \"bob\"").test(user));
+    }
+
+    @Test
+    void testCacheIsSeparatedBySchemaVersion() {
+        UserAttributes otherAttributes = createUserAttributes("jobTitle");
+        UserModel user = createUser(Map.of("title", "Manager", "jobTitle", "Engineer"));
+        ScimFilter filter = parser.parse("title eq \"Manager\"");
+
+        Predicate<UserModel> predicate = compiler.compile(filter, userAttributes);
+        Predicate<UserModel> otherPredicate = compiler.compile(filter, otherAttributes);
+
+        assertSame(predicate, compiler.compile(parser.parse("title eq \"Manager\""), userAttributes));
+        assertNotSame(predicate, otherPredicate);
+        assertTrue(predicate.test(user));
+        assertFalse(otherPredicate.test(user));
+    }
+
+    /**
+     * Compiles a filter with the default attributes
+     *
+     * @param filter filter
+     * @return predicate
+     */
+    private Predicate<UserModel> compile(String filter) {
+        return compiler.compile(parser.parse(filter), userAttributes);
+    }
+
+    /**
+     * Creates user attributes where the SCIM title attribute is read from given user profile attribute
+     *
+     * @param titleSource name of the value the title is read from
+     * @return user attributes
+     */
+    private UserAttributes createUserAttributes(String titleSource) {
+        List<UserAttribute<?>> attributes = List.of(
+            new StringUserAttribute(UserAttribute.Source.USER_MODEL, "username", "userName", "User name", SchemaAttribute.TypeEnum.STRING, SchemaAttribute.MutabilityEnum.READWRITE, SchemaAttribute.UniquenessEnum.SERVER, user -> (String) readValue(user, "userName"), (user, value) -> {}),
+            new BooleanUserAttribute(UserAttribute.Source.USER_MODEL, "enabled", "active", "Active", SchemaAttribute.TypeEnum.BOOLEAN, SchemaAttribute.MutabilityEnum.READWRITE, SchemaAttribute.UniquenessEnum.NONE, user -> (Boolean) readValue(user, "active"), (user, value) -> {}),
+            new StringUserAttribute(UserAttribute.Source.USER_PROFILE, titleSource, "title", "Title", SchemaAttribute.TypeEnum.STRING, SchemaAttribute.MutabilityEnum.READWRITE, SchemaAttribute.UniquenessEnum.NONE, user -> (String) readValue(user, titleSource), (user, value) -> {})
+        );
+
+        return new UserAttributes(attributes);
+    }
+
+    /**
+     * Creates a user that only supports reading the test values
+     *
+     * @param values values by name
+     * @return user
+     */
+    private UserModel createUser(Map<String, Object> values) {
+        String id = UUID.randomUUID().toString();
+        userValues.put(id, values);
+
+        return (UserModel) Proxy.newProxyInstance(UserModel.class.getClassLoader(), new Class<?>[] { UserModel.class }, (proxy, method, args) -> {
+            if (method.getName().equals("getId")) {
+                return id;
+            }
+
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    /**
+     * Reads a test value of a user
+     *
+     * @param user user
+     * @param name value name
+     * @return value or null
+     */
+    private Object readValue(UserModel user, String name) {
+        return userValues.get(user.getId()).get(name);
+    }
+
+}
@@ -0,0 +1,49 @@
+package fi.metatavu.keycloak.scim.server.test.tests.unit;
+
+import fi.metatavu.keycloak.scim.server.authentication.VerifiedTokenCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VerifiedTokenCacheTest {
+
+    private static final String ISSUER = "https://issuer.example.com";
+    private static final String AUDIENCE = "audience";
+    private static final String JWKS_URL = "https://issuer.example.com/keys";
+
+    @Test
+    void testVerifiedToken() {
+        String key = VerifiedTokenCache.getKey(ISSUER, AUDIENCE, JWKS_URL, "verified-token");
+        VerifiedTokenCache.put(key, System.currentTimeMillis() + 60000, 0);
+
+        assertTrue(VerifiedTokenCache.isVerified(key, 0));
+    }
+
+    @Test
+    void testKeySetRotationEvictsToken() {
+        String key = VerifiedTokenCache.getKey(ISSUER, AUDIENCE, JWKS_URL, "rotated-token");
+        VerifiedTokenCache.put(key, System.currentTimeMillis() + 60000, 0);
+
+        assertFalse(VerifiedTokenCache.isVerified(key, 1));
+        assertFalse(VerifiedTokenCache.isVerified(key, 0));
+    }
+
+    @Test
+    void testExpiredTokenIsNotCached() {
+        String key = VerifiedTokenCache.getKey(ISSUER, AUDIENCE, JWKS_URL, "expired-token");
+        VerifiedTokenCache.put(key, System.currentTimeMillis() - 1, 0);
+
+        assertFalse(VerifiedTokenCache.isVerified(key, 0));
+    }
+
+    @Test
+    void testKeyIsScopedToVerifier() {
+        String key = VerifiedTokenCache.getKey(ISSUER, AUDIENCE, JWKS_URL, "token");
+
+        assertNotEquals(key, VerifiedTokenCache.getKey(ISSUER, "other-audience", JWKS_URL, "token"));
+        assertNotEquals(key, VerifiedTokenCache.getKey("https://other.example.com", AUDIENCE, JWKS_URL, "token"));
+        assertNotEquals(key, VerifiedTokenCache.getKey(ISSUER, AUDIENCE, "https://other.example.com/keys", "token"));
+    }
+}